@@ -0,0 +1,456 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.core;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import esg.search.query.api.QueryParameters;
+
+/**
+ * Memory-efficient implementation of the {@link Record} interface.
+ * 
+ * All the field values of a record are stored in a single flat array, 
+ * with a parallel array holding the identifier of the field name of each value: 
+ * field names are interned once per JVM and shared by all records.
+ * Compared to {@link RecordImpl}, this avoids one map entry, one list and one list backing array for each field.
+ * 
+ * Field lookups by {@link #getFieldValue(String)} and misses by {@link #getFieldValues(String)} do not allocate any object.
+ * The lists and maps returned by this class are unmodifiable.
+ */
+public class CompactRecordImpl implements Record, Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final static String[] EMPTY_VALUES = new String[0];
+    private final static int[] EMPTY_NAMES = new int[0];
+    
+    /**
+     * The record unique identifier.
+     */
+    private String id;
+    
+    /**
+     * The identifiers of the field names, one for each value.
+     */
+    private transient int[] names = EMPTY_NAMES;
+    
+    /**
+     * The field values, in insertion order.
+     */
+    private transient String[] values = EMPTY_VALUES;
+    
+    /**
+     * The number of values of this record.
+     */
+    private transient int size = 0;
+    
+    /**
+     * Optional block of fields shared with other records,
+     * which apply to this record unless overridden by a field of the same name.
+     */
+    private SharedFields parentFields = null;
+    
+    /**
+     * The record version, defaults to 0.
+     */
+    private long version = 0;
+    
+    /**
+     * Optional schema the record must conform to.
+     */
+    private URI schema = null;
+    
+    /**
+     * Constructor for yet unknown record identifier.
+     */
+    public CompactRecordImpl() {}
+    
+    /**
+     * Constructor for known unique record identifier.
+     * @param id
+     */
+    public CompactRecordImpl(String id) {
+        this.id = id;
+    }
+    
+    @Override
+    public String getId() {
+        return id;
+    }
+    
+    @Override
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    @Override
+    public String getMasterId() {
+        return this.getFieldValue(QueryParameters.FIELD_MASTER_ID);
+    }
+
+    @Override
+    public void setMasterId(String master_id) {
+       this.setField(QueryParameters.FIELD_MASTER_ID, master_id);
+    }
+    
+    @Override
+    public String getInstanceId() {
+        return this.getFieldValue(QueryParameters.FIELD_INSTANCE_ID);
+    }
+
+    @Override
+    public void setInstanceId(String instance_id) {
+       this.setField(QueryParameters.FIELD_INSTANCE_ID, instance_id);
+    }
+    
+    @Override
+    public String getType() {
+        return this.getFieldValue(QueryParameters.FIELD_TYPE);
+    }
+    
+    @Override
+    public void setType(String type) {
+        this.addField(QueryParameters.FIELD_TYPE, type);
+    }
+    
+    @Override
+    public boolean isReplica() {
+        return Boolean.valueOf(this.getFieldValue(QueryParameters.FIELD_REPLICA));
+    }
+
+    @Override
+    public void setReplica(boolean replica) {
+        this.setField(QueryParameters.FIELD_REPLICA, Boolean.toString(replica));
+    }
+    
+    @Override
+    public void setLatest(boolean latest) {
+        this.setField(QueryParameters.FIELD_LATEST, Boolean.toString(latest));
+    }
+    
+    @Override
+    public boolean isLatest() {
+        return Boolean.valueOf(this.getFieldValue(QueryParameters.FIELD_LATEST));
+    }
+    
+    @Override
+    public long getVersion() {
+        return version;
+    }
+    
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
+    @Override
+    public URI getSchema() {
+        return this.schema;
+    }
+
+    @Override
+    public void setSchema(URI uri) {
+        this.schema = uri;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * Adding values to a shared field first copies the shared values into this record.
+     */
+    @Override
+    public void setParentFields(final SharedFields parentFields) {
+        this.parentFields = parentFields;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * Note that this implementation does not add pairs where the key or the value is null or blank.
+     */
+    @Override
+    public void addField(final String name, final String value) {
+        if (hasText(name) && hasText(value)) {
+            this.append(this.ownName(name), value);
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * Note that the field name must be non null.
+     */
+    @Override
+    public void addEmptyField(final String name) {
+        if (hasText(name)) {
+            this.append(this.ownName(name), "");
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * Note that the values are copied into this record.
+     */
+    @Override
+    public void setField(final String name, final List<String> values) {
+        final int nameId = FieldNames.getId(name);
+        this.remove(nameId);
+        for (final String value : values) {
+            this.append(nameId, value);
+        }
+    }
+    
+    @Override
+    public void setField(final String name, final String value) {
+        final int nameId = FieldNames.getId(name);
+        this.remove(nameId);
+        this.append(nameId, value);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The returned map is built on each invocation, ordered on keys.
+     */
+    @Override
+    public Map<String, List<String>> getFields() {
+        
+        final Map<String, List<String>> fields = new TreeMap<String, List<String>>();
+        if (parentFields!=null) fields.putAll(parentFields.getFields());
+        final boolean[] done = new boolean[size];
+        for (int i=0; i<size; i++) {
+            if (!done[i]) {
+                final String[] _values = this.collect(names[i], i, done);
+                fields.put(FieldNames.getName(names[i]), Collections.unmodifiableList(Arrays.asList(_values)));
+            }
+        }
+        return Collections.unmodifiableMap(fields);
+        
+    }
+    
+    @Override
+    public String getFieldValue(final String name) {
+        
+        final int i = this.indexOf(FieldNames.findId(name));
+        if (i>=0) {
+            return values[i];
+        } else if (parentFields!=null) {
+            final List<String> _values = parentFields.get(name);
+            return (_values!=null ? _values.get(0) : null);
+        } else {
+            return null;
+        }
+        
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The returned list is unmodifiable.
+     */
+    @Override
+    public List<String> getFieldValues(final String name) {
+        
+        final int nameId = FieldNames.findId(name);
+        final int i = this.indexOf(nameId);
+        if (i>=0) {
+            return Collections.unmodifiableList(Arrays.asList(this.collect(nameId, i, null)));
+        } else if (parentFields!=null && parentFields.get(name)!=null) {
+            return parentFields.get(name);
+        } else {
+            return Collections.emptyList();
+        }
+        
+    }
+    
+    /**
+     * Method to return the identifier of a field name about to be modified,
+     * copying the shared values of that field into this record first.
+     */
+    private int ownName(final String name) {
+        
+        final int nameId = FieldNames.getId(name);
+        if (parentFields!=null && this.indexOf(nameId)<0) {
+            final List<String> _values = parentFields.get(name);
+            if (_values!=null) {
+                for (final String value : _values) this.append(nameId, value);
+            }
+        }
+        return nameId;
+        
+    }
+    
+    /**
+     * Method to return the index of the first value of a field, or -1 if not found.
+     */
+    private int indexOf(final int nameId) {
+        if (nameId>=0) {
+            for (int i=0; i<size; i++) {
+                if (names[i]==nameId) return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Method to collect all the values of a field, starting from the index of its first value.
+     * @param done : optional flags of the values already collected, updated by this method
+     */
+    private String[] collect(final int nameId, final int first, final boolean[] done) {
+        
+        int count = 0;
+        for (int i=first; i<size; i++) {
+            if (names[i]==nameId) count++;
+        }
+        final String[] _values = new String[count];
+        for (int i=first, j=0; j<count; i++) {
+            if (names[i]==nameId) {
+                _values[j++] = values[i];
+                if (done!=null) done[i] = true;
+            }
+        }
+        return _values;
+        
+    }
+    
+    private void append(final int nameId, final String value) {
+        
+        if (size==values.length) {
+            // grow by 50%, starting from a capacity typical of file records
+            final int capacity = Math.max(size + (size >> 1), 16);
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        names[size] = nameId;
+        values[size] = value;
+        size++;
+        
+    }
+    
+    private void remove(final int nameId) {
+        
+        int j = 0;
+        for (int i=0; i<size; i++) {
+            if (names[i]!=nameId) {
+                names[j] = names[i];
+                values[j] = values[i];
+                j++;
+            }
+        }
+        for (int i=j; i<size; i++) values[i] = null;
+        size = j;
+        
+    }
+    
+    private static boolean hasText(final String s) {
+        return s!=null && s.trim().length()>0;
+    }
+    
+    /**
+     * Method to serialize the values by field name, since field name identifiers are only valid within one JVM.
+     */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int i=0; i<size; i++) {
+            out.writeUTF(FieldNames.getName(names[i]));
+            out.writeObject(values[i]);
+        }
+    }
+    
+    private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        final int _size = in.readInt();
+        names = new int[_size];
+        values = new String[_size];
+        for (int i=0; i<_size; i++) {
+            names[i] = FieldNames.getId(in.readUTF());
+            values[i] = (String)in.readObject();
+        }
+        size = _size;
+    }
+    
+    public String toString() {
+        
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Record ID="+id);
+        final Map<String, List<String>> fields = this.getFields();
+        for (final String key : fields.keySet()) {
+            sb.append(" [field name="+key+" values="+fields.get(key)+"] ");
+        }
+        return sb.toString();
+        
+    }
+    
+    /**
+     * JVM-wide dictionary of field names, shared by all compact records.
+     * The number of distinct field names is bounded by the metadata schemas, so names are never removed.
+     */
+    private static class FieldNames {
+        
+        private final static ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+        
+        private static volatile String[] names = new String[256];
+        
+        private static int count = 0;
+        
+        /**
+         * Method to return the identifier of a field name, registering the name if necessary.
+         */
+        static int getId(final String name) {
+            
+            final Integer id = ids.get(name);
+            if (id!=null) return id;
+            synchronized (FieldNames.class) {
+                final Integer _id = ids.get(name);
+                if (_id!=null) return _id;
+                if (count==names.length) names = Arrays.copyOf(names, count*2);
+                names[count] = name;
+                ids.put(name, count); // published after the name is stored
+                return count++;
+            }
+            
+        }
+        
+        /**
+         * Method to return the identifier of a field name, or -1 if the name was never registered.
+         */
+        static int findId(final String name) {
+            final Integer id = (name!=null ? ids.get(name) : null);
+            return (id!=null ? id : -1);
+        }
+        
+        static String getName(final int id) {
+            return names[id];
+        }
+        
+    }
+
+}
@@ -135,6 +135,13 @@ public interface Record {
      */
     void setField(String name, String value);
 	
+	/**
+	 * Method to share a block of fields with this record, without copying them:
+	 * the shared fields apply to this record unless the record has its own field of the same name.
+	 * @param parentFields : the shared fields, or null to remove them
+	 */
+	void setParentFields(SharedFields parentFields);
+	
 	/**
 	 * Method to return an (unmodifiable) map of multi-valued fields for this record.
 	 * @return
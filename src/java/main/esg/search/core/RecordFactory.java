@@ -0,0 +1,67 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.core;
+
+/**
+ * Factory for new {@link Record} objects, 
+ * configured to create either standard {@link RecordImpl} or memory-efficient {@link CompactRecordImpl} records.
+ */
+public class RecordFactory {
+    
+    private final static RecordFactory instance = new RecordFactory();
+    
+    /**
+     * Flag to create {@link CompactRecordImpl} records.
+     */
+    private volatile boolean compact = false;
+    
+    /**
+     * Method to return the shared factory instance.
+     * @return
+     */
+    public static RecordFactory getInstance() {
+        return instance;
+    }
+    
+    /**
+     * Method to create a new record with yet unknown identifier.
+     * @return
+     */
+    public Record newRecord() {
+        return this.newRecord(null);
+    }
+    
+    /**
+     * Method to create a new record with the given identifier.
+     * @param id
+     * @return
+     */
+    public Record newRecord(final String id) {
+        return (compact ? new CompactRecordImpl(id) : new RecordImpl(id));
+    }
+    
+    public boolean isCompact() {
+        return compact;
+    }
+    
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+}
@@ -20,10 +20,15 @@ package esg.search.core;
 
 import java.io.Serializable;
 import java.net.URI;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeMap;
 
 import esg.search.query.api.QueryParameters;
@@ -47,6 +52,12 @@ public class RecordImpl implements Record, Serializable {
 	 */
 	final Map<String,List<String>> fields = new TreeMap<String, List<String>>();
 	
+	/**
+	 * Optional block of fields shared with other records,
+	 * which apply to this record unless overridden by a field of the same name.
+	 */
+	private SharedFields parentFields = null;
+	
 	/**
 	 * The record version, defaults to 0.
 	 */
@@ -104,18 +115,35 @@ public class RecordImpl implements Record, Serializable {
        this.setField(QueryParameters.FIELD_INSTANCE_ID, instance_id);
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * Adding values to a shared field first copies the shared values into this record.
+     */
+    public void setParentFields(final SharedFields parentFields) {
+        this.parentFields = parentFields;
+    }
+    
     /**
 	 * {@inheritDoc}
+	 * 
+	 * If this record has shared fields, the returned map is a read-only view that merges the shared fields 
+	 * and the record own fields (ordered on keys), without copying either of them.
 	 */
 	public Map<String, List<String>> getFields() {
-		return Collections.unmodifiableMap(fields);
+	    if (parentFields==null) {
+	        return Collections.unmodifiableMap(fields);
+	    } else {
+	        return new MergedFields(fields, parentFields.getFields());
+	    }
 	}
 	
 	/**
      * {@inheritDoc}
      */
 	public String getFieldValue(String name) {
-	    if (fields.containsKey(name)) return fields.get(name).get(0);
+	    final List<String> values = this.getValues(name);
+	    if (values!=null) return values.get(0);
 	    else return null;
 	}
 	
@@ -123,7 +151,31 @@ public class RecordImpl implements Record, Serializable {
      * {@inheritDoc}
      */
     public List<String> getFieldValues(final String name) {
-        return ( fields.get(name) != null ? fields.get(name) : new ArrayList<String>() );
+        final List<String> values = this.getValues(name);
+        return ( values != null ? values : new ArrayList<String>() );
+    }
+    
+    /**
+     * Method to return the own or shared values of a named field, or null if not available.
+     */
+    private List<String> getValues(final String name) {
+        final List<String> values = fields.get(name);
+        if (values==null && parentFields!=null) return parentFields.get(name);
+        else return values;
+    }
+    
+    /**
+     * Method to return the modifiable own values of a named field,
+     * starting from a copy of the shared values if the field is not yet owned by this record.
+     */
+    private List<String> getOwnValues(final String name) {
+        List<String> values = fields.get(name);
+        if (values==null) {
+            values = new ArrayList<String>();
+            if (parentFields!=null && parentFields.get(name)!=null) values.addAll(parentFields.get(name));
+            fields.put(name, values);
+        }
+        return values;
     }
 	
     /**
@@ -148,10 +200,7 @@ public class RecordImpl implements Record, Serializable {
 	public void addField(final String name, final String value) {
 		
 		if (this.hasText(name) && this.hasText(value)) {
-			if (!fields.containsKey(name)) {
-				fields.put(name, new ArrayList<String>());
-			}
-			fields.get(name).add(value);
+			this.getOwnValues(name).add(value);
 		}
 		
 	}
@@ -163,10 +212,7 @@ public class RecordImpl implements Record, Serializable {
 	 */
 	public void addEmptyField(final String name) {
 	    if (this.hasText(name)) {
-            if (!fields.containsKey(name)) {
-                fields.put(name, new ArrayList<String>());
-            }
-            fields.get(name).add("");
+            this.getOwnValues(name).add("");
         }
 	}
 	
@@ -237,12 +283,110 @@ public class RecordImpl implements Record, Serializable {
 		return s!=null && s.trim().length()>0;
 	}
 	
+	/**
+	 * Read-only view of the own fields of a record merged with its shared fields,
+	 * where the own fields override the shared fields of the same name.
+	 * Both maps must be ordered on keys: the entries are iterated by merging the two maps in order.
+	 */
+	private static class MergedFields extends AbstractMap<String, List<String>> {
+	    
+	    private final Map<String, List<String>> own;
+	    private final Map<String, List<String>> shared;
+	    
+	    MergedFields(final Map<String, List<String>> own, final Map<String, List<String>> shared) {
+	        this.own = own;
+	        this.shared = shared;
+	    }
+	    
+	    @Override
+	    public List<String> get(final Object key) {
+	        final List<String> values = own.get(key);
+	        return (values!=null ? values : shared.get(key));
+	    }
+	    
+	    @Override
+	    public boolean containsKey(final Object key) {
+	        return own.containsKey(key) || shared.containsKey(key);
+	    }
+	    
+	    @Override
+	    public Set<Map.Entry<String, List<String>>> entrySet() {
+	        return new AbstractSet<Map.Entry<String, List<String>>>() {
+	            
+	            @Override
+	            public Iterator<Map.Entry<String, List<String>>> iterator() {
+	                return new MergedIterator(own.entrySet().iterator(), shared.entrySet().iterator());
+	            }
+	            
+	            @Override
+	            public int size() {
+	                int size = own.size();
+	                for (final String key : shared.keySet()) {
+	                    if (!own.containsKey(key)) size++;
+	                }
+	                return size;
+	            }
+	            
+	        };
+	    }
+	    
+	}
+	
+	/**
+	 * Iterator over the entries of two maps ordered on keys, that skips the entries of the second map
+	 * with the same key as an entry of the first map.
+	 */
+	private static class MergedIterator implements Iterator<Map.Entry<String, List<String>>> {
+	    
+	    private final Iterator<Map.Entry<String, List<String>>> first;
+	    private final Iterator<Map.Entry<String, List<String>>> second;
+	    
+	    // next entry of each map, or null if exhausted
+	    private Map.Entry<String, List<String>> nextFirst;
+	    private Map.Entry<String, List<String>> nextSecond;
+	    
+	    MergedIterator(final Iterator<Map.Entry<String, List<String>>> first, final Iterator<Map.Entry<String, List<String>>> second) {
+	        this.first = first;
+	        this.second = second;
+	        this.nextFirst = first.hasNext() ? first.next() : null;
+	        this.nextSecond = second.hasNext() ? second.next() : null;
+	    }
+	    
+	    public boolean hasNext() {
+	        return nextFirst!=null || nextSecond!=null;
+	    }
+	    
+	    public Map.Entry<String, List<String>> next() {
+	        
+	        if (!hasNext()) throw new NoSuchElementException();
+	        final int cmp = nextFirst==null ? 1 : (nextSecond==null ? -1 : nextFirst.getKey().compareTo(nextSecond.getKey()));
+	        final Map.Entry<String, List<String>> entry;
+	        if (cmp<=0) {
+	            entry = nextFirst;
+	            nextFirst = first.hasNext() ? first.next() : null;
+	            // overridden shared field
+	            if (cmp==0) nextSecond = second.hasNext() ? second.next() : null;
+	        } else {
+	            entry = nextSecond;
+	            nextSecond = second.hasNext() ? second.next() : null;
+	        }
+	        return new AbstractMap.SimpleImmutableEntry<String, List<String>>(entry);
+	        
+	    }
+	    
+	    public void remove() {
+	        throw new UnsupportedOperationException();
+	    }
+	    
+	}
+	
 	public String toString() {
 		
 		final StringBuilder sb = new StringBuilder();
 		sb.append("Record ID="+id);
-		for (final String key : fields.keySet()) {
-			sb.append(" [field name="+key+" values="+fields.get(key)+"] ");
+		final Map<String, List<String>> _fields = this.getFields();
+		for (final String key : _fields.keySet()) {
+			sb.append(" [field name="+key+" values="+_fields.get(key)+"] ");
 		}
 		return sb.toString();
 		
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable block of multi-valued fields that can be shared by many records,
+ * typically the fields that all the files of a dataset inherit from the top-level dataset.
+ * The block is a snapshot: changes to the originating record after creation are not reflected.
+ * 
+ * @see Record#setParentFields(SharedFields)
+ */
+public final class SharedFields implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * The unmodifiable map of unmodifiable field values, ordered on keys.
+     */
+    private final Map<String, List<String>> fields;
+    
+    /**
+     * Constructor copies the given fields, except for the named excluded fields.
+     * Blank values are not copied, consistently with {@link RecordImpl#addField(String, String)}.
+     * @param fields
+     * @param excluded
+     */
+    public SharedFields(final Map<String, List<String>> fields, final String... excluded) {
+        
+        final List<String> _excluded = Arrays.asList(excluded);
+        final Map<String, List<String>> _fields = new TreeMap<String, List<String>>();
+        for (final Map.Entry<String, List<String>> entry : fields.entrySet()) {
+            if (!_excluded.contains(entry.getKey())) {
+                final List<String> values = new ArrayList<String>(entry.getValue().size());
+                for (final String value : entry.getValue()) {
+                    if (value!=null && value.trim().length()>0) values.add(value);
+                }
+                if (!values.isEmpty()) _fields.put(entry.getKey(), Collections.unmodifiableList(values));
+            }
+        }
+        this.fields = Collections.unmodifiableMap(_fields);
+        
+    }
+    
+    /**
+     * Method to return the (unmodifiable) map of shared fields.
+     * @return
+     */
+    public Map<String, List<String>> getFields() {
+        return fields;
+    }
+    
+    /**
+     * Method to return the (unmodifiable) values of a named field, or null if not available.
+     * @param name
+     * @return
+     */
+    public List<String> get(final String name) {
+        return fields.get(name);
+    }
+
+}
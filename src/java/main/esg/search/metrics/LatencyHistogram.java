@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies, with buckets of exponentially increasing width
+ * (each bucket is 20% wider than the previous one), from 10 microseconds to over one hour.
+ * Percentiles are estimated as the upper bound of the bucket that contains them,
+ * so they are accurate within 20%.
+ * 
+ * @author Luca Cinquini
+ */
+public class LatencyHistogram {
+    
+    /**
+     * Upper bounds of the buckets, in microseconds.
+     */
+    private final static long[] BOUNDS;
+    static {
+        final long max = 3600L*1000*1000;
+        final long[] bounds = new long[200];
+        int n = 0;
+        double bound = 10;
+        while (n==0 || bounds[n-1]<max) {
+            bounds[n++] = (long)bound;
+            bound = Math.max(bound*1.2, bound+1);
+        }
+        BOUNDS = Arrays.copyOf(bounds, n);
+    }
+    
+    /**
+     * Number of observations in each bucket (the last bucket holds the values above the largest bound).
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length+1);
+    
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong sum = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+    
+    /**
+     * Method to record an observation.
+     * @param nanos : the latency in nanoseconds
+     */
+    public void record(final long nanos) {
+        
+        final long micros = Math.max(nanos/1000, 0);
+        int index = Arrays.binarySearch(BOUNDS, micros);
+        if (index<0) index = -index-1;
+        counts.incrementAndGet(index);
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+        long _max = max.get();
+        while (micros>_max && !max.compareAndSet(_max, micros)) _max = max.get();
+        
+    }
+    
+    /**
+     * @return the number of observations
+     */
+    public long getCount() {
+        return count.get();
+    }
+    
+    /**
+     * @return the average latency in milliseconds
+     */
+    public double getMean() {
+        final long n = count.get();
+        return (n==0 ? 0 : sum.get()/1000.0/n);
+    }
+    
+    /**
+     * @return the maximum latency in milliseconds
+     */
+    public double getMax() {
+        return max.get()/1000.0;
+    }
+    
+    /**
+     * Method to estimate a percentile of the latency.
+     * @param percentile : the percentile, between 0 and 100
+     * @return the latency in milliseconds
+     */
+    public double getPercentile(final double percentile) {
+        
+        final long n = count.get();
+        if (n==0) return 0;
+        final long rank = (long)Math.ceil(percentile/100.0*n);
+        long seen = 0;
+        for (int i=0; i<counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen>=Math.max(rank, 1)) {
+                final long bound = (i<BOUNDS.length ? BOUNDS[i] : Long.MAX_VALUE);
+                return Math.min(bound, max.get())/1000.0;
+            }
+        }
+        return getMax();
+        
+    }
+
+}
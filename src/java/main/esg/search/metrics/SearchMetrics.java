@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Registry of the latency histograms of the search requests, 
+ * broken down by processing phase, record type, and distributed versus local search.
+ * 
+ * A single instance exists in each JVM, obtained via {@link #getInstance()}.
+ * 
+ * @author Luca Cinquini
+ */
+@ManagedResource(objectName="esg.search:name=SearchMetrics", description="Latency of the search request phases")
+public class SearchMetrics {
+    
+    /**
+     * The phases of a search request.
+     */
+    public enum Phase {
+        
+        /** Validation of the HTTP parameters */
+        VALIDATION, 
+        /** Construction of the Solr request URL */
+        URL_BUILDING, 
+        /** Execution of the back-end HTTP request (including the copy of the response to the client, when streaming) */
+        BACKEND,
+        /** Parsing of the Solr/XML response */
+        PARSING, 
+        /** Writing of the response to the client */
+        WRITING, 
+        /** Whole request */
+        TOTAL 
+        
+    };
+    
+    /**
+     * Percentiles reported for each histogram.
+     */
+    public final static double[] PERCENTILES = new double[] { 50, 90, 99, 99.9 };
+    
+    private final static SearchMetrics INSTANCE = new SearchMetrics();
+    
+    /**
+     * Histograms indexed by phase, type and distrib.
+     */
+    private final ConcurrentMap<Key, LatencyHistogram> histograms = new ConcurrentHashMap<Key, LatencyHistogram>();
+    
+    private SearchMetrics() {}
+    
+    public static SearchMetrics getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * Method to record the latency of a request phase.
+     * 
+     * @param phase
+     * @param type : the record type (may be null)
+     * @param distrib : true for a distributed search, as requested by {@link esg.search.query.api.SearchInput#isDistrib()}
+     *                  (all phases of a request must use this same definition)
+     * @param nanos : the latency in nanoseconds
+     */
+    public void record(final Phase phase, final String type, final boolean distrib, final long nanos) {
+        
+        final Key key = new Key(phase, type==null ? "" : type, distrib);
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram==null) {
+            final LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(key, newHistogram);
+            if (histogram==null) histogram = newHistogram;
+        }
+        histogram.record(nanos);
+        
+    }
+    
+    /**
+     * Method to return the histograms, sorted by phase, type and distrib.
+     * @return
+     */
+    public Map<Key, LatencyHistogram> getHistograms() {
+        return new TreeMap<Key, LatencyHistogram>(histograms);
+    }
+    
+    @ManagedOperation(description="Discards all recorded latencies")
+    public void reset() {
+        histograms.clear();
+    }
+    
+    @ManagedAttribute(description="Latency percentiles (ms) of each request phase, by type and distrib")
+    public String[] getPercentiles() {
+        
+        final List<String> rows = new ArrayList<String>();
+        for (final Map.Entry<Key, LatencyHistogram> entry : getHistograms().entrySet()) {
+            final LatencyHistogram histogram = entry.getValue();
+            final StringBuilder sb = new StringBuilder(entry.getKey().toString());
+            sb.append(" count=").append(histogram.getCount());
+            sb.append(" mean=").append(String.format("%.3f", histogram.getMean()));
+            for (final double p : PERCENTILES) {
+                sb.append(" p").append(p==Math.rint(p) ? String.valueOf((int)p) : String.valueOf(p));
+                sb.append("=").append(String.format("%.3f", histogram.getPercentile(p)));
+            }
+            sb.append(" max=").append(String.format("%.3f", histogram.getMax()));
+            rows.add(sb.toString());
+        }
+        return rows.toArray(new String[rows.size()]);
+        
+    }
+    
+    /**
+     * Key of a latency histogram.
+     */
+    public static class Key implements Comparable<Key> {
+        
+        private final Phase phase;
+        private final String type;
+        private final boolean distrib;
+        
+        Key(final Phase phase, final String type, final boolean distrib) {
+            this.phase = phase;
+            this.type = type;
+            this.distrib = distrib;
+        }
+        
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public boolean isDistrib() {
+            return distrib;
+        }
+
+        @Override
+        public int compareTo(final Key other) {
+            int c = phase.compareTo(other.phase);
+            if (c==0) c = type.compareTo(other.type);
+            if (c==0) c = Boolean.valueOf(distrib).compareTo(other.distrib);
+            return c;
+        }
+        
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) return false;
+            final Key other = (Key)obj;
+            return phase==other.phase && type.equals(other.type) && distrib==other.distrib;
+        }
+        
+        @Override
+        public int hashCode() {
+            return (phase.hashCode()*31 + type.hashCode())*31 + (distrib ? 1 : 0);
+        }
+        
+        @Override
+        public String toString() {
+            return phase+" type="+type+" distrib="+distrib;
+        }
+        
+    }
+
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import esg.search.core.Record;
+import esg.search.publish.api.RecordConsumer;
+import esg.search.publish.api.RecordProducer;
+
+/**
+ * Implementation of {@link RecordProducer} that buffers all the records notified during a crawling operation,
+ * and sends them to the subscribed consumers with a single bulk notification when closed.
+ * This allows the consumers to process the records of a whole crawl as a single unit of work 
+ * (for example, to remove them from the index with a single commit).
+ * 
+ * An instance of this class is used for a single crawling operation, and must be closed after the crawling is done.
+ */
+public class BatchingRecordProducer extends RecordProducerImpl {
+    
+    /**
+     * The records notified so far.
+     */
+    private final List<Record> records = new ArrayList<Record>();
+    
+    public BatchingRecordProducer(final List<RecordConsumer> consumers) {
+        this.setConsumers(consumers);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The record is only buffered.
+     */
+    @Override
+    public synchronized void notify(final Record record) throws Exception {
+        records.add(record);
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * The records are only buffered.
+     */
+    @Override
+    public synchronized void notify(final Collection<Record> records) throws Exception {
+        this.records.addAll(records);
+    }
+    
+    /**
+     * Method to send all the buffered records to the subscribed consumers, with a single bulk notification.
+     * @throws Exception
+     */
+    public synchronized void close() throws Exception {
+        
+        if (!records.isEmpty()) {
+            final List<Record> _records = new ArrayList<Record>(records);
+            records.clear();
+            super.notify(_records);
+        }
+        
+    }
+    
+    /**
+     * @return the number of records buffered so far
+     */
+    public synchronized int getNumberOfRecords() {
+        return records.size();
+    }
+
+}
@@ -1,5 +1,6 @@
 package esg.search.publish.impl;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -7,7 +8,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import esg.search.core.Record;
-import esg.search.core.RecordImpl;
+import esg.search.core.RecordFactory;
 import esg.search.publish.api.MetadataDeletionService;
 import esg.search.publish.api.RecordConsumer;
 
@@ -29,10 +30,12 @@ public class MetadataDeletionServiceImpl extends RecordProducerImpl implements M
 	@Override
 	public void delete(List<String> ids) throws Exception {
 		
+		// remove all records with a single bulk notification
+		final List<Record> records = new ArrayList<Record>(ids.size());
 		for (final String id : ids) {		
-			final Record record = new RecordImpl(id);
-			this.notify(record);
+			records.add(RecordFactory.getInstance().newRecord(id));
 		}
+		this.notify(records);
 
 	}
 
@@ -39,6 +39,16 @@ public class MetadataRepositoryCrawlerManagerImpl extends RecordProducerImpl imp
 	
 	private Map<MetadataRepositoryType, MetadataRepositoryCrawler> crawlers = new HashMap<MetadataRepositoryType, MetadataRepositoryCrawler>();
 		
+	/**
+	 * Optional pipeline that validates and consumes the crawled records in separate threads.
+	 */
+	private PublishingPipeline pipeline = null;
+	
+	/**
+	 * Flag to send all the records of a crawl to the consumers at once, after the crawl is done.
+	 */
+	private boolean batching = false;
+	
 	private static final Log LOG = LogFactory.getLog(MetadataRepositoryCrawlerManagerImpl.class);
 	
 	
@@ -57,8 +67,54 @@ public class MetadataRepositoryCrawlerManagerImpl extends RecordProducerImpl imp
 		MetadataRepositoryCrawler crawler = crawlers.get(metadataRepositoryType);
 		
 		Assert.notNull(crawler, "Unsupported MetadataRepositoryType:"+metadataRepositoryType);
-		crawler.crawl(new URI(uri), filter, recursive, this, publish, schema);
+		if (batching) {
+			// records are consumed after the crawler is done, even if it failed
+			final BatchingRecordProducer producer = new BatchingRecordProducer(getConsumers());
+			try {
+				crawler.crawl(new URI(uri), filter, recursive, producer, publish, schema);
+			} catch(Exception e) {
+				try {
+					producer.close();
+				} catch(Exception ce) {
+					LOG.warn(ce.getMessage());
+				}
+				throw e;
+			}
+			producer.close();
+			
+		} else if (pipeline==null) {
+			crawler.crawl(new URI(uri), filter, recursive, this, publish, schema);
+			
+		} else {
+			// records are consumed while the crawler keeps going, errors are reported at the end
+			final PipelinedRecordProducer producer = pipeline.open(getConsumers());
+			try {
+				crawler.crawl(new URI(uri), filter, recursive, producer, publish, schema);
+			} catch(Exception e) {
+				// drain the pipeline, but report the crawling error
+				try {
+					producer.close();
+				} catch(Exception ce) {
+					LOG.warn(ce.getMessage());
+				}
+				throw e;
+			}
+			producer.close();
+		}
 		
 	}
+	
+	public void setPipeline(final PublishingPipeline pipeline) {
+		this.pipeline = pipeline;
+	}
+	
+	/**
+	 * Method to send all the records of a crawl to the consumers with a single bulk notification,
+	 * after the crawl is done (this option takes precedence over the pipeline).
+	 * @param batching
+	 */
+	public void setBatching(final boolean batching) {
+		this.batching = batching;
+	}
 
 }
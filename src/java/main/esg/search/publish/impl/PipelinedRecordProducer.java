@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import esg.search.core.Record;
+import esg.search.publish.api.PublishingException;
+import esg.search.publish.api.RecordConsumer;
+import esg.search.publish.api.RecordProducer;
+import esg.search.publish.validation.RecordValidator;
+
+/**
+ * Implementation of {@link RecordProducer} that decouples the crawling of metadata repositories
+ * from the consumption of the produced records. 
+ * 
+ * The records notified by the crawler are processed by a pipeline of stages, each with its own pool of worker threads:
+ * <ol>
+ *  <li>validation: the records are checked by a {@link RecordValidator}, invalid records are not consumed</li>
+ *  <li>indexing: the records are sent to all the subscribed consumers</li>
+ * </ol>
+ * The stages are connected by bounded queues: when a stage falls behind, the previous stage 
+ * (ultimately, the crawler) blocks until there is room in the queue.
+ * 
+ * An instance of this class is used for a single crawling operation, and must be closed after the crawling is done:
+ * the {@link #close()} method waits for all records to be consumed, and reports any consumption errors.
+ * If all the workers of a stage have terminated abnormally, the records queued for that stage are reported as errors, 
+ * instead of blocking the crawler forever.
+ * 
+ * With more than one indexing worker, the batches of records are sent to the consumers concurrently and in no particular order:
+ * the consumers must then be thread safe, and must not depend on the order in which the records were crawled.
+ * 
+ * @author Luca Cinquini
+ */
+public class PipelinedRecordProducer extends RecordProducerImpl {
+    
+    /**
+     * Marker that tells a worker thread to exit.
+     */
+    private final static Batch END = new Batch(null, false);
+    
+    /**
+     * Interval between checks that a stage is still alive, while waiting for room in its queue (milliseconds).
+     */
+    private final static long LIVENESS_CHECK_INTERVAL = 500;
+    
+    /**
+     * The pipeline stages, in order of execution.
+     */
+    private final List<Stage> stages = new ArrayList<Stage>();
+    
+    /**
+     * Errors reported by the stages.
+     */
+    private final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+    
+    private static final Log LOG = LogFactory.getLog(PipelinedRecordProducer.class);
+    
+    /**
+     * Constructor starts the worker threads.
+     * 
+     * @param consumers : the record consumers
+     * @param validator : optional validator of the records (the validation stage is skipped if null)
+     * @param queueSize : maximum number of record batches waiting in front of each stage
+     * @param validationWorkers : number of threads that validate the records (the validation stage is skipped if 0)
+     * @param indexingWorkers : number of threads that send the records to the consumers 
+     *        (with more than one, the consumers receive the records concurrently and out of order)
+     * @param validationStatistics : statistics updated by the validation stage
+     * @param indexingStatistics : statistics updated by the indexing stage
+     */
+    public PipelinedRecordProducer(final List<RecordConsumer> consumers, 
+                                   final RecordValidator validator, final int queueSize,
+                                   final int validationWorkers, final int indexingWorkers,
+                                   final StageStatistics validationStatistics, final StageStatistics indexingStatistics) {
+        
+        this.setConsumers(consumers);
+        
+        if (validator!=null && validationWorkers>0) {
+            stages.add(new Stage(validationStatistics, queueSize, validationWorkers) {
+                void process(final Batch batch) throws Exception {
+                    validate(validator, batch.records);
+                }
+            });
+        }
+        
+        stages.add(new Stage(indexingStatistics, queueSize, Math.max(indexingWorkers, 1)) {
+            void process(final Batch batch) throws Exception {
+                if (batch.single) {
+                    PipelinedRecordProducer.super.notify(batch.records.get(0));
+                } else {
+                    PipelinedRecordProducer.super.notify(batch.records);
+                }
+            }
+        });
+        
+        for (int i=0; i<stages.size(); i++) {
+            stages.get(i).start(i+1<stages.size() ? stages.get(i+1) : null);
+        }
+        
+    }
+    
+    /**
+     * {@inheritDoc}
+     * The record is queued for consumption, blocking if the pipeline is full.
+     */
+    @Override
+    public void notify(final Record record) throws Exception {
+        final List<Record> records = new ArrayList<Record>(1);
+        records.add(record);
+        stages.get(0).put(new Batch(records, true));
+    }
+    
+    /**
+     * {@inheritDoc}
+     * The records are queued for consumption as a single batch, blocking if the pipeline is full.
+     */
+    @Override
+    public void notify(final Collection<Record> records) throws Exception {
+        stages.get(0).put(new Batch(new ArrayList<Record>(records), false));
+    }
+    
+    /**
+     * Method to wait until all queued records have been consumed, and stop the worker threads.
+     * 
+     * @throws PublishingException : if any batch of records could not be validated or consumed
+     */
+    public void close() throws Exception {
+        
+        // stop the stages in order, so that each one drains its queue into the next one
+        for (final Stage stage : stages) stage.stop();
+        
+        if (!errors.isEmpty()) {
+            throw new PublishingException("Error consuming "+errors.size()+" batch(es) of records, first error: "
+                                          +errors.get(0).getMessage());
+        }
+        
+    }
+    
+    /**
+     * Method to validate a batch of records.
+     * @throws PublishingException : if any record is invalid
+     */
+    private static void validate(final RecordValidator validator, final List<Record> records) throws Exception {
+        
+        final List<String> errors = new ArrayList<String>();
+        for (final Record record : records) {
+            validator.validate(record, errors);
+        }
+        if (!errors.isEmpty()) {
+            final StringBuilder sb = new StringBuilder();
+            for (String error : errors) sb.append("Record validation error: "+error+"\n");
+            throw new PublishingException(sb.toString());
+        }
+        
+    }
+    
+    /**
+     * A batch of records notified at once.
+     */
+    private static class Batch {
+        
+        final List<Record> records;
+        
+        // true if notified as a single record
+        final boolean single;
+        
+        Batch(final List<Record> records, final boolean single) {
+            this.records = records;
+            this.single = single;
+        }
+        
+    }
+    
+    /**
+     * A pipeline stage: a queue of record batches processed by a pool of worker threads.
+     */
+    private abstract class Stage {
+        
+        private final StageStatistics statistics;
+        private final BlockingQueue<Batch> queue;
+        private final int numberOfWorkers;
+        private final List<Thread> workers = new ArrayList<Thread>();
+        
+        Stage(final StageStatistics statistics, final int queueSize, final int numberOfWorkers) {
+            this.statistics = statistics;
+            this.queue = new ArrayBlockingQueue<Batch>(Math.max(queueSize, 1));
+            this.numberOfWorkers = numberOfWorkers;
+        }
+        
+        /**
+         * Processing logic of this stage.
+         */
+        abstract void process(Batch batch) throws Exception;
+        
+        /**
+         * Method to start the workers.
+         * @param next : the following stage, or null if this is the last stage
+         */
+        void start(final Stage next) {
+            
+            for (int i=0; i<numberOfWorkers; i++) {
+                final Thread worker = new Thread(new Runnable() {
+                    public void run() {
+                        work(next);
+                    }
+                }, "esg-publish-"+statistics.getName()+"-"+(i+1));
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+            
+        }
+        
+        /**
+         * Method to queue a batch, blocking while the queue is full.
+         * @throws PublishingException : if all the workers have terminated, so that the batch would never be processed
+         */
+        void put(final Batch batch) throws InterruptedException, PublishingException {
+            
+            statistics.queued(1);
+            while (!queue.offer(batch, LIVENESS_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (!isAlive()) {
+                    statistics.queued(-1);
+                    throw new PublishingException("All workers of publishing stage="+statistics.getName()+" have terminated");
+                }
+            }
+            
+        }
+        
+        /**
+         * Method to wait for all queued batches to be processed, and stop the workers.
+         * The batches left in the queue by workers that terminated abnormally are reported as errors.
+         */
+        void stop() throws InterruptedException {
+            
+            for (int i=0; i<numberOfWorkers; i++) {
+                while (!queue.offer(END, LIVENESS_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    if (!isAlive()) break;
+                }
+            }
+            for (final Thread worker : workers) worker.join();
+            
+            final List<Batch> batches = new ArrayList<Batch>();
+            queue.drainTo(batches);
+            batches.removeAll(Collections.singleton(END));
+            if (!batches.isEmpty()) {
+                statistics.queued(-batches.size());
+                errors.add(new PublishingException(batches.size()+" batch(es) of records not processed by publishing stage="+statistics.getName()));
+            }
+            
+        }
+        
+        private boolean isAlive() {
+            for (final Thread worker : workers) {
+                if (worker.isAlive()) return true;
+            }
+            return false;
+        }
+        
+        private void work(final Stage next) {
+            
+            try {
+                while (true) {
+                    
+                    final Batch batch = queue.take();
+                    if (batch==END) return;
+                    statistics.queued(-1);
+                    
+                    final long startTime = System.nanoTime();
+                    statistics.active(1);
+                    boolean success = false;
+                    try {
+                        this.process(batch);
+                        success = true;
+                    } catch(Exception e) {
+                        errors.add(e);
+                        LOG.warn("Error in publishing stage="+statistics.getName()+": "+e.getMessage());
+                    } catch(Error e) {
+                        // the worker terminates, its batch is lost
+                        errors.add(new PublishingException("Worker of publishing stage="+statistics.getName()+" terminated: "+e));
+                        throw e;
+                    } finally {
+                        statistics.active(-1);
+                        statistics.processed(batch.records.size(), System.nanoTime()-startTime, success);
+                    }
+                    
+                    // pass the batch to the following stage
+                    if (success && next!=null) {
+                        try {
+                            next.put(batch);
+                        } catch(PublishingException e) {
+                            errors.add(e);
+                        }
+                    }
+                    
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            
+        }
+        
+    }
+
+}
@@ -21,5 +21,11 @@ public class PublisherCrawlerManagerImpl extends MetadataRepositoryCrawlerManage
 		super(_crawlers);
 		this.subscribe(indexer);
 	}
+	
+	@Override
+	@Autowired(required=false)
+	public void setPipeline(final PublishingPipeline pipeline) {
+		super.setPipeline(pipeline);
+	}
 
 }
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.impl;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import esg.search.publish.api.RecordConsumer;
+import esg.search.publish.validation.RecordValidator;
+
+/**
+ * Factory of {@link PipelinedRecordProducer} instances, 
+ * which holds the pipeline configuration and the statistics accumulated over all crawling operations.
+ * 
+ * @author Luca Cinquini
+ */
+@Component("publishingPipeline")
+@ManagedResource(objectName="esg.search:name=PublishingPipeline", description="Pipelined validation and indexing of crawled records")
+public class PublishingPipeline {
+    
+    private final int queueSize;
+    private final int validationWorkers;
+    private final int indexingWorkers;
+    private final RecordValidator validator;
+    
+    private final StageStatistics validationStatistics = new StageStatistics("validation");
+    private final StageStatistics indexingStatistics = new StageStatistics("indexing");
+    
+    @Autowired
+    public PublishingPipeline(final @Value("${esg.search.publish.pipeline.queue:10}") int queueSize,
+                              final @Value("${esg.search.publish.pipeline.validators:2}") int validationWorkers,
+                              final @Value("${esg.search.publish.pipeline.indexers:1}") int indexingWorkers,
+                              final @Qualifier("recordValidatorManager") RecordValidator validator) {
+        this.queueSize = queueSize;
+        this.validationWorkers = validationWorkers;
+        this.indexingWorkers = indexingWorkers;
+        this.validator = validator;
+    }
+    
+    /**
+     * Method to start a new pipeline for a single crawling operation.
+     * The returned producer must be closed when the crawling is done.
+     * 
+     * @param consumers : the consumers of the crawled records
+     */
+    public PipelinedRecordProducer open(final List<RecordConsumer> consumers) {
+        return new PipelinedRecordProducer(consumers, validator, queueSize, validationWorkers, indexingWorkers, 
+                                           validationStatistics, indexingStatistics);
+    }
+    
+    @ManagedAttribute(description="Statistics of the publishing pipeline stages")
+    public String[] getStageStatistics() {
+        return new String[] { validationStatistics.toString(), indexingStatistics.toString() };
+    }
+    
+    public StageStatistics getValidationStatistics() {
+        return validationStatistics;
+    }
+
+    public StageStatistics getIndexingStatistics() {
+        return indexingStatistics;
+    }
+
+}
@@ -18,13 +18,20 @@
  ******************************************************************************/
 package esg.search.publish.impl;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
 import esg.search.publish.api.MetadataRepositoryCrawler;
 import esg.search.publish.api.MetadataRepositoryType;
 import esg.search.publish.api.PublishingService;
+import esg.search.publish.api.RecordProducer;
+import esg.search.publish.thredds.CrawlJournal;
+import esg.search.publish.thredds.CrawlState;
+import esg.search.publish.thredds.ThreddsCrawler;
 /**
  * Main class to start the indexing or scrabbing of search records from a remote metadata repository,
  * or deletion of a single record with known identifier.
@@ -39,6 +46,14 @@ public class PublishingServiceMain {
     
     public static String METADATA_URL = "";
     
+    private final static String INCREMENTAL = "--incremental";
+    private final static String JOURNAL = "--journal";
+    private final static String RESUME = "--resume";
+    
+    // optional local crawler managers
+    private RecordProducer publisherCrawlerManager = null;
+    private RecordProducer unpublisherCrawlerManager = null;
+    
     /**
      * Main method loads the proper web service to invoke from the Spring context.
      * 
@@ -55,6 +70,7 @@ public class PublishingServiceMain {
 	    final MetadataRepositoryCrawler metadataRepositoryCrawler = (MetadataRepositoryCrawler)context.getBean("metadataRepositoryCrawler");	    
 	       	    
 	    final PublishingServiceMain self = new PublishingServiceMain();
+	    self.setCrawlerManagers(context.getBean(PublisherCrawlerManagerImpl.class), context.getBean(UnpublisherCrawlerManagerImpl.class));
 	    self.run(publishingService, metadataRepositoryCrawler, args);
 	    
 	}
@@ -67,7 +83,19 @@ public class PublishingServiceMain {
 	 * @param args
 	 * @throws Exception
 	 */
-    protected void run(final PublishingService publishingService, MetadataRepositoryCrawler crawler, final String[] args) throws Exception {
+    protected void run(final PublishingService publishingService, MetadataRepositoryCrawler crawler, final String[] _args) throws Exception {
+        
+        final List<String> arguments = new ArrayList<String>(Arrays.asList(_args));
+        
+        // optional incremental crawling: --incremental <crawl state file>
+        final String stateFile = removeOption(arguments, INCREMENTAL, true);
+        
+        // optional crawl journal: --journal <journal file> [--resume]
+        final String journalFile = removeOption(arguments, JOURNAL, true);
+        final boolean resume = removeOption(arguments, RESUME, false)!=null;
+        if (resume && journalFile==null) exit();
+        
+        final String[] args = arguments.toArray(new String[arguments.size()]);
     	        
 	    if (args.length!=1 && args.length!=4 && args.length!=5) {
 	    	exit();
@@ -101,15 +129,78 @@ public class PublishingServiceMain {
 		        crawler.setListener(logger);
 		    }
 		    
-		    if (publish) {
-		    	publishingService.publish(uri, filter, true, type, null);    // recursive=true, schema=null
-		    } else {
-		    	publishingService.unpublish(uri, filter, true, type);  // recursive=true
+		    // load the state of the previous crawl
+		    CrawlState state = null;
+		    if (stateFile!=null && publish) {
+		        if (crawler instanceof ThreddsCrawler) {
+		            state = CrawlState.load(new File(stateFile));
+		            ((ThreddsCrawler)crawler).setCrawlState(state);
+		        } else {
+		            System.out.println("Incremental crawling is only supported for THREDDS catalogs crawled locally, crawling all catalogs");
+		        }
+		    }
+		    
+		    // record the crawl progress in a journal, resume the previous crawl if requested
+		    CrawlJournal journal = null;
+		    if (journalFile!=null) {
+		        if (crawler instanceof ThreddsCrawler) {
+		            // catalogs are completed when the journal has received all their records from the indexer
+		            final RecordProducer crawlerManager = publish ? publisherCrawlerManager : unpublisherCrawlerManager;
+		            journal = new CrawlJournal(new File(journalFile), resume, crawlerManager!=null);
+		            if (crawlerManager!=null) crawlerManager.subscribe(journal);
+		            ((ThreddsCrawler)crawler).setJournal(journal);
+		        } else {
+		            System.out.println("Crawl journal is only supported for THREDDS catalogs crawled locally, crawling all catalogs");
+		        }
+		    }
+		    
+		    try {
+		        if (publish) {
+		            publishingService.publish(uri, filter, true, type, null);    // recursive=true, schema=null
+		            
+		            // the state is saved only if the whole crawl succeeded
+		            if (state!=null) {
+		                state.save(new File(stateFile));
+		                System.out.println(state.getSummary());
+		            }
+		            
+		        } else {
+		            publishingService.unpublish(uri, filter, true, type);  // recursive=true
+		        }
+		    } finally {
+		        if (journal!=null) journal.close();
 		    }
 	    }
 		
 	}
 	
+	/**
+	 * Utility method to remove an option from the command line arguments.
+	 * @param arguments : the command line arguments
+	 * @param name : the option name
+	 * @param hasValue : true if the option is followed by a value
+	 * @return the option value (or the option name, for options without value), null if the option is not present
+	 */
+	private String removeOption(final List<String> arguments, final String name, boolean hasValue) {
+	    
+	    final int index = arguments.indexOf(name);
+	    if (index<0) return null;
+	    if (hasValue && index+1>=arguments.size()) exit();
+	    final String value = hasValue ? arguments.remove(index+1) : name;
+	    arguments.remove(index);
+	    return value;
+	    
+	}
+	
+	/**
+	 * Method to set the components that crawl the metadata repositories for publishing and unpublishing,
+	 * so that the progress of the crawl can be journaled.
+	 */
+	public void setCrawlerManagers(final RecordProducer publisherCrawlerManager, final RecordProducer unpublisherCrawlerManager) {
+	    this.publisherCrawlerManager = publisherCrawlerManager;
+	    this.unpublisherCrawlerManager = unpublisherCrawlerManager;
+	}
+	
 	/**
 	 * Method to indicate usage and exit the program.
 	 */
@@ -120,6 +211,9 @@ public class PublishingServiceMain {
     	System.out.println("Usage #2: to publish or unpublish a remote metadata repository: ");
     	System.out.println("          java esg.search.publish.impl."+this.getClass().getName()+" <Metadata Repository URL> <regex filter> <Metadata repository Type> true|false [optional log file]");
     	System.out.println("          where true:publish, false:unpublish");
+    	System.out.println("Option: "+INCREMENTAL+" <crawl state file> to publish only the THREDDS catalogs that changed since the last crawl");
+    	System.out.println("Option: "+JOURNAL+" <journal file> to record the progress of the THREDDS crawl, "
+    	                   +RESUME+" to continue the crawl recorded in the journal without publishing again the completed catalogs");
     	System.out.println("Note: use <filter>='regular expression' to filter the catalogs to publish/unpublish. To apply no filtering, use <filter>='*' or <filter>='ALL'");
     	System.out.println("Example: java -Djava.ext.dirs=../lib/fetched esg.search.publish.impl."+this.getClass().getName()+" nasa.jpl.tes.monthly");
     	System.out.println("Example: -Djava.ext.dirs=../lib/fetched java esg.search.publish.impl."+this.getClass().getName()+" file:///Users/cinquini/Documents/workspace/esg-search/resources/pcmdi.ipcc4.GFDL.gfdl_cm2_0.picntrl.mon.land.run1.v1.xml '*' THREDDS true|false /tmp/publishing.log");
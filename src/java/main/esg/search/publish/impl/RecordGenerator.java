@@ -22,7 +22,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import esg.search.core.Record;
-import esg.search.core.RecordImpl;
+import esg.search.core.RecordFactory;
 
 
 /**
@@ -62,7 +62,7 @@ public class RecordGenerator extends RecordProducerImpl {
 		int iVariable = -1;
 		for (int iRecord=0; iRecord<numRecords; iRecord++) {
 			
-			final Record record = new RecordImpl(Integer.toString(iRecord));
+			final Record record = RecordFactory.getInstance().newRecord(Integer.toString(iRecord));
 			record.addField("title", "Record #"+iRecord);
 			record.addField("name", "Record #"+iRecord);
 			record.addField("description", "This is the record #"+iRecord+" long description");
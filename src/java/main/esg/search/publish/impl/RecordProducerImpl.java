@@ -71,6 +71,13 @@ public class RecordProducerImpl implements RecordProducer {
         }
     }
 	
+	/**
+	 * @return the currently subscribed record consumers
+	 */
+	protected List<RecordConsumer> getConsumers() {
+		return consumers;
+	}
+	
 	/**
 	 * Method to bulk-subscribe a list of record consumers
 	 * (and automatically un-subscribe all previously consumers).
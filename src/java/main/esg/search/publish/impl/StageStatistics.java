@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative statistics of a publishing pipeline stage, shared by all crawling operations.
+ * 
+ * @author Luca Cinquini
+ */
+public class StageStatistics {
+    
+    private final String name;
+    
+    private final AtomicLong records = new AtomicLong(0);
+    private final AtomicLong batches = new AtomicLong(0);
+    private final AtomicLong errors = new AtomicLong(0);
+    private final AtomicLong queued = new AtomicLong(0);
+    private final AtomicLong active = new AtomicLong(0);
+    
+    // total processing time, summed over all worker threads
+    private final AtomicLong busyNanos = new AtomicLong(0);
+    
+    public StageStatistics(final String name) {
+        this.name = name;
+    }
+    
+    void queued(final int delta) {
+        queued.addAndGet(delta);
+    }
+    
+    void active(final int delta) {
+        active.addAndGet(delta);
+    }
+    
+    void processed(final int numberOfRecords, final long nanos, final boolean success) {
+        batches.incrementAndGet();
+        busyNanos.addAndGet(nanos);
+        if (success) {
+            records.addAndGet(numberOfRecords);
+        } else {
+            errors.incrementAndGet();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of records successfully processed
+     */
+    public long getRecords() {
+        return records.get();
+    }
+
+    /**
+     * @return the number of record batches processed, successfully or not
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return the number of record batches that could not be processed
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return the number of record batches waiting to be processed
+     */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of record batches being processed
+     */
+    public long getActive() {
+        return active.get();
+    }
+    
+    /**
+     * @return the number of records processed per second by a single worker thread
+     */
+    public double getThroughput() {
+        final long nanos = busyNanos.get();
+        return nanos>0 ? records.get()*1.0e9/nanos : 0;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("%s: records=%d batches=%d errors=%d queued=%d active=%d records/sec/thread=%.1f",
+                             name, getRecords(), getBatches(), getErrors(), getQueued(), getActive(), getThroughput());
+    }
+
+}
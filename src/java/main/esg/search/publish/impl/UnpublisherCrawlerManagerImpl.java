@@ -20,6 +20,9 @@ public class UnpublisherCrawlerManagerImpl extends MetadataRepositoryCrawlerMana
 			                            final @Qualifier("scrabber") RecordConsumer indexer) {
 		super(_crawlers);
 		this.subscribe(indexer);
+		
+		// remove all the records of a crawl with a single commit
+		this.setBatching(true);
 	}
 
 }
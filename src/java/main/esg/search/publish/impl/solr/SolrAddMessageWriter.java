@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.impl.solr;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+import esg.search.core.Record;
+import esg.search.query.api.QueryParameters;
+import esg.search.query.impl.solr.SolrXmlPars;
+
+/**
+ * Class that writes Solr add messages directly to a character stream, one record at a time,
+ * without building an intermediate XML document in memory.
+ * 
+ * The field values are the same as in the indented output of {@link SolrMessageBuilder#buildAddMessage(Record, boolean)}
+ * (leading and trailing white space is trimmed, internal white space is preserved), without the indentation:
+ * <add><doc><field name="id">...</field><field name="version">...</field><field name="...">...</field>...</doc>...</add>
+ * 
+ * @author Luca Cinquini
+ */
+public class SolrAddMessageWriter {
+    
+    private final Writer writer;
+    
+    // number of characters written so far
+    private long length = 0;
+    
+    public SolrAddMessageWriter(final Writer writer) {
+        this.writer = writer;
+    }
+    
+    /**
+     * Method to write the start of the add message.
+     */
+    public void startAdd() throws IOException {
+        write("<"+SolrXmlPars.ELEMENT_ADD+">");
+    }
+    
+    /**
+     * Method to write a record as a Solr document.
+     */
+    public void writeDoc(final Record record) throws IOException {
+        
+        // <doc> or <doc schema="...">
+        write("<"+SolrXmlPars.ELEMENT_DOC);
+        if (record.getSchema()!=null) {
+            write(" "+SolrXmlPars.ATTRIBUTE_SCHEMA+"=\"");
+            escape(record.getSchema().toString(), true);
+            write("\"");
+        }
+        write(">");
+        
+        // <field name="id">...</field>
+        writeField(QueryParameters.FIELD_ID, record.getId());
+        
+        // <field name="version">...</field>
+        if (record.getVersion()!=0) {
+            writeField(QueryParameters.FIELD_VERSION, Long.toString(record.getVersion()));
+        }
+        
+        // <field name="...">....</field>
+        // (for each value)
+        for (final Map.Entry<String, List<String>> field : record.getFields().entrySet()) {
+            for (final String value : field.getValue()) {
+                writeField(field.getKey(), value);
+            }
+        }
+        
+        write("</"+SolrXmlPars.ELEMENT_DOC+">");
+        
+    }
+    
+    /**
+     * Method to write the end of the add message.
+     * Note that the underlying stream is flushed, but not closed.
+     */
+    public void endAdd() throws IOException {
+        write("</"+SolrXmlPars.ELEMENT_ADD+">");
+        writer.flush();
+    }
+    
+    /**
+     * @return the number of characters written so far
+     */
+    public long getLength() {
+        return length;
+    }
+    
+    private void writeField(final String name, final String value) throws IOException {
+        
+        write("<"+SolrXmlPars.ELEMENT_FIELD+" "+SolrXmlPars.ATTRIBUTE_NAME+"=\"");
+        escape(name, true);
+        write("\">");
+        if (value!=null) escape(trim(value), false);
+        write("</"+SolrXmlPars.ELEMENT_FIELD+">");
+        
+    }
+    
+    private void write(final String s) throws IOException {
+        writer.write(s);
+        length += s.length();
+    }
+    
+    /**
+     * Method to write a text or attribute value, escaping the XML special characters.
+     * @throws IllegalArgumentException : if the value contains characters that are not allowed in XML documents
+     */
+    private void escape(final String value, final boolean attribute) throws IOException {
+        
+        // copy runs of characters that need no escaping
+        int start = 0;
+        final int n = value.length();
+        for (int i=0; i<n; i++) {
+            
+            final char c = value.charAt(i);
+            String entity = null;
+            switch (c) {
+                case '&': entity = "&amp;"; break;
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '\r': entity = "&#xD;"; break;
+                case '"': if (attribute) entity = "&quot;"; break;
+                case '\t': if (attribute) entity = "&#x9;"; break;
+                case '\n': if (attribute) entity = "&#xA;"; break;
+                default:
+                    if (!isXmlCharacter(value, i)) {
+                        throw new IllegalArgumentException("The character 0x"+Integer.toHexString(c)+" is not allowed in XML: "+value);
+                    }
+            }
+            
+            if (entity!=null) {
+                if (i>start) writer.write(value, start, i-start);
+                writer.write(entity);
+                length += i-start+entity.length();
+                start = i+1;
+            } else if (Character.isHighSurrogate(c)) {
+                i++; // skip the low surrogate
+            }
+            
+        }
+        if (n>start) {
+            writer.write(value, start, n-start);
+            length += n-start;
+        }
+        
+    }
+    
+    /**
+     * Method to trim the white space of a text value, consistently with the indented XML documents built by {@link SolrMessageBuilder}:
+     * leading and trailing white space is removed, while internal white space (e.g. the line breaks of a multi-line description) is preserved.
+     */
+    static String trim(final String value) {
+        
+        int start = 0;
+        int end = value.length();
+        while (start<end && isWhitespace(value.charAt(start))) start++;
+        while (end>start && isWhitespace(value.charAt(end-1))) end--;
+        return value.substring(start, end);
+        
+    }
+    
+    private static boolean isWhitespace(final char c) {
+        return c==' ' || c=='\t' || c=='\n' || c=='\r';
+    }
+    
+    /**
+     * Checks whether the character at the given position is allowed in XML 1.0 documents.
+     */
+    private static boolean isXmlCharacter(final String value, final int i) {
+        
+        final char c = value.charAt(i);
+        if (c>=0x20 && c<=0xD7FF) return true;
+        if (c==0x9 || c==0xA || c==0xD) return true;
+        if (c>=0xE000 && c<=0xFFFD) return true;
+        
+        // surrogate pair
+        return Character.isHighSurrogate(c) && i+1<value.length() && Character.isLowSurrogate(value.charAt(i+1));
+        
+    }
+
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.impl.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+
+import esg.search.core.Record;
+import esg.search.query.api.QueryParameters;
+
+/**
+ * Class that builds Solr add messages in the binary (javabin) format, 
+ * to be posted to the "/update/javabin" handler of a Solr core.
+ * 
+ * The documents contain the same fields as the XML documents written by {@link SolrAddMessageWriter},
+ * including the trimming of white space at both ends of the field values (the record schema is not included,
+ * since it is not indexed by Solr).
+ */
+public class SolrBinaryMessageBuilder {
+    
+    /**
+     * Method to convert a record into a Solr input document.
+     */
+    public static SolrInputDocument buildDocument(final Record record) {
+        
+        final SolrInputDocument doc = new SolrInputDocument();
+        
+        // id
+        doc.addField(QueryParameters.FIELD_ID, trim(record.getId()));
+        
+        // version
+        if (record.getVersion()!=0) {
+            doc.addField(QueryParameters.FIELD_VERSION, Long.toString(record.getVersion()));
+        }
+        
+        // other fields (for each value)
+        for (final Map.Entry<String, List<String>> field : record.getFields().entrySet()) {
+            for (final String value : field.getValue()) {
+                doc.addField(field.getKey(), trim(value));
+            }
+        }
+        
+        return doc;
+        
+    }
+    
+    /**
+     * Method to write an add message containing a range of records to a stream.
+     * The documents are built one at a time while the message is encoded,
+     * so that only one document is held in memory at any time.
+     * Note that the stream is flushed, but not closed.
+     * 
+     * @param records
+     * @param from : the index of the first record to write
+     * @param count : the number of records to write
+     * @param out
+     * @throws IOException
+     */
+    public static void writeAddMessage(final List<Record> records, final int from, final int count, final OutputStream out) throws IOException {
+        
+        final UpdateRequest request = new UpdateRequest();
+        request.setDocIterator(new Iterator<SolrInputDocument>() {
+            
+            private int i = from;
+            
+            public boolean hasNext() {
+                return i<from+count;
+            }
+            
+            public SolrInputDocument next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return buildDocument(records.get(i++));
+            }
+            
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+            
+        });
+        new JavaBinUpdateRequestCodec().marshal(request, out);
+        out.flush();
+        
+    }
+    
+    /**
+     * Method to return the number of characters of the field names and values of a record,
+     * which approximates the size of the corresponding document in an add message.
+     */
+    public static long getLength(final Record record) {
+        
+        long length = (record.getId()==null ? 0 : record.getId().length());
+        for (final Map.Entry<String, List<String>> field : record.getFields().entrySet()) {
+            for (final String value : field.getValue()) {
+                length += field.getKey().length() + (value==null ? 0 : value.length());
+            }
+        }
+        return length;
+        
+    }
+    
+    private static String trim(final String value) {
+        return (value==null ? "" : SolrAddMessageWriter.trim(value));
+    }
+    
+    private SolrBinaryMessageBuilder() {}
+
+}
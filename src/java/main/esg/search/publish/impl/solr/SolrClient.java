@@ -18,24 +18,41 @@
  ******************************************************************************/
 package esg.search.publish.impl.solr;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang.WordUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.util.StringUtils;
 
+import esg.search.core.Record;
+import esg.search.query.impl.solr.QueryCache;
 import esg.search.query.impl.solr.SolrUrlBuilder;
 import esg.search.query.impl.solr.SolrXmlPars;
 import esg.search.utils.HttpClient;
 
 /**
  * Client object that sends XML requests to a Solr server.
+ * Multi-record add messages can optionally be sent in the binary (javabin) format.
  */
 public class SolrClient {
 					
@@ -52,6 +69,34 @@ public class SolrClient {
 	 */
 	protected HttpClient httpClient = new HttpClient();
 	
+	/**
+	 * Flag to send multi-record add messages in the binary (javabin) format.
+	 */
+	private boolean javabin = false;
+	
+	/**
+	 * Maximum time (in milliseconds) for an operation executed on all cores in parallel to complete on every core
+	 * (0 for no limit other than the HTTP timeouts).
+	 */
+	private long coreTimeout = 0;
+	
+	// size of the buffer used to stream a request
+	private final static int BUFFER_SIZE = 8192;
+	
+	// content type of the binary add messages
+	private final static String JAVABIN_CONTENT_TYPE = "application/javabin";
+	
+	/**
+	 * Threads that send requests to the Solr cores in parallel, shared by all clients.
+	 */
+	private final static ExecutorService coreExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+	    public Thread newThread(final Runnable runnable) {
+	        final Thread thread = new Thread(runnable, "esg-search-solr-client");
+	        thread.setDaemon(true);
+	        return thread;
+	    }
+	});
+	
 	/**
 	 * Constructor initializes the URL builder.
 	 * @param url
@@ -73,8 +118,7 @@ public class SolrClient {
     public String index(final String xml, final String type, boolean commit) throws Exception {
         
         // validate record type versus supported Solr cores
-        final String core = SolrXmlPars.CORES.get( WordUtils.capitalize(type) );
-        if (!StringUtils.hasText(core)) throw new Exception("Unmapped core for record type="+type);
+        final String core = getCore(type);
         final URL postUrl = solrUrlBuilder.buildUpdateUrl(core);
         
         // send POST request
@@ -88,6 +132,47 @@ public class SolrClient {
         
     }
     
+    /**
+     * Method to index several records of the same type with a single add message, without committing.
+     * The message is streamed to the Solr server while the records are serialized,
+     * and closed when it reaches the maximum number of records or characters
+     * (it always includes at least one record).
+     * In the binary format, the size of the message is estimated from the length of the field names and values.
+     * 
+     * @param records : the records to index
+     * @param from : the index of the first record to send
+     * @param type : the records type, chosen among the supported record types.
+     * @param maxDocs : maximum number of records in the message
+     * @param maxChars : maximum size of the message, in characters
+     * @return the number of records sent
+     * @throws Exception
+     */
+    public int index(final List<Record> records, final int from, final String type, final int maxDocs, final long maxChars) throws Exception {
+        
+        // validate record type versus supported Solr cores
+        final String core = getCore(type);
+        
+        // send POST request
+        if (javabin) {
+            
+            final URL postUrl = solrUrlBuilder.buildBinaryUpdateUrl(core);
+            final BinaryAddMessageBody body = new BinaryAddMessageBody(records, from, maxDocs, maxChars);
+            httpClient.doPost(postUrl, body, JAVABIN_CONTENT_TYPE);
+            if (LOG.isDebugEnabled()) LOG.debug("Posted "+body.count+" records to URL:"+postUrl.toString());
+            return body.count;
+            
+        } else {
+            
+            final URL postUrl = solrUrlBuilder.buildUpdateUrl(core);
+            final AddMessageBody body = new AddMessageBody(records, from, maxDocs, maxChars);
+            httpClient.doPost(postUrl, body, true);
+            if (LOG.isDebugEnabled()) LOG.debug("Posted "+body.count+" records to URL:"+postUrl.toString());
+            return body.count;
+            
+        }
+        
+    }
+    
     /**
      * Method to delete a single document by identifier, from all cores.
      * @param id
@@ -107,44 +192,276 @@ public class SolrClient {
      */
     public String delete(List<String> ids) throws Exception {
         
-        StringBuffer sb = new StringBuffer();
-        
-        // loop over all cores, remove records from all cores alike
-        for (final String core : SolrXmlPars.CORES.values()) {
-            final String xml = SolrMessageBuilder.buildDeleteMessage(ids, true);
-            final URL postUrl = solrUrlBuilder.buildUpdateUrl(core); 
-            if (LOG.isDebugEnabled()) LOG.debug("Posting record:"+xml+" to URL:"+postUrl.toString());
-            sb.append( httpClient.doPost(postUrl, xml, true) );
-        }
+        // remove records from all cores alike, with a single message
+        final String response = this.delete(ids, ids.size());
         
         // commit changes to all cores
         commit();
         
-        return sb.toString();
+        return response;
+    }
+    
+    /**
+     * Method to delete a list of documents by identifier from all cores, without committing.
+     * The identifiers are sent in combined delete messages (by identifier, and by query on the parent dataset identifier),
+     * each containing at most the given number of identifiers: the messages are sent to all cores in parallel,
+     * and in sequence to the same core.
+     * 
+     * @param ids
+     * @param maxIds : maximum number of identifiers in a single delete message
+     * @return the responses of all cores
+     */
+    public String delete(final List<String> ids, final int maxIds) throws Exception {
+        
+        // build the messages once for all cores
+        final List<String> messages = new ArrayList<String>();
+        final int step = Math.max(maxIds, 1);
+        for (int from=0; from<ids.size(); from+=step) {
+            messages.add( SolrMessageBuilder.buildDeleteMessage(ids.subList(from, Math.min(from+step, ids.size())), false) );
+        }
+        if (messages.isEmpty()) return "";
+        
+        // send the messages to all cores in parallel
+        final String response = this.executeOnAllCores("Delete", new CoreOperation() {
+            public String execute(final String core) throws Exception {
+                final URL postUrl = solrUrlBuilder.buildUpdateUrl(core);
+                final StringBuilder sb = new StringBuilder();
+                for (final String xml : messages) {
+                    if (LOG.isDebugEnabled()) LOG.debug("Posting record:"+xml+" to URL:"+postUrl.toString());
+                    sb.append( httpClient.doPost(postUrl, xml, true) );
+                }
+                return sb.toString();
+            }
+        });
+        if (LOG.isInfoEnabled()) LOG.info("Deleted "+ids.size()+" records from all cores with "+messages.size()+" messages per core");
+        
+        return response;
+        
     }
 	
 	/**
-	 * Method to commit changes to all cores,
-	 * and wait till the commit goes into effect
+	 * Method to commit changes to all cores in parallel,
+	 * and wait till the commits go into effect.
+	 * All cached query responses are invalidated after the commits, even if some of them failed.
 	 */
 	public void commit() throws MalformedURLException, UnsupportedEncodingException, IOException  {
 	    
-        for (final String core : SolrXmlPars.CORES.values()) {
-            
-            String xml = SolrMessageBuilder.buildCommitMessage();
-            URL postUrl = solrUrlBuilder.buildUpdateUrl(core);
-            if (LOG.isInfoEnabled()) LOG.info("Issuing commit:"+xml+" to URL:"+postUrl.toString());
-            httpClient.doPost(postUrl, xml, true);
-            
-            // optimize index ?
-            //if (optimize) {
-            //    xml = messageBuilder.buildOptimizeMessage();
-            //    if (LOG.isInfoEnabled()) LOG.info("Issuing optimize:"+xml+" to URL:"+postUrl.toString());
-            //    httpClient.doPost(postUrl, xml, true);
-            //}
-
-        }
+	    try {
+	        
+	        this.executeOnAllCores("Commit", new CoreOperation() {
+	            public String execute(final String core) throws Exception {
+	                _commit(core);
+	                return "";
+	            }
+	        });
+	        
+	        // optimize index ?
+	        //if (optimize) {
+	        //    xml = messageBuilder.buildOptimizeMessage();
+	        //    if (LOG.isInfoEnabled()) LOG.info("Issuing optimize:"+xml+" to URL:"+postUrl.toString());
+	        //    httpClient.doPost(postUrl, xml, true);
+	        //}
+	        
+	    } finally {
+	        QueryCache.invalidateAll();
+	    }
+        
+	}
+	
+	/**
+	 * Method to commit changes to a single core,
+	 * and wait till the commit goes into effect.
+	 * All cached query responses are invalidated after the commit
+	 * (and again by {@link esg.search.query.impl.solr.ReplicationMonitor} when the slave replicates it).
+	 * 
+	 * @param core : the Solr core name
+	 */
+	public void commit(final String core) throws MalformedURLException, UnsupportedEncodingException, IOException  {
+	    
+	    this._commit(core);
+	    QueryCache.invalidateAll();
+	    
+	}
+	
+	/**
+	 * Method to return the Solr core that stores records of the given type.
+	 * @param type : chosen among the supported record types.
+	 * @return
+	 * @throws Exception : if the record type is not supported
+	 */
+	public static String getCore(final String type) throws Exception {
+	    
+	    final String core = SolrXmlPars.CORES.get( WordUtils.capitalize(type) );
+	    if (!StringUtils.hasText(core)) throw new Exception("Unmapped core for record type="+type);
+	    return core;
+	    
+	}
+	
+	/**
+	 * Method to send multi-record add messages in the binary (javabin) format, rather than XML.
+	 * The Solr cores must be configured with the "/update/javabin" request handler.
+	 * @param javabin
+	 */
+	public void setJavabin(boolean javabin) {
+	    this.javabin = javabin;
+	}
+	
+	/**
+	 * Method to set the maximum time for an operation executed on all cores in parallel (commit, delete)
+	 * to complete on every core.
+	 * @param coreTimeout : in milliseconds, 0 for no limit other than the HTTP timeouts
+	 */
+	public void setCoreTimeout(long coreTimeout) {
+	    this.coreTimeout = coreTimeout;
+	}
+	
+	/**
+	 * Method to execute an operation on all cores in parallel, and wait for all of them to complete within the shared deadline.
+	 * The operations that did not complete in time are cancelled.
+	 * 
+	 * @param name : the operation name, used in error messages
+	 * @param operation
+	 * @return the responses of all cores, in the order of the cores
+	 * @throws IOException : reporting the errors of all cores where the operation failed, or did not complete in time
+	 */
+	private String executeOnAllCores(final String name, final CoreOperation operation) throws IOException {
+	    
+	    final long startTime = System.currentTimeMillis();
+	    final Map<String, Future<String>> futures = new LinkedHashMap<String, Future<String>>();
+	    for (final String core : SolrXmlPars.CORES.values()) {
+	        futures.put(core, coreExecutor.submit(new Callable<String>() {
+	            public String call() throws Exception {
+	                return operation.execute(core);
+	            }
+	        }));
+	    }
+	    
+	    // wait for all cores, collect all errors
+	    final StringBuilder sb = new StringBuilder();
+	    final List<String> errors = new ArrayList<String>();
+	    final List<Throwable> causes = new ArrayList<Throwable>();
+	    for (final Map.Entry<String, Future<String>> future : futures.entrySet()) {
+	        try {
+	            if (coreTimeout>0) {
+	                final long remaining = startTime + coreTimeout - System.currentTimeMillis();
+	                sb.append( future.getValue().get(Math.max(remaining, 0), TimeUnit.MILLISECONDS) );
+	            } else {
+	                sb.append( future.getValue().get() );
+	            }
+	        } catch(ExecutionException e) {
+	            errors.add("core="+future.getKey()+": "+e.getCause().getMessage());
+	            causes.add(e.getCause());
+	        } catch(TimeoutException e) {
+	            future.getValue().cancel(true);
+	            errors.add("core="+future.getKey()+": no response within "+coreTimeout+" ms");
+	        } catch(InterruptedException e) {
+	            future.getValue().cancel(true);
+	            errors.add("core="+future.getKey()+": interrupted");
+	            Thread.currentThread().interrupt();
+	        }
+	    }
+	    
+	    if (!errors.isEmpty()) {
+	        final IOException e = new IOException(name+" failed on "+errors.size()+" of "+futures.size()+" cores: "
+	                                              +StringUtils.collectionToDelimitedString(errors, "; "));
+	        for (final Throwable cause : causes) e.addSuppressed(cause);
+	        LOG.warn(e.getMessage());
+	        throw e;
+	    }
+	    if (LOG.isDebugEnabled()) LOG.debug(name+" completed on "+futures.size()+" cores in "+(System.currentTimeMillis()-startTime)+" ms");
+	    return sb.toString();
+	    
+	}
+	
+	/**
+	 * Operation executed on a single core.
+	 */
+	private interface CoreOperation {
+	    
+	    /**
+	     * @return the response from the core
+	     */
+	    String execute(String core) throws Exception;
+	    
+	}
+	
+	private void _commit(final String core) throws MalformedURLException, UnsupportedEncodingException, IOException  {
+	    
+	    final String xml = SolrMessageBuilder.buildCommitMessage();
+	    final URL postUrl = solrUrlBuilder.buildUpdateUrl(core);
+	    if (LOG.isInfoEnabled()) LOG.info("Issuing commit:"+xml+" to URL:"+postUrl.toString());
+	    httpClient.doPost(postUrl, xml, true);
+	    
+	}
+	
+	/**
+	 * Body of a POST request that streams a list of records as a Solr add message.
+	 * The number of records is decided while writing the first time, 
+	 * and the same records are written if the request is re-tried.
+	 */
+	private static class AddMessageBody implements HttpClient.RequestBody {
+	    
+	    private final List<Record> records;
+	    private final int from;
+	    private final int maxDocs;
+	    private final long maxChars;
+	    
+	    // number of records in the message, 0 until first written
+	    int count = 0;
+	    
+	    AddMessageBody(final List<Record> records, final int from, final int maxDocs, final long maxChars) {
+	        this.records = records;
+	        this.from = from;
+	        this.maxDocs = maxDocs;
+	        this.maxChars = maxChars;
+	    }
+	    
+	    public void writeTo(final OutputStream out) throws IOException {
+	        
+	        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+	        final SolrAddMessageWriter message = new SolrAddMessageWriter(writer);
+	        message.startAdd();
+	        int n = 0;
+	        while (from+n<records.size() && (count>0 ? n<count : n==0 || (n<maxDocs && message.getLength()<maxChars))) {
+	            message.writeDoc(records.get(from+n));
+	            n++;
+	        }
+	        message.endAdd();
+	        count = n;
+	        
+	    }
+	    
+	}
+	
+	/**
+	 * Body of a POST request that writes a list of records as a binary add message.
+	 * The number of records is decided before writing the first time,
+	 * and the same records are written if the request is re-tried.
+	 */
+	private static class BinaryAddMessageBody implements HttpClient.RequestBody {
+	    
+	    private final List<Record> records;
+	    private final int from;
+	    
+	    // number of records in the message
+	    final int count;
+	    
+	    BinaryAddMessageBody(final List<Record> records, final int from, final int maxDocs, final long maxChars) {
+	        this.records = records;
+	        this.from = from;
+	        int n = 0;
+	        long length = 0;
+	        while (from+n<records.size() && (n==0 || (n<maxDocs && length<maxChars))) {
+	            length += SolrBinaryMessageBuilder.getLength(records.get(from+n));
+	            n++;
+	        }
+	        this.count = n;
+	    }
+	    
+	    public void writeTo(final OutputStream out) throws IOException {
+	        SolrBinaryMessageBuilder.writeAddMessage(records, from, count, out);
+	    }
+	    
 	}
-
 
 }
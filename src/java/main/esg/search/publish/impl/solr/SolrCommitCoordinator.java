@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.impl.solr;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Class that coalesces the Solr commits requested by concurrent publishing operations ("group commit").
+ * 
+ * Each caller first indexes its records without committing, then invokes {@link #commit(String, int)}, 
+ * which waits until a commit that covers those records has completed. For each core, a commit is issued
+ * at most once per configurable interval, unless the number of records waiting for a commit reaches 
+ * a configurable threshold, in which case the commit is issued immediately.
+ * 
+ * @author Luca Cinquini
+ */
+@Component("solrCommitCoordinator")
+@ManagedResource(objectName="esg.search:name=SolrCommitCoordinator", description="Group commits of published records")
+public class SolrCommitCoordinator {
+    
+    /**
+     * Client that sends the commits to the Solr server.
+     */
+    private final SolrClient solrClient;
+    
+    /**
+     * Minimum time (in milliseconds) between two commits to the same core.
+     */
+    private final long interval;
+    
+    /**
+     * Number of records waiting for a commit that triggers an immediate commit.
+     */
+    private final int maxPending;
+    
+    /**
+     * Commit state of each core, indexed by core name.
+     */
+    private final Map<String, CoreState> cores = new HashMap<String, CoreState>();
+    
+    /**
+     * Threads that execute the commits.
+     */
+    private final ScheduledExecutorService scheduler;
+    
+    /**
+     * Statistics.
+     */
+    private final AtomicLong numberOfCommitRequests = new AtomicLong(0);
+    private final AtomicLong numberOfCommits = new AtomicLong(0);
+    
+    private static final Log LOG = LogFactory.getLog(SolrCommitCoordinator.class);
+    
+    @Autowired
+    public SolrCommitCoordinator(final @Value("${esg.search.solr.publish.url}") URL url,
+                                 final @Value("${esg.search.publish.commit.interval:1000}") long interval,
+                                 final @Value("${esg.search.publish.commit.pending:1000}") int maxPending) {
+        
+        this(new SolrClient(url), interval, maxPending);
+        
+    }
+    
+    SolrCommitCoordinator(final SolrClient solrClient, final long interval, final int maxPending) {
+        
+        this.solrClient = solrClient;
+        this.interval = interval;
+        this.maxPending = Math.max(maxPending, 1);
+        
+        final AtomicInteger counter = new AtomicInteger(0);
+        this.scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "esg-search-commit-"+counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
+    }
+    
+    /**
+     * Method to wait for a commit of records that have already been sent to Solr.
+     * 
+     * @param type : the type of the records, which determines the Solr core
+     * @param numberOfRecords : the number of records sent to Solr
+     * @throws Exception : if the commit failed
+     */
+    public void commit(final String type, final int numberOfRecords) throws Exception {
+        
+        numberOfCommitRequests.incrementAndGet();
+        final CoreState state = this.getCoreState(SolrClient.getCore(type));
+        state.register(numberOfRecords).await();
+        
+    }
+    
+    /**
+     * Method to wait for the commits of records of several types that have already been sent to Solr:
+     * the commits of all the target cores are requested first, then waited for.
+     * 
+     * @param numberOfRecords : the number of records sent to Solr, by record type
+     * @throws Exception : if any commit failed
+     */
+    public void commit(final Map<String, Integer> numberOfRecords) throws Exception {
+        
+        final List<Ticket> tickets = new ArrayList<Ticket>();
+        for (final Map.Entry<String, Integer> entry : numberOfRecords.entrySet()) {
+            numberOfCommitRequests.incrementAndGet();
+            tickets.add(this.getCoreState(SolrClient.getCore(entry.getKey())).register(entry.getValue()));
+        }
+        for (final Ticket ticket : tickets) ticket.await();
+        
+    }
+    
+    /**
+     * Method to stop the commit threads.
+     * Pending commits are not executed.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+    
+    @ManagedAttribute(description="Number of commits requested by the publishing operations")
+    public long getNumberOfCommitRequests() {
+        return numberOfCommitRequests.get();
+    }
+    
+    @ManagedAttribute(description="Number of commits issued to the Solr server")
+    public long getNumberOfCommits() {
+        return numberOfCommits.get();
+    }
+    
+    @ManagedAttribute(description="Minimum time (ms) between commits to the same core")
+    public long getInterval() {
+        return interval;
+    }
+    
+    /**
+     * Method to return the number of records waiting for a commit to the core of the given type
+     * (package-private for testing).
+     */
+    int getPendingRecords(final String type) throws Exception {
+        final CoreState state = this.getCoreState(SolrClient.getCore(type));
+        synchronized (state) {
+            return state.pending;
+        }
+    }
+    
+    private synchronized CoreState getCoreState(final String core) {
+        CoreState state = cores.get(core);
+        if (state==null) {
+            state = new CoreState(core);
+            cores.put(core, state);
+        }
+        return state;
+    }
+    
+    /**
+     * Commit state of a single core.
+     */
+    private class CoreState implements Runnable {
+        
+        private final String core;
+        
+        /**
+         * Ticket shared by all the callers waiting for the next commit.
+         */
+        private Ticket ticket = new Ticket();
+        
+        /**
+         * Number of records waiting for the next commit.
+         */
+        private int pending = 0;
+        
+        /**
+         * Time of the last commit.
+         */
+        private long lastCommit = 0;
+        
+        /**
+         * Next scheduled commit, if any.
+         */
+        private ScheduledFuture<?> scheduled = null;
+        
+        /**
+         * True while a commit is executing (commits to the same core never overlap).
+         */
+        private boolean committing = false;
+        
+        CoreState(final String core) {
+            this.core = core;
+        }
+        
+        /**
+         * Method to register records waiting for a commit, and schedule the commit.
+         * @return the ticket of the commit that will cover the records
+         */
+        synchronized Ticket register(final int numberOfRecords) {
+            
+            pending += Math.max(numberOfRecords, 1);
+            
+            // a commit in progress schedules the next one when done
+            if (!committing) {
+                final long delay = (pending>=maxPending ? 0 : Math.max(lastCommit+interval-System.currentTimeMillis(), 0));
+                if (scheduled==null) {
+                    scheduled = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+                } else if (delay==0 && scheduled.getDelay(TimeUnit.MILLISECONDS)>0 && scheduled.cancel(false)) {
+                    // threshold reached: commit now
+                    // (a commit that is already due is not cancelled, since it may be executing)
+                    scheduled = scheduler.schedule(this, 0, TimeUnit.MILLISECONDS);
+                }
+            }
+            return ticket;
+            
+        }
+        
+        /**
+         * Method to execute the commit.
+         * Records registered while the commit is executing are covered by the next commit.
+         */
+        public void run() {
+            
+            final Ticket _ticket;
+            final int _pending;
+            synchronized (this) {
+                // a commit in progress schedules the next one when done
+                if (committing) return;
+                _ticket = ticket;
+                _pending = pending;
+                ticket = new Ticket();
+                pending = 0;
+                scheduled = null;
+                committing = (_pending>0);
+            }
+            if (_pending==0) return;
+            
+            Exception error = null;
+            try {
+                solrClient.commit(core);
+                numberOfCommits.incrementAndGet();
+                if (LOG.isDebugEnabled()) LOG.debug("Committed "+_pending+" records to core="+core);
+            } catch(Exception e) {
+                LOG.warn("Error committing to core="+core+": "+e.getMessage());
+                error = e;
+            }
+            
+            synchronized (this) {
+                lastCommit = System.currentTimeMillis();
+                committing = false;
+                // schedule the next commit if records were registered in the meantime
+                if (pending>0 && scheduled==null) {
+                    scheduled = scheduler.schedule(this, pending>=maxPending ? 0 : interval, TimeUnit.MILLISECONDS);
+                }
+            }
+            _ticket.complete(error);
+            
+        }
+        
+    }
+    
+    /**
+     * Completion of a commit shared by all the callers it covers.
+     */
+    private static class Ticket {
+        
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Exception error = null;
+        
+        void complete(final Exception error) {
+            this.error = error;
+            done.countDown();
+        }
+        
+        void await() throws Exception {
+            done.await();
+            if (error!=null) throw error;
+        }
+        
+    }
+
+}
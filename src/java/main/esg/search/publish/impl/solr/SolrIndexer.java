@@ -21,7 +21,9 @@ package esg.search.publish.impl.solr;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +39,15 @@ import esg.search.publish.validation.RecordValidator;
 
 /**
  * Implementation of {@link RecordConsumer} that sends (fully populated) records to a Solr server for indexing.
+ * 
+ * Collections of records are indexed in batches: the records are grouped by target core
+ * into multi-document add messages of configurable maximum size, which are streamed to the server
+ * while the records are serialized, 
+ * and all changes are committed at once after the whole collection has been indexed.
+ * 
+ * When a {@link SolrCommitCoordinator} is available, the commits are not issued directly: each call waits instead 
+ * for a group commit that covers its records, so that the commits requested by successive or concurrent 
+ * publishing operations (record by record, or collection by collection) are coalesced.
  */
 @Component("indexer")
 public class SolrIndexer implements RecordConsumer {
@@ -47,6 +58,17 @@ public class SolrIndexer implements RecordConsumer {
     // collaborator that validate records
     public RecordValidator validator;
     
+    // optional coordinator that groups the commits of successive and concurrent publishing operations
+    // (the records are committed directly if null)
+    private SolrCommitCoordinator commitCoordinator;
+    
+    // maximum number of records in a single add message
+    private int batchSize = 500;
+    
+    // maximum size (in characters) of a single add message: the message is closed as soon as it reaches this size
+    // (a message always contains at least one record)
+    private int batchBytes = 4*1024*1024;
+    
     private final Log LOG = LogFactory.getLog(this.getClass());
 				
 	/**
@@ -70,33 +92,107 @@ public class SolrIndexer implements RecordConsumer {
 	public void consume(final Record record) throws Exception {
 	   	    
 	    validate(record);
-		final String xml = SolrMessageBuilder.buildAddMessage(record, true);
-		solrClient.index(xml, record.getType(), true); // commit=true
+	    final List<Record> records = new ArrayList<Record>(1);
+	    records.add(record);
+	    solrClient.index(records, 0, record.getType(), 1, batchBytes);
+	    if (commitCoordinator!=null) {
+	        commitCoordinator.commit(record.getType(), 1); // wait for the group commit that covers this record
+	    } else {
+	        solrClient.commit();
+	    }
 				
 	}
 		
 	/**
      * {@inheritDoc}
      * 
-     * Note that this implementation will first index all records,
+     * Note that this implementation will first validate all records,
+     * then index them in batches (one batch per core at a time),
      * then commit all changes at once.
      */
     public void consume(final Collection<Record> records) throws Exception {
         
-        // index one record at a time, do not commit
+        // validate all records before sending any of them
+        for (final Record record : records) validate(record);
+        
+        // group records by type (i.e. target core)
+        final Map<String, List<Record>> groups = new LinkedHashMap<String, List<Record>>();
         for (final Record record : records) {
-            
-            validate(record);
-            final String xml = SolrMessageBuilder.buildAddMessage(record, true);
-            solrClient.index(xml, record.getType(), true);
-            
+            List<Record> group = groups.get(record.getType());
+            if (group==null) {
+                group = new ArrayList<Record>();
+                groups.put(record.getType(), group);
+            }
+            group.add(record);
+        }
+        
+        // stream each group as one or more add messages, do not commit
+        int messages = 0;
+        for (final Map.Entry<String, List<Record>> group : groups.entrySet()) {
+            int from = 0;
+            while (from<group.getValue().size()) {
+                final int count = solrClient.index(group.getValue(), from, group.getKey(), batchSize, batchBytes);
+                if (LOG.isDebugEnabled()) LOG.debug("Indexed batch of "+count+" records of type="+group.getKey());
+                from += count;
+                messages++;
+            }
         }
         
         // commit all records at once, to all cores
-        solrClient.commit();
+        if (commitCoordinator!=null) {
+            final Map<String, Integer> numberOfRecords = new LinkedHashMap<String, Integer>();
+            for (final Map.Entry<String, List<Record>> group : groups.entrySet()) {
+                numberOfRecords.put(group.getKey(), group.getValue().size());
+            }
+            commitCoordinator.commit(numberOfRecords);
+        } else {
+            solrClient.commit();
+        }
+        if (LOG.isInfoEnabled()) LOG.info("Indexed "+records.size()+" records in "+messages+" add messages");
         
     }
     
+    @Autowired(required=false)
+    public void setCommitCoordinator(SolrCommitCoordinator commitCoordinator) {
+        this.commitCoordinator = commitCoordinator;
+    }
+    
+    /**
+     * Method to set the maximum number of records sent to Solr in a single add message.
+     * @param batchSize
+     */
+    @Value("${esg.search.publish.batch.size:500}")
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(batchSize, 1);
+    }
+    
+    /**
+     * Method to set the maximum size (in characters) of a single add message.
+     * @param batchBytes
+     */
+    @Value("${esg.search.publish.batch.bytes:4194304}")
+    public void setBatchBytes(int batchBytes) {
+        this.batchBytes = batchBytes;
+    }
+    
+    /**
+     * Method to send the add messages in the binary (javabin) format, rather than XML.
+     * @param javabin
+     */
+    @Value("${esg.search.solr.javabin:false}")
+    public void setJavabin(boolean javabin) {
+        solrClient.setJavabin(javabin);
+    }
+    
+    /**
+     * Method to set the maximum time for the commit of all cores (executed in parallel) to complete.
+     * @param coreTimeout : in milliseconds, 0 for no limit
+     */
+    @Value("${esg.search.solr.core.timeout:600000}")
+    public void setCoreTimeout(long coreTimeout) {
+        solrClient.setCoreTimeout(coreTimeout);
+    }
+    
     /**
      * Method to validate a record
      * @param record
@@ -12,7 +12,7 @@ import org.jdom.JDOMException;
 import org.springframework.util.StringUtils;
 
 import esg.search.core.Record;
-import esg.search.core.RecordImpl;
+import esg.search.core.RecordFactory;
 import esg.search.core.RecordSerializer;
 import esg.search.query.api.QueryParameters;
 import esg.search.query.impl.solr.SolrXmlPars;
@@ -41,7 +41,7 @@ public class SolrRecordSerializer implements RecordSerializer {
         Element root = doc.getRootElement();
         
         // create record stub
-        Record record = new RecordImpl();
+        Record record = RecordFactory.getInstance().newRecord();
         
         // optional record schema (note: convert to lower case)
         String schema = root.getAttributeValue(SolrXmlPars.ATTRIBUTE_SCHEMA);
@@ -24,6 +24,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -33,12 +35,20 @@ import esg.search.publish.api.RecordConsumer;
 
 /**
  * Implementation of {@link RecordConsumer} that sends (skeleton) records to a Solr server for removal.
+ * 
+ * Collections of records are removed with combined delete messages of configurable maximum size,
+ * and all changes are committed at once after the whole collection has been removed.
  */
 @Component("scrabber")
 public class SolrScrabber implements RecordConsumer {
     
     // client object that sends XML requests to Solr server
     final SolrClient solrClient;
+    
+    // maximum number of records in a single delete message
+    private int batchSize = 1000;
+    
+    private final Log LOG = LogFactory.getLog(this.getClass());
 						
 	/**
 	 * Constructor delegates to superclass.
@@ -68,8 +78,30 @@ public class SolrScrabber implements RecordConsumer {
         for (final Record record : records) {
             ids.add(record.getId());
         }
-        solrClient.delete(ids);
         
+        // send delete messages, commit all cores at once
+        solrClient.delete(ids, batchSize);
+        solrClient.commit();
+        if (LOG.isInfoEnabled()) LOG.info("Removed "+ids.size()+" records");
+        
+    }
+    
+    /**
+     * Method to set the maximum number of records removed by a single delete message.
+     * @param batchSize
+     */
+    @Value("${esg.search.publish.delete.batch.size:1000}")
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(batchSize, 1);
+    }
+    
+    /**
+     * Method to set the maximum time for the deletes and commits of all cores (executed in parallel) to complete.
+     * @param coreTimeout : in milliseconds, 0 for no limit
+     */
+    @Value("${esg.search.solr.core.timeout:600000}")
+    public void setCoreTimeout(long coreTimeout) {
+        solrClient.setCoreTimeout(coreTimeout);
     }
 
 }
@@ -31,6 +31,7 @@ import esg.search.publish.api.MetadataRepositoryType;
 import esg.search.publish.api.PublishingException;
 import esg.search.publish.api.PublishingService;
 import esg.search.publish.impl.solr.SolrClient;
+import esg.search.publish.impl.solr.SolrCommitCoordinator;
 import esg.search.publish.impl.solr.SolrRecordSerializer;
 import esg.search.publish.security.AuthorizerAdapter;
 import esg.search.publish.validation.RecordValidator;
@@ -64,6 +65,10 @@ public class PublishResource {
     // class used to authorize the publishing calls
     // no authorization takes place if null
     private final AuthorizerAdapter authorizer;
+    
+    // optional coordinator that groups the commits of concurrent push operations
+    // (each record is committed individually if null)
+    private SolrCommitCoordinator commitCoordinator;
         
     /**
      * Constructor is configured to interact with a specific Solr server.
@@ -87,6 +92,11 @@ public class PublishResource {
         
     }
     
+    @Autowired(required=false)
+    public void setCommitCoordinator(SolrCommitCoordinator commitCoordinator) {
+        this.commitCoordinator = commitCoordinator;
+    }
+    
     /**
      * Test GET method.
      * @return
@@ -131,7 +141,12 @@ public class PublishResource {
             
             String request = "<add>"+record+"</add>";
             // ignore response from Solr client
-            solrClient.index(request, obj.getType(), true); // commit=true after this record
+            if (commitCoordinator!=null) {
+                solrClient.index(request, obj.getType(), false);
+                commitCoordinator.commit(obj.getType(), 1); // wait for the group commit that covers this record
+            } else {
+                solrClient.index(request, obj.getType(), true); // commit=true after this record
+            }
             return newXmlResponse("Published record: "+obj.getId());
             
         } catch(SecurityException se) {
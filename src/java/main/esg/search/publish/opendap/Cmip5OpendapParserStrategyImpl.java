@@ -83,8 +83,11 @@ public class Cmip5OpendapParserStrategyImpl extends DefaultOpendapParserStrategy
             } else if (aname.equalsIgnoreCase(ThreddsPars.CREATION_DATE)) {
                 try {
                     Date date = DateUtils.parse(avalue) ;
-                    record.setField(QueryParameters.FIELD_TIMESTAMP, 
-                                    SolrXmlPars.SOLR_DATE_TIME_FORMATTER.format(date));
+                    // the shared formatter is not thread safe
+                    synchronized (SolrXmlPars.SOLR_DATE_TIME_FORMATTER) {
+                        record.setField(QueryParameters.FIELD_TIMESTAMP, 
+                                        SolrXmlPars.SOLR_DATE_TIME_FORMATTER.format(date));
+                    }
                 } catch(ParseException e) {
                     LOG.warn(e.getMessage());
                 }
@@ -17,8 +17,8 @@ import ucar.nc2.Variable;
 import ucar.nc2.dataset.NetcdfDataset;
 import ucar.nc2.ncml.Aggregation;
 import esg.search.core.Record;
+import esg.search.core.RecordFactory;
 import esg.search.core.RecordHelper;
-import esg.search.core.RecordImpl;
 import esg.search.publish.plugins.MetadataEnhancer;
 import esg.search.publish.thredds.ThreddsPars;
 import esg.search.publish.thredds.ThreddsUtils;
@@ -62,7 +62,7 @@ public class DefaultOpendapParserStrategyImpl implements OpendapParserStrategy {
         if (LOG.isInfoEnabled()) LOG.info("Parsing OpenDAP url="+url);
 
         // create (list of) records
-        Record record = new RecordImpl();
+        Record record = RecordFactory.getInstance().newRecord();
         
         // optional validation schema
         if (schema!=null) record.setSchema(schema);
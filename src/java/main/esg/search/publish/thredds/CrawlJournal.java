@@ -0,0 +1,303 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.thredds;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import esg.search.core.Record;
+import esg.search.publish.api.RecordConsumer;
+
+/**
+ * Durable journal of a crawling operation, that allows an interrupted crawl to be resumed 
+ * without crawling and indexing again the catalogs that were already completed.
+ * 
+ * The journal is an append-only text file, with one entry per line:
+ * <pre>
+ * QUEUED TAB uri               (catalog added to the crawling frontier)
+ * DONE TAB uri TAB records     (catalog crawled, and all its records consumed)
+ * ERROR TAB uri                (catalog could not be crawled, it will be retried when resuming)
+ * </pre>
+ * 
+ * A catalog is completed only when all the records produced from it have been consumed:
+ * to this purpose, the journal must be subscribed as the last consumer of the records.
+ * The journal is synced to disk every time a catalog is completed, so that the catalogs 
+ * added to the frontier by that catalog are never lost.
+ * 
+ * @author Luca Cinquini
+ */
+public class CrawlJournal implements RecordConsumer {
+    
+    private final static String QUEUED = "QUEUED";
+    private final static String DONE = "DONE";
+    private final static String ERROR = "ERROR";
+    private final static String SEPARATOR = "\t";
+    private final static String ENCODING = "UTF-8";
+    
+    private final FileOutputStream out;
+    private final BufferedWriter writer;
+    
+    /**
+     * True if the journal is subscribed to the consumed records, 
+     * false to consider a catalog completed as soon as it has been crawled.
+     */
+    private final boolean confirmIndexing;
+    
+    // catalogs added to the frontier, and completed (as of the previous run, if resuming)
+    private final Set<String> queued = new LinkedHashSet<String>();
+    private final Set<String> completed = new LinkedHashSet<String>();
+    
+    // catalogs being crawled or indexed
+    private final Map<String, Progress> inProgress = new HashMap<String, Progress>();
+    
+    // catalogs that produced each record being indexed, keyed by record identifier
+    private final Map<String, Queue<String>> owners = new HashMap<String, Queue<String>>();
+    
+    private static final Log LOG = LogFactory.getLog(CrawlJournal.class);
+    
+    /**
+     * Constructor opens the journal file.
+     * 
+     * @param file : the journal file
+     * @param resume : true to load the state of a previous crawl and append to the file, false to start a new journal
+     * @param confirmIndexing : true if the journal will be subscribed as a consumer of the records
+     */
+    public CrawlJournal(final File file, boolean resume, boolean confirmIndexing) throws IOException {
+        
+        this.confirmIndexing = confirmIndexing;
+        if (resume && file.exists()) load(file);
+        
+        this.out = new FileOutputStream(file, resume); // append when resuming
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, ENCODING));
+        
+    }
+    
+    /**
+     * @return true if the catalog was completed by a previous crawl
+     */
+    public synchronized boolean isCompleted(final URI catalogURI) {
+        return completed.contains(catalogURI.toString());
+    }
+    
+    /**
+     * @return the catalogs added to the frontier by a previous crawl, completed or not
+     */
+    public synchronized List<URI> getQueued() {
+        return toURIs(queued);
+    }
+    
+    /**
+     * @return the catalogs added to the frontier by a previous crawl, that were never completed
+     */
+    public synchronized List<URI> getPending() {
+        final Set<String> pending = new LinkedHashSet<String>(queued);
+        pending.removeAll(completed);
+        return toURIs(pending);
+    }
+    
+    /**
+     * Method to record that a catalog has been added to the crawling frontier.
+     */
+    public synchronized void queued(final URI catalogURI) throws IOException {
+        queued.add(catalogURI.toString());
+        write(QUEUED, catalogURI.toString());
+    }
+    
+    /**
+     * Method to record the records produced from a catalog, 
+     * before they are sent to the consumers.
+     */
+    public synchronized void produced(final URI catalogURI, final Collection<Record> records) {
+        
+        final Progress progress = getProgress(catalogURI.toString());
+        progress.records += records.size();
+        if (confirmIndexing) {
+            for (final Record record : records) {
+                Queue<String> catalogs = owners.get(record.getId());
+                if (catalogs==null) {
+                    catalogs = new LinkedList<String>();
+                    owners.put(record.getId(), catalogs);
+                }
+                catalogs.add(catalogURI.toString());
+                progress.pending++;
+            }
+        }
+        
+    }
+    
+    /**
+     * Method to record that a catalog has been crawled, and its nested catalogs added to the frontier.
+     * The catalog is completed when all its records have been consumed.
+     */
+    public synchronized void crawled(final URI catalogURI) throws IOException {
+        
+        final Progress progress = getProgress(catalogURI.toString());
+        progress.crawled = true;
+        if (progress.pending==0) complete(catalogURI.toString(), progress);
+        
+    }
+    
+    /**
+     * Method to record that a catalog could not be crawled.
+     * The records produced from the catalog are no longer tracked, so that they are not
+     * attributed to another catalog that produces records with the same identifiers.
+     */
+    public synchronized void failed(final URI catalogURI) throws IOException {
+        
+        final String catalog = catalogURI.toString();
+        if (inProgress.remove(catalog)!=null) {
+            for (final Iterator<Queue<String>> iterator = owners.values().iterator(); iterator.hasNext(); ) {
+                final Queue<String> catalogs = iterator.next();
+                catalogs.removeAll(Collections.singleton(catalog));
+                if (catalogs.isEmpty()) iterator.remove();
+            }
+        }
+        write(ERROR, catalog);
+        
+    }
+    
+    /**
+     * {@inheritDoc}
+     * Records that the given record has been consumed by all the preceding consumers.
+     */
+    @Override
+    public synchronized void consume(final Record record) throws Exception {
+        
+        final Queue<String> catalogs = owners.get(record.getId());
+        if (catalogs==null) return;
+        final String catalog = catalogs.poll();
+        if (catalogs.isEmpty()) owners.remove(record.getId());
+        
+        final Progress progress = inProgress.get(catalog);
+        if (progress!=null) {
+            progress.pending--;
+            if (progress.pending==0 && progress.crawled) complete(catalog, progress);
+        }
+        
+    }
+
+    /**
+     * {@inheritDoc}
+     * Records that the given records have been consumed by all the preceding consumers.
+     */
+    @Override
+    public synchronized void consume(final Collection<Record> records) throws Exception {
+        for (final Record record : records) consume(record);
+    }
+    
+    /**
+     * Method to close the journal file.
+     */
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+    
+    private Progress getProgress(final String catalog) {
+        Progress progress = inProgress.get(catalog);
+        if (progress==null) {
+            progress = new Progress();
+            inProgress.put(catalog, progress);
+        }
+        return progress;
+    }
+    
+    private void complete(final String catalog, final Progress progress) throws IOException {
+        
+        inProgress.remove(catalog);
+        completed.add(catalog);
+        write(DONE, catalog+SEPARATOR+progress.records);
+        
+        // checkpoint
+        writer.flush();
+        out.getFD().sync();
+        
+    }
+    
+    private void write(final String type, final String value) throws IOException {
+        writer.write(type+SEPARATOR+value);
+        writer.newLine();
+    }
+    
+    private void load(final File file) throws IOException {
+        
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+        try {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split(SEPARATOR);
+                if (parts.length<2) continue; // partially written last line
+                if (parts[0].equals(QUEUED)) {
+                    queued.add(parts[1]);
+                } else if (parts[0].equals(DONE)) {
+                    completed.add(parts[1]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        
+        if (LOG.isInfoEnabled()) LOG.info("Resuming crawl from journal: "+file.getAbsolutePath()
+                                          +" catalogs completed="+completed.size()+" pending="+getPending().size());
+        
+    }
+    
+    private static List<URI> toURIs(final Collection<String> uris) {
+        final List<URI> list = new ArrayList<URI>();
+        for (final String uri : uris) list.add(URI.create(uri));
+        return list;
+    }
+    
+    /**
+     * Progress of a single catalog.
+     */
+    private static class Progress {
+        
+        // number of records produced from this catalog
+        int records = 0;
+        
+        // number of records not yet consumed
+        int pending = 0;
+        
+        // true when the catalog has been crawled
+        boolean crawled = false;
+        
+    }
+
+}
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.thredds;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Class that stores the state of THREDDS catalogs as of the last crawling operation,
+ * so that following crawls can skip the catalogs that have not changed since.
+ * 
+ * For each catalog, the state includes the HTTP validators returned by the server (ETag and Last-Modified headers),
+ * a hash of the catalog content, and the references to nested catalogs (which must still be crawled even
+ * if the referencing catalog is unchanged).
+ * 
+ * The state is stored in a local text file, one catalog per line:
+ * <pre>
+ * uri TAB etag TAB last-modified TAB hash [TAB catalogRef]*
+ * </pre>
+ * 
+ * Only the catalogs that were crawled successfully since the state was loaded are saved,
+ * so that the state of catalogs that are no longer referenced (or could not be retrieved) is dropped.
+ * 
+ * @author Luca Cinquini
+ */
+public class CrawlState {
+    
+    private final static String SEPARATOR = "\t";
+    private final static String NONE = "-";
+    private final static String ENCODING = "UTF-8";
+    
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    
+    // catalogs crawled since the state was loaded
+    private final Set<String> crawled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    
+    // counters for the current crawling operation
+    private final AtomicInteger skipped = new AtomicInteger(0);
+    private final AtomicInteger reprocessed = new AtomicInteger(0);
+    
+    private static final Log LOG = LogFactory.getLog(CrawlState.class);
+    
+    /**
+     * Method to load the crawl state from a local file.
+     * An empty state is returned if the file does not exist.
+     */
+    public static CrawlState load(final File file) throws IOException {
+        
+        final CrawlState state = new CrawlState();
+        if (!file.exists()) return state;
+        
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+        try {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                final String[] parts = line.split(SEPARATOR);
+                if (parts.length<4) {
+                    LOG.warn("Ignoring invalid crawl state line: "+line);
+                    continue;
+                }
+                final List<URI> catalogRefs = new ArrayList<URI>();
+                for (int i=4; i<parts.length; i++) catalogRefs.add(URI.create(parts[i]));
+                state.entries.put(parts[0], new Entry(decode(parts[1]), decode(parts[2]), parts[3], catalogRefs));
+            }
+        } finally {
+            reader.close();
+        }
+        
+        if (LOG.isInfoEnabled()) LOG.info("Loaded state of "+state.entries.size()+" catalogs from file: "+file.getAbsolutePath());
+        return state;
+        
+    }
+    
+    /**
+     * Method to save the crawl state to a local file (written to a temporary file first, then renamed).
+     * The state of the catalogs that were not crawled since the state was loaded is pruned,
+     * unless no catalog was crawled at all.
+     */
+    public void save(final File file) throws IOException {
+        
+        final File tmpFile = new File(file.getAbsolutePath()+".tmp");
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), ENCODING));
+        try {
+            final boolean prune = !crawled.isEmpty();
+            for (final Map.Entry<String, Entry> e : new TreeMap<String, Entry>(entries).entrySet()) {
+                if (prune && !crawled.contains(e.getKey())) {
+                    if (LOG.isDebugEnabled()) LOG.debug("Pruning state of catalog no longer crawled: "+e.getKey());
+                    continue;
+                }
+                final Entry entry = e.getValue();
+                writer.write(e.getKey()+SEPARATOR+encode(entry.etag)+SEPARATOR+encode(entry.lastModified)+SEPARATOR+entry.hash);
+                for (final URI catalogRef : entry.catalogRefs) writer.write(SEPARATOR+catalogRef.toString());
+                writer.newLine();
+            }
+        } finally {
+            writer.close();
+        }
+        
+        if (file.exists() && !file.delete()) throw new IOException("Cannot replace crawl state file: "+file.getAbsolutePath());
+        if (!tmpFile.renameTo(file)) throw new IOException("Cannot write crawl state file: "+file.getAbsolutePath());
+        
+    }
+    
+    /**
+     * @return the state of a catalog as of the last crawl, or null if the catalog was never crawled
+     */
+    public Entry get(final URI catalogURI) {
+        return entries.get(catalogURI.toString());
+    }
+    
+    /**
+     * Method to record the state of a catalog that was successfully crawled.
+     */
+    public void put(final URI catalogURI, final Entry entry) {
+        entries.put(catalogURI.toString(), entry);
+        crawled.add(catalogURI.toString());
+    }
+    
+    void skipped() {
+        skipped.incrementAndGet();
+    }
+    
+    void reprocessed() {
+        reprocessed.incrementAndGet();
+    }
+    
+    /**
+     * @return the number of unchanged catalogs, that were not parsed and indexed again
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+    
+    /**
+     * @return the number of new or changed catalogs, that were parsed and indexed
+     */
+    public int getReprocessed() {
+        return reprocessed.get();
+    }
+    
+    public String getSummary() {
+        return "Crawl summary: catalogs reprocessed="+getReprocessed()+" skipped (unchanged)="+getSkipped();
+    }
+    
+    private static String encode(final String value) {
+        return value==null ? NONE : value.replace(SEPARATOR, " ");
+    }
+    
+    private static String decode(final String value) {
+        return value.equals(NONE) ? null : value;
+    }
+    
+    /**
+     * The state of a single catalog.
+     */
+    public static class Entry {
+        
+        final String etag;
+        final String lastModified;
+        final String hash;
+        final List<URI> catalogRefs;
+        
+        public Entry(final String etag, final String lastModified, final String hash, final List<URI> catalogRefs) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.catalogRefs = Collections.unmodifiableList(catalogRefs);
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public List<URI> getCatalogRefs() {
+            return catalogRefs;
+        }
+        
+    }
+
+}
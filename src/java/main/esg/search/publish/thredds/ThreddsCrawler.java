@@ -18,17 +18,33 @@
  ******************************************************************************/
 package esg.search.publish.thredds;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
@@ -48,6 +64,8 @@ import esg.search.query.api.SearchInput;
 import esg.search.query.api.SearchOutput;
 import esg.search.query.api.SearchService;
 import esg.search.query.impl.solr.SearchInputImpl;
+import esg.search.utils.HttpClient;
+import esg.search.utils.StringDictionary;
 
 /**
  * Implementation of {@link MetadataRepositoryCrawler} for processing a hierarchy of THREDDS catalogs.
@@ -70,6 +88,40 @@ public class ThreddsCrawler implements MetadataRepositoryCrawler {
 	private final SearchService searchService;
 	
 	private MetadataRepositoryCrawlerListener listener = null;
+	
+	/**
+	 * Maximum number of catalogs crawled at the same time.
+	 */
+	private int threads = 8;
+	
+	/**
+	 * Maximum number of catalogs fetched at the same time from the same host.
+	 */
+	private int connectionsPerHost = 4;
+	
+	/**
+	 * Optional state of the previous crawl, for incremental crawling.
+	 */
+	private CrawlState crawlState = null;
+	
+	/**
+	 * Optional journal, to resume an interrupted crawl.
+	 */
+	private CrawlJournal journal = null;
+	
+	/**
+	 * Maximum number of file records notified at once for a single dataset,
+	 * or 0 to notify all the records of a dataset together (the default).
+	 * Note that the chunks of files may be indexed before their dataset record: if the crawl of the dataset
+	 * then fails, the files already indexed are left without a dataset until the catalog is published again.
+	 */
+	private int chunkSize = 0;
+	
+	/**
+	 * Connection and read timeouts for retrieving the catalogs (in milliseconds, 0 for no timeout).
+	 */
+	private int connectionTimeout = 10000;
+	private int readTimeout = 60000;
 		
 	private final Log LOG = LogFactory.getLog(this.getClass());
 	
@@ -95,6 +147,10 @@ public class ThreddsCrawler implements MetadataRepositoryCrawler {
 	 * Method to crawl a THREDDS catalog located at some URI, and optionally the whole hierarchy of referenced catalogs.
 	 * An optional filter expression can be specified to filter the catalogs URIs.
 	 * 
+	 * The top-level catalog is crawled by the calling thread, while the referenced catalogs are fetched and parsed 
+	 * in parallel by a pool of threads, with a limited number of concurrent requests to the same host.
+	 * Each catalog is crawled at most once, so that cycles in the hierarchy of catalogs are not followed.
+	 * 
 	 * This method implements the filtering and recursive behaviour, while leaving the crawl of a single dataset hierarchy to the
 	 * "crawlDataset" method.
 	 * 
@@ -105,8 +161,6 @@ public class ThreddsCrawler implements MetadataRepositoryCrawler {
 	 */
 	public void crawl(final URI catalogURI, final String filter, boolean recursive, final RecordProducer callback, boolean publish, URI schema) throws Exception {
 		
-        if (LOG.isInfoEnabled()) LOG.info("Parsing catalog: "+catalogURI.toString()+" Validation schema="+schema);
-        
 	    // regex pattern to match THREDDS catalogs URIs
         // NOTE: always crawl top-level catalog, enforce regular expression only for nested catalogs
 	    Pattern pattern = Pattern.compile(".*"); // match everything by default
@@ -114,13 +168,83 @@ public class ThreddsCrawler implements MetadataRepositoryCrawler {
 	        pattern = Pattern.compile(filter);
 	    }
         if (LOG.isDebugEnabled()) LOG.debug("Crawling catalogs that match regex="+pattern.toString());
+        
+        // frontier of a previous crawl that is being resumed
+        final List<URI> queued = journal==null ? new ArrayList<URI>() : journal.getQueued();
+        final List<URI> pending = journal==null ? new ArrayList<URI>() : journal.getPending();
+        
+        // top-level catalog: errors are thrown up the stack
+        List<URI> catalogRefs = new ArrayList<URI>();
+        final boolean completed = journal!=null && journal.isCompleted(catalogURI);
+        if (completed) {
+            if (LOG.isInfoEnabled()) LOG.info("Catalog: "+catalogURI.toString()+" was completed by the previous crawl, resuming from journal.");
+        } else {
+            if (journal!=null) journal.queued(catalogURI);
+            try {
+                catalogRefs = crawlCatalog(catalogURI, callback, publish, schema);
+            } catch(Exception e) {
+                if (journal!=null) journal.failed(catalogURI);
+                throw e;
+            }
+        }
+        
+        // recursion
+        if (recursive) {
+            final Frontier frontier = new Frontier(pattern, callback, publish, schema);
+            frontier.visit(catalogURI);
+            frontier.resume(pending, queued);
+            frontier.addAll(catalogRefs);
+            if (journal!=null && !completed) journal.crawled(catalogURI); // after the nested catalogs are journaled
+            frontier.await();
+        } else if (journal!=null && !completed) {
+            journal.crawled(catalogURI);
+        }
+        
+        if (publish && crawlState!=null && LOG.isInfoEnabled()) LOG.info(crawlState.getSummary());
+        if (LOG.isInfoEnabled()) LOG.info(StringDictionary.getInstance());
+                        				
+	}
+	
+	/**
+	 * Method to crawl a single THREDDS catalog, without following the catalog references.
+	 * @return the list of catalog references, anywhere in this catalog
+	 */
+	private List<URI> crawlCatalog(final URI catalogURI, final RecordProducer callback, boolean publish, URI schema) throws Exception {
+	    
+        if (LOG.isInfoEnabled()) LOG.info("Parsing catalog: "+catalogURI.toString()+" Validation schema="+schema);
 	                            
         // list of catalog references, anywhere in this catalog
         final List<URI> catalogRefs = new ArrayList<URI>();
+        
+        // incremental crawling (publishing only)
+        final CrawlState state = publish ? crawlState : null;
     
 	    try {
 	        
-	        final InvCatalog catalog = parseCatalog(catalogURI.toString());
+	        final InvCatalog catalog;
+	        CatalogContent content = null;
+	        if (state==null) {
+	            content = fetchCatalog(catalogURI, null);
+	            catalog = parseCatalog(catalogURI, content.bytes);
+	            
+	        } else {
+	            final CrawlState.Entry previous = state.get(catalogURI);
+	            content = fetchCatalog(catalogURI, previous);
+	            
+	            // unchanged catalog: skip parsing and indexing, but follow the nested catalogs
+	            if (previous!=null && (content.bytes==null || content.hash.equals(previous.getHash()))) {
+	                if (LOG.isInfoEnabled()) LOG.info("Catalog: "+catalogURI.toString()+" is unchanged since last crawl, skipping publishing of records.");
+	                state.put(catalogURI, new CrawlState.Entry(content.etag, content.lastModified, previous.getHash(), previous.getCatalogRefs()));
+	                state.skipped();
+	                if (listener!=null) {
+	                    synchronized (listener) {
+	                        listener.afterCrawlingSuccess(catalogURI.toString());
+	                    }
+	                }
+	                return previous.getCatalogRefs();
+	            }
+	            catalog = parseCatalog(catalogURI, content.bytes);
+	        }
 	            							
 			for (final InvDataset dataset : catalog.getDatasets()) {
 				
@@ -131,65 +255,60 @@ public class ThreddsCrawler implements MetadataRepositoryCrawler {
 					
 				} else if (dataset instanceof InvDatasetImpl) {
 				    
-			      crawlDataset(dataset, publish, callback, catalogRefs, schema);	
+			      crawlDataset(catalogURI, dataset, publish, callback, catalogRefs, schema);	
  					
 				} // dataset instanceof InvCatalogRef or InvDatasetImpl
 				
 			} // loop over top-level datasets in this catalog
 			
+			// store the state of this catalog only after its records have been notified
+			if (state!=null) {
+			    state.put(catalogURI, new CrawlState.Entry(content.etag, content.lastModified, content.hash, catalogRefs));
+			    state.reprocessed();
+			}
+			
             // notify listener of successful completion
-            if (listener!=null) listener.afterCrawlingSuccess(catalogURI.toString());
+            if (listener!=null) {
+                synchronized (listener) {
+                    listener.afterCrawlingSuccess(catalogURI.toString());
+                }
+            }
 		    			
 		// invalid catalog
 		} catch(IOException e) {
 		    
             // notify listener of crawling error
-            if (listener!=null) listener.afterCrawlingError(catalogURI.toString());
+            if (listener!=null) {
+                synchronized (listener) {
+                    listener.afterCrawlingError(catalogURI.toString());
+                }
+            }
            
             // throw the exception up the stack
 			throw e;
 		
 		}
-    		            
-        // recursion
-        if (recursive) {
-            for (final URI catalogRef : catalogRefs) {
-                
-                // only crawl catalogs that match filter provided
-                final Matcher matcher = pattern.matcher(catalogRef.toString());
-                if (matcher.matches()) {
-                    
-                    // parse THREDDS catalog
-                    if (LOG.isInfoEnabled()) 
-                        LOG.info("Catalog "+catalogRef.toString()+" matches filter regular expression, proceeding with publishing/unpubishing of records");
-                    try {
-                        crawl(catalogRef, filter, recursive, callback, publish, schema);
-                    } catch(Exception e) {
-                        // print error from nested invocation
-                        LOG.warn("Error parsing catalog: "+catalogRef.toString());
-                        LOG.warn(e.getMessage());
-                    }
-                
-                } else {
-                    if (LOG.isInfoEnabled()) 
-                        LOG.info("Catalog: "+catalogRef.toString()+" does not match regular expression filter, skipping publishing/unpublishing of records.");
-                } // regex match
-                
-            }
-        }
-                        				
+	    
+	    return catalogRefs;
+	    
 	}
 	
 	/**
 	 * Method to crawl a hierarchy of datasets contained within a single THREDDS catalog.
+	 * @param catalogURI
 	 * @param dataset
 	 * @param publish
 	 * @param callback
 	 * @param catalogRefs
 	 */
-	private void crawlDataset(final InvDataset dataset, boolean publish, final RecordProducer callback, 
+	private void crawlDataset(final URI catalogURI, final InvDataset dataset, boolean publish, final RecordProducer callback, 
 	                          final List<URI> catalogRefs, URI schema) throws Exception {
 	    
+	    if (chunkSize>0) {
+	        crawlDatasetInChunks(catalogURI, dataset, publish, callback, catalogRefs, schema);
+	        return;
+	    }
+	    
         // list or previous records to be republished
         final List<Record> _records = new ArrayList<Record>();
         
@@ -208,62 +327,29 @@ public class ThreddsCrawler implements MetadataRepositoryCrawler {
             if (publish) {
                 
                 // check versus existing records in the metadata repository
-                if (searchService!=null) {
-                    final List<Record> exRecords = this.getLatestDatasets(drecord.getMasterId());
-                    // loop over existing records
-                    for (final Record exRecord : exRecords) {
-                        
-                        if (exRecord.getVersion()<drecord.getVersion()) {
-                            // case 1) publishing a newer version:
-                            // republish previous version with "latest"=false
-                            
-                            // retrieve previous record THREDDS catalogs URI
-                            String exCatalogUri = RecordHelper.selectUrlByMimeType(exRecord, QueryParameters.MIME_TYPE_THREDDS);
-                            if (StringUtils.hasText(exCatalogUri)) {
-                                
-                                final InvCatalog exCatalog = parseCatalog(exCatalogUri);
-                                    
-                                for (final InvDataset exDataset : exCatalog.getDatasets()) {
-                                    if (LOG.isInfoEnabled()) 
-                                        LOG.info("Latest version in index: catalog uri="+exCatalogUri+" record id="
-                                                +exRecord.getId()+" record master_id="+exRecord.getMasterId()+" version="+exRecord.getVersion());
-                                    if (exDataset instanceof InvDatasetImpl) {
-                                        // publish previous records with "latest"=false
-                                        if (LOG.isInfoEnabled()) LOG.info("Republishing dataset: "+exDataset.getID()+" with latest=false");
-                                        // NOTE: the nested catalogRefs are ignored as they will be processed independently
-                                        _records.addAll( parser.parseDataset(exDataset, false, new ArrayList<URI>(), schema));
-                                    }
-                                }
-                                                                            
-                            }
-                          
-                        } else if (exRecord.getVersion()>drecord.getVersion()) {
-                            // case 2) publishing an older version:
-                            // change latest flag of this version before publishing it
-                            if (LOG.isInfoEnabled()) LOG.info("Index already contains newer version: "+exRecord.getVersion()
-                                                             +" - setting latest=false for this version: "+drecord.getVersion());
-    
-                            for (final Record record : records) {
-                                record.setLatest(false);
-                            }
-                            
-                        } else {
-                            // case 3) publishing the same version:
-                            // nothing to do
-                        }
+                if (this.checkVersions(drecord, schema, _records)) {
+                    for (final Record record : records) {
+                        record.setLatest(false);
                     }
                 }
                 
                 // publish new and older versions as a single commit
                 records.addAll(_records);
-                callback.notify(records);
+                // records from concurrently crawled catalogs are notified one catalog at a time
+                synchronized (callback) {
+                    if (journal!=null) journal.produced(catalogURI, records);
+                    callback.notify(records);
+                }
                                         
             // un-publish
             } else {
                 
                 // remove top-level dataset only, files will follow
                 if (LOG.isDebugEnabled()) LOG.debug("Removing catalog for top-level dataset="+drecord.getId());
-                callback.notify(drecord);
+                synchronized (callback) {
+                    if (journal!=null) journal.produced(catalogURI, Collections.singletonList(drecord));
+                    callback.notify(drecord);
+                }
                 
             }
         
@@ -272,23 +358,225 @@ public class ThreddsCrawler implements MetadataRepositoryCrawler {
 	}
 	
 	/**
-	 * Private method to parse a THREDDS catalog referenced by a URI into an object,
+	 * Method to crawl a hierarchy of datasets contained within a single THREDDS catalog,
+	 * notifying the file and aggregation records in chunks of at most chunkSize records as they are parsed,
+	 * so that the records of a very large dataset are never all held in memory at the same time.
+	 * The top-level dataset record, which carries the summary of all its files, is notified last:
+	 * if parsing fails before then, the chunks already notified are not rolled back.
+	 */
+	private void crawlDatasetInChunks(final URI catalogURI, final InvDataset dataset, final boolean publish, final RecordProducer callback, 
+	                                  final List<URI> catalogRefs, final URI schema) throws Exception {
+	    
+	    parser.parseDataset(dataset, true, catalogRefs, schema, chunkSize, new ThreddsRecordHandler() { // set latest=true by default
+	        
+	        // list or previous records to be republished
+	        private final List<Record> _records = new ArrayList<Record>();
+	        
+	        // flag set when publishing an older version
+	        private boolean older = false;
+	        
+	        // flag set when at least one chunk of files or aggregations has been sent
+	        private boolean started = false;
+	        
+	        @Override
+	        public void startDataset(final Record drecord) throws Exception {
+	            // check versus existing records in the metadata repository, before any file is published
+	            if (publish) older = checkVersions(drecord, schema, _records);
+	        }
+	        
+	        @Override
+	        public void handleRecords(final List<Record> records, final boolean last) throws Exception {
+	            
+	            if (last) {
+	                // top-level dataset
+	                final Record drecord = records.get(records.size()-1);
+	                // only publish/unpublish if it has associated files, aggregations or URLs (except for the THREDDS catalog URL)
+	                if ( !started && records.size()==1 && drecord.getFieldValues(QueryParameters.FIELD_URL).size()<=1 ) return;
+	                
+	                if (!publish) {
+	                    // remove top-level dataset only, files will follow
+	                    if (LOG.isDebugEnabled()) LOG.debug("Removing catalog for top-level dataset="+drecord.getId());
+	                    synchronized (callback) {
+	                        if (journal!=null) journal.produced(catalogURI, Collections.singletonList(drecord));
+	                        callback.notify(drecord);
+	                    }
+	                    return;
+	                }
+	                
+	            } else {
+	                started = true;
+	                if (!publish) return;
+	            }
+	            
+	            if (older) {
+	                for (final Record record : records) {
+	                    record.setLatest(false);
+	                }
+	            }
+	            
+	            // publish older versions together with the top-level dataset
+	            if (last) records.addAll(_records);
+	            synchronized (callback) {
+	                if (journal!=null) journal.produced(catalogURI, records);
+	                callback.notify(records);
+	            }
+	            
+	        }
+	        
+	    });
+	    
+	}
+	
+	/**
+	 * Method to check a top-level dataset versus the latest versions of the same dataset in the metadata repository.
+	 * @param drecord : the top-level dataset record being published
+	 * @param schema
+	 * @param _records : list populated with the records of the previous versions, to be republished with latest=false
+	 * @return true if the metadata repository already contains a newer version of the dataset
+	 */
+	private boolean checkVersions(final Record drecord, final URI schema, final List<Record> _records) throws Exception {
+	    
+	    boolean older = false;
+	    if (searchService!=null) {
+            final List<Record> exRecords = this.getLatestDatasets(drecord.getMasterId());
+            // loop over existing records
+            for (final Record exRecord : exRecords) {
+                
+                if (exRecord.getVersion()<drecord.getVersion()) {
+                    // case 1) publishing a newer version:
+                    // republish previous version with "latest"=false
+                    
+                    // retrieve previous record THREDDS catalogs URI
+                    String exCatalogUri = RecordHelper.selectUrlByMimeType(exRecord, QueryParameters.MIME_TYPE_THREDDS);
+                    if (StringUtils.hasText(exCatalogUri)) {
+                        
+                        final URI exURI = new URI(exCatalogUri);
+                        final InvCatalog exCatalog = parseCatalog(exURI, fetchCatalog(exURI, null).bytes);
+                            
+                        for (final InvDataset exDataset : exCatalog.getDatasets()) {
+                            if (LOG.isInfoEnabled()) 
+                                LOG.info("Latest version in index: catalog uri="+exCatalogUri+" record id="
+                                        +exRecord.getId()+" record master_id="+exRecord.getMasterId()+" version="+exRecord.getVersion());
+                            if (exDataset instanceof InvDatasetImpl) {
+                                // publish previous records with "latest"=false
+                                if (LOG.isInfoEnabled()) LOG.info("Republishing dataset: "+exDataset.getID()+" with latest=false");
+                                // NOTE: the nested catalogRefs are ignored as they will be processed independently
+                                _records.addAll( parser.parseDataset(exDataset, false, new ArrayList<URI>(), schema));
+                            }
+                        }
+                                                                    
+                    }
+                  
+                } else if (exRecord.getVersion()>drecord.getVersion()) {
+                    // case 2) publishing an older version:
+                    // change latest flag of this version before publishing it
+                    if (LOG.isInfoEnabled()) LOG.info("Index already contains newer version: "+exRecord.getVersion()
+                                                     +" - setting latest=false for this version: "+drecord.getVersion());
+                    older = true;
+                    
+                } else {
+                    // case 3) publishing the same version:
+                    // nothing to do
+                }
+            }
+        }
+	    return older;
+	    
+	}
+	
+	/**
+	 * Private method to parse a THREDDS catalog that was already retrieved from a URI into an object,
 	 * leveraging the underlying THREDDS java library.
+	 * @param uri : the catalog URI, used to resolve relative references
+	 * @param bytes : the catalog content
+	 */
+	private InvCatalog parseCatalog(final URI uri, final byte[] bytes) throws IOException {
+	    
+	    final InvCatalogFactory factory = new InvCatalogFactory("default", true); // validate=true
+	    return checkCatalog(factory.readXML(new ByteArrayInputStream(bytes), uri), uri.toString());
+	    
+	}
+	
+	private InvCatalog checkCatalog(final InvCatalog catalog, final String uri) throws IOException {
+	    
+	    final StringBuilder buff = new StringBuilder();
+	    if (catalog.check(buff)) {
+	        return catalog;
+	    } else {
+	        throw new IOException("Invalid THREDDS catalog at uri: "+uri+" error: "+buff.toString());
+	    }
+	    
+	}
+	
+	/**
+	 * Private method to retrieve a THREDDS catalog, sending a conditional request 
+	 * if the HTTP validators from the previous crawl are available.
+	 * The catalog is retrieved over a pooled keep-alive connection (see {@link HttpClient}), so that the catalogs of the same server
+	 * share connections; the configured connection and read timeouts apply, so that an unresponsive server cannot block a crawler thread.
 	 * 
-	 * @param uri
-	 * @return
+	 * @param uri : the catalog URI
+	 * @param previous : the catalog state as of the previous crawl, or null
+	 * @return the catalog content (null bytes if the server reports that the catalog was not modified)
 	 */
-	private InvCatalog parseCatalog(final String uri) throws IOException {
+	private CatalogContent fetchCatalog(final URI uri, final CrawlState.Entry previous) throws IOException {
 	    
-        final InvCatalogFactory factory = new InvCatalogFactory("default", true); // validate=true
-        final InvCatalog catalog = factory.readXML(uri);
-        final StringBuilder buff = new StringBuilder();
-        
-        if (catalog.check(buff)) {
-            return catalog;
-        } else {
-            throw new IOException("Invalid THREDDS catalog at uri: "+uri+" error: "+buff.toString());
-        }
+	    final Map<String,String> requestHeaders = new HashMap<String,String>();
+	    if (previous!=null) {
+	        if (previous.getEtag()!=null) requestHeaders.put("If-None-Match", previous.getEtag());
+	        if (previous.getLastModified()!=null) requestHeaders.put("If-Modified-Since", previous.getLastModified());
+	    }
+	    
+	    // pooled connection to the THREDDS server
+	    final HttpClient httpClient = new HttpClient();
+	    if (connectionTimeout>0) httpClient.setConnectionTimeout(connectionTimeout);
+	    if (readTimeout>0) httpClient.setReadTimeout(readTimeout);
+	    final Map<String,String> responseHeaders = new TreeMap<String,String>(String.CASE_INSENSITIVE_ORDER);
+	    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	    final int status = httpClient.doGet(uri.toURL(), requestHeaders, out, responseHeaders);
+	    
+	    if (status==HttpStatus.SC_NOT_MODIFIED && previous!=null) {
+	        return new CatalogContent(null, previous.getEtag(), previous.getLastModified(), previous.getHash());
+	    } else if (status!=HttpStatus.SC_OK) {
+	        throw new IOException("Error retrieving THREDDS catalog at uri: "+uri+" HTTP status: "+status);
+	    }
+	    
+	    final byte[] bytes = out.toByteArray();
+	    return new CatalogContent(bytes, responseHeaders.get("ETag"), responseHeaders.get("Last-Modified"), hash(bytes));
+	    
+	}
+	
+	/**
+	 * Utility method to compute a fingerprint of a catalog content.
+	 */
+	private static String hash(final byte[] bytes) {
+	    
+	    try {
+	        final byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+	        final StringBuilder sb = new StringBuilder();
+	        for (final byte b : digest) sb.append(String.format("%02x", b));
+	        return sb.toString();
+	    } catch(NoSuchAlgorithmException e) {
+	        throw new IllegalStateException(e);
+	    }
+	    
+	}
+	
+	/**
+	 * A retrieved THREDDS catalog, with its HTTP validators and fingerprint.
+	 */
+	private static class CatalogContent {
+	    
+	    final byte[] bytes;
+	    final String etag;
+	    final String lastModified;
+	    final String hash;
+	    
+	    CatalogContent(final byte[] bytes, final String etag, final String lastModified, final String hash) {
+	        this.bytes = bytes;
+	        this.etag = etag;
+	        this.lastModified = lastModified;
+	        this.hash = hash;
+	    }
 	    
 	}
 	
@@ -317,5 +605,209 @@ public class ThreddsCrawler implements MetadataRepositoryCrawler {
     public void setListener(MetadataRepositoryCrawlerListener listener) {
         this.listener = listener;
     }
+    
+    /**
+     * Method to enable incremental crawling: catalogs that have not changed since the crawl
+     * recorded in the given state are not parsed and published again.
+     * @param crawlState : the state of the previous crawl, or null to crawl all catalogs
+     */
+    public void setCrawlState(final CrawlState crawlState) {
+        this.crawlState = crawlState;
+    }
+    
+    /**
+     * Method to record the progress of the following crawls in a journal,
+     * and resume the crawl recorded in the journal (if any).
+     * @param journal : the crawl journal, or null to disable journaling
+     */
+    public void setJournal(final CrawlJournal journal) {
+        this.journal = journal;
+    }
+    
+    @Value("${esg.search.publish.crawler.threads:8}")
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @Value("${esg.search.publish.crawler.connections.per.host:4}")
+    public void setConnectionsPerHost(int connectionsPerHost) {
+        this.connectionsPerHost = connectionsPerHost;
+    }
+    
+    @Value("${esg.search.publish.crawler.chunk.size:0}")
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+    
+    @Value("${esg.search.publish.crawler.timeout.connection:10000}")
+    public void setConnectionTimeout(int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+    
+    @Value("${esg.search.publish.crawler.timeout.read:60000}")
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+    
+    /**
+     * The catalogs of a recursive crawling operation that are waiting to be crawled, or being crawled.
+     * Catalog references are queued by host, and dispatched to the pool of threads 
+     * as long as the maximum number of concurrent requests to that host is not exceeded.
+     */
+    private class Frontier {
+        
+        private final Pattern pattern;
+        private final RecordProducer callback;
+        private final boolean publish;
+        private final URI schema;
+        
+        private final ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        
+        // catalogs already crawled or scheduled for crawling
+        private final Set<String> visited = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        
+        // catalogs waiting to be dispatched, keyed by host
+        private final Map<String, Queue<URI>> waiting = new HashMap<String, Queue<URI>>();
+        
+        // number of catalogs being crawled, keyed by host
+        private final Map<String, Integer> inFlight = new HashMap<String, Integer>();
+        
+        // number of catalogs waiting or being crawled
+        private int pending = 0;
+        
+        Frontier(final Pattern pattern, final RecordProducer callback, boolean publish, URI schema) {
+            this.pattern = pattern;
+            this.callback = callback;
+            this.publish = publish;
+            this.schema = schema;
+        }
+        
+        /**
+         * Marks a catalog as crawled.
+         * @return false if the catalog was already crawled
+         */
+        boolean visit(final URI catalogURI) {
+            return visited.add(catalogURI.normalize().toString());
+        }
+        
+        /**
+         * Restores the frontier of a previous crawl.
+         * @param pending : the catalogs that were not completed, to be crawled again
+         * @param queued : all the catalogs that were added to the frontier, completed or not
+         */
+        void resume(final List<URI> pending, final List<URI> queued) {
+            
+            for (final URI catalogRef : pending) {
+                if (visit(catalogRef)) schedule(catalogRef);
+            }
+            for (final URI catalogRef : queued) visit(catalogRef);
+            
+        }
+        
+        /**
+         * Schedules the crawling of the catalog references that match the filter, and were not crawled before.
+         */
+        void addAll(final List<URI> catalogRefs) throws IOException {
+            
+            for (final URI catalogRef : catalogRefs) {
+                
+                // only crawl catalogs that match filter provided
+                final Matcher matcher = pattern.matcher(catalogRef.toString());
+                if (matcher.matches()) {
+                    
+                    if (visit(catalogRef)) {
+                        if (LOG.isInfoEnabled()) 
+                            LOG.info("Catalog "+catalogRef.toString()+" matches filter regular expression, proceeding with publishing/unpubishing of records");
+                        if (journal!=null) journal.queued(catalogRef);
+                        schedule(catalogRef);
+                    } else {
+                        if (LOG.isInfoEnabled()) LOG.info("Catalog: "+catalogRef.toString()+" already crawled, skipping.");
+                    }
+                    
+                } else {
+                    if (LOG.isInfoEnabled()) 
+                        LOG.info("Catalog: "+catalogRef.toString()+" does not match regular expression filter, skipping publishing/unpublishing of records.");
+                } // regex match
+                
+            }
+            
+        }
+        
+        /**
+         * Waits until all the scheduled catalogs have been crawled.
+         */
+        void await() throws InterruptedException {
+            
+            try {
+                synchronized (this) {
+                    while (pending>0) this.wait();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            
+        }
+        
+        private synchronized void schedule(final URI catalogRef) {
+            
+            final String host = getHost(catalogRef);
+            Queue<URI> queue = waiting.get(host);
+            if (queue==null) {
+                queue = new LinkedList<URI>();
+                waiting.put(host, queue);
+                inFlight.put(host, 0);
+            }
+            queue.add(catalogRef);
+            pending++;
+            dispatch(host);
+            
+        }
+        
+        private synchronized void dispatch(final String host) {
+            
+            final Queue<URI> queue = waiting.get(host);
+            while (!queue.isEmpty() && inFlight.get(host)<connectionsPerHost) {
+                final URI catalogRef = queue.remove();
+                inFlight.put(host, inFlight.get(host)+1);
+                executor.execute(new Runnable() {
+                    public void run() {
+                        fetch(catalogRef, host);
+                    }
+                });
+            }
+            
+        }
+        
+        private void fetch(final URI catalogRef, final String host) {
+            
+            try {
+                addAll( crawlCatalog(catalogRef, callback, publish, schema) );
+                if (journal!=null) journal.crawled(catalogRef);
+            } catch(Exception e) {
+                // print error from nested invocation
+                LOG.warn("Error parsing catalog: "+catalogRef.toString());
+                LOG.warn(e.getMessage());
+                if (journal!=null) {
+                    try {
+                        journal.failed(catalogRef);
+                    } catch(IOException ioe) {
+                        LOG.warn(ioe.getMessage());
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    inFlight.put(host, inFlight.get(host)-1);
+                    dispatch(host);
+                    if (--pending==0) this.notifyAll();
+                }
+            }
+            
+        }
+        
+        private String getHost(final URI uri) {
+            return uri.getAuthority()==null ? "" : uri.getAuthority();
+        }
+        
+    }
 	
 }
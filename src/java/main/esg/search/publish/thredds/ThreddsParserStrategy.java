@@ -39,4 +39,19 @@ public interface ThreddsParserStrategy {
 	 */
 	List<Record> parseDataset(InvDataset dataset, boolean latest, List<URI> catalogRefs, URI schema) throws Exception;
 	
+	/**
+	 * Method to parse a THREDDS dataset while sending the search records to a handler in chunks, 
+	 * so that the records of a large dataset are never all held in memory:
+	 * the file and aggregation records are sent first, in the same order as returned by the other method,
+	 * and the top-level dataset record is sent last.
+	 * 
+	 * @param dataset : the THREDDS dataset to be parsed into metadata records
+	 * @param latest : latest flag to be assigned to the records
+	 * @param catalogRefs : list of nested THREDDS catalogs URIs, for hierarchical parsing
+	 * @param schema : optional compliance schema to be assigned to the datasets
+	 * @param chunkSize : maximum number of records in a chunk
+	 * @param handler : the receiver of the records
+	 */
+	void parseDataset(InvDataset dataset, boolean latest, List<URI> catalogRefs, URI schema, int chunkSize, ThreddsRecordHandler handler) throws Exception;
+	
 }
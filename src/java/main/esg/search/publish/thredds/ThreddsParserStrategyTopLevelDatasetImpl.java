@@ -26,11 +26,17 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import javax.annotation.PreDestroy;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
@@ -39,8 +45,9 @@ import thredds.catalog.InvCatalogRef;
 import thredds.catalog.InvDataset;
 import thredds.catalog.InvDatasetImpl;
 import esg.search.core.Record;
+import esg.search.core.RecordFactory;
 import esg.search.core.RecordHelper;
-import esg.search.core.RecordImpl;
+import esg.search.core.SharedFields;
 import esg.search.publish.impl.PublishingServiceMain;
 import esg.search.publish.plugins.MetadataEnhancer;
 import esg.search.publish.thredds.parsers.AccessParser;
@@ -52,10 +59,17 @@ import esg.search.publish.thredds.parsers.ThreddsElementParser;
 import esg.search.publish.thredds.parsers.VariablesParser;
 import esg.search.query.api.QueryParameters;
 import esg.search.query.impl.solr.SolrXmlPars;
+import esg.search.utils.StringDictionary;
 
 /**
  * Implementation of {@link ThreddsParserStrategy} that produces a single {@link Record} of type "Dataset" for each top-level THREDDS dataset,
  * and one {@link Record} of type "File" for each file nested anywhere in the hierarchy.
+ * 
+ * The records can either be returned as a single list (with the top-level dataset record first),
+ * or streamed to a {@link ThreddsRecordHandler} in chunks (with the top-level dataset record last).
+ * 
+ * Optionally, long lists of sibling datasets are split across a pool of fork-join threads:
+ * the records are produced in the same order as when parsing serially.
  */
 @Component
 public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserStrategy {
@@ -80,6 +94,17 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
 	 * For performance, each metadata enhancer is triggered by a single field, the map key.
 	 */
 	private Map<String, MetadataEnhancer> metadataEnhancers = new LinkedHashMap<String, MetadataEnhancer>();
+	
+	/**
+	 * Optional pool of threads that parse long lists of sibling datasets in parallel
+	 * (replaced while catalogs may be parsed by other threads).
+	 */
+	private volatile ForkJoinPool pool = null;
+	
+	/**
+	 * Minimum number of sibling datasets parsed by each parallel task.
+	 */
+	private int parallelThreshold = 100;
 		
 	public ThreddsParserStrategyTopLevelDatasetImpl() {
 	    
@@ -115,16 +140,82 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
 	public void setMetadataEnhancers(final Map<String, MetadataEnhancer> metadataEnhancers) {
         this.metadataEnhancers = metadataEnhancers;
     }
+	
+	/**
+	 * Method to set the number of threads that parse the datasets of a hierarchy in parallel
+	 * (shared by all the catalogs being crawled), or 1 to parse each hierarchy serially.
+	 * 
+	 * @param threads
+	 */
+	@Value("${esg.search.publish.parser.threads:1}")
+	public synchronized void setThreads(int threads) {
+	    if (pool!=null) pool.shutdown();
+	    pool = (threads>1 ? new ForkJoinPool(threads) : null);
+	}
+	
+	/**
+	 * Method to set the minimum number of sibling datasets parsed by each parallel task:
+	 * shorter lists of sibling datasets are always parsed serially.
+	 * 
+	 * @param parallelThreshold
+	 */
+	@Value("${esg.search.publish.parser.parallel.threshold:100}")
+	public void setParallelThreshold(int parallelThreshold) {
+	    this.parallelThreshold = Math.max(parallelThreshold, 1);
+	}
+	
+	/**
+	 * Method to stop the parallel parsing threads.
+	 */
+	@PreDestroy
+	public synchronized void shutdown() {
+	    if (pool!=null) pool.shutdown();
+	}
 
     /**
 	 * Method to parse the catalog top-level dataset.
 	 */
 	@Override
-	public List<Record> parseDataset(final InvDataset dataset, final boolean latest, List<URI> catalogRefs, URI schema) {
+	public List<Record> parseDataset(final InvDataset dataset, final boolean latest, List<URI> catalogRefs, URI schema) throws Exception {
 		
-	    // instantiate overall list of records from this catalogs
-        final List<Record> records = new ArrayList<Record>();
-        
+	    // IMPORTANT: add top-level dataset as first record
+	    final RecordSink sink = new RecordSink(null, Integer.MAX_VALUE);
+	    this.parseDataset(dataset, latest, catalogRefs, schema, sink);
+	    final List<Record> records = sink.records;
+		
+		// debug
+		if (LOG.isDebugEnabled()) {
+    		for (final Record rec : records) LOG.debug(rec);
+	    }
+		
+		return records;
+		
+	}
+	
+	/**
+	 * Method to parse the catalog top-level dataset, streaming the records in chunks.
+	 */
+	@Override
+	public void parseDataset(final InvDataset dataset, final boolean latest, List<URI> catalogRefs, URI schema, 
+	                         final int chunkSize, final ThreddsRecordHandler handler) throws Exception {
+	    
+	    // file and aggregation records are sent as they are produced
+	    final RecordSink sink = new RecordSink(handler, Math.max(chunkSize, 1));
+	    final Record record = this.parseDataset(dataset, latest, catalogRefs, schema, sink);
+	    
+	    // IMPORTANT: send top-level dataset as last record, after all the summary information has been collected
+	    sink.records.add(record);
+	    if (LOG.isDebugEnabled()) LOG.debug(record);
+	    handler.handleRecords(sink.records, true);
+	    
+	}
+	
+	/**
+	 * Method to parse the catalog top-level dataset, and add all nested records to the sink.
+	 * @return the top-level dataset record
+	 */
+	private Record parseDataset(final InvDataset dataset, final boolean latest, List<URI> catalogRefs, URI schema, final RecordSink sink) throws Exception {
+	    
         // summary metadata for this dataset
         final DatasetSummary ds = new DatasetSummary();
         
@@ -133,15 +224,16 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
 
         // parse top-level dataset
         final Record record = this.parseCollection(dataset, latest, hostName, schema, ds);
-                
-        // IMPORTANT: add top-level dataset as first record
-        records.add(record);
+        sink.start(record);
 		
 		// set replica flag from top-level dataset
         boolean isReplica = record.isReplica();
         
+        // dataset fields shared by all files (except for documentation links)
+        final SharedFields inherited = new SharedFields(record.getFields(), QueryParameters.FIELD_XLINK);
+        
         // recursion within this catalog
-		parseSubDatasets(dataset, latest, isReplica, records, hostName, schema, ds, catalogRefs);
+		parseSubDatasets(dataset, latest, isReplica, record, inherited, sink, hostName, schema, ds, catalogRefs);
 		
 		// set total size of dataset, number of files, number of aggregations
 		record.addField(QueryParameters.FIELD_SIZE, Long.toString(ds.size));
@@ -174,31 +266,62 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
 	    for (String accessType : ds.access) {
 	        record.addField(QueryParameters.FIELD_ACCESS, accessType );
 	    }
-
-		// debug
-		if (LOG.isDebugEnabled()) {
-    		for (final Record rec : records) LOG.debug(rec);
-	    }
-		
-		return records;
+	    
+	    return record;
 		
 	}
 
 	/**
-	 * Method to parse the children of a given dataset and store metadata information in the shared list of records.
-	 * The very first record in the list corresponds to the root of the dataset hierarchy.
+	 * Method to parse the children of a given dataset and add the metadata records to the sink.
 	 * 
 	 * @param dataset
-	 * @param records
+	 * @param parent : the record of the root of the dataset hierarchy
+	 * @param inherited : the fields of the root of the dataset hierarchy that are inherited by files
+	 * @param sink
 	 * @return
 	 */
 	private DatasetSummary parseSubDatasets(final InvDataset dataset, final boolean latest, final boolean isReplica,
-	                              final List<Record> records, String hostName, final URI schema, final DatasetSummary ds,
-	                              final List<URI> catalogRefs) {
+	                              final Record parent, final SharedFields inherited, final RecordSink sink, String hostName, final URI schema, final DatasetSummary ds,
+	                              final List<URI> catalogRefs) throws Exception {
 	    	    
 	    if (LOG.isDebugEnabled()) LOG.trace("Crawling dataset: "+dataset.getID()+" for files");
 	    
-	    for (final InvDataset childDataset : dataset.getDatasets()) {
+	    final List<InvDataset> children = dataset.getDatasets();
+	    final ForkJoinPool _pool = pool;
+	    if (_pool!=null && children.size()>=2*parallelThreshold) {
+	        
+	        // parse consecutive windows of siblings in parallel,
+	        // so that the records sent to the sink are never more than those of one window
+	        final int window = parallelThreshold * _pool.getParallelism() * 4;
+	        for (int from=0; from<children.size(); from+=window) {
+	            final SubtreeTask task = new SubtreeTask(children, from, Math.min(from+window, children.size()), 
+	                                                     latest, isReplica, parent, inherited, hostName, schema);
+	            // nested hierarchies are split within the same pool
+	            if (ForkJoinTask.getPool()==_pool) task.invoke();
+	            else _pool.invoke(task);
+	            
+	            // merge partial results in order
+	            for (final Record record : task.sink.records) sink.add(record);
+	            ds.merge(task.ds);
+	            catalogRefs.addAll(task.catalogRefs);
+	        }
+	        
+	    } else {
+	        parseSubDatasets(children, 0, children.size(), latest, isReplica, parent, inherited, sink, hostName, schema, ds, catalogRefs);
+	    }
+	    
+	    return ds;
+        
+	}
+	
+	/**
+	 * Method to parse serially a range of sibling datasets and their children.
+	 */
+	private void parseSubDatasets(final List<InvDataset> children, final int from, final int to, final boolean latest, final boolean isReplica,
+	                              final Record parent, final SharedFields inherited, final RecordSink sink, String hostName, final URI schema, final DatasetSummary ds,
+	                              final List<URI> catalogRefs) throws Exception {
+	    
+	    for (final InvDataset childDataset : children.subList(from, to)) {
 	        
 	        if (childDataset instanceof InvCatalogRef) {
 	            
@@ -215,25 +338,90 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
     	            
     	            // parse files into separate records
     	            boolean inherit = true;
-    	            this.parseSubDataset(childDataset, latest, isReplica, records, inherit, hostName, schema, ds, QueryParameters.TYPE_FILE);
+    	            this.parseSubDataset(childDataset, latest, isReplica, parent, inherited, sink, inherit, hostName, schema, ds, QueryParameters.TYPE_FILE);
     
     	        } else if (ThreddsUtils.isAggregation(childDataset)) {
     	            
     	            // parse aggregations into separate records
     	            boolean inherit = false;
-    	            this.parseSubDataset(childDataset, latest, isReplica, records, inherit, hostName, schema, ds, QueryParameters.TYPE_AGGREGATION);
+    	            this.parseSubDataset(childDataset, latest, isReplica, parent, inherited, sink, inherit, hostName, schema, ds, QueryParameters.TYPE_AGGREGATION);
     	            
     	        }
     	        
     	        // recursion
-    	        parseSubDatasets(childDataset, latest, isReplica, records, hostName, schema, ds, catalogRefs);
+    	        parseSubDatasets(childDataset, latest, isReplica, parent, inherited, sink, hostName, schema, ds, catalogRefs);
     	        
 	        }
 	        
 	    }
 	    
-	    return ds;
-        
+	}
+	
+	/**
+	 * Task that parses a range of sibling datasets and their children, splitting the range in two halves
+	 * (down to the parallel threshold) that are parsed in parallel.
+	 * The records, summary and catalog references of the range are collected in the task,
+	 * in the same order as when parsing serially.
+	 */
+	private class SubtreeTask extends RecursiveAction {
+	    
+	    private static final long serialVersionUID = 1L;
+	    
+	    private final List<InvDataset> children;
+	    private final int from;
+	    private final int to;
+	    private final boolean latest;
+	    private final boolean isReplica;
+	    private final Record parent;
+	    private final SharedFields inherited;
+	    private final String hostName;
+	    private final URI schema;
+	    
+	    RecordSink sink = new RecordSink(null, Integer.MAX_VALUE);
+	    DatasetSummary ds = new DatasetSummary();
+	    List<URI> catalogRefs = new ArrayList<URI>();
+	    
+	    SubtreeTask(final List<InvDataset> children, final int from, final int to, final boolean latest, final boolean isReplica,
+	                final Record parent, final SharedFields inherited, final String hostName, final URI schema) {
+	        this.children = children;
+	        this.from = from;
+	        this.to = to;
+	        this.latest = latest;
+	        this.isReplica = isReplica;
+	        this.parent = parent;
+	        this.inherited = inherited;
+	        this.hostName = hostName;
+	        this.schema = schema;
+	    }
+	    
+	    @Override
+	    protected void compute() {
+	        
+	        if (to-from < 2*parallelThreshold) {
+	            try {
+	                parseSubDatasets(children, from, to, latest, isReplica, parent, inherited, sink, hostName, schema, ds, catalogRefs);
+	            } catch(RuntimeException e) {
+	                throw e;
+	            } catch(Exception e) {
+	                throw new RuntimeException(e);
+	            }
+	            
+	        } else {
+	            final int mid = (from+to) >>> 1;
+	            final SubtreeTask left = new SubtreeTask(children, from, mid, latest, isReplica, parent, inherited, hostName, schema);
+	            final SubtreeTask right = new SubtreeTask(children, mid, to, latest, isReplica, parent, inherited, hostName, schema);
+	            invokeAll(left, right);
+	            
+	            sink = left.sink;
+	            sink.records.addAll(right.sink.records);
+	            ds = left.ds;
+	            ds.merge(right.ds);
+	            catalogRefs = left.catalogRefs;
+	            catalogRefs.addAll(right.catalogRefs);
+	        }
+	        
+	    }
+	    
 	}
 	
 	private Record parseCollection(final InvDataset dataset, final boolean latest, final String hostName, final URI schema, final DatasetSummary ds) {
@@ -276,19 +464,21 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
 	
 	/**
 	 * Specific method to parse sub-dataset level information into a newly separate record, 
-	 * which is added to the list of already existing records.
+	 * which is added to the sink.
 	 * 
 	 * @param dataset
-	 * @param records
-	 * @param inherit : set to true to copy parent dataset fields as file record fields (without overriding existing fields)
+	 * @param parent : the record of the root of the dataset hierarchy
+	 * @param inherited : the fields of the root of the dataset hierarchy that are inherited by files
+	 * @param sink
+	 * @param inherit : set to true to share the parent dataset fields with the file record (without overriding existing fields)
 	 */
 	private void parseSubDataset(final InvDataset subDataset, 
 	                             final boolean latest, final boolean isReplica, 
-	                             final List<Record> records, boolean inherit,
+	                             final Record parent, final SharedFields inherited, final RecordSink sink, boolean inherit,
 	                             final String hostName, 
 	                             final URI schema,
 	                             final DatasetSummary ds,
-	                             final String recordType) {
+	                             final String recordType) throws Exception {
 	    
         // create new record with universally unique record identifier
         final Record record = newRecord(subDataset, latest, hostName, schema);
@@ -305,7 +495,7 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
         record.setType(recordType);
         
         // parent dataset
-        record.addField(QueryParameters.FIELD_DATASET_ID, records.get(0).getId());
+        record.addField(QueryParameters.FIELD_DATASET_ID, parent.getId());
         
         // parse THREDDS elements
         for (final ThreddsElementParser parser : parsers) {
@@ -320,24 +510,12 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
                
         this.enhanceMetadata(record);
                 
-        // copy all fields from parent dataset to file
+        // share all fields from parent dataset with file, without copying them
+        // (file-level properties are not overridden)
         if (inherit) {
-            final Map<String, List<String>> datasetFields = records.get(0).getFields();
-            for (final String key : datasetFields.keySet()) {  
-                if (!key.equals(QueryParameters.FIELD_XLINK)) { // // don't inherit documentation links
-                    // don't override file-level properties
-                    if (record.getFieldValue(key)==null) {
-                        for (final String value : datasetFields.get(key)) {
-                            record.addField(key, value);
-                        }
-                    }            
-                }
-            }
+            record.setParentFields(inherited);
         }
         	    
-        // add this record to the list
-        records.add(record);
-        
         // summary information
         if (recordType.equals(QueryParameters.TYPE_FILE)) {
             ds.size += size;
@@ -346,6 +524,9 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
         } else if (recordType.equals(QueryParameters.TYPE_AGGREGATION)) {
             ds.numberOfAggregations += 1;
         }
+        
+        // add this record to the sink
+        sink.add(record);
         	    
 	}	
 	
@@ -389,7 +570,7 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
         // combine dataset id with host name and version
         final String rid = RecordHelper.getUniqueRecordId(id, hostName);
         
-        final Record record = new RecordImpl(rid);
+        final Record record = RecordFactory.getInstance().newRecord(rid);
         
         // assign a default "master_id" equal to the THREDDS ID (or the UUID if not found)
         // may later be overridden from property "dataset_id", "file_id" or "aggregation_id", if found
@@ -405,7 +586,7 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
         record.setLatest(latest);
         
         // "data_node" field
-        record.setField(QueryParameters.FIELD_DATA_NODE, hostName);
+        record.setField(QueryParameters.FIELD_DATA_NODE, StringDictionary.getInstance().intern(hostName));
         
         // "schema" field
         if (schema!=null) record.setSchema(schema);
@@ -434,4 +615,42 @@ public class ThreddsParserStrategyTopLevelDatasetImpl implements ThreddsParserSt
         
 	}
 	
+	/**
+	 * Destination of the records parsed from a dataset hierarchy:
+	 * either a single list, or a handler that receives the records in chunks.
+	 */
+	private static class RecordSink {
+	    
+	    private final ThreddsRecordHandler handler;
+	    private final int chunkSize;
+	    
+	    // the records not yet sent to the handler
+	    List<Record> records = new ArrayList<Record>();
+	    
+	    RecordSink(final ThreddsRecordHandler handler, final int chunkSize) {
+	        this.handler = handler;
+	        this.chunkSize = chunkSize;
+	    }
+	    
+	    /**
+	     * Method invoked with the top-level dataset record, before any other record.
+	     */
+	    void start(final Record dataset) throws Exception {
+	        if (handler==null) {
+	            records.add(dataset);
+	        } else {
+	            handler.startDataset(dataset);
+	        }
+	    }
+	    
+	    void add(final Record record) throws Exception {
+	        records.add(record);
+	        if (handler!=null && records.size()>=chunkSize) {
+	            handler.handleRecords(records, false);
+	            records = new ArrayList<Record>();
+	        }
+	    }
+	    
+	}
+	
 }
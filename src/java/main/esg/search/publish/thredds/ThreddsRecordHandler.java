@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.publish.thredds;
+
+import java.util.List;
+
+import esg.search.core.Record;
+
+/**
+ * Receiver of the records produced by the streaming parse of a THREDDS dataset 
+ * (see {@link ThreddsParserStrategy#parseDataset(thredds.catalog.InvDataset, boolean, List, java.net.URI, int, ThreddsRecordHandler)}).
+ */
+public interface ThreddsRecordHandler {
+    
+    /**
+     * Method invoked with the top-level dataset record, before any other record is produced.
+     * The summary fields of the whole dataset (size, number of files, coverage...) are not set yet.
+     * @param dataset
+     */
+    void startDataset(Record dataset) throws Exception;
+    
+    /**
+     * Method invoked with each chunk of records, in order.
+     * The last chunk ends with the top-level dataset record, complete with the summary fields.
+     * 
+     * @param records : the handler can keep the list
+     * @param last : true for the last chunk
+     */
+    void handleRecords(List<Record> records, boolean last) throws Exception;
+
+}
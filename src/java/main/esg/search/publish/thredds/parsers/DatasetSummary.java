@@ -34,5 +34,58 @@ public class DatasetSummary {
     // HTTPServer, OPENDAP, GridFTP
     public Set<String> access = new HashSet<String>();
 
+    /**
+     * Method to extend the time coverage of this summary to include the time coverage of a dataset.
+     * The first time coverage is copied, so that the dataset time coverage is never modified
+     * (it may be shared by many datasets that inherit it).
+     * @param dateRange
+     */
+    public void addDateRange(final DateRange dateRange) {
+        
+        if (this.dateRange==null) {
+            this.dateRange = new DateRange(dateRange.getStart(), dateRange.getEnd(), null, null);
+            
+        } else {
+            // define time limits to be most inclusive
+            if (dateRange.getStart()!=null) {
+                if (this.dateRange.getStart()==null || dateRange.getStart().before(this.dateRange.getStart().getDate())) {
+                    this.dateRange.setStart( dateRange.getStart() );
+                } 
+            }
+            if (dateRange.getEnd()!=null) {
+                if (this.dateRange.getEnd()==null || dateRange.getEnd().after(this.dateRange.getEnd().getDate())) {
+                    this.dateRange.setEnd( dateRange.getEnd() );
+                } 
+            }
+        }
+        
+    }
+    
+    /**
+     * Method to merge into this summary the summary of another part of the same dataset hierarchy,
+     * which follows the part summarized by this object.
+     * @param other
+     */
+    public void merge(final DatasetSummary other) {
+        
+        size += other.size;
+        numberOfFiles += other.numberOfFiles;
+        numberOfAggregations += other.numberOfAggregations;
+        
+        if (other.dateRange!=null) addDateRange(other.dateRange);
+        
+        lonEast = Math.max(lonEast, other.lonEast);
+        lonWest = Math.min(lonWest, other.lonWest);
+        latNorth = Math.max(latNorth, other.latNorth);
+        latSouth = Math.min(latSouth, other.latSouth);
+        heightBottom = Math.min(heightBottom, other.heightBottom);
+        heightTop = Math.max(heightTop, other.heightTop);
+        // the units of the last part win
+        if (other.heightUnits!=null && other.heightUnits.trim().length()>0) heightUnits = other.heightUnits;
+        
+        access.addAll(other.access);
+        
+    }
+
 
 }
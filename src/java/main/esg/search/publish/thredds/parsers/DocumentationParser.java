@@ -7,6 +7,7 @@ import thredds.catalog.InvDocumentation;
 import esg.search.core.Record;
 import esg.search.core.RecordHelper;
 import esg.search.query.api.QueryParameters;
+import esg.search.utils.StringDictionary;
 
 /**
  * Class that parses a THREDDS <documentation> element.
@@ -15,6 +16,8 @@ import esg.search.query.api.QueryParameters;
  *
  */
 public class DocumentationParser implements ThreddsElementParser {
+    
+    private final StringDictionary dictionary = StringDictionary.getInstance();
 
     @Override
     public void parse(final InvDataset dataset, final Record record, final DatasetSummary ds) {
@@ -24,12 +27,12 @@ public class DocumentationParser implements ThreddsElementParser {
             // inline documentation
             final String content = documentation.getInlineContent();
             if (StringUtils.hasText(content)) {
-                record.addField(QueryParameters.FIELD_DESCRIPTION, content);
+                record.addField(QueryParameters.FIELD_DESCRIPTION, dictionary.intern(content));
             }
             // xlink documentation
             final String href = documentation.getXlinkHref();
             if (StringUtils.hasText(href)) {
-                record.addField(QueryParameters.FIELD_XLINK, RecordHelper.encodeXlinkTuple(href, documentation.getXlinkTitle(), documentation.getType()) );
+                record.addField(QueryParameters.FIELD_XLINK, dictionary.intern(RecordHelper.encodeXlinkTuple(href, documentation.getXlinkTitle(), documentation.getType())) );
             }
         }
 
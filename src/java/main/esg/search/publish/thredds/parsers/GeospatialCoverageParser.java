@@ -6,6 +6,7 @@ import thredds.catalog.InvDataset;
 import thredds.catalog.ThreddsMetadata.GeospatialCoverage;
 import esg.search.core.Record;
 import esg.search.query.impl.solr.SolrXmlPars;
+import esg.search.utils.StringDictionary;
 
 /**
  * Class that parsers a THREDDS <geospatialCoverage> element.
@@ -32,6 +33,8 @@ import esg.search.query.impl.solr.SolrXmlPars;
  *
  */
 public class GeospatialCoverageParser implements ThreddsElementParser {
+    
+    private final StringDictionary dictionary = StringDictionary.getInstance();
 
     @Override
     public void parse(InvDataset dataset, Record record, final DatasetSummary ds) {
@@ -42,17 +45,17 @@ public class GeospatialCoverageParser implements ThreddsElementParser {
             
             // record metadata
             if (gsc.getNorthSouthRange()!=null)
-                record.addField(SolrXmlPars.FIELD_SOUTH, Double.toString(gsc.getNorthSouthRange().getStart()));
+                record.addField(SolrXmlPars.FIELD_SOUTH, dictionary.intern(Double.toString(gsc.getNorthSouthRange().getStart())));
             if (gsc.getNorthSouthRange()!=null)
-                record.addField(SolrXmlPars.FIELD_NORTH, Double.toString(gsc.getNorthSouthRange().getStart()+gsc.getNorthSouthRange().getSize()));
+                record.addField(SolrXmlPars.FIELD_NORTH, dictionary.intern(Double.toString(gsc.getNorthSouthRange().getStart()+gsc.getNorthSouthRange().getSize())));
             if (gsc.getEastWestRange()!=null)
-                record.addField(SolrXmlPars.FIELD_WEST, Double.toString(gsc.getEastWestRange().getStart()));
+                record.addField(SolrXmlPars.FIELD_WEST, dictionary.intern(Double.toString(gsc.getEastWestRange().getStart())));
             if (gsc.getEastWestRange()!=null)
-                record.addField(SolrXmlPars.FIELD_EAST, Double.toString(gsc.getEastWestRange().getStart()+gsc.getEastWestRange().getSize()));
+                record.addField(SolrXmlPars.FIELD_EAST, dictionary.intern(Double.toString(gsc.getEastWestRange().getStart()+gsc.getEastWestRange().getSize())));
             if (gsc.getUpDownRange()!=null) {
-                record.addField(SolrXmlPars.FIELD_HEIGHT_BOTTOM, Double.toString(gsc.getUpDownRange().getStart()));
-                record.addField(SolrXmlPars.FIELD_HEIGHT_TOP, Double.toString(gsc.getUpDownRange().getStart()+gsc.getUpDownRange().getSize()));
-                record.addField(SolrXmlPars.FIELD_HEIGHT_UNITS, gsc.getHeightUnits());
+                record.addField(SolrXmlPars.FIELD_HEIGHT_BOTTOM, dictionary.intern(Double.toString(gsc.getUpDownRange().getStart())));
+                record.addField(SolrXmlPars.FIELD_HEIGHT_TOP, dictionary.intern(Double.toString(gsc.getUpDownRange().getStart()+gsc.getUpDownRange().getSize())));
+                record.addField(SolrXmlPars.FIELD_HEIGHT_UNITS, dictionary.intern(gsc.getHeightUnits()));
             }
             
             // summary metadata
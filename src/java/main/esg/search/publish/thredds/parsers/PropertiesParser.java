@@ -12,6 +12,7 @@ import esg.search.core.Record;
 import esg.search.publish.thredds.ThreddsPars;
 import esg.search.query.api.QueryParameters;
 import esg.search.query.impl.solr.SolrXmlPars;
+import esg.search.utils.StringDictionary;
 
 /**
  * Class that parses a set of THREDDS <property> elements.
@@ -23,6 +24,8 @@ import esg.search.query.impl.solr.SolrXmlPars;
  */
 public class PropertiesParser implements ThreddsElementParser {
     
+    private final StringDictionary dictionary = StringDictionary.getInstance();
+    
     private final Log LOG = LogFactory.getLog(this.getClass());
 
     @Override
@@ -43,7 +46,7 @@ public class PropertiesParser implements ThreddsElementParser {
                 
             } else if (property.getName().equals(QueryParameters.FIELD_TITLE)) {
                 // note: record title already set from dataset name
-                record.addField(QueryParameters.FIELD_DESCRIPTION, property.getValue());
+                record.addField(QueryParameters.FIELD_DESCRIPTION, dictionary.intern(property.getValue()));
                 
             } else if (property.getName().equals(ThreddsPars.DATASET_VERSION) || property.getName().equals(ThreddsPars.FILE_VERSION)) {
                 // note: map "dataset_version", "file_version" to "version"
@@ -64,8 +67,7 @@ public class PropertiesParser implements ThreddsElementParser {
             // "creation_time", "mod_time" --> "timestamp"
             } else if (property.getName().equals(ThreddsPars.CREATION_TIME) || property.getName().equals(ThreddsPars.MOD_TIME)) {
                 try {
-                    final Date date = ThreddsPars.THREDDS_DATE_TIME_PARSER.parse(property.getValue());
-                    record.setField(QueryParameters.FIELD_TIMESTAMP, SolrXmlPars.SOLR_DATE_TIME_FORMATTER.format(date));
+                    record.setField(QueryParameters.FIELD_TIMESTAMP, toSolrDate(property.getValue()));
                 } catch(ParseException e) {
                     LOG.warn("Error parsing date/time field: property name="+property.getName()+" value="+property.getValue());
                     LOG.warn(e.getMessage());
@@ -74,8 +76,7 @@ public class PropertiesParser implements ThreddsElementParser {
             // other date/time properties
             } else if (   property.getName().endsWith(ThreddsPars.DATE) || property.getName().endsWith(ThreddsPars.TIME) ) {
                 try {
-                    final Date date = ThreddsPars.THREDDS_DATE_TIME_PARSER.parse(property.getValue());
-                    record.setField(property.getName(), SolrXmlPars.SOLR_DATE_TIME_FORMATTER.format(date));
+                    record.setField(property.getName(), toSolrDate(property.getValue()));
                 } catch(ParseException e) {
                     LOG.warn("Error parsing date/time field: property name="+property.getName()+" value="+property.getValue());
                     LOG.warn(e.getMessage());
@@ -90,10 +91,26 @@ public class PropertiesParser implements ThreddsElementParser {
                 
             } else {
                 // index all other properties verbatim
-                record.addField(property.getName(), property.getValue());
+                record.addField(property.getName(), dictionary.intern(property.getName(), property.getValue()));
             }
         }
 
     }
 
+    /**
+     * Converts a THREDDS date/time value to Solr format.
+     * Note that the shared date formats are not thread safe, and catalogs may be parsed concurrently.
+     */
+    private static String toSolrDate(final String value) throws ParseException {
+        
+        final Date date;
+        synchronized (ThreddsPars.THREDDS_DATE_TIME_PARSER) {
+            date = ThreddsPars.THREDDS_DATE_TIME_PARSER.parse(value);
+        }
+        synchronized (SolrXmlPars.SOLR_DATE_TIME_FORMATTER) {
+            return SolrXmlPars.SOLR_DATE_TIME_FORMATTER.format(date);
+        }
+        
+    }
+
 }
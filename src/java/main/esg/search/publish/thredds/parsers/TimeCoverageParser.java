@@ -4,6 +4,7 @@ import thredds.catalog.InvDataset;
 import ucar.nc2.units.DateRange;
 import esg.search.core.Record;
 import esg.search.query.impl.solr.SolrXmlPars;
+import esg.search.utils.StringDictionary;
 
 /**
  * Class that parses a THREDDS <timeCoverage> element.
@@ -17,6 +18,8 @@ import esg.search.query.impl.solr.SolrXmlPars;
  */
 
 public class TimeCoverageParser implements ThreddsElementParser {
+    
+    private final StringDictionary dictionary = StringDictionary.getInstance();
 
     @Override
     public void parse(InvDataset dataset, Record record, final DatasetSummary ds) {
@@ -26,27 +29,11 @@ public class TimeCoverageParser implements ThreddsElementParser {
         if (dateRange!=null) {
             
             // record metadata
-            record.addField(SolrXmlPars.FIELD_DATETIME_START, dateRange.getStart().toDateTimeStringISO());  
-            record.addField(SolrXmlPars.FIELD_DATETIME_STOP, dateRange.getEnd().toDateTimeStringISO());
+            record.addField(SolrXmlPars.FIELD_DATETIME_START, dictionary.intern(dateRange.getStart().toDateTimeStringISO()));  
+            record.addField(SolrXmlPars.FIELD_DATETIME_STOP, dictionary.intern(dateRange.getEnd().toDateTimeStringISO()));
             
             // summary metadata
-            if (ds.dateRange==null) {
-                ds.dateRange = dateRange;
-                
-            } else {
-                // define time limits to be most inclusive
-                if (dateRange.getStart()!=null) {
-                    if (ds.dateRange.getStart()==null || dateRange.getStart().before(ds.dateRange.getStart().getDate())) {
-                        ds.dateRange.setStart( dateRange.getStart() );
-                    } 
-                }
-                if (dateRange.getEnd()!=null) {
-                    if (ds.dateRange.getEnd()==null || dateRange.getEnd().after(ds.dateRange.getEnd().getDate())) {
-                        ds.dateRange.setEnd( dateRange.getEnd() );
-                    } 
-                }
-
-            }
+            ds.addDateRange(dateRange);
             
         }
 
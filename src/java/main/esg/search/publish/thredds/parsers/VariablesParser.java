@@ -8,6 +8,7 @@ import thredds.catalog.ThreddsMetadata.Variables;
 import esg.search.core.Record;
 import esg.search.publish.thredds.ThreddsPars;
 import esg.search.query.impl.solr.SolrXmlPars;
+import esg.search.utils.StringDictionary;
 
 /**
  * Class that parses a THREDDS <variables> element.
@@ -22,6 +23,8 @@ import esg.search.query.impl.solr.SolrXmlPars;
  *
  */
 public class VariablesParser implements ThreddsElementParser {
+    
+    private final StringDictionary dictionary = StringDictionary.getInstance();
 
     @Override
     public void parse(final InvDataset dataset, final Record record, final DatasetSummary ds) {
@@ -31,16 +34,16 @@ public class VariablesParser implements ThreddsElementParser {
             for (final Variable variable : variables.getVariableList()) {
                 
                 // NOTE: these arrays must always have the same number of entries
-                record.addField(SolrXmlPars.FIELD_VARIABLE, variable.getName());
-                if (StringUtils.hasText(variable.getDescription())) record.addField(SolrXmlPars.FIELD_VARIABLE_LONG_NAME, variable.getDescription());
+                record.addField(SolrXmlPars.FIELD_VARIABLE, dictionary.intern(variable.getName()));
+                if (StringUtils.hasText(variable.getDescription())) record.addField(SolrXmlPars.FIELD_VARIABLE_LONG_NAME, dictionary.intern(variable.getDescription()));
                 else record.addEmptyField(SolrXmlPars.FIELD_VARIABLE_LONG_NAME);
-                if (StringUtils.hasText(variable.getUnits())) record.addField(SolrXmlPars.FIELD_VARIABLE_UNITS, variable.getUnits());
+                if (StringUtils.hasText(variable.getUnits())) record.addField(SolrXmlPars.FIELD_VARIABLE_UNITS, dictionary.intern(variable.getUnits()));
                 else record.addEmptyField(SolrXmlPars.FIELD_VARIABLE_UNITS);
                 
                 if (vocabulary.equals(ThreddsPars.CF)) {
                     // convert all CF names to lower case, and join by "_"
                     if (StringUtils.hasText(variable.getVocabularyName()))
-                        record.addField(SolrXmlPars.FIELD_CF_STANDARD_NAME, variable.getVocabularyName().toLowerCase().replaceAll("\\s+", "_"));
+                        record.addField(SolrXmlPars.FIELD_CF_STANDARD_NAME, dictionary.intern(variable.getVocabularyName().toLowerCase().replaceAll("\\s+", "_")));
                     else record.addEmptyField(SolrXmlPars.FIELD_CF_STANDARD_NAME);
                     // do not include if containing upper case letters or spaces
                     //final Matcher matcher = NON_CF_PATTERN.matcher(variable.getVocabularyName());
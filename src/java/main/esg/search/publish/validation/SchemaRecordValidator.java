@@ -222,7 +222,10 @@ public class SchemaRecordValidator implements RecordValidator, ReloadableFileSet
                     if (field.type.equals("date")) {
                         for (String value : values) {
                             try {
-                                SolrXmlPars.SOLR_DATE_TIME_FORMATTER.parse(value);
+                                // shared date format is not thread safe
+                                synchronized (SolrXmlPars.SOLR_DATE_TIME_FORMATTER) {
+                                    SolrXmlPars.SOLR_DATE_TIME_FORMATTER.parse(value);
+                                }
                             } catch(ParseException e) {
                                 errors.add("Incorrect date-time format: "+value);
                             }
@@ -25,7 +25,7 @@ import org.jdom.Element;
 import org.springframework.stereotype.Component;
 
 import esg.search.core.Record;
-import esg.search.core.RecordImpl;
+import esg.search.core.RecordFactory;
 import esg.search.publish.cas.CasPars;
 import esg.search.publish.impl.PublishingServiceMain;
 import esg.search.publish.xml.MetadataHandler;
@@ -67,7 +67,7 @@ public class MetadataHandlerCasRdfImpl implements MetadataHandler {
 	 */
 	private Record parseOneRecord(final Element element) {
 
-		final Record record = new RecordImpl();
+		final Record record = RecordFactory.getInstance().newRecord();
 				
 		// <esg:LOCALGRANULEID>"MLS-Aura_L2GP-CO_v02-23-c01_2008d107.he5"</esg:LOCALGRANULEID>
 		String id = element.getChildText("LOCALGRANULEID", CasPars.ESG_NS).replaceAll("\"", "");
@@ -26,7 +26,7 @@ import org.jdom.Namespace;
 import org.springframework.stereotype.Component;
 
 import esg.search.core.Record;
-import esg.search.core.RecordImpl;
+import esg.search.core.RecordFactory;
 import esg.search.publish.impl.PublishingServiceMain;
 import esg.search.publish.xml.MetadataHandler;
 import esg.search.query.api.QueryParameters;
@@ -46,7 +46,7 @@ public class MetadataHandlerDifImpl implements MetadataHandler {
 	public List<Record> parse(final Element root) {
 		
 		
-		final Record record = new RecordImpl();
+		final Record record = RecordFactory.getInstance().newRecord();
 		final Namespace ns = root.getNamespace();
 		
 		// <Entry_ID>FIFE_TEMP_PRO</Entry_ID>
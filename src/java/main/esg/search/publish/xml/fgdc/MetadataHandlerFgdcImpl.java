@@ -28,7 +28,7 @@ import org.jdom.Namespace;
 import org.springframework.stereotype.Component;
 
 import esg.search.core.Record;
-import esg.search.core.RecordImpl;
+import esg.search.core.RecordFactory;
 import esg.search.publish.impl.PublishingServiceMain;
 import esg.search.publish.xml.MetadataHandler;
 import esg.search.query.api.QueryParameters;
@@ -51,7 +51,7 @@ public class MetadataHandlerFgdcImpl implements MetadataHandler {
 		
 		
 		
-		final Record record = new RecordImpl();
+		final Record record = RecordFactory.getInstance().newRecord();
 		final Namespace ns = root.getNamespace();
 		
 		//metadata format
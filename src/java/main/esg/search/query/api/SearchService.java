@@ -18,6 +18,8 @@
  ******************************************************************************/
 package esg.search.query.api;
 
+import java.io.OutputStream;
+
 
 /**
  * Interface defining the API for mix faceted/text search.
@@ -45,6 +47,18 @@ public interface SearchService {
 	 */
 	public String query(final SearchInput input, final SearchReturnType returnType) throws Exception;
 	
+	/**
+	 * Method to search for results and/or facets matching the given constraints, and write the serialized results
+	 * to an output stream as they are received from the back-end, without holding the whole response in memory.
+	 * The output stream is not closed by this method.
+	 * 
+	 * @param input
+	 * @param returnType
+	 * @param out
+	 * @throws Exception
+	 */
+	public void query(final SearchInput input, final SearchReturnType returnType, final OutputStream out) throws Exception;
+	
 	/**
 	 * Hook to run recovery procedures in case the query results in an error.
 	 * 
@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import esg.search.query.api.QueryParameters;
+import esg.search.query.api.SearchInput;
+import esg.search.utils.HttpClient;
+import esg.search.utils.XmlParser;
+
+/**
+ * Client-side implementation of distributed search: 
+ * the query is sent to each shard in parallel, and the results and facet counts returned by the shards
+ * are merged into a single Solr/XML document.
+ * 
+ * Each shard must respond within a deadline: shards that time out or fail are left out of the merged results,
+ * and are listed in the response header together with the "partialResults" flag, 
+ * instead of failing the whole request.
+ * 
+ * Documents are de-duplicated by identifier and sorted by score (or by timestamp, if requested),
+ * consistently with the Solr distributed search. The merged facet values are sorted by decreasing count
+ * and trimmed to the facet limit, as in a Solr response.
+ * 
+ * Only the Solr/XML output is merged: distributed queries that request Solr/JSON are still executed
+ * by the Solr server (see {@link SearchServiceImpl}), and do not return partial results.
+ * 
+ * @author Luca Cinquini
+ */
+@ManagedResource(objectName="esg.search:name=FederatedSearchEngine", description="Client-side distributed search")
+public class FederatedSearchEngine {
+    
+    /**
+     * Additional elements of the Solr/XML response header.
+     */
+    public final static String PARTIAL_RESULTS = "partialResults";
+    public final static String FAILED_SHARDS = "failedShards";
+    
+    private final static String ELEMENT_RESPONSE = "response";
+    private final static String ELEMENT_FLOAT = "float";
+    private final static String ELEMENT_DATE = "date";
+    private final static String ELEMENT_BOOL = "bool";
+    private final static String FIELD_SCORE = "score";
+    private final static String ATTRIBUTE_MAX_SCORE = "maxScore";
+    
+    /**
+     * Default maximum number of values returned for each facet (same as the Solr "facet.limit" default).
+     */
+    public final static int DEFAULT_FACET_LIMIT = 100;
+    
+    /**
+     * Pool of threads that query the shards.
+     */
+    private final ThreadPoolExecutor executor;
+    
+    /**
+     * Maximum time (in milliseconds) to wait for all shards to respond, 0 to use the query read timeout.
+     */
+    private int deadline = 0;
+    
+    /**
+     * Maximum number of values returned for each facet, negative for no limit.
+     */
+    private int facetLimit = DEFAULT_FACET_LIMIT;
+    
+    /**
+     * Statistics.
+     */
+    private final AtomicLong numberOfQueries = new AtomicLong(0);
+    private final AtomicLong numberOfPartialResults = new AtomicLong(0);
+    private final AtomicLong numberOfShardTimeouts = new AtomicLong(0);
+    private final AtomicLong numberOfShardFailures = new AtomicLong(0);
+    
+    /**
+     * Optional tracker of the shards health, notified of the outcome of each shard query.
+     */
+    private ShardHealthMonitor shardHealthMonitor = null;
+    
+    private static final Log LOG = LogFactory.getLog(FederatedSearchEngine.class);
+    
+    /**
+     * Constructor.
+     * @param threads : maximum number of shards queried at the same time, by all requests
+     * @param queueSize : maximum number of shard queries waiting for a thread
+     */
+    public FederatedSearchEngine(final int threads, final int queueSize) {
+        
+        final AtomicInteger counter = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, 
+                                          new ArrayBlockingQueue<Runnable>(queueSize), 
+                                          new ThreadFactory() {
+                                            public Thread newThread(Runnable r) {
+                                                final Thread thread = new Thread(r, "esg-search-shard-"+counter.incrementAndGet());
+                                                thread.setDaemon(true);
+                                                return thread;
+                                            }
+                                          });
+        executor.allowCoreThreadTimeOut(true);
+        
+        if (LOG.isInfoEnabled()) LOG.info("Federated search threads="+threads+" queue size="+queueSize);
+        
+    }
+    
+    /**
+     * Method to execute a distributed query versus all the shards configured in the URL builder,
+     * and write the merged Solr/XML response to an output stream.
+     * 
+     * @param builder : URL builder configured with the search input and the shards to query
+     * @param input
+     * @param connectionTimeout : connection timeout for each shard
+     * @param deadline : maximum time (in milliseconds) to wait for all shards to respond
+     * @param out
+     * @return true if all shards responded, false if the results are partial
+     * @throws Exception if no shard responded
+     */
+    public boolean query(final SolrUrlBuilder builder, final SearchInput input, 
+                         final int connectionTimeout, final int deadline, final OutputStream out) throws Exception {
+        
+        numberOfQueries.incrementAndGet();
+        final long startTime = System.currentTimeMillis();
+        
+        // query all shards in parallel
+        final List<String> shards = new ArrayList<String>(builder.getShards());
+        final String queryString = builder.buildShardQueryString();
+        final List<Future<Document>> futures = new ArrayList<Future<Document>>();
+        for (final String shard : shards) {
+            final URL url = new URL(builder.buildShardSelectUrl(shard));
+            try {
+                futures.add( executor.submit(new Callable<Document>() {
+                    public Document call() throws Exception {
+                        final HttpClient httpClient = new HttpClient();
+                        httpClient.setConnectionTimeout(connectionTimeout);
+                        httpClient.setReadTimeout(deadline);
+                        final ByteArrayOutputStream response = new ByteArrayOutputStream();
+                        final long shardStartTime = System.currentTimeMillis();
+                        httpClient.doPost(url, queryString, false, response);
+                        if (shardHealthMonitor!=null) shardHealthMonitor.recordSuccess(shard, System.currentTimeMillis()-shardStartTime);
+                        return new XmlParser(false).parseStream(new ByteArrayInputStream(response.toByteArray()));
+                    }
+                }) );
+            } catch(RejectedExecutionException e) {
+                futures.add(null);
+            }
+        }
+        
+        // collect the responses within the deadline
+        final List<Document> responses = new ArrayList<Document>();
+        final List<String> failedShards = new ArrayList<String>();
+        for (int i=0; i<shards.size(); i++) {
+            final Future<Document> future = futures.get(i);
+            try {
+                if (future==null) throw new RejectedExecutionException("Too many shard queries pending");
+                final long timeout = (deadline>0 ? Math.max(startTime+deadline-System.currentTimeMillis(), 0) : Long.MAX_VALUE);
+                responses.add( future.get(timeout, TimeUnit.MILLISECONDS) );
+            } catch(TimeoutException e) {
+                future.cancel(true);
+                numberOfShardTimeouts.incrementAndGet();
+                failedShards.add(shards.get(i));
+                if (shardHealthMonitor!=null) shardHealthMonitor.recordFailure(shards.get(i));
+                if (LOG.isWarnEnabled()) LOG.warn("Shard="+shards.get(i)+" timed out");
+            } catch(Exception e) {
+                numberOfShardFailures.incrementAndGet();
+                failedShards.add(shards.get(i));
+                // a rejected query is not the shard's fault
+                if (shardHealthMonitor!=null && future!=null) shardHealthMonitor.recordFailure(shards.get(i));
+                final Throwable cause = (e instanceof ExecutionException ? e.getCause() : e);
+                if (LOG.isWarnEnabled()) LOG.warn("Shard="+shards.get(i)+" error: "+cause.getMessage());
+            }
+        }
+        if (responses.isEmpty()) throw new Exception("No response from any of the shards: "+failedShards);
+        if (!failedShards.isEmpty()) numberOfPartialResults.incrementAndGet();
+        
+        // merge responses
+        final Document doc = new Document(new Element(ELEMENT_RESPONSE));
+        final Element root = doc.getRootElement();
+        root.addContent( buildHeader(failedShards, (int)(System.currentTimeMillis()-startTime)) );
+        root.addContent( mergeResults(responses, input) );
+        root.addContent( mergeFacets(responses) );
+        
+        final XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
+        outputter.output(doc, out);
+        out.flush();
+        
+        if (LOG.isInfoEnabled()) LOG.info("Federated search: shards="+shards.size()+" failed shards="+failedShards.size()
+                                         +" Elapsed Time="+(System.currentTimeMillis()-startTime)+" msecs");
+        return failedShards.isEmpty();
+        
+    }
+    
+    /**
+     * Method to build the response header, flagging partial results.
+     */
+    private Element buildHeader(final List<String> failedShards, final int qtime) {
+        
+        final Element header = newElement(SolrXmlPars.ELEMENT_LST, "responseHeader");
+        header.addContent( newElement(SolrXmlPars.ELEMENT_INT, "status").setText("0") );
+        header.addContent( newElement(SolrXmlPars.ELEMENT_INT, "QTime").setText(Integer.toString(qtime)) );
+        if (!failedShards.isEmpty()) {
+            header.addContent( newElement(ELEMENT_BOOL, PARTIAL_RESULTS).setText("true") );
+            final Element arr = newElement(SolrXmlPars.ELEMENT_ARR, FAILED_SHARDS);
+            for (final String shard : failedShards) {
+                arr.addContent( new Element(SolrXmlPars.ELEMENT_STR).setText(shard) );
+            }
+            header.addContent(arr);
+        }
+        return header;
+        
+    }
+    
+    /**
+     * Method to merge the documents returned by all shards, 
+     * removing duplicates and returning the requested page of results.
+     */
+    private Element mergeResults(final List<Document> responses, final SearchInput input) {
+        
+        int numFound = 0;
+        float maxScore = 0;
+        final List<Element> docs = new ArrayList<Element>();
+        for (final Document response : responses) {
+            final Element result = getChild(response.getRootElement(), SolrXmlPars.ELEMENT_RESULT, SolrXmlPars.ATTRIBUTE_VALUE_RESPONSE);
+            if (result!=null) {
+                numFound += Integer.parseInt(result.getAttributeValue(SolrXmlPars.ATTRIBUTE_NUM_FOUND));
+                if (result.getAttributeValue(ATTRIBUTE_MAX_SCORE)!=null) {
+                    maxScore = Math.max(maxScore, Float.parseFloat(result.getAttributeValue(ATTRIBUTE_MAX_SCORE)));
+                }
+                // copy the (raw) list of children before detaching them
+                final List<?> children = result.getChildren(SolrXmlPars.ELEMENT_DOC);
+                for (final Object obj : children.toArray()) {
+                    docs.add( (Element)((Element)obj).detach() );
+                }
+            }
+        }
+        
+        // sort by timestamp or score (the sort is stable, so ties are broken by shard order)
+        if (input.isSort()) {
+            Collections.sort(docs, new Comparator<Element>() {
+                public int compare(Element doc1, Element doc2) {
+                    return getValue(doc2, ELEMENT_DATE, QueryParameters.FIELD_TIMESTAMP).compareTo(getValue(doc1, ELEMENT_DATE, QueryParameters.FIELD_TIMESTAMP));
+                }
+            });
+        } else {
+            Collections.sort(docs, new Comparator<Element>() {
+                public int compare(Element doc1, Element doc2) {
+                    return Float.compare(getScore(doc2), getScore(doc1));
+                }
+            });
+        }
+        
+        // remove duplicates, return requested page
+        final Element result = newElement(SolrXmlPars.ELEMENT_RESULT, SolrXmlPars.ATTRIBUTE_VALUE_RESPONSE);
+        final Set<String> ids = new HashSet<String>();
+        int n = 0;
+        for (final Element doc : docs) {
+            if (ids.add(getValue(doc, SolrXmlPars.ELEMENT_STR, QueryParameters.FIELD_ID))) {
+                if (n>=input.getOffset() && n<input.getOffset()+input.getLimit()) {
+                    // the score was only requested for merging
+                    if (input.getFields().isEmpty()) doc.removeContent( getChild(doc, ELEMENT_FLOAT, FIELD_SCORE) );
+                    result.addContent(doc);
+                }
+                n++;
+            } else {
+                numFound--;
+            }
+        }
+        result.setAttribute(SolrXmlPars.ATTRIBUTE_NUM_FOUND, Integer.toString(numFound));
+        result.setAttribute(SolrXmlPars.ATTRIBUTE_START, Integer.toString(input.getOffset()));
+        if (!input.getFields().isEmpty()) result.setAttribute(ATTRIBUTE_MAX_SCORE, Float.toString(maxScore));
+        return result;
+        
+    }
+    
+    /**
+     * Method to merge the facet counts returned by all shards.
+     * Facet values are sorted by decreasing total counts, and trimmed to the facet limit.
+     */
+    private Element mergeFacets(final List<Document> responses) {
+        
+        final Map<String, Map<String, Integer>> facets = new LinkedHashMap<String, Map<String, Integer>>();
+        for (final Document response : responses) {
+            final Element facetCounts = getChild(response.getRootElement(), SolrXmlPars.ELEMENT_LST, SolrXmlPars.ELEMENT_FACET_COUNTS);
+            final Element facetFields = (facetCounts==null ? null : getChild(facetCounts, SolrXmlPars.ELEMENT_LST, SolrXmlPars.ELEMENT_FACET_FIELDS));
+            if (facetFields!=null) {
+                for (final Object obj : facetFields.getChildren(SolrXmlPars.ELEMENT_LST)) {
+                    final Element facet = (Element)obj;
+                    final String facetName = facet.getAttributeValue(SolrXmlPars.ATTRIBUTE_NAME);
+                    if (!facets.containsKey(facetName)) facets.put(facetName, new LinkedHashMap<String, Integer>());
+                    final Map<String, Integer> counts = facets.get(facetName);
+                    for (final Object obj2 : facet.getChildren(SolrXmlPars.ELEMENT_INT)) {
+                        final Element value = (Element)obj2;
+                        final String valueName = value.getAttributeValue(SolrXmlPars.ATTRIBUTE_NAME);
+                        final int count = Integer.parseInt(value.getTextTrim());
+                        counts.put(valueName, (counts.containsKey(valueName) ? counts.get(valueName) : 0) + count);
+                    }
+                }
+            }
+        }
+        
+        final Element facetCounts = newElement(SolrXmlPars.ELEMENT_LST, SolrXmlPars.ELEMENT_FACET_COUNTS);
+        facetCounts.addContent( newElement(SolrXmlPars.ELEMENT_LST, "facet_queries") );
+        final Element facetFields = newElement(SolrXmlPars.ELEMENT_LST, SolrXmlPars.ELEMENT_FACET_FIELDS);
+        for (final Map.Entry<String, Map<String, Integer>> facet : facets.entrySet()) {
+            final List<Map.Entry<String, Integer>> counts = new ArrayList<Map.Entry<String, Integer>>(facet.getValue().entrySet());
+            Collections.sort(counts, new Comparator<Map.Entry<String, Integer>>() {
+                public int compare(Map.Entry<String, Integer> count1, Map.Entry<String, Integer> count2) {
+                    // ties are broken by value, as in Solr
+                    final int c = count2.getValue().compareTo(count1.getValue());
+                    return (c!=0 ? c : count1.getKey().compareTo(count2.getKey()));
+                }
+            });
+            final Element facetElement = newElement(SolrXmlPars.ELEMENT_LST, facet.getKey());
+            for (final Map.Entry<String, Integer> count : (facetLimit>=0 && counts.size()>facetLimit ? counts.subList(0, facetLimit) : counts)) {
+                facetElement.addContent( newElement(SolrXmlPars.ELEMENT_INT, count.getKey()).setText(count.getValue().toString()) );
+            }
+            facetFields.addContent(facetElement);
+        }
+        facetCounts.addContent(facetFields);
+        facetCounts.addContent( newElement(SolrXmlPars.ELEMENT_LST, "facet_dates") );
+        return facetCounts;
+        
+    }
+    
+    /**
+     * Method to report the outcome of each shard query to the shards health tracker.
+     * @param shardHealthMonitor
+     */
+    public void setShardHealthMonitor(final ShardHealthMonitor shardHealthMonitor) {
+        this.shardHealthMonitor = shardHealthMonitor;
+    }
+    
+    /**
+     * Method to set the maximum time (in milliseconds) to wait for all shards to respond,
+     * independently of the read timeout of the query type.
+     * @param deadline : the deadline, 0 to use the read timeout
+     */
+    public void setDeadline(final int deadline) {
+        this.deadline = deadline;
+    }
+    
+    /**
+     * Method to return the maximum time (in milliseconds) to wait for all shards to respond.
+     * @param readTimeout : the read timeout of the query type
+     * @return the configured deadline, or the read timeout if no deadline is configured
+     */
+    public int getDeadline(final int readTimeout) {
+        return (deadline>0 ? deadline : readTimeout);
+    }
+    
+    /**
+     * Method to set the maximum number of values returned for each facet.
+     * @param facetLimit : the limit, negative for no limit
+     */
+    public void setFacetLimit(final int facetLimit) {
+        this.facetLimit = facetLimit;
+    }
+    
+    /**
+     * Method to stop the threads that query the shards.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    @ManagedAttribute(description="Number of distributed queries")
+    public long getNumberOfQueries() {
+        return numberOfQueries.get();
+    }
+    
+    @ManagedAttribute(description="Number of distributed queries that returned partial results")
+    public long getNumberOfPartialResults() {
+        return numberOfPartialResults.get();
+    }
+    
+    @ManagedAttribute(description="Number of shard queries that timed out")
+    public long getNumberOfShardTimeouts() {
+        return numberOfShardTimeouts.get();
+    }
+    
+    @ManagedAttribute(description="Number of shard queries that failed")
+    public long getNumberOfShardFailures() {
+        return numberOfShardFailures.get();
+    }
+    
+    @ManagedAttribute(description="Maximum time (ms) to wait for all shards to respond, 0 to use the read timeout")
+    public int getDeadline() {
+        return deadline;
+    }
+    
+    @ManagedAttribute(description="Number of shard queries currently executing")
+    public int getActiveShardQueries() {
+        return executor.getActiveCount();
+    }
+    
+    private static Element newElement(final String name, final String nameAttValue) {
+        return new Element(name).setAttribute(SolrXmlPars.ATTRIBUTE_NAME, nameAttValue);
+    }
+    
+    /**
+     * Method to return the first child element with the given name and "name" attribute value.
+     */
+    private static Element getChild(final Element parent, final String name, final String nameAttValue) {
+        for (final Object obj : parent.getChildren(name)) {
+            final Element child = (Element)obj;
+            if (nameAttValue.equals(child.getAttributeValue(SolrXmlPars.ATTRIBUTE_NAME))) return child;
+        }
+        return null;
+    }
+    
+    private static String getValue(final Element doc, final String name, final String nameAttValue) {
+        final Element child = getChild(doc, name, nameAttValue);
+        return (child==null ? "" : child.getTextTrim());
+    }
+    
+    private static float getScore(final Element doc) {
+        final String score = getValue(doc, ELEMENT_FLOAT, FIELD_SCORE);
+        return (score.length()==0 ? 0 : Float.parseFloat(score));
+    }
+
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * In-memory cache of serialized Solr query responses, keyed by the canonical query URL.
+ * 
+ * The cache is bounded both in number of entries and in total size of the cached responses,
+ * and evicts the least recently used entries first. Each entry expires after a time-to-live
+ * that is configured separately for distributed and local queries, since distributed results 
+ * depend on the state of remote shards.
+ * 
+ * Responses larger than a per-entry limit are not cached, so that a search request only keeps
+ * a small copy of its response in memory while streaming it to the client.
+ * 
+ * All caches are invalidated whenever {@link #invalidateAll()} is invoked: after a commit to the local
+ * Solr server, and (through {@link ReplicationMonitor}) when the Solr server that executes the queries
+ * replicates a new version of the index. Responses read from that server between the two events
+ * may still pre-date the commit: they are cached until the second invalidation.
+ * 
+ * @author Luca Cinquini
+ */
+@ManagedResource(objectName="esg.search:name=QueryCache", description="Cache of Solr query responses")
+public class QueryCache {
+    
+    /**
+     * All cache instances in this JVM, for global invalidation.
+     */
+    private final static Set<QueryCache> CACHES = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<QueryCache, Boolean>()));
+    
+    /**
+     * Access-ordered map of cache entries.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final long distribTtl;
+    private final long localTtl;
+    
+    /**
+     * Total size of the cached responses.
+     */
+    private long bytes = 0;
+    
+    /**
+     * Cache statistics.
+     */
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+    
+    private static final Log LOG = LogFactory.getLog(QueryCache.class);
+    
+    /**
+     * Default maximum size of a single cached response.
+     */
+    public final static int DEFAULT_MAX_ENTRY_BYTES = 1048576;
+    
+    /**
+     * Constructor with the default maximum size of a single cached response.
+     * 
+     * @param maxEntries : maximum number of cached responses
+     * @param maxBytes : maximum total size of the cached responses
+     * @param distribTtl : time-to-live (in milliseconds) of distributed query responses, 0 to not cache them
+     * @param localTtl : time-to-live (in milliseconds) of local query responses, 0 to not cache them
+     */
+    public QueryCache(final int maxEntries, final long maxBytes, final long distribTtl, final long localTtl) {
+        this(maxEntries, maxBytes, distribTtl, localTtl, DEFAULT_MAX_ENTRY_BYTES);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param maxEntries : maximum number of cached responses
+     * @param maxBytes : maximum total size of the cached responses
+     * @param distribTtl : time-to-live (in milliseconds) of distributed query responses, 0 to not cache them
+     * @param localTtl : time-to-live (in milliseconds) of local query responses, 0 to not cache them
+     * @param maxEntryBytes : maximum size of a single cached response
+     */
+    public QueryCache(final int maxEntries, final long maxBytes, final long distribTtl, final long localTtl, final int maxEntryBytes) {
+        
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = (int)Math.min(maxEntryBytes, maxBytes);
+        this.distribTtl = distribTtl;
+        this.localTtl = localTtl;
+        CACHES.add(this);
+        
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Query cache max entries="+maxEntries+" max bytes="+maxBytes+" max entry bytes="+this.maxEntryBytes);
+            LOG.info("Query cache distributed TTL="+distribTtl+" local TTL="+localTtl);
+        }
+        
+    }
+    
+    /**
+     * Method to invalidate all query caches in this JVM.
+     */
+    public static void invalidateAll() {
+        
+        synchronized (CACHES) {
+            for (final QueryCache cache : CACHES) {
+                cache.invalidate();
+            }
+        }
+        
+    }
+    
+    /**
+     * Method to return a cached response.
+     * @param key
+     * @return the response, or null if not found or expired
+     */
+    public synchronized byte[] get(final String key) {
+        
+        final Entry entry = entries.get(key);
+        if (entry!=null) {
+            if (entry.expiration > System.currentTimeMillis()) {
+                hits++;
+                return entry.response;
+            } else {
+                remove(key);
+            }
+        }
+        misses++;
+        return null;
+        
+    }
+    
+    /**
+     * Method to cache a response.
+     * @param key
+     * @param response
+     * @param distrib : true if the response comes from a distributed query
+     * @param generation : the value of {@link #getGeneration()} before the query was executed
+     */
+    public synchronized void put(final String key, final byte[] response, boolean distrib, long generation) {
+        
+        final long ttl = (distrib ? distribTtl : localTtl);
+        if (ttl<=0 || maxEntries<=0 || response.length > maxEntryBytes) return;
+        
+        // the response may pre-date the last invalidation
+        if (generation!=invalidations) return;
+        
+        remove(key);
+        entries.put(key, new Entry(response, System.currentTimeMillis()+ttl));
+        bytes += response.length;
+        
+        // evict least recently used entries
+        final Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && iter.hasNext()) {
+            bytes -= iter.next().getValue().response.length;
+            iter.remove();
+            evictions++;
+        }
+        
+    }
+    
+    /**
+     * Method to return a counter that is incremented every time the cache is invalidated.
+     * Responses obtained before the cache was invalidated are not cached.
+     * @return
+     */
+    public synchronized long getGeneration() {
+        return invalidations;
+    }
+    
+    /**
+     * Method to return the maximum size of a single response that can be cached.
+     * @return
+     */
+    @ManagedAttribute(description="Maximum size of a single cached response in bytes")
+    public int getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+    
+    /**
+     * Method to determine whether responses of distributed (or local) queries are cached at all.
+     * @param distrib
+     * @return
+     */
+    public boolean isEnabled(boolean distrib) {
+        return maxEntries>0 && (distrib ? distribTtl : localTtl) > 0;
+    }
+    
+    /**
+     * Method to remove all entries from this cache.
+     */
+    @ManagedOperation(description="Removes all cached responses")
+    public synchronized void invalidate() {
+        entries.clear();
+        bytes = 0;
+        invalidations++;
+        if (LOG.isDebugEnabled()) LOG.debug("Query cache invalidated");
+    }
+    
+    private void remove(final String key) {
+        final Entry entry = entries.remove(key);
+        if (entry!=null) bytes -= entry.response.length;
+    }
+    
+    @ManagedAttribute(description="Number of cached responses")
+    public synchronized int getSize() {
+        return entries.size();
+    }
+    
+    @ManagedAttribute(description="Total size of cached responses in bytes")
+    public synchronized long getBytes() {
+        return bytes;
+    }
+    
+    @ManagedAttribute(description="Number of cache hits")
+    public synchronized long getHits() {
+        return hits;
+    }
+    
+    @ManagedAttribute(description="Number of cache misses")
+    public synchronized long getMisses() {
+        return misses;
+    }
+    
+    @ManagedAttribute(description="Number of responses evicted to respect the cache size limits")
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+    
+    @ManagedAttribute(description="Number of times the cache was invalidated")
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return "Query cache: size="+entries.size()+" bytes="+bytes+" hits="+hits+" misses="+misses
+              +" evictions="+evictions+" invalidations="+invalidations;
+    }
+    
+    /**
+     * A cached response with its expiration time.
+     */
+    private static class Entry {
+        
+        final byte[] response;
+        final long expiration;
+        
+        Entry(final byte[] response, final long expiration) {
+            this.response = response;
+            this.expiration = expiration;
+        }
+        
+    }
+
+}
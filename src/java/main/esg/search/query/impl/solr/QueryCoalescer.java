@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Class that coalesces identical concurrent queries, so that only one of them is sent to the back-end server.
+ * 
+ * The first request for a given query key becomes the "leader" of the query execution: 
+ * it executes the query and publishes the serialized response when done. 
+ * Identical requests that arrive while the query is in progress wait for the leader's response
+ * instead of executing the query again. If the leader fails, or its response is larger than
+ * the configured maximum size, the waiting requests execute the query themselves: they are released
+ * as soon as the leader's response exceeds the maximum size, without waiting for it to complete.
+ * 
+ * Coalescing is independent of {@link QueryCache}: it only applies to queries that are executing at the same time.
+ * 
+ * @author Luca Cinquini
+ */
+@ManagedResource(objectName="esg.search:name=QueryCoalescer", description="Coalescing of identical concurrent queries")
+public class QueryCoalescer {
+    
+    /**
+     * Queries in progress, indexed by query key.
+     */
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+    
+    /**
+     * Maximum size of a response that is shared with the waiting requests.
+     */
+    private final int maxBytes;
+    
+    /**
+     * Statistics.
+     */
+    private final AtomicLong numberOfQueries = new AtomicLong(0);
+    private final AtomicLong numberOfCoalescedRequests = new AtomicLong(0);
+    private final AtomicLong numberOfFallbacks = new AtomicLong(0);
+    
+    /**
+     * Constructor.
+     * @param maxBytes : maximum size of a response that can be shared by identical requests
+     */
+    public QueryCoalescer(final int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+    
+    /**
+     * Method to join the execution of a query.
+     * 
+     * @param key : the canonical query key
+     * @return null if the caller must execute the query, and then invoke {@link #complete(String, byte[])};
+     *         otherwise, the query in progress whose response the caller should wait for
+     */
+    public Flight join(final String key) {
+        
+        final Flight flight = new Flight();
+        final Flight existing = flights.putIfAbsent(key, flight);
+        if (existing==null) {
+            numberOfQueries.incrementAndGet();
+            return null;
+        } else {
+            return existing;
+        }
+        
+    }
+    
+    /**
+     * Method invoked by the leader when the query has completed, 
+     * to release the requests that are waiting for its response.
+     * 
+     * @param key : the canonical query key
+     * @param response : the serialized response, or null if the query failed or the response was too large
+     */
+    public void complete(final String key, final byte[] response) {
+        final Flight flight = flights.remove(key);
+        if (flight!=null) flight.complete(response);
+    }
+    
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+    
+    @ManagedAttribute(description="Number of queries executed on behalf of one or more requests")
+    public long getNumberOfQueries() {
+        return numberOfQueries.get();
+    }
+
+    @ManagedAttribute(description="Number of requests that received the response of an identical query in progress")
+    public long getNumberOfCoalescedRequests() {
+        return numberOfCoalescedRequests.get();
+    }
+
+    @ManagedAttribute(description="Number of requests that waited for an identical query, but had to execute it themselves")
+    public long getNumberOfFallbacks() {
+        return numberOfFallbacks.get();
+    }
+    
+    @ManagedAttribute(description="Number of queries currently in progress")
+    public int getQueriesInProgress() {
+        return flights.size();
+    }
+    
+    /**
+     * A query in progress.
+     */
+    public class Flight {
+        
+        private final CountDownLatch done = new CountDownLatch(1);
+        
+        private volatile byte[] response = null;
+        
+        private void complete(final byte[] response) {
+            this.response = response;
+            done.countDown();
+        }
+        
+        /**
+         * Method to wait for the leader's response.
+         * 
+         * @param timeout : maximum time to wait in milliseconds (0 to wait indefinitely)
+         * @return the response, or null if it is not available: the caller must then execute the query itself
+         * @throws InterruptedException
+         */
+        public byte[] await(final long timeout) throws InterruptedException {
+            
+            if (timeout>0) {
+                done.await(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                done.await();
+            }
+            
+            final byte[] _response = response;
+            if (_response!=null) {
+                numberOfCoalescedRequests.incrementAndGet();
+            } else {
+                numberOfFallbacks.incrementAndGet();
+            }
+            return _response;
+            
+        }
+        
+    }
+
+}
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import esg.search.utils.HttpClient;
+
+/**
+ * Service that invalidates all query caches when the Solr server that executes the queries
+ * (typically the slave instance) replicates a new version of the index of any core.
+ *
+ * The master commit already invalidates the caches, but responses read from the slave before
+ * the replication completes would otherwise stay cached until their time-to-live expires.
+ * The index version of each core is polled in the background from the Solr replication handler;
+ * if the handler is not available (the server is not a replication slave), only the master commit
+ * invalidates the caches.
+ *
+ * @author Luca Cinquini
+ */
+@ManagedResource(objectName="esg.search:name=ReplicationMonitor", description="Invalidates the query caches after index replication")
+public class ReplicationMonitor {
+    
+    /**
+     * Query string of the request for the index version of a core.
+     */
+    private final static String INDEX_VERSION_QUERY = "/replication?command=indexversion&wt=xml";
+    
+    private final static Pattern INDEX_VERSION = Pattern.compile("<long name=\"indexversion\">(\\d+)</long>");
+    
+    /**
+     * Base URL of the Solr server that executes the queries.
+     */
+    private final URL url;
+    
+    /**
+     * Interval between polls (in milliseconds).
+     */
+    private final long pollInterval;
+    
+    /**
+     * Last index version of each core, indexed by core name.
+     */
+    private final Map<String, String> versions = new HashMap<String, String>();
+    
+    private final ScheduledExecutorService scheduler;
+    
+    private int timeout = 10000;
+    
+    private long numberOfInvalidations = 0;
+    
+    private static final Log LOG = LogFactory.getLog(ReplicationMonitor.class);
+    
+    /**
+     * Constructor.
+     * @param url : base URL of the Solr server that executes the queries
+     * @param pollInterval : interval between polls of the index versions (in milliseconds), 0 to disable polling
+     */
+    public ReplicationMonitor(final URL url, final long pollInterval) {
+        
+        this.url = url;
+        this.pollInterval = pollInterval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "esg-search-replication-monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        
+    }
+    
+    /**
+     * Method to start polling the index versions in the background.
+     */
+    public void start() {
+        
+        if (pollInterval>0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        poll();
+                    } catch(Exception e) {
+                        // keep the schedule running
+                        LOG.warn("Error polling index versions: "+e.getMessage());
+                    }
+                }
+            }, 0, pollInterval, TimeUnit.MILLISECONDS);
+            if (LOG.isInfoEnabled()) LOG.info("Polling index versions of "+url+" every "+pollInterval+" ms");
+        }
+        
+    }
+    
+    /**
+     * Method to read the index version of all cores,
+     * and invalidate all query caches if any of them changed since the last poll.
+     */
+    synchronized void poll() {
+        
+        boolean changed = false;
+        for (final String core : SolrXmlPars.CORES.values()) {
+            
+            final String version = this.getIndexVersion(core);
+            if (version==null) continue;
+            
+            final String previous = versions.put(core, version);
+            if (previous!=null && !previous.equals(version)) {
+                if (LOG.isInfoEnabled()) LOG.info("Core="+core+" replicated index version="+version);
+                changed = true;
+            }
+            
+        }
+        
+        if (changed) {
+            QueryCache.invalidateAll();
+            numberOfInvalidations++;
+        }
+        
+    }
+    
+    /**
+     * Method to return the current index version of a core,
+     * or null if it cannot be determined.
+     */
+    String getIndexVersion(final String core) {
+        
+        try {
+            final HttpClient httpClient = new HttpClient();
+            httpClient.setConnectionTimeout(timeout);
+            httpClient.setReadTimeout(timeout);
+            final Matcher matcher = INDEX_VERSION.matcher( httpClient.doGet(new URL(url.toString()+"/"+core+INDEX_VERSION_QUERY)) );
+            return (matcher.find() ? matcher.group(1) : null);
+        } catch(Exception e) {
+            if (LOG.isDebugEnabled()) LOG.debug("Cannot read index version of core="+core+": "+e.getMessage());
+            return null;
+        }
+        
+    }
+    
+    /**
+     * Method to stop polling the index versions.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+    
+    /**
+     * Method to set the connection and read timeout of the polls (in milliseconds).
+     * @param timeout
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+    
+    @ManagedAttribute(description="Interval between polls of the index versions (ms)")
+    public long getPollInterval() {
+        return pollInterval;
+    }
+    
+    @ManagedAttribute(description="Number of times the query caches were invalidated after a replication")
+    public synchronized long getNumberOfInvalidations() {
+        return numberOfInvalidations;
+    }
+
+}
@@ -18,9 +18,12 @@
  ******************************************************************************/
 package esg.search.query.impl.solr;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,12 +32,17 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import esg.common.util.ESGFProperties;
+import esg.search.metrics.SearchMetrics;
+import esg.search.metrics.SearchMetrics.Phase;
 import esg.search.query.api.QueryParameters;
 import esg.search.query.api.SearchInput;
 import esg.search.query.api.SearchOutput;
 import esg.search.query.api.SearchReturnType;
 import esg.search.query.api.SearchService;
+import esg.search.utils.CountingOutputStream;
 import esg.search.utils.HttpClient;
+import esg.search.utils.ResponseBuffer;
+import esg.search.utils.TeeOutputStream;
 import esg.security.registry.service.api.RegistryService;
 
 /**
@@ -50,6 +58,14 @@ import esg.security.registry.service.api.RegistryService;
  * In case of failed query, this search service implementation attempts to execute the query two more times,
  * first with a trimmed down shards list, finally versus the localhost Solr engine only.
  * 
+ * If a {@link FederatedSearchEngine} is configured, distributed searches returning Solr/XML are executed 
+ * by querying each shard in parallel and merging the results, rather than by the Solr server.
+ * Distributed searches returning Solr/JSON are always executed by the Solr server.
+ * 
+ * If the binary transport is enabled, the results of the {@link #search(SearchInput)} method are requested 
+ * from the Solr server in the javabin format and parsed by {@link SolrJavabinParser}. 
+ * The responses of the query() methods are always returned in the requested Solr/XML or Solr/JSON format.
+ * 
  */
 @Service("searchService")
 public class SearchServiceImpl implements SearchService {
@@ -62,13 +78,45 @@ public class SearchServiceImpl implements SearchService {
 	/**
 	 * The parser used to parse the XML output from the server.
 	 */
-	final SolrXmlParser xmlParser = new SolrXmlParser();
+	private SolrXmlParser xmlParser = new SolrXmlParser();
+	
+	/**
+	 * The parser used to parse the binary (javabin) output from the server.
+	 */
+	private SolrJavabinParser javabinParser = new SolrJavabinParser(xmlParser);
+	
+	/**
+	 * Flag to request the results of the search() method in the binary (javabin) format.
+	 */
+	private boolean javabin = false;
 	
 	/**
 	 * Optional registry service providing list of query endpoints for distributed search.
 	 */
 	private RegistryService registryService = null;
 	
+	/**
+	 * Optional cache of query responses.
+	 */
+	private QueryCache queryCache = null;
+	
+	/**
+	 * Optional coalescing of identical concurrent queries.
+	 */
+	private QueryCoalescer queryCoalescer = null;
+	
+	/**
+	 * Optional engine that executes distributed searches on the client side.
+	 * If not set, distributed searches are executed by the Solr server.
+	 */
+	private FederatedSearchEngine federatedSearchEngine = null;
+	
+	/**
+	 * Optional service that tracks the health of the shards in the background.
+	 * If set, shards with an open circuit are excluded from distributed searches.
+	 */
+	private ShardHealthMonitor shardHealthMonitor = null;
+	
 	/**
 	 * Timeouts.
 	 */
@@ -83,6 +131,16 @@ public class SearchServiceImpl implements SearchService {
      * 3 - with local shard only
      */
     private static final int NUMBER_OF_TRIES = 3;
+    
+    /**
+     * Character encoding of the Solr responses.
+     */
+    private static final String ENCODING = "UTF-8";
+    
+    /**
+     * Mime type of the Solr binary responses (only used internally).
+     */
+    private static final String JAVABIN_MIME_TYPE = "application/javabin";
 
 
 	private static final Log LOG = LogFactory.getLog(SearchServiceImpl.class);
@@ -136,11 +194,15 @@ public class SearchServiceImpl implements SearchService {
 	 */
 	public SearchOutput search(final SearchInput input) throws Exception {
 		
-		// execute HTTP request, return XML
-		final String response = this.query(input, SearchReturnType.SOLR_XML);		
+		// execute HTTP request, return XML or javabin
+		final ResponseBuffer response = new ResponseBuffer();
+		final boolean binary = this.query(input, SearchReturnType.SOLR_XML, this.javabin, response, true);
 		
-		// parse HTTP XML response into Java object
-		final SearchOutput output = xmlParser.parse(response, input);
+		// parse HTTP response into Java object (directly from the buffer)
+		final long startTime = System.nanoTime();
+		final SearchOutput output = (binary ? javabinParser.parse(response.toInputStream(), input)
+		                                    : xmlParser.parse(response.toInputStream(), input));
+		SearchMetrics.getInstance().record(Phase.PARSING, input.getConstraint(QueryParameters.FIELD_TYPE), input.isDistrib(), System.nanoTime()-startTime);
 		
 		return output;
 		
@@ -148,20 +210,52 @@ public class SearchServiceImpl implements SearchService {
 	
 	/**
 	 * Self-recovering implementation of query() method.
+	 * The whole response is buffered in memory, so that the query can always be re-tried.
 	 */
 	public String query(final SearchInput input, final SearchReturnType returnType) throws Exception {
+	    
+	    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	    this.query(input, returnType, false, buffer, true);
+	    return buffer.toString(ENCODING);
+	    
+	}
+	
+	/**
+	 * Self-recovering implementation of the streaming query() method.
+	 * The query can only be re-tried if no part of the response has been written to the output stream yet.
+	 */
+	public void query(final SearchInput input, final SearchReturnType returnType, final OutputStream out) throws Exception {
+	    
+	    this.query(input, returnType, false, out, false);
+	    
+	}
 		
+	/**
+	 * Method containing the recovery logic common to the buffered and streaming query() methods.
+	 * 
+	 * @param input
+	 * @param returnType
+	 * @param binary : true to request the response in the binary (javabin) format instead of the return type, if possible
+	 * @param out
+	 * @param buffered : true if the output stream is an in-memory buffer that can be discarded before re-trying
+	 * @return true if the response was written in the binary format
+	 * @throws Exception
+	 */
+	private boolean query(final SearchInput input, final SearchReturnType returnType, final boolean binary, final OutputStream out, boolean buffered) throws Exception {
+		
+	    final CountingOutputStream counter = new CountingOutputStream(out);
+	    
         // attempt query numberOfTries times
         for (int n=0; n<NUMBER_OF_TRIES; n++) {    
             
             long startTime = System.currentTimeMillis();
             
             try {
-                // execute HTTP request to Solr, return response document
-                String response = _query(input, returnType);
+                // execute HTTP request to Solr, write response document
+                final boolean _binary = _query(input, returnType, binary, counter);
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 if (LOG.isInfoEnabled()) LOG.info("Query Elapsed Time="+elapsedTime+" msecs");
-                return response;
+                return _binary;
                 
                 
             } catch(Exception e) {
@@ -173,6 +267,17 @@ public class SearchServiceImpl implements SearchService {
                     LOG.warn(e.getMessage());
                 }
                 
+                // discard partial response, or give up if it has already been sent to the client
+                if (counter.getCount()>0) {
+                    if (buffered) {
+                        ((ByteArrayOutputStream)out).reset();
+                        counter.resetCount();
+                    } else {
+                        if (LOG.isWarnEnabled()) LOG.warn("Partial response already sent, cannot recover");
+                        throw e;
+                    }
+                }
+                
                 if (n==0) {
                     
                     // prune the shards list
@@ -200,43 +305,137 @@ public class SearchServiceImpl implements SearchService {
             }
         }
         
-        // response error, return empty body content
-        return "";
+        return false; // not reached
 		
 	}
 	
 	/**
      *  Private method contains the business logic implementation of the public query method.
+     *  The binary format is not used for distributed searches executed by the {@link FederatedSearchEngine},
+     *  which merges the Solr/XML responses of the shards.
+     *  
+     *  @return true if the response was written in the binary format
      */
-    private String _query(final SearchInput input, final SearchReturnType returnType) throws Exception {
+    private boolean _query(final SearchInput input, final SearchReturnType returnType, boolean binary, final OutputStream out) throws Exception {
         
         if (LOG.isInfoEnabled()) LOG.info("Query Input:\n"+input.toString());
         
+        // check requested format
+        this.checkReturnType(returnType);
+        
         // formulate HTTP request
+        final long buildStartTime = System.nanoTime();
         final SolrUrlBuilder builder = new SolrUrlBuilder(url);
         builder.setSearchInput(input);
         builder.setFacets(input.getFacets());
-        if (registryService!=null) builder.setDefaultShards( registryService.getShards() );
+        if (registryService!=null) {
+            if (shardHealthMonitor!=null) {
+                builder.setDefaultShards( shardHealthMonitor.getAvailableShards(registryService.getShards()) );
+            } else {
+                builder.setDefaultShards( registryService.getShards() );
+            }
+        }
+        final boolean distrib = !builder.getShards().isEmpty();
+        final boolean federated = (federatedSearchEngine!=null && distrib && returnType==SearchReturnType.SOLR_XML);
+        binary = binary && !federated;
+        builder.setJavabin(binary);
+        final String selectUrl = builder.buildSelectUrl();
+        final String queryString = builder.buildSelectQueryString();
+        final String type = input.getConstraint(QueryParameters.FIELD_TYPE);
+        final SearchMetrics metrics = SearchMetrics.getInstance();
+        metrics.record(Phase.URL_BUILDING, type, input.isDistrib(), System.nanoTime()-buildStartTime);
         
-        // instantiate HTTP client
-        final HttpClient httpClient = new HttpClient();
+        // return cached response, if available
+        // (the query string includes the shards of a distributed search)
+        final boolean cache = (queryCache!=null && queryCache.isEnabled(distrib));
+        final String key = selectUrl+"?"+queryString+"#"+(binary ? JAVABIN_MIME_TYPE : returnType.getMimeType());
+        long generation = 0;
+        if (cache) {
+            generation = queryCache.getGeneration();
+            final byte[] response = queryCache.get(key);
+            if (response!=null) {
+                if (LOG.isInfoEnabled()) LOG.info("Returning cached query response");
+                out.write(response);
+                out.flush();
+                return binary;
+            }
+        }
         
         // choose timeouts
-        if (this.connectionTimeout>0) httpClient.setConnectionTimeout(this.connectionTimeout);
-        final String type = input.getConstraint(QueryParameters.FIELD_TYPE);
-        if (type.equals(QueryParameters.TYPE_FILE)) {
-            if (this.filesReadTimeout>0) httpClient.setReadTimeout(this.filesReadTimeout);
-        } else {
-            if (this.datasetsReadTimeout>0) httpClient.setReadTimeout(this.datasetsReadTimeout);
+        final int readTimeout = (type.equals(QueryParameters.TYPE_FILE) ? this.filesReadTimeout : this.datasetsReadTimeout);
+        
+        // wait for the response of an identical query already in progress, if any
+        boolean leader = false;
+        if (queryCoalescer!=null) {
+            final QueryCoalescer.Flight flight = queryCoalescer.join(key);
+            if (flight==null) {
+                leader = true;
+            } else {
+                final byte[] response = flight.await(readTimeout>0 ? this.connectionTimeout+readTimeout : 0);
+                if (response!=null) {
+                    if (LOG.isInfoEnabled()) LOG.info("Returning response of identical query in progress");
+                    out.write(response);
+                    out.flush();
+                    return binary;
+                }
+            }
         }
-                
-        // execute HTTP/POST request, return response as Solr/XML or Solr/JSON   
-        String output = httpClient.doPost(new URL(builder.buildSelectUrl()), builder.buildSelectQueryString(), false);
         
-        // transform to requested format
-        final String response = this.transform(output, returnType);
+        // keep a (bounded) copy of the response for the cache and the coalesced requests
+        // (each feature only uses the copy if the response does not exceed its own limit)
+        final long cacheBytes = (cache ? queryCache.getMaxEntryBytes() : 0);
+        final long coalescerBytes = (leader ? queryCoalescer.getMaxBytes() : 0);
+        final AtomicBoolean released = new AtomicBoolean(false);
+        final boolean _leader = leader;
+        TeeOutputStream tee = null;
+        if (cache || leader) {
+            tee = new TeeOutputStream(out, (int)Math.min(Math.max(cacheBytes, coalescerBytes), Integer.MAX_VALUE)) {
+                @Override
+                protected void written(long count) {
+                    // stop sharing the response as soon as it exceeds the coalescing limit:
+                    // the coalesced requests execute the query themselves
+                    if (_leader && count>coalescerBytes && released.compareAndSet(false, true)) queryCoalescer.complete(key, null);
+                }
+            };
+        }
+        final OutputStream target = (tee!=null ? tee : out);
+        boolean complete = true;
+        boolean success = false;
         
-        return response;
+        final long backendStartTime = System.nanoTime();
+        try {
+            
+            if (federated) {
+            
+                // query all shards in parallel, merge the responses received within the deadline
+                complete = federatedSearchEngine.query(builder, input, this.connectionTimeout, federatedSearchEngine.getDeadline(readTimeout), target);
+            
+            } else {
+        
+                // instantiate HTTP client
+                final HttpClient httpClient = new HttpClient();
+                if (this.connectionTimeout>0) httpClient.setConnectionTimeout(this.connectionTimeout);
+                if (readTimeout>0) httpClient.setReadTimeout(readTimeout);
+            
+                // execute HTTP/POST request, copy response as Solr/XML, Solr/JSON or javabin   
+                httpClient.doPost(new URL(selectUrl), queryString, false, target);
+            
+            }
+            success = true;
+            metrics.record(Phase.BACKEND, type, input.isDistrib(), System.nanoTime()-backendStartTime);
+            
+        } finally {
+            // release the coalesced requests (they execute the query themselves if it failed)
+            if (leader && released.compareAndSet(false, true)) queryCoalescer.complete(key, success ? tee.getBytes(coalescerBytes) : null);
+        }
+        
+        // partial results are not cached
+        if (cache && complete) {
+            final byte[] response = tee.getBytes(cacheBytes);
+            if (response!=null) queryCache.put(key, response, distrib, generation);
+        }
+        
+        return binary;
         
     }
 	
@@ -247,6 +446,12 @@ public class SearchServiceImpl implements SearchService {
 	@Override
     public void recover(final SearchInput input) throws Exception {
 	    
+	    // do not wait: the shards health is updated in the background
+	    if (shardHealthMonitor!=null) {
+	        shardHealthMonitor.probeNow();
+	        return;
+	    }
+	    
 	    // reconstruct query string that caused the error (except request output as XML)
         final SolrUrlBuilder builder = new SolrUrlBuilder(url);
         String format = input.getFormat();
@@ -261,11 +466,9 @@ public class SearchServiceImpl implements SearchService {
         
     }
 
-    private String transform(final String output, final SearchReturnType returnType) throws Exception {
+    private void checkReturnType(final SearchReturnType returnType) throws Exception {
 	    
-	    if (returnType==SearchReturnType.SOLR_XML || returnType==SearchReturnType.SOLR_JSON) {
-	        return output;
-	    } else {
+	    if (returnType!=SearchReturnType.SOLR_XML && returnType!=SearchReturnType.SOLR_JSON) {
 	        throw new Exception("Unsupported output format: "+returnType.getMimeType());
 	    }
 	    
@@ -276,5 +479,57 @@ public class SearchServiceImpl implements SearchService {
         this.registryService = registryService;
     }
 	
+	/**
+	 * Method to enable caching of the query responses.
+	 * @param queryCache
+	 */
+	public void setQueryCache(QueryCache queryCache) {
+	    this.queryCache = queryCache;
+	}
+	
+	/**
+	 * Method to enable coalescing of identical concurrent queries.
+	 * @param queryCoalescer
+	 */
+	public void setQueryCoalescer(QueryCoalescer queryCoalescer) {
+	    this.queryCoalescer = queryCoalescer;
+	}
+	
+	/**
+	 * Method to execute distributed searches (with Solr/XML output) on the client side,
+	 * returning partial results if some shards do not respond.
+	 * @param federatedSearchEngine
+	 */
+	public void setFederatedSearchEngine(FederatedSearchEngine federatedSearchEngine) {
+	    this.federatedSearchEngine = federatedSearchEngine;
+	}
+	
+	/**
+	 * Method to exclude unavailable shards from distributed searches,
+	 * and to recover from search errors without probing the shards synchronously.
+	 * @param shardHealthMonitor
+	 */
+	public void setShardHealthMonitor(ShardHealthMonitor shardHealthMonitor) {
+	    this.shardHealthMonitor = shardHealthMonitor;
+	}
+	
+	/**
+	 * Method to replace the default (JDOM-based) parser of the XML output from the server.
+	 * @param xmlParser
+	 */
+	public void setXmlParser(SolrXmlParser xmlParser) {
+	    this.xmlParser = xmlParser;
+	    this.javabinParser = new SolrJavabinParser(xmlParser);
+	}
+	
+	/**
+	 * Method to request the results of the search() method from the server in the binary (javabin) format, 
+	 * which is smaller and faster to parse than XML.
+	 * @param javabin
+	 */
+	public void setJavabin(boolean javabin) {
+	    this.javabin = javabin;
+	}
+	
 
 }
@@ -0,0 +1,492 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import esg.security.registry.service.api.RegistryService;
+
+/**
+ * Service that tracks the health of the Solr shards used for distributed search.
+ * 
+ * The shards listed by the registry service are probed in the background at regular intervals,
+ * and the outcome of the probes (and of the actual distributed queries, if reported) is used to keep 
+ * an exponentially weighted moving average of the latency and error rate of each shard.
+ * 
+ * Each shard is protected by a circuit breaker:
+ * <ul>
+ *  <li>CLOSED: the shard is healthy and is included in distributed searches</li>
+ *  <li>OPEN: the shard failed too many consecutive times and is excluded from distributed searches</li>
+ *  <li>HALF_OPEN: the shard has been excluded for long enough that it is tried again: 
+ *      it is included in distributed searches, a success closes the circuit and a failure opens it again</li>
+ * </ul>
+ * 
+ * Since probing is done in the background, user queries never wait for it.
+ * 
+ * @author Luca Cinquini
+ */
+@ManagedResource(objectName="esg.search:name=ShardHealthMonitor", description="Health of the Solr shards used for distributed search")
+public class ShardHealthMonitor {
+    
+    /**
+     * Possible states of a shard circuit breaker.
+     */
+    public enum State { CLOSED, OPEN, HALF_OPEN };
+    
+    /**
+     * Query sent to each shard to test it.
+     */
+    public final static String PROBE_QUERY = "q=*&rows=0";
+    
+    /**
+     * Maximum time (in milliseconds) to wait for all the probes of a cycle to complete.
+     */
+    private final static long MAX_PROBE_TIME = 30000;
+    
+    /**
+     * Weight of the most recent observation in the moving averages.
+     */
+    private final static double ALPHA = 0.2;
+    
+    /**
+     * Supplies the list of shards to probe.
+     */
+    private final RegistryService registryService;
+    
+    /**
+     * Interval between probes (in milliseconds).
+     */
+    private final long probeInterval;
+    
+    /**
+     * Number of consecutive failures that open a shard circuit.
+     */
+    private final int failureThreshold;
+    
+    /**
+     * Time (in milliseconds) an open circuit waits before trying the shard again.
+     */
+    private final long openInterval;
+    
+    /**
+     * Health of each shard, indexed by shard.
+     */
+    private final Map<String, ShardHealth> shards = new ConcurrentHashMap<String, ShardHealth>();
+    
+    /**
+     * Scheduler of the periodic probes.
+     */
+    private final ScheduledExecutorService scheduler;
+    
+    /**
+     * Pool of threads that probe the shards in parallel.
+     */
+    private final ExecutorService executor;
+    
+    /**
+     * Flag to prevent overlapping probe cycles.
+     */
+    private final AtomicBoolean probing = new AtomicBoolean(false);
+    
+    private static final Log LOG = LogFactory.getLog(ShardHealthMonitor.class);
+    
+    /**
+     * Constructor with mandatory arguments.
+     * 
+     * @param registryService : service supplying the list of shards to probe
+     * @param probeInterval : interval between probes (in milliseconds)
+     * @param failureThreshold : number of consecutive failures that open a shard circuit
+     * @param openInterval : time (in milliseconds) before a shard with an open circuit is tried again
+     * @param threads : maximum number of shards probed at the same time
+     */
+    public ShardHealthMonitor(final RegistryService registryService, final long probeInterval, 
+                              final int failureThreshold, final long openInterval, final int threads) {
+        
+        this.registryService = registryService;
+        this.probeInterval = probeInterval;
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.openInterval = openInterval;
+        
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("esg-search-shard-monitor"));
+        this.executor = Executors.newFixedThreadPool(Math.max(threads, 1), new DaemonThreadFactory("esg-search-shard-probe"));
+        
+    }
+    
+    /**
+     * Method to start probing the shards in the background.
+     */
+    public void start() {
+        
+        if (probeInterval>0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        probe();
+                    } catch(Exception e) {
+                        // keep the schedule running
+                        LOG.warn("Error probing shards: "+e.getMessage());
+                    }
+                }
+            }, 0, probeInterval, TimeUnit.MILLISECONDS);
+            if (LOG.isInfoEnabled()) LOG.info("Probing shards every "+probeInterval+" ms");
+        }
+        
+    }
+    
+    /**
+     * Method to request an immediate probe of all shards, without waiting for it to complete.
+     */
+    @ManagedOperation(description="Probe all shards now")
+    public void probeNow() {
+        
+        scheduler.execute(new Runnable() {
+            public void run() {
+                probe();
+            }
+        });
+        
+    }
+    
+    /**
+     * Method to probe all the shards currently listed by the registry service, 
+     * waiting for all probes to complete.
+     */
+    void probe() {
+        
+        // skip if a probe cycle is already running
+        if (!probing.compareAndSet(false, true)) return;
+        
+        try {
+            
+            final Set<String> current = new LinkedHashSet<String>(registryService.getShards());
+            
+            // forget shards no longer in the registry
+            shards.keySet().retainAll(current);
+            
+            this.probe(current);
+            
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch(Exception e) {
+            if (LOG.isWarnEnabled()) LOG.warn("Error probing shards: "+e.getMessage());
+        } finally {
+            probing.set(false);
+        }
+        
+    }
+    
+    /**
+     * Method to probe the given shards in parallel, waiting for all probes to complete 
+     * within {@link #MAX_PROBE_TIME}: shards whose probe did not complete are recorded as failed.
+     * @param current
+     */
+    void probe(final Set<String> current) throws InterruptedException {
+        
+        final List<String> _shards = new ArrayList<String>(current);
+        final List<Callable<Void>> probes = new ArrayList<Callable<Void>>();
+        for (final String shard : _shards) {
+            probes.add(new Callable<Void>() {
+                public Void call() {
+                    final ShardProbe probe = new ShardProbe(shard, PROBE_QUERY);
+                    probe.run(); // executed in this pool thread
+                    if (probe.getNumFound()>=0) {
+                        recordSuccess(shard, probe.getElapsedTime());
+                    } else {
+                        recordFailure(shard);
+                    }
+                    return null;
+                }
+            });
+        }
+        
+        // submit all probes, then wait for all of them together
+        final List<Future<Void>> futures = executor.invokeAll(probes, MAX_PROBE_TIME, TimeUnit.MILLISECONDS);
+        for (int i=0; i<futures.size(); i++) {
+            if (futures.get(i).isCancelled()) {
+                if (LOG.isWarnEnabled()) LOG.warn("Probe of shard="+_shards.get(i)+" did not complete");
+                recordFailure(_shards.get(i));
+            }
+        }
+        
+    }
+    
+    /**
+     * Method to record a successful request to a shard.
+     * @param shard
+     * @param elapsedTime : request latency in milliseconds
+     */
+    public void recordSuccess(final String shard, final long elapsedTime) {
+        final State state = getShardHealth(shard).success(elapsedTime);
+        if (state!=State.CLOSED && LOG.isInfoEnabled()) LOG.info("Shard="+shard+" is available again");
+    }
+    
+    /**
+     * Method to record a failed request to a shard.
+     * @param shard
+     */
+    public void recordFailure(final String shard) {
+        final State state = getShardHealth(shard).failure(System.currentTimeMillis());
+        if (state!=State.OPEN && getState(shard)==State.OPEN && LOG.isWarnEnabled()) {
+            LOG.warn("Shard="+shard+" is unavailable, excluding it from distributed searches");
+        }
+    }
+    
+    /**
+     * Method to select the shards that should be included in a distributed search:
+     * all shards except those with an open circuit.
+     * Shards that have never been probed are assumed to be available.
+     * 
+     * @param candidates
+     * @return
+     */
+    public LinkedHashSet<String> getAvailableShards(final Set<String> candidates) {
+        
+        final long now = System.currentTimeMillis();
+        final LinkedHashSet<String> available = new LinkedHashSet<String>();
+        for (final String shard : candidates) {
+            final ShardHealth health = shards.get(shard);
+            if (health==null || health.isAvailable(now)) available.add(shard);
+        }
+        return available;
+        
+    }
+    
+    /**
+     * Method to return the circuit state of a shard.
+     * @param shard
+     * @return
+     */
+    public State getState(final String shard) {
+        final ShardHealth health = shards.get(shard);
+        return (health==null ? State.CLOSED : health.getState(System.currentTimeMillis()));
+    }
+    
+    /**
+     * Method to return a snapshot of the health of all known shards.
+     * @return
+     */
+    public Map<String, ShardHealth> getShardHealth() {
+        final Map<String, ShardHealth> snapshot = new LinkedHashMap<String, ShardHealth>();
+        for (final Map.Entry<String, ShardHealth> entry : shards.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().copy());
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Method to stop probing the shards.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+    
+    @ManagedAttribute(description="Health of each shard: state, latency (ms), error rate")
+    public String[] getHealthTable() {
+        final List<String> rows = new ArrayList<String>();
+        final long now = System.currentTimeMillis();
+        for (final Map.Entry<String, ShardHealth> entry : getShardHealth().entrySet()) {
+            final ShardHealth health = entry.getValue();
+            rows.add(entry.getKey()+" state="+health.getState(now)
+                     +" latency="+Math.round(health.getLatency())
+                     +" errorRate="+String.format("%.3f", health.getErrorRate()));
+        }
+        return rows.toArray(new String[rows.size()]);
+    }
+    
+    @ManagedAttribute(description="Number of shards with an open circuit")
+    public int getNumberOfUnavailableShards() {
+        int n = 0;
+        final long now = System.currentTimeMillis();
+        for (final ShardHealth health : shards.values()) {
+            if (!health.isAvailable(now)) n++;
+        }
+        return n;
+    }
+    
+    @ManagedAttribute(description="Interval between probes (ms)")
+    public long getProbeInterval() {
+        return probeInterval;
+    }
+    
+    private ShardHealth getShardHealth(final String shard) {
+        ShardHealth health = shards.get(shard);
+        if (health==null) {
+            synchronized (shards) {
+                health = shards.get(shard);
+                if (health==null) {
+                    health = new ShardHealth(failureThreshold, openInterval);
+                    shards.put(shard, health);
+                }
+            }
+        }
+        return health;
+    }
+    
+    /**
+     * Health statistics and circuit breaker of a single shard.
+     */
+    public static class ShardHealth {
+        
+        private final int failureThreshold;
+        private final long openInterval;
+        
+        private State state = State.CLOSED;
+        private long openedAt = 0;
+        private int consecutiveFailures = 0;
+        private double latency = -1;
+        private double errorRate = 0;
+        private long successes = 0;
+        private long failures = 0;
+        private long lastChecked = 0;
+        
+        ShardHealth(final int failureThreshold, final long openInterval) {
+            this.failureThreshold = failureThreshold;
+            this.openInterval = openInterval;
+        }
+        
+        /**
+         * Records a success, returns the state before the update.
+         */
+        synchronized State success(final long elapsedTime) {
+            final State previous = this.getState(System.currentTimeMillis());
+            latency = (latency<0 ? elapsedTime : ALPHA*elapsedTime + (1-ALPHA)*latency);
+            errorRate = (1-ALPHA)*errorRate;
+            consecutiveFailures = 0;
+            successes++;
+            lastChecked = System.currentTimeMillis();
+            state = State.CLOSED;
+            return previous;
+        }
+        
+        /**
+         * Records a failure, returns the state before the update.
+         */
+        synchronized State failure(final long now) {
+            final State previous = this.getState(now);
+            errorRate = ALPHA + (1-ALPHA)*errorRate;
+            consecutiveFailures++;
+            failures++;
+            lastChecked = now;
+            if (previous==State.HALF_OPEN || consecutiveFailures>=failureThreshold) {
+                state = State.OPEN;
+                openedAt = now;
+            }
+            return previous;
+        }
+        
+        /**
+         * An open circuit becomes half-open after the open interval has elapsed.
+         */
+        public synchronized State getState(final long now) {
+            if (state==State.OPEN && now-openedAt>=openInterval) state = State.HALF_OPEN;
+            return state;
+        }
+        
+        synchronized boolean isAvailable(final long now) {
+            return this.getState(now)!=State.OPEN;
+        }
+        
+        synchronized ShardHealth copy() {
+            final ShardHealth copy = new ShardHealth(failureThreshold, openInterval);
+            copy.state = state;
+            copy.openedAt = openedAt;
+            copy.consecutiveFailures = consecutiveFailures;
+            copy.latency = latency;
+            copy.errorRate = errorRate;
+            copy.successes = successes;
+            copy.failures = failures;
+            copy.lastChecked = lastChecked;
+            return copy;
+        }
+
+        /**
+         * @return moving average of the latency in milliseconds, or -1 if the shard never responded
+         */
+        public synchronized double getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return moving average of the fraction of failed requests
+         */
+        public synchronized double getErrorRate() {
+            return errorRate;
+        }
+
+        public synchronized int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        public synchronized long getSuccesses() {
+            return successes;
+        }
+
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        public synchronized long getLastChecked() {
+            return lastChecked;
+        }
+        
+    }
+    
+    /**
+     * Factory of named daemon threads, so that probing does not prevent the JVM from exiting.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        
+        private final String name;
+        private final AtomicInteger counter = new AtomicInteger(0);
+        
+        DaemonThreadFactory(final String name) {
+            this.name = name;
+        }
+        
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, name+"-"+counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+        
+    }
+
+}
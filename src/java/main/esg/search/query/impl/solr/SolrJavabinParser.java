@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.jdom.Text;
+
+import esg.search.core.Record;
+import esg.search.core.RecordFactory;
+import esg.search.query.api.Facet;
+import esg.search.query.api.SearchInput;
+import esg.search.query.api.SearchOutput;
+
+/**
+ * Utility class to parse the Solr binary (javabin) output into information java objects.
+ * 
+ * This parser produces the same {@link SearchOutput} as the given {@link SolrXmlParser} would produce
+ * from the XML output of the same query: the field values are converted to the text that Solr writes
+ * in the XML output, and passed to the same methods of the XML parser.
+ */
+public class SolrJavabinParser {
+    
+    /**
+     * The XML parser that sets field values and facet options.
+     */
+    private final SolrXmlParser xmlParser;
+    
+    /**
+     * Format of dates in the Solr XML output (fractional seconds are written without trailing zeros).
+     * Date formats are not thread-safe, and expensive to create.
+     */
+    private final static ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        }
+    };
+    
+    public SolrJavabinParser(final SolrXmlParser xmlParser) {
+        this.xmlParser = xmlParser;
+    }
+    
+    /**
+     * Method to parse a Solr javabin output stream into record and facet objects.
+     * 
+     * @param in : the stream is not closed by this method
+     * @param input
+     * @return
+     */
+    public SearchOutput parse(final InputStream in, final SearchInput input) throws IOException {
+        
+        final Object root = new JavaBinCodec().unmarshal(in);
+        if (!(root instanceof NamedList)) throw new IOException("Invalid javabin response: "+(root==null ? null : root.getClass().getName()));
+        
+        final SearchOutput output = new SearchOutputImpl();
+        final NamedList<?> response = (NamedList<?>)root;
+        
+        // parse results
+        final Object results = response.get(SolrXmlPars.ATTRIBUTE_VALUE_RESPONSE);
+        if (results instanceof SolrDocumentList) parseResults((SolrDocumentList)results, output);
+        
+        // parse facets
+        final Object facets = response.get(SolrXmlPars.ELEMENT_FACET_COUNTS);
+        if (facets instanceof NamedList) parseFacets((NamedList<?>)facets, input, output);
+        
+        return output;
+        
+    }
+    
+    /**
+     * Method to parse the list of result documents.
+     */
+    private void parseResults(final SolrDocumentList docs, final SearchOutput output) {
+        
+        output.setCounts((int)docs.getNumFound());
+        output.setOffset((int)docs.getStart());
+        for (final SolrDocument doc : docs) {
+            output.addResult(this.parseDoc(doc));
+        }
+        
+    }
+    
+    /**
+     * Method to parse a result document into a Record object.
+     */
+    public Record parseDoc(final SolrDocument doc) {
+        
+        final Record record = RecordFactory.getInstance().newRecord();
+        for (final Map.Entry<String, Object> field : doc) {
+            
+            // multi-valued field
+            if (field.getValue() instanceof Collection) {
+                for (final Object value : (Collection<?>)field.getValue()) {
+                    xmlParser.parseField(field.getKey(), toText(value), record);
+                }
+                
+            // single-valued field
+            } else {
+                xmlParser.parseField(field.getKey(), toText(field.getValue()), record);
+            }
+            
+        }
+        return record;
+        
+    }
+    
+    /**
+     * Method to parse the facet fields and counts.
+     */
+    private void parseFacets(final NamedList<?> facetCounts, final SearchInput input, final SearchOutput output) {
+        
+        final Object facetFields = facetCounts.get(SolrXmlPars.ELEMENT_FACET_FIELDS);
+        if (!(facetFields instanceof NamedList)) return;
+        
+        final NamedList<?> _facetFields = (NamedList<?>)facetFields;
+        for (int i=0; i<_facetFields.size(); i++) {
+            
+            final String facetName = _facetFields.getName(i);
+            final Facet facet = new FacetImpl(facetName, facetName, "");
+            
+            // loop over facet options
+            final NamedList<?> options = (NamedList<?>)_facetFields.getVal(i);
+            for (int j=0; j<options.size(); j++) {
+                xmlParser.parseFacetOption(facet, options.getName(j), ((Number)options.getVal(j)).intValue(), input);
+            }
+            
+            output.addFacet(facetName, facet);
+        }
+        
+    }
+    
+    /**
+     * Method to convert a field value to the (normalized) text written in the Solr XML output.
+     */
+    static String toText(final Object value) {
+        
+        if (value instanceof Date) {
+            return formatDate((Date)value);
+        } else {
+            return normalize(String.valueOf(value));
+        }
+        
+    }
+    
+    /**
+     * Method to normalize the white space of a text value, as the XML parser does:
+     * the value is only copied if it contains leading, trailing or repeated white space, or white space other than blanks.
+     */
+    private static String normalize(final String value) {
+        
+        final int n = value.length();
+        for (int i=0; i<n; i++) {
+            final char c = value.charAt(i);
+            if ((c==' ' && (i==0 || i==n-1 || value.charAt(i+1)==' ')) || c=='\t' || c=='\n' || c=='\r') {
+                return Text.normalizeString(value);
+            }
+        }
+        return value;
+        
+    }
+    
+    /**
+     * Method to format a date as in the Solr XML output: "2011-01-31T12:45:00Z" or "2011-01-31T12:45:00.5Z".
+     */
+    static String formatDate(final Date date) {
+        
+        final StringBuilder sb = new StringBuilder(DATE_FORMAT.get().format(date));
+        
+        // remove trailing zeros of the fractional seconds, and the decimal point if nothing is left
+        int n = sb.length();
+        while (sb.charAt(n-1)=='0') n--;
+        if (sb.charAt(n-1)=='.') n--;
+        sb.setLength(n);
+        return sb.append('Z').toString();
+        
+    }
+
+}
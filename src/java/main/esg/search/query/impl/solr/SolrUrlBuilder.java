@@ -23,6 +23,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +63,11 @@ public class SolrUrlBuilder {
 	 */
 	private LinkedHashSet<String> defaultShards = new LinkedHashSet<String>();
 	
+	/**
+	 * Flag to request the output in the binary (javabin) format, regardless of the search input format.
+	 */
+	private boolean javabin = false;
+	
 	/**
 	 * Flag for pretty-formatting of output.
 	 */
@@ -103,6 +109,15 @@ public class SolrUrlBuilder {
 	public void setDefaultShards(LinkedHashSet<String> shards) {
         this.defaultShards = shards;
     }
+	
+	/**
+	 * Method to request the search output in the binary (javabin) format,
+	 * which is only used internally and never returned to the client.
+	 * @param javabin
+	 */
+	public void setJavabin(boolean javabin) {
+	    this.javabin = javabin;
+	}
 
     /**
 	 * Method to generate the "update" URL to a specific core.
@@ -121,6 +136,20 @@ public class SolrUrlBuilder {
 		
 	}
 	
+	/**
+	 * Method to generate the URL of the binary (javabin) "update" handler of a specific core.
+	 * 
+	 * This method is independent of the specific state of the object.
+	 * @return
+	 * @throws MalformedURLException
+	 * @throws UnsupportedEncodingException
+	 */
+	public URL buildBinaryUpdateUrl(final String core) throws MalformedURLException, UnsupportedEncodingException {
+	    
+	    return new URL(this.buildUpdateUrl(core).toString()+"/javabin");
+	    
+	}
+	
 	/**
 	 * Method to generate the "select" URL to a specific Solr core (depending on the requested results type)
 	 * @return
@@ -136,11 +165,43 @@ public class SolrUrlBuilder {
 
 	}
 	
+	/**
+	 * Method to generate the "select" URL to a specific core of a remote shard.
+	 * @param shard : the shard, as listed in the &shards= parameter (for example "localhost:8983/solr")
+	 * @return
+	 */
+	public String buildShardSelectUrl(final String shard) throws MalformedURLException {
+	    
+	    final StringBuilder sb = new StringBuilder();
+	    if (!shard.startsWith("http://") && !shard.startsWith("https://")) sb.append("http://");
+	    sb.append(shard).append("/").append(this.getCore()).append("/select/");
+	    return sb.toString();
+	    
+	}
+	
 	/**
 	 * Method to generate the "select" query string according to the instance's state.
 	 * @return
 	 */
 	public String buildSelectQueryString() throws MalformedURLException, UnsupportedEncodingException {
+	    
+	    return this.buildSelectQueryString(input.getOffset(), input.getLimit(), true, false);
+	    
+	}
+	
+	/**
+	 * Method to generate the "select" query string that is sent to a single shard 
+	 * when the results of a distributed search are merged by the client:
+	 * the query is not distributed, returns the first offset+limit results, and always includes the score.
+	 * @return
+	 */
+	public String buildShardQueryString() throws MalformedURLException, UnsupportedEncodingException {
+	    
+	    return this.buildSelectQueryString(0, input.getOffset()+input.getLimit(), false, true);
+	    
+	}
+	
+	private String buildSelectQueryString(int start, int rows, boolean distrib, boolean score) throws MalformedURLException, UnsupportedEncodingException {
 			
 	    // q=... AND .... AND
 	    final List<String> qs = new ArrayList<String>();
@@ -273,6 +334,8 @@ public class SolrUrlBuilder {
             }
             // always return score
             fl.append("score");
+        } else if (score) {
+            fl.append("&fl=*,score");
         }
         
         // compose query string
@@ -290,29 +353,23 @@ public class SolrUrlBuilder {
         sb.append(fq).append(ff).append(fl);
         
         // &start=...&rows=...
-        sb.append("&start=").append(input.getOffset())
-          .append("&rows=").append(input.getLimit());
+        sb.append("&start=").append(start)
+          .append("&rows=").append(rows);
                 
         // distributed search
         // only attach shards if available, otherwise default to local search
         // &shards=localhost:8983/solr/datasets
         //if (input.isDistrib()) sb.append("&qt=/distrib");
         if (LOG.isInfoEnabled()) LOG.info("Search distrib="+input.isDistrib()+" shards size="+input.getShards().size()+" default shards size="+this.defaultShards.size());
-        if (input.isDistrib()) {
-            
-            // use provided shards
-            if (input.getShards().size()>0) {
-                setShards(input.getShards(), this.getCore(), sb);
-                
-            // or use all shards
-            } else if (this.defaultShards.size()>0) {
-                setShards(this.defaultShards, this.getCore(), sb);
-                
-            }
+        final Set<String> shards = this.getShards();
+        if (distrib && !shards.isEmpty()) {
+            setShards(shards, this.getCore(), sb);
         }
         
         // return type
-        if (input.getFormat().equals(SearchReturnType.SOLR_JSON.getMimeType())) {
+        if (javabin) {
+            sb.append("&wt=javabin");
+        } else if (input.getFormat().equals(SearchReturnType.SOLR_JSON.getMimeType())) {
             sb.append("&wt=json");
         }        
         
@@ -327,6 +384,29 @@ public class SolrUrlBuilder {
 		
 	}
 	
+	/**
+	 * Method to return the shards that are queried by a distributed search, 
+	 * or an empty set if the search is executed versus the local Solr server only.
+	 * @return
+	 */
+	public Set<String> getShards() {
+	    
+	    if (input.isDistrib()) {
+	        
+	        // use provided shards
+	        if (input.getShards().size()>0) {
+	            return input.getShards();
+	            
+	        // or use all shards
+	        } else if (this.defaultShards.size()>0) {
+	            return this.defaultShards;
+	        }
+	        
+	    }
+	    return Collections.<String>emptySet();
+	    
+	}
+	
 	private String quote(String s) {
 	    if (!s.startsWith("\"")) s = "\"" +s;
 	    if (!s.endsWith("\"")) s = s + "\"";
@@ -19,17 +19,19 @@
 package esg.search.query.impl.solr;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.jdom.Document;
 import org.jdom.Element;
 import org.jdom.JDOMException;
 
 import esg.search.core.Record;
-import esg.search.core.RecordImpl;
+import esg.search.core.RecordFactory;
 import esg.search.query.api.Facet;
 import esg.search.query.api.QueryParameters;
 import esg.search.query.api.SearchInput;
 import esg.search.query.api.SearchOutput;
+import esg.search.utils.StringDictionary;
 import esg.search.utils.XmlParser;
 
 /**
@@ -61,9 +63,27 @@ public class SolrXmlParser {
 	 * @return
 	 */
 	public SearchOutput parse(final String xml, final SearchInput input) throws IOException, JDOMException {
+	    
+	    return this.parse(xmlParser.parseString(xml), input);
+	    
+	}
+	
+	/**
+	 * Method to parse a Solr XML output stream into record and facet objects.
+	 * 
+	 * @param xml : the stream is not closed by this method
+	 * @param input
+	 * @return
+	 */
+	public SearchOutput parse(final InputStream xml, final SearchInput input) throws IOException, JDOMException {
+	    
+	    return this.parse(xmlParser.parseStream(xml), input);
+	    
+	}
+	
+	private SearchOutput parse(final Document doc, final SearchInput input) throws IOException, JDOMException {
 		
 		final SearchOutput output = new SearchOutputImpl();
-		final Document doc = xmlParser.parseString(xml);
 		final Element root = doc.getRootElement();
 
 		// parse results
@@ -115,17 +135,7 @@ public class SolrXmlParser {
 								final Element _intEl = (Element)intEl;
 								final String subFacetName = _intEl.getAttributeValue(SolrXmlPars.ATTRIBUTE_NAME);
 								final int subFacetCounts = Integer.parseInt(_intEl.getText());
-								if (subFacetCounts>0) {
-									
-									// facet not constrained -> retrieve all options from XML response
-									if (!input.getConstraints().containsKey(facetName)
-										// constrained facet -> retrieve only selected option
-										|| input.getConstraints().get(facetName).get(0).equals(subFacetName)) {
-										final Facet subFacet = new FacetImpl(subFacetName, subFacetName, "");
-										subFacet.setCounts(subFacetCounts);
-										facet.addSubFacet( subFacet );
-									}
-								}
+								parseFacetOption(facet, subFacetName, subFacetCounts, input);
 							}							
 							
 							output.addFacet(facetName, facet);
@@ -184,7 +194,7 @@ public class SolrXmlParser {
 	 */
 	public Record parseDoc(final Element doc) {
 		
-		final Record record = new RecordImpl();
+		final Record record = RecordFactory.getInstance().newRecord();
 		
 		/*
 		 * 	<str name="url">http://localhost/access?id=1</str>
@@ -218,7 +228,46 @@ public class SolrXmlParser {
 	
 	private void parseElement(final String fieldName, final Element element, final Record record) {
 		
-		final String value = element.getTextNormalize();
+		parseField(fieldName, element.getTextNormalize(), record);
+
+	}
+	
+	/**
+	 * Method to add a facet option to a facet, if it must be returned to the client.
+	 * 
+	 * @param facet
+	 * @param subFacetName
+	 * @param subFacetCounts
+	 * @param input
+	 */
+	protected void parseFacetOption(final Facet facet, final String subFacetName, final int subFacetCounts, final SearchInput input) {
+	    
+	    final String facetName = facet.getKey();
+	    if (subFacetCounts>0) {
+	        
+	        // facet not constrained -> retrieve all options from XML response
+	        if (!input.getConstraints().containsKey(facetName)
+	            // constrained facet -> retrieve only selected option
+	            || input.getConstraints().get(facetName).get(0).equals(subFacetName)) {
+	            final Facet subFacet = new FacetImpl(subFacetName, subFacetName, "");
+	            subFacet.setCounts(subFacetCounts);
+	            facet.addSubFacet( subFacet );
+	        }
+	    }
+	    
+	}
+	
+	/**
+	 * Method to set a field value parsed from a result document into a record.
+	 * Field names and repeated field values are shared across records via the dictionary of the search result parsers
+	 * (see {@link StringDictionary#getQueryInstance()}).
+	 * 
+	 * @param fieldName
+	 * @param value : the normalized field value
+	 * @param record
+	 */
+	protected void parseField(final String fieldName, final String value, final Record record) {
+		
 		if (fieldName.equals(QueryParameters.FIELD_ID)) {
 			record.setId(value);
 		} else if (fieldName.equals(QueryParameters.FIELD_VERSION)) {
@@ -226,7 +275,8 @@ public class SolrXmlParser {
 		        record.setVersion(Long.parseLong(value));
 		    } catch(NumberFormatException e) {}
 		} else {
-			record.addField(fieldName, value);
+			final StringDictionary dictionary = StringDictionary.getQueryInstance();
+			record.addField(dictionary.intern(fieldName), dictionary.intern(fieldName, value));
 		}
 
 	}
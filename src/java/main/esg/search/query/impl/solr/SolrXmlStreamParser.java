@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom.JDOMException;
+
+import esg.search.core.Record;
+import esg.search.core.RecordFactory;
+import esg.search.query.api.Facet;
+import esg.search.query.api.SearchInput;
+import esg.search.query.api.SearchOutput;
+
+/**
+ * Implementation of {@link SolrXmlParser} that parses the Solr XML output document with a StAX pull parser,
+ * building the records and facets in one forward pass without creating an intermediate document tree.
+ * This parser produces the same {@link SearchOutput} as the superclass, with a much smaller memory footprint
+ * for large result sets.
+ */
+public class SolrXmlStreamParser extends SolrXmlParser {
+    
+    /**
+     * The factory is thread-safe once configured, and expensive to create.
+     */
+    private final XMLInputFactory factory;
+    
+    public SolrXmlStreamParser() {
+        super();
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SearchOutput parse(final String xml, final SearchInput input) throws IOException, JDOMException {
+        
+        try {
+            return this.parse(factory.createXMLStreamReader(new StringReader(xml)), input);
+        } catch(XMLStreamException e) {
+            throw new JDOMException(e.getMessage(), e);
+        }
+        
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SearchOutput parse(final InputStream xml, final SearchInput input) throws IOException, JDOMException {
+        
+        try {
+            return this.parse(factory.createXMLStreamReader(xml), input);
+        } catch(XMLStreamException e) {
+            throw new JDOMException(e.getMessage(), e);
+        }
+        
+    }
+    
+    private SearchOutput parse(final XMLStreamReader reader, final SearchInput input) throws XMLStreamException {
+        
+        final SearchOutput output = new SearchOutputImpl();
+        
+        try {
+            
+            // <response>
+            reader.nextTag();
+            while (nextChild(reader)) {
+                
+                final String elName = reader.getLocalName();
+                final String nameAttValue = reader.getAttributeValue(null, SolrXmlPars.ATTRIBUTE_NAME);
+                
+                // <result name="response" numFound="..." start="...">
+                if (elName.equals(SolrXmlPars.ELEMENT_RESULT) && SolrXmlPars.ATTRIBUTE_VALUE_RESPONSE.equals(nameAttValue)) {
+                    parseResults(reader, output);
+                    
+                // <lst name="facet_counts">
+                } else if (elName.equals(SolrXmlPars.ELEMENT_LST) && SolrXmlPars.ELEMENT_FACET_COUNTS.equals(nameAttValue)) {
+                    parseFacets(reader, input, output);
+                    
+                } else {
+                    skip(reader);
+                }
+                
+            }
+            
+        } finally {
+            reader.close();
+        }
+        
+        return output;
+        
+    }
+    
+    /**
+     * Method to parse the <result name="response" ...> element.
+     */
+    private void parseResults(final XMLStreamReader reader, final SearchOutput output) throws XMLStreamException {
+        
+        output.setCounts(Integer.parseInt(reader.getAttributeValue(null, SolrXmlPars.ATTRIBUTE_NUM_FOUND)));
+        output.setOffset(Integer.parseInt(reader.getAttributeValue(null, SolrXmlPars.ATTRIBUTE_START)));
+        
+        while (nextChild(reader)) {
+            if (reader.getLocalName().equals(SolrXmlPars.ELEMENT_DOC)) {
+                output.addResult(parseDoc(reader));
+            } else {
+                skip(reader);
+            }
+        }
+        
+    }
+    
+    /**
+     * Method to parse a <doc> element into a record.
+     */
+    private Record parseDoc(final XMLStreamReader reader) throws XMLStreamException {
+        
+        final Record record = RecordFactory.getInstance().newRecord();
+        
+        while (nextChild(reader)) {
+            
+            final String nameAttValue = reader.getAttributeValue(null, SolrXmlPars.ATTRIBUTE_NAME);
+            
+            // multi-valued field
+            // <arr name="...">....</arr>
+            if (reader.getLocalName().equals(SolrXmlPars.ELEMENT_ARR)) {
+                while (nextChild(reader)) {
+                    parseField(nameAttValue, readText(reader), record);
+                }
+                
+            // single-valued field
+            } else {
+                parseField(nameAttValue, readText(reader), record);
+            }
+            
+        }
+        
+        return record;
+        
+    }
+    
+    /**
+     * Method to parse the <lst name="facet_counts"> element.
+     */
+    private void parseFacets(final XMLStreamReader reader, final SearchInput input, final SearchOutput output) throws XMLStreamException {
+        
+        while (nextChild(reader)) {
+            
+            // <lst name="facet_fields">
+            if (reader.getLocalName().equals(SolrXmlPars.ELEMENT_LST)
+                && SolrXmlPars.ELEMENT_FACET_FIELDS.equals(reader.getAttributeValue(null, SolrXmlPars.ATTRIBUTE_NAME))) {
+                
+                while (nextChild(reader)) {
+                    
+                    // <lst name="project">
+                    if (reader.getLocalName().equals(SolrXmlPars.ELEMENT_LST)) {
+                        final String facetName = reader.getAttributeValue(null, SolrXmlPars.ATTRIBUTE_NAME);
+                        final Facet facet = new FacetImpl(facetName, facetName, "");
+                        
+                        // <int name="AIRS">4</int>
+                        while (nextChild(reader)) {
+                            if (reader.getLocalName().equals(SolrXmlPars.ELEMENT_INT)) {
+                                final String subFacetName = reader.getAttributeValue(null, SolrXmlPars.ATTRIBUTE_NAME);
+                                final int subFacetCounts = Integer.parseInt(readText(reader).trim());
+                                parseFacetOption(facet, subFacetName, subFacetCounts, input);
+                            } else {
+                                skip(reader);
+                            }
+                        }
+                        
+                        output.addFacet(facetName, facet);
+                        
+                    } else {
+                        skip(reader);
+                    }
+                    
+                }
+                
+            } else {
+                skip(reader);
+            }
+        }
+        
+    }
+    
+    /**
+     * Method to advance the reader to the next child element of the current element.
+     * @return true if positioned on the start of a child element, false if positioned on the end of the current element
+     */
+    private static boolean nextChild(final XMLStreamReader reader) throws XMLStreamException {
+        
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event==XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event==XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+        
+    }
+    
+    /**
+     * Method to skip the current element and all its content.
+     */
+    private static void skip(final XMLStreamReader reader) throws XMLStreamException {
+        
+        int depth = 1;
+        while (depth>0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event==XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event==XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        
+    }
+    
+    /**
+     * Method to read the text content of the current element, normalized as by JDOM Element.getTextNormalize(),
+     * and advance the reader to the end of the element.
+     */
+    private static String readText(final XMLStreamReader reader) throws XMLStreamException {
+        
+        StringBuilder sb = null;
+        String text = null;
+        int depth = 1;
+        while (depth>0 && reader.hasNext()) {
+            final int event = reader.next();
+            if (event==XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event==XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (depth==1 && (event==XMLStreamConstants.CHARACTERS || event==XMLStreamConstants.CDATA 
+                                    || event==XMLStreamConstants.SPACE)) {
+                // most elements contain a single text node
+                if (text==null) {
+                    text = reader.getText();
+                } else {
+                    if (sb==null) sb = new StringBuilder(text);
+                    sb.append(reader.getText());
+                }
+            }
+        }
+        return normalize(sb!=null ? sb.toString() : text);
+        
+    }
+    
+    /**
+     * Method to trim a string and collapse internal whitespace into single spaces.
+     */
+    private static String normalize(final String value) {
+        
+        if (value==null) return "";
+        
+        // avoid allocating a new string if already normalized
+        final int length = value.length();
+        boolean normalized = length==0 || (!isWhitespace(value.charAt(0)) && !isWhitespace(value.charAt(length-1)));
+        for (int i=1; normalized && i<length; i++) {
+            if (isWhitespace(value.charAt(i)) && (value.charAt(i)!=' ' || isWhitespace(value.charAt(i-1)))) normalized = false;
+        }
+        if (normalized) return value;
+        
+        final StringBuilder sb = new StringBuilder(length);
+        boolean space = false;
+        for (int i=0; i<length; i++) {
+            final char c = value.charAt(i);
+            if (isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.length()>0) sb.append(' ');
+                sb.append(c);
+                space = false;
+            }
+        }
+        return sb.toString();
+        
+    }
+    
+    private static boolean isWhitespace(final char c) {
+        return c==' ' || c=='\t' || c=='\n' || c=='\r';
+    }
+
+}
@@ -0,0 +1,404 @@
+package esg.search.query.ws.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.StringUtils;
+
+/**
+ * Class that processes web requests asynchronously (Servlet 3.0), on dedicated bounded pools of threads,
+ * so that the container thread is released while the back-end search executes.
+ * 
+ * Requests are assigned to execution "lanes" according to the type of records they search for, 
+ * so that slow queries of one type (for example, File queries issued by wget scripts) cannot delay 
+ * the queries of other types (for example, interactive Dataset queries). Each lane has its own maximum 
+ * number of requests processed at the same time, and its own queue of waiting requests.
+ * When a lane is saturated, its requests are rejected immediately with HTTP status 503 and a Retry-After header.
+ * 
+ * An asynchronous request that times out, or fails in the container, is completed with an error status
+ * and its task is removed from the lane (or interrupted, if already executing), so that its slot is released.
+ * 
+ * Requests are processed on the container thread if the executor is disabled (zero threads),
+ * or if the request does not support asynchronous processing (i.e. if the servlet or any of the filters 
+ * is not configured with async-supported=true): the lane limits are still enforced.
+ * 
+ * @author Luca Cinquini
+ */
+@ManagedResource(objectName="esg.search:name=AsyncRequestExecutor", description="Asynchronous processing of search requests")
+public class AsyncRequestExecutor {
+    
+    /**
+     * Callback interface for the processing of a single request.
+     */
+    public interface Handler {
+        void handle(HttpServletRequest request, HttpServletResponse response) throws Exception;
+    }
+    
+    /**
+     * Name of the lane used by the types that are not configured explicitly.
+     */
+    public final static String DEFAULT_LANE = "*";
+    
+    /**
+     * Execution lanes, indexed by record type.
+     */
+    private final Map<String, Lane> lanes = new LinkedHashMap<String, Lane>();
+    
+    /**
+     * Asynchronous timeout (in milliseconds, 0 for no timeout).
+     */
+    private final long timeout;
+    
+    /**
+     * Value of the Retry-After header (in seconds) sent when a request is rejected.
+     */
+    private int retryAfter = 10;
+    
+    private static final Log LOG = LogFactory.getLog(AsyncRequestExecutor.class);
+    
+    /**
+     * Constructor with a single lane for all types of requests.
+     * 
+     * @param threads : maximum number of requests processed at the same time (0 to process requests on the container threads)
+     * @param queueSize : maximum number of requests waiting for a thread
+     * @param timeout : maximum time (in milliseconds) allowed to process a request asynchronously (0 for no limit,
+     *                  the back-end read timeouts still apply)
+     */
+    public AsyncRequestExecutor(final int threads, final int queueSize, final long timeout) {
+        this(threads, queueSize, timeout, null);
+    }
+    
+    /**
+     * Constructor with dedicated lanes for some types of requests.
+     * 
+     * @param threads : maximum number of requests of the other types processed at the same time
+     * @param queueSize : maximum number of requests of the other types waiting for a thread
+     * @param timeout : maximum time (in milliseconds) allowed to process a request asynchronously
+     * @param lanes : comma-separated list of lane specifications of the form "type:threads:queueSize", 
+     *                for example "File:8:50"
+     */
+    public AsyncRequestExecutor(final int threads, final int queueSize, final long timeout, final String lanes) {
+        
+        this.timeout = timeout;
+        if (StringUtils.hasText(lanes)) {
+            for (final String spec : StringUtils.commaDelimitedListToStringArray(lanes)) {
+                final String[] parts = spec.trim().split(":");
+                if (parts.length!=3) throw new IllegalArgumentException("Invalid lane specification: "+spec);
+                this.lanes.put(parts[0], new Lane(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), threads>0));
+            }
+        }
+        this.lanes.put(DEFAULT_LANE, new Lane(DEFAULT_LANE, threads, queueSize, threads>0));
+        
+    }
+    
+    /**
+     * Method to process a request in the lane for the given type, asynchronously if possible.
+     * 
+     * @param type : the type of records searched by the request
+     * @param request
+     * @param response
+     * @param handler : the request processing logic
+     * @throws Exception : if the request is processed synchronously and the handler throws an exception
+     */
+    public void execute(final String type, final HttpServletRequest request, final HttpServletResponse response, final Handler handler) throws Exception {
+        
+        final Lane lane = this.getLane(type);
+        
+        // synchronous processing
+        if (lane.executor==null || !request.isAsyncSupported()) {
+            if (!lane.acquire()) {
+                this.reject(lane, response);
+                return;
+            }
+            lane.numberOfSyncRequests.incrementAndGet();
+            try {
+                handler.handle(request, response);
+            } finally {
+                lane.release();
+            }
+            return;
+        }
+        
+        // asynchronous processing
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(timeout);
+        
+        // the request is completed exactly once: by the processing thread, or on timeout or error
+        final AtomicBoolean completed = new AtomicBoolean(false);
+        final AtomicReference<Future<?>> future = new AtomicReference<Future<?>>();
+        asyncContext.addListener(new AsyncListener() {
+            public void onTimeout(AsyncEvent event) {
+                lane.numberOfTimedOutRequests.incrementAndGet();
+                if (LOG.isWarnEnabled()) LOG.warn("Request timed out in lane="+lane.name);
+                abort(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+            public void onError(AsyncEvent event) {
+                if (LOG.isWarnEnabled()) LOG.warn("Error processing request in lane="+lane.name+": "
+                                                  +(event.getThrowable()==null ? "" : event.getThrowable().getMessage()));
+                abort(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            public void onComplete(AsyncEvent event) {}
+            public void onStartAsync(AsyncEvent event) {}
+            
+            /**
+             * Frees the executor slot (removes the waiting task, or interrupts the running one) and completes the request.
+             */
+            private void abort(final int status) {
+                if (completed.compareAndSet(false, true)) {
+                    final Future<?> _future = future.get();
+                    if (_future!=null) {
+                        _future.cancel(true);
+                        lane.executor.remove((Runnable)_future);
+                    }
+                    sendError(response, status);
+                    asyncContext.complete();
+                }
+            }
+        });
+        
+        try {
+            
+            future.set( lane.executor.submit(new Runnable() {
+                public void run() {
+                    // the request timed out while waiting
+                    if (completed.get()) return;
+                    lane.activeRequests.incrementAndGet();
+                    try {
+                        handler.handle(request, response);
+                    } catch(Exception e) {
+                        if (!completed.get()) {
+                            LOG.warn("Error processing request: "+e.getMessage());
+                            sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        }
+                    } finally {
+                        lane.activeRequests.decrementAndGet();
+                        if (completed.compareAndSet(false, true)) asyncContext.complete();
+                    }
+                }
+            }) );
+            lane.numberOfAsyncRequests.incrementAndGet();
+            
+        } catch(RejectedExecutionException e) {
+            if (completed.compareAndSet(false, true)) {
+                this.reject(lane, response);
+                asyncContext.complete();
+            }
+        }
+        
+    }
+    
+    /**
+     * Method to return the lane that processes requests of the given type.
+     * @param type
+     * @return
+     */
+    Lane getLane(final String type) {
+        final Lane lane = (type==null ? null : lanes.get(type));
+        return (lane==null ? lanes.get(DEFAULT_LANE) : lane);
+    }
+    
+    private void reject(final Lane lane, final HttpServletResponse response) {
+        
+        lane.numberOfRejectedRequests.incrementAndGet();
+        if (LOG.isWarnEnabled()) LOG.warn("Too many requests pending in lane="+lane.name+", rejecting request");
+        if (!response.isCommitted()) {
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        
+    }
+    
+    /**
+     * Method to stop the threads that process the requests.
+     */
+    public void shutdown() {
+        for (final Lane lane : lanes.values()) {
+            if (lane.executor!=null) lane.executor.shutdownNow();
+        }
+    }
+    
+    private static void sendError(final HttpServletResponse response, final int status) {
+        try {
+            if (!response.isCommitted()) response.sendError(status);
+        } catch(IOException e) {
+            // client has gone away
+        }
+    }
+    
+    /**
+     * Method to set the number of seconds after which rejected clients are invited to retry.
+     * @param retryAfter
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+    
+    @ManagedAttribute(description="Number of requests currently being processed")
+    public int getActiveRequests() {
+        int n = 0;
+        for (final Lane lane : lanes.values()) n += lane.activeRequests.get();
+        return n;
+    }
+    
+    @ManagedAttribute(description="Number of requests waiting for a thread")
+    public int getQueueDepth() {
+        int n = 0;
+        for (final Lane lane : lanes.values()) n += lane.getQueueDepth();
+        return n;
+    }
+    
+    @ManagedAttribute(description="Number of requests processed asynchronously")
+    public long getNumberOfAsyncRequests() {
+        long n = 0;
+        for (final Lane lane : lanes.values()) n += lane.numberOfAsyncRequests.get();
+        return n;
+    }
+    
+    @ManagedAttribute(description="Number of requests processed on the container thread")
+    public long getNumberOfSyncRequests() {
+        long n = 0;
+        for (final Lane lane : lanes.values()) n += lane.numberOfSyncRequests.get();
+        return n;
+    }
+    
+    @ManagedAttribute(description="Number of requests rejected because too many were pending")
+    public long getNumberOfRejectedRequests() {
+        long n = 0;
+        for (final Lane lane : lanes.values()) n += lane.numberOfRejectedRequests.get();
+        return n;
+    }
+    
+    @ManagedAttribute(description="Number of asynchronous requests that timed out")
+    public long getNumberOfTimedOutRequests() {
+        long n = 0;
+        for (final Lane lane : lanes.values()) n += lane.numberOfTimedOutRequests.get();
+        return n;
+    }
+    
+    @ManagedAttribute(description="Statistics of each lane: limits, active requests, queue depth, rejected requests")
+    public String[] getLaneStatistics() {
+        final List<String> rows = new ArrayList<String>();
+        for (final Lane lane : lanes.values()) {
+            rows.add(lane.name+" threads="+lane.threads+" queue="+lane.queueSize
+                     +" active="+lane.activeRequests.get()+" waiting="+lane.getQueueDepth()
+                     +" rejected="+lane.numberOfRejectedRequests.get());
+        }
+        return rows.toArray(new String[rows.size()]);
+    }
+    
+    /**
+     * Execution lane for one or more types of requests.
+     */
+    static class Lane {
+        
+        final String name;
+        final int threads;
+        final int queueSize;
+        
+        /**
+         * Pool of threads for asynchronous processing, or null.
+         */
+        final ThreadPoolExecutor executor;
+        
+        /**
+         * Limits for synchronous processing.
+         */
+        private final Semaphore permits;
+        private final AtomicInteger waiting = new AtomicInteger(0);
+        
+        final AtomicInteger activeRequests = new AtomicInteger(0);
+        final AtomicLong numberOfAsyncRequests = new AtomicLong(0);
+        final AtomicLong numberOfSyncRequests = new AtomicLong(0);
+        final AtomicLong numberOfRejectedRequests = new AtomicLong(0);
+        final AtomicLong numberOfTimedOutRequests = new AtomicLong(0);
+        
+        Lane(final String name, final int threads, final int queueSize, final boolean async) {
+            
+            this.name = name;
+            this.threads = threads;
+            this.queueSize = queueSize;
+            this.permits = (threads>0 ? new Semaphore(threads, true) : null);
+            
+            if (async && threads>0) {
+                final AtomicInteger counter = new AtomicInteger(0);
+                final String prefix = "esg-search-request-"+(name.equals(DEFAULT_LANE) ? "" : name.toLowerCase()+"-");
+                this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                       new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)), 
+                                                       new ThreadFactory() {
+                                                           public Thread newThread(Runnable r) {
+                                                               final Thread thread = new Thread(r, prefix+counter.incrementAndGet());
+                                                               thread.setDaemon(true);
+                                                               return thread;
+                                                           }
+                                                       });
+                this.executor.allowCoreThreadTimeOut(true);
+            } else {
+                this.executor = null;
+            }
+            
+        }
+        
+        /**
+         * Method to obtain a permit for synchronous processing, 
+         * waiting for it only if the queue is not full.
+         * @return false if the request must be rejected
+         */
+        boolean acquire() throws InterruptedException {
+            
+            if (permits==null) {
+                // no limits
+                activeRequests.incrementAndGet();
+                return true;
+            }
+            if (!permits.tryAcquire()) {
+                if (waiting.incrementAndGet()>queueSize) {
+                    waiting.decrementAndGet();
+                    return false;
+                }
+                try {
+                    permits.acquire();
+                } finally {
+                    waiting.decrementAndGet();
+                }
+            }
+            activeRequests.incrementAndGet();
+            return true;
+            
+        }
+        
+        void release() {
+            activeRequests.decrementAndGet();
+            if (permits!=null) permits.release();
+        }
+        
+        int getQueueDepth() {
+            return (executor==null ? waiting.get() : executor.getQueue().size());
+        }
+        
+    }
+
+}
@@ -1,6 +1,8 @@
 package esg.search.query.ws.rest;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -18,6 +20,8 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.StringUtils;
 
+import esg.search.metrics.SearchMetrics;
+import esg.search.metrics.SearchMetrics.Phase;
 import esg.search.query.api.FacetProfile;
 import esg.search.query.api.QueryParameters;
 import esg.search.query.api.SearchReturnType;
@@ -52,6 +56,11 @@ public class BaseController {
     final private FacetProfile facetProfile;
     		
 	private final Log LOG = LogFactory.getLog(this.getClass());
+	
+	/**
+	 * Character encoding of streamed responses (same as the Solr output).
+	 */
+	private final static String RESPONSE_ENCODING = "UTF-8";
 		
 	@Autowired
 	public BaseController(final SearchService searchService, final @Qualifier("wsFacetProfile") FacetProfile facetProfile) {
@@ -73,6 +82,76 @@ public class BaseController {
 	String process(final HttpServletRequest request, 
             final SearchCommand command, 
             final HttpServletResponse response) throws Exception {
+	    
+	    final SearchReturnType format = this.validate(request, command, response);
+	    
+	    if (format!=null && !response.isCommitted()) {
+	        
+	        // invoke back-end search service (HTTP request to Solr), return response document
+	        return searchService.query(command, format);
+	        
+	    }
+	    
+	    // response error, return empty body content
+	    return "";
+	    
+	}
+	
+	/**
+	 * Method that processes the incoming HTTP request, invokes the back-end search service,
+	 * and copies the output document directly to the HTTP response as it is received from the back-end,
+	 * so that the response is never held in memory.
+	 * 
+	 * @param request
+	 * @param command
+	 * @param response
+	 * @param contentType : the content type of the HTTP response
+	 * @throws Exception
+	 */
+	void stream(final HttpServletRequest request, 
+	        final SearchCommand command, 
+	        final HttpServletResponse response,
+	        final String contentType) throws Exception {
+	    
+	    final SearchReturnType format = this.validate(request, command, response);
+	    
+	    if (format!=null && !response.isCommitted()) {
+	        
+	        // invoke back-end search service (HTTP request to Solr), write response document
+	        response.setContentType(contentType);
+	        response.setCharacterEncoding(RESPONSE_ENCODING);
+	        final TimedOutputStream out = new TimedOutputStream(response.getOutputStream());
+	        searchService.query(command, format, out);
+	        SearchMetrics.getInstance().record(Phase.WRITING, getType(command), command.isDistrib(), out.getNanos());
+	        
+	    }
+	    
+	}
+	
+	/**
+	 * Method that validates the incoming HTTP request and binds the HTTP parameters to the search command.
+	 * If the request is invalid, an HTTP error is sent to the client.
+	 * 
+	 * @param request
+	 * @param command
+	 * @param response
+	 * @return the requested output format, or null if the request is invalid
+	 * @throws Exception
+	 */
+	SearchReturnType validate(final HttpServletRequest request, 
+	        final SearchCommand command, 
+	        final HttpServletResponse response) throws Exception {
+	    
+	    final long startTime = System.nanoTime();
+	    final SearchReturnType format = this._validate(request, command, response);
+	    SearchMetrics.getInstance().record(Phase.VALIDATION, getType(command), command.isDistrib(), System.nanoTime()-startTime);
+	    return format;
+	    
+	}
+	
+	private SearchReturnType _validate(final HttpServletRequest request, 
+	        final SearchCommand command, 
+	        final HttpServletResponse response) throws Exception {
 	    	    	    
 	    // check all HTTP parameters:
 	    //  -) reject if they contain bad characters
@@ -83,7 +162,7 @@ public class BaseController {
 	        String key = obj.toString();
 	        final Matcher keyMatcher = QueryParameters.INVALID_CHARACTERS.matcher(key);
             if (keyMatcher.matches())
-                    return sendError(HttpServletResponse.SC_BAD_REQUEST, 
+                    return reject(HttpServletResponse.SC_BAD_REQUEST, 
                                      "Invalid character(s) detected in parameter name="+key,
                                      response);  
             
@@ -91,10 +170,10 @@ public class BaseController {
             String[] values = request.getParameterValues(key);
             for (int i=0; i<values.length; i++) {
                 final Matcher valueMatcher = QueryParameters.INVALID_CHARACTERS.matcher(values[i]);
-                if (!StringUtils.hasText(values[i])) return sendError(HttpServletResponse.SC_BAD_REQUEST, 
+                if (!StringUtils.hasText(values[i])) return reject(HttpServletResponse.SC_BAD_REQUEST, 
                                                                "Invalid empty value for parameter="+key,
                                                                response);
-                if (valueMatcher.matches()) return sendError(HttpServletResponse.SC_BAD_REQUEST, 
+                if (valueMatcher.matches()) return reject(HttpServletResponse.SC_BAD_REQUEST, 
                                                       "Invalid character(s) detected in parameter value="+values[i],
                                                       response); 
                                                                                   
@@ -106,21 +185,21 @@ public class BaseController {
             if (   !QueryParameters.KEYWORDS.contains(_key)
                 && !QueryParameters.CORE_QUERY_FIELDS.contains(_key)
                 && !facetProfile.getTopLevelFacets().keySet().contains(_key)) {
-                return sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid HTTP query parameter="+key, response); 
+                return reject(HttpServletResponse.SC_BAD_REQUEST, "Invalid HTTP query parameter="+key, response); 
             }
 	        
 	    }
 	            
         // keyword "limit": impose maximum count on returned results
         if (command.getLimit()>QueryParameters.MAX_LIMIT) {
-            return sendError(HttpServletResponse.SC_BAD_REQUEST, 
+            return reject(HttpServletResponse.SC_BAD_REQUEST, 
                             "Too many records requested, maximum allowed value is limit="+QueryParameters.MAX_LIMIT,
                              response);  
         }
         
         // keyword "format": check requested output format
         SearchReturnType format = SearchReturnType.forMimeType(command.getFormat());
-        if (format==null) return sendError(HttpServletResponse.SC_NOT_IMPLEMENTED, 
+        if (format==null) return reject(HttpServletResponse.SC_NOT_IMPLEMENTED, 
                                     "Invalid requested format: "+ command.getFormat(), response);
 
 	    
@@ -177,7 +256,7 @@ public class BaseController {
                     || parName.equals(QueryParameters.FIELD_RADIUS)
                     || parName.equals(QueryParameters.FIELD_POLYGON) ) {
                     
-                    return sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported parameter: "+parName, response);
+                    return reject(HttpServletResponse.SC_BAD_REQUEST, "Unsupported parameter: "+parName, response);
                           
                 // SINGLE-VALUED CONSTRAINTS (only parse first HTTP parameter value)
                 // &type=...
@@ -207,18 +286,20 @@ public class BaseController {
         //    command.setLimit(QueryParameters.DEFAULT_LIMIT);
         //}
         
-        if (!response.isCommitted()) {
-            
-            // invoke back-end search service (HTTP request to Solr), return response document
-            return searchService.query(command, format);
-            
-        }
-        
-        // response error, return empty body content
-        return "";
+        return format;
 	    	    		
 	}
 	
+	/**
+	 * Method to return the record type requested by a search command, for metrics purposes.
+	 * @param command
+	 * @return
+	 */
+	static String getType(final SearchCommand command) {
+	    final String type = command.getConstraint(QueryParameters.FIELD_TYPE);
+	    return (type==null ? QueryParameters.DEFAULT_TYPE : type);
+	}
+	
 	/**
 	 * Method to write a string content to the HTTP response object,
 	 * @param content
@@ -246,4 +327,56 @@ public class BaseController {
         return "";
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Method to return an HTTP error in the response, and flag the request as invalid.
+	 * 
+	 * @param sc
+	 * @param message
+	 * @param response
+	 * @return
+	 * @throws IOException
+	 */
+	private SearchReturnType reject(int sc, final String message, final HttpServletResponse response) throws IOException {
+	    sendError(sc, message, response);
+	    return null;
+	}
+	
+	/**
+	 * Output stream that measures the time spent writing to the underlying stream.
+	 */
+	private static class TimedOutputStream extends FilterOutputStream {
+	    
+	    private long nanos = 0;
+	    
+	    TimedOutputStream(final OutputStream out) {
+	        super(out);
+	    }
+	    
+	    @Override
+	    public void write(int b) throws IOException {
+	        final long startTime = System.nanoTime();
+	        out.write(b);
+	        nanos += System.nanoTime()-startTime;
+	    }
+	    
+	    @Override
+	    public void write(byte[] b, int off, int len) throws IOException {
+	        final long startTime = System.nanoTime();
+	        out.write(b, off, len);
+	        nanos += System.nanoTime()-startTime;
+	    }
+	    
+	    @Override
+	    public void flush() throws IOException {
+	        final long startTime = System.nanoTime();
+	        out.flush();
+	        nanos += System.nanoTime()-startTime;
+	    }
+	    
+	    long getNanos() {
+	        return nanos;
+	    }
+	    
+	}
+
+}
@@ -6,10 +6,14 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 
+import esg.search.metrics.SearchMetrics;
+import esg.search.metrics.SearchMetrics.Phase;
+import esg.search.query.api.QueryParameters;
 import esg.search.query.api.SearchReturnType;
 import esg.search.query.api.SearchService;
 
@@ -31,6 +35,17 @@ public class SearchController {
      */
     final private BaseController baseController;
     
+    /**
+     * Flag to copy the back-end response directly to the HTTP response (true),
+     * or to buffer it in memory before writing it (false).
+     */
+    private boolean streaming = true;
+    
+    /**
+     * Optional executor that processes the requests asynchronously.
+     */
+    private AsyncRequestExecutor asyncRequestExecutor = null;
+    
 		
 	@Autowired
 	public SearchController(final BaseController baseController) {
@@ -45,23 +60,61 @@ public class SearchController {
 			           final SearchCommand command, 
 			           final HttpServletResponse response) throws Exception {
 	    
+	    if (asyncRequestExecutor!=null) {
+	        final String type = request.getParameter(QueryParameters.FIELD_TYPE);
+	        asyncRequestExecutor.execute(type!=null ? type : QueryParameters.DEFAULT_TYPE, request, response, new AsyncRequestExecutor.Handler() {
+	            public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+	                doSearch(request, command, response);
+	            }
+	        });
+	    } else {
+	        doSearch(request, command, response);
+	    }
+	    
+	}
+	
+	private void doSearch(final HttpServletRequest request, 
+	                      final SearchCommand command, 
+	                      final HttpServletResponse response) throws Exception {
+	    
 	    long startTime = System.currentTimeMillis();
+	    final long startNanos = System.nanoTime();
 	    
-	    // process request, obtain Solr/XML output
-        String output = baseController.process(request, command, response);
-        
-        // write Solr/XML to response
-        if (!response.isCommitted()) {
-            if (command.getFormat().equals(SearchReturnType.SOLR_JSON.getMimeType())) {
-                baseController.writeToResponse(output, "text/json", response); 
-            } else {
-                baseController.writeToResponse(output, "text/xml", response); 
+	    final String contentType = command.getFormat().equals(SearchReturnType.SOLR_JSON.getMimeType()) ? "text/json" : "text/xml";
+	    
+	    if (streaming) {
+	        
+	        // process request, copy Solr/XML output to response
+	        baseController.stream(request, command, response, contentType);
+	        
+	    } else {
+	    
+    	    // process request, obtain Solr/XML output
+            String output = baseController.process(request, command, response);
+            
+            // write Solr/XML to response
+            if (!response.isCommitted()) {
+                final long writeStartTime = System.nanoTime();
+                baseController.writeToResponse(output, contentType, response); 
+                SearchMetrics.getInstance().record(Phase.WRITING, BaseController.getType(command), command.isDistrib(), System.nanoTime()-writeStartTime);
             }
-        }
+            
+	    }
         
         long elapsedTime = System.currentTimeMillis() - startTime;
         if (LOG.isInfoEnabled()) LOG.info("Overall SearchController Elapsed Time="+elapsedTime+" msecs");
+        SearchMetrics.getInstance().record(Phase.TOTAL, BaseController.getType(command), command.isDistrib(), System.nanoTime()-startNanos);
 	    
 	}
 	
+	@Autowired(required=false)
+	public void setAsyncRequestExecutor(AsyncRequestExecutor asyncRequestExecutor) {
+	    this.asyncRequestExecutor = asyncRequestExecutor;
+	}
+	
+	@Value("${esg.search.query.streaming:true}")
+	public void setStreaming(boolean streaming) {
+	    this.streaming = streaming;
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.ws.rest;
+
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import esg.search.metrics.LatencyHistogram;
+import esg.search.metrics.SearchMetrics;
+import esg.search.query.impl.solr.ShardHealthMonitor;
+import esg.search.query.impl.solr.ShardHealthMonitor.ShardHealth;
+
+/**
+ * Web controller that exposes the internal status of the search service, for monitoring purposes.
+ * 
+ * @author Luca Cinquini
+ */
+@Controller("statusController")
+public class StatusController {
+    
+    /**
+     * Optional tracker of the shards health.
+     */
+    private ShardHealthMonitor shardHealthMonitor = null;
+    
+    /**
+     * Method to return the health of the shards used for distributed search, as XML:
+     * <pre>
+     * &lt;shards&gt;
+     *   &lt;shard name="localhost:8983/solr" state="CLOSED" latency="12" errorRate="0.000" successes="10" failures="0" lastChecked="..."/&gt;
+     * &lt;/shards&gt;
+     * </pre>
+     */
+    @RequestMapping(value="/status/shards", method=RequestMethod.GET)
+    public void shards(final HttpServletResponse response) throws Exception {
+        
+        final Element root = new Element("shards");
+        if (shardHealthMonitor!=null) {
+            final long now = System.currentTimeMillis();
+            for (final Map.Entry<String, ShardHealth> entry : shardHealthMonitor.getShardHealth().entrySet()) {
+                final ShardHealth health = entry.getValue();
+                final Element shard = new Element("shard");
+                shard.setAttribute("name", entry.getKey());
+                shard.setAttribute("state", health.getState(now).toString());
+                shard.setAttribute("latency", String.valueOf(Math.round(health.getLatency())));
+                shard.setAttribute("errorRate", String.format("%.3f", health.getErrorRate()));
+                shard.setAttribute("successes", String.valueOf(health.getSuccesses()));
+                shard.setAttribute("failures", String.valueOf(health.getFailures()));
+                shard.setAttribute("lastChecked", String.valueOf(health.getLastChecked()));
+                root.addContent(shard);
+            }
+        }
+        
+        this.write(root, response);
+        
+    }
+    
+    /**
+     * Method to return the latency percentiles (in milliseconds) of each phase of the search requests, 
+     * by record type and distributed versus local search, as XML:
+     * <pre>
+     * &lt;metrics&gt;
+     *   &lt;phase name="BACKEND" type="Dataset" distrib="true" count="100" mean="25.3" p50="20.1" p90="40.2" p99="90.0" p99_9="120.5" max="130.2"/&gt;
+     * &lt;/metrics&gt;
+     * </pre>
+     */
+    @RequestMapping(value="/status/metrics", method=RequestMethod.GET)
+    public void metrics(final HttpServletResponse response) throws Exception {
+        
+        final Element root = new Element("metrics");
+        for (final Map.Entry<SearchMetrics.Key, LatencyHistogram> entry : SearchMetrics.getInstance().getHistograms().entrySet()) {
+            final LatencyHistogram histogram = entry.getValue();
+            final Element phase = new Element("phase");
+            phase.setAttribute("name", entry.getKey().getPhase().toString());
+            phase.setAttribute("type", entry.getKey().getType());
+            phase.setAttribute("distrib", String.valueOf(entry.getKey().isDistrib()));
+            phase.setAttribute("count", String.valueOf(histogram.getCount()));
+            phase.setAttribute("mean", String.format("%.3f", histogram.getMean()));
+            for (final double p : SearchMetrics.PERCENTILES) {
+                // p50, p90, p99, p99_9
+                final String name = "p"+(p==Math.rint(p) ? String.valueOf((int)p) : String.valueOf(p).replace('.', '_'));
+                phase.setAttribute(name, String.format("%.3f", histogram.getPercentile(p)));
+            }
+            phase.setAttribute("max", String.format("%.3f", histogram.getMax()));
+            root.addContent(phase);
+        }
+        
+        this.write(root, response);
+        
+    }
+    
+    private void write(final Element root, final HttpServletResponse response) throws Exception {
+        response.setContentType("text/xml");
+        response.setCharacterEncoding("UTF-8");
+        new XMLOutputter(Format.getPrettyFormat()).output(new Document(root), response.getOutputStream());
+    }
+
+    @Autowired(required=false)
+    public void setShardHealthMonitor(ShardHealthMonitor shardHealthMonitor) {
+        this.shardHealthMonitor = shardHealthMonitor;
+    }
+
+}
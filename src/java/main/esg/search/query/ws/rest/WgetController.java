@@ -69,6 +69,11 @@ public class WgetController {
      */
     final private BaseController baseController;
     
+    /**
+     * Optional executor that processes the requests asynchronously.
+     */
+    private AsyncRequestExecutor asyncRequestExecutor = null;
+    
     @Autowired
     public WgetController(final BaseController baseController) {
           this.baseController = baseController;
@@ -83,6 +88,22 @@ public class WgetController {
                        final SearchCommand command, 
                        final HttpServletResponse response) throws Exception {
         
+        if (asyncRequestExecutor!=null) {
+            asyncRequestExecutor.execute(QueryParameters.TYPE_FILE, request, response, new AsyncRequestExecutor.Handler() {
+                public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+                    doWget(request, command, response);
+                }
+            });
+        } else {
+            doWget(request, command, response);
+        }
+        
+    }
+    
+    private void doWget(final HttpServletRequest request, 
+                        final SearchCommand command, 
+                        final HttpServletResponse response) throws Exception {
+        
         // prevent requests with no constraints
         if (!StringUtils.hasText(request.getQueryString())) {
             response.sendRedirect(request.getRequestURI()+"?limit=1&distrib=false");
@@ -309,5 +330,10 @@ public class WgetController {
         }
         
     }
+    
+    @Autowired(required=false)
+    public void setAsyncRequestExecutor(AsyncRequestExecutor asyncRequestExecutor) {
+        this.asyncRequestExecutor = asyncRequestExecutor;
+    }
 
 }
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+
+/**
+ * Factory of the SSL sockets used by the pooled {@link HttpClient} connections, which applies the same
+ * SSL configuration as the JVM {@link HttpsURLConnection} defaults: the sockets are created by
+ * {@link HttpsURLConnection#getDefaultSSLSocketFactory()}, and the server host name is checked by
+ * {@link HttpsURLConnection#getDefaultHostnameVerifier()}.
+ * 
+ * Thus any custom trust store, key store or socket factory installed by the node for HTTPS connections
+ * also applies to the pooled connections (commons-httpclient would otherwise use its own socket factory,
+ * which ignores the defaults set on HttpsURLConnection and does not verify the host name).
+ * 
+ * The defaults are read every time a socket is created, so that changes made after start-up are honored.
+ */
+class DefaultSSLProtocolSocketFactory implements SecureProtocolSocketFactory {
+    
+    final static DefaultSSLProtocolSocketFactory INSTANCE = new DefaultSSLProtocolSocketFactory();
+    
+    private DefaultSSLProtocolSocketFactory() {}
+    
+    public Socket createSocket(final String host, final int port) throws IOException, UnknownHostException {
+        return verify((SSLSocket)HttpsURLConnection.getDefaultSSLSocketFactory().createSocket(host, port), host);
+    }
+    
+    public Socket createSocket(final String host, final int port, final InetAddress localAddress, final int localPort) 
+           throws IOException, UnknownHostException {
+        return verify((SSLSocket)HttpsURLConnection.getDefaultSSLSocketFactory().createSocket(host, port, localAddress, localPort), host);
+    }
+    
+    public Socket createSocket(final String host, final int port, final InetAddress localAddress, final int localPort, 
+                               final HttpConnectionParams params) throws IOException, UnknownHostException {
+        
+        if (params==null) return createSocket(host, port, localAddress, localPort);
+        
+        // connect with a timeout, then layer SSL over the plain socket
+        // (the read timeout also bounds the handshake)
+        final Socket socket = new Socket();
+        try {
+            socket.bind(new InetSocketAddress(localAddress, localPort));
+            socket.connect(new InetSocketAddress(host, port), params.getConnectionTimeout());
+            socket.setSoTimeout(params.getSoTimeout());
+        } catch(IOException e) {
+            socket.close();
+            throw e;
+        }
+        return createSocket(socket, host, port, true);
+        
+    }
+    
+    public Socket createSocket(final Socket socket, final String host, final int port, final boolean autoClose) 
+           throws IOException, UnknownHostException {
+        return verify((SSLSocket)HttpsURLConnection.getDefaultSSLSocketFactory().createSocket(socket, host, port, autoClose), host);
+    }
+    
+    /**
+     * Method to complete the SSL handshake, and check that the server certificate matches the host name.
+     */
+    private static Socket verify(final SSLSocket socket, final String host) throws IOException {
+        
+        try {
+            socket.startHandshake();
+            if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, socket.getSession())) {
+                throw new SSLException("Server certificate does not match host name: "+host);
+            }
+        } catch(IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+        
+    }
+
+}
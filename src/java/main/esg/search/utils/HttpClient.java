@@ -18,22 +18,54 @@
  ******************************************************************************/
 package esg.search.utils;
 
-import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Map;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.NoHttpResponseException;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 
 /**
  * Simple class to execute an HTTP GET/POST request,
- * and return the HTTP response as a single string.
+ * and return the HTTP response as a single string, or copy it to an output stream.
+ * 
+ * HTTP and HTTPS requests are executed over persistent connections borrowed from the shared {@link HttpConnectionPool},
+ * so instances of this class are lightweight and can be created for each request.
+ * Requests for all other URL schemes (for example, local files) are executed through a standard {@link URLConnection}.
  */
 public class HttpClient {
         
     // default time outs ("A timeout of zero is interpreted as an infinite timeout.")
     private int connectionTimeout = 0;
     private int readTimeout = 0;
+    
+    // maximum number of redirects followed by GET requests
+    private final static int MAX_REDIRECTS = 5;
+    
+    private final static String DEFAULT_CHARSET = "UTF-8";
+    
+    // size of the buffer used to copy a response to an output stream
+    private final static int BUFFER_SIZE = 8192;
+    
+    // HTTPS connections use the JVM default SSL configuration, as HttpsURLConnection does
+    private final static Protocol HTTPS = new Protocol("https", (SecureProtocolSocketFactory)DefaultSSLProtocolSocketFactory.INSTANCE, 443);
     	
 	/**
 	 * Method to execute an HTTP GET request.
@@ -42,18 +74,101 @@ public class HttpClient {
 	 * @throws IOException
 	 */
 	public String doGet(final URL url) throws IOException {
+	    
+	    if (isPooled(url)) {
+	        
+	        URL location = url;
+	        for (int n=0; n<=MAX_REDIRECTS; n++) {
+	            final GetMethod method = new GetMethod();
+	            method.setFollowRedirects(false);
+	            try {
+	                final int status = execute(location, method);
+	                if (isRedirect(status) && method.getResponseHeader("Location")!=null) {
+	                    location = new URL(location, method.getResponseHeader("Location").getValue());
+	                    if (!isPooled(location)) return doGet(location);
+	                } else {
+	                    return getResponse(location, method);
+	                }
+	            } finally {
+	                method.releaseConnection();
+	            }
+	        }
+	        throw new IOException("Too many redirects for URL: "+url);
+	        
+	    } else {
 						
-		// prepare HTTP request
-		final URLConnection connection = url.openConnection();	
-		if (connectionTimeout!=0) connection.setConnectTimeout(connectionTimeout);
-		if (readTimeout!=0) connection.setReadTimeout(readTimeout);
-		connection.setUseCaches(false);
-				
-	    // execute HTTP request
-	    return getResponse(connection);
+    		// prepare HTTP request
+    		final URLConnection connection = url.openConnection();	
+    		if (connectionTimeout!=0) connection.setConnectTimeout(connectionTimeout);
+    		if (readTimeout!=0) connection.setReadTimeout(readTimeout);
+    		connection.setUseCaches(false);
+    				
+    	    // execute HTTP request
+    	    return getResponse(connection.getInputStream());
+    	    
+	    }
 		
 	}
 	
+	/**
+	 * Method to execute a GET request with additional request headers (for example, the validators of a conditional request),
+	 * copying the response body to an output stream.
+	 * A "304 Not Modified" response is returned without copying any content.
+	 * 
+	 * @param url : the URL to retrieve
+	 * @param requestHeaders : the additional request headers (may be null)
+	 * @param out : the stream the response body is copied to
+	 * @param responseHeaders : populated with the response headers (may be null)
+	 * @return the HTTP status code (200 for non-HTTP URLs)
+	 * @throws IOException
+	 */
+	public int doGet(final URL url, final Map<String,String> requestHeaders, final OutputStream out, final Map<String,String> responseHeaders) 
+	       throws IOException {
+	    
+	    if (isPooled(url)) {
+	        
+	        URL location = url;
+	        for (int n=0; n<=MAX_REDIRECTS; n++) {
+	            final GetMethod method = new GetMethod();
+	            method.setFollowRedirects(false);
+	            if (requestHeaders!=null) {
+	                for (final Map.Entry<String,String> header : requestHeaders.entrySet()) {
+	                    method.setRequestHeader(header.getKey(), header.getValue());
+	                }
+	            }
+	            try {
+	                final int status = execute(location, method);
+	                if (isRedirect(status) && method.getResponseHeader("Location")!=null) {
+	                    location = new URL(location, method.getResponseHeader("Location").getValue());
+	                    if (!isPooled(location)) return doGet(location, requestHeaders, out, responseHeaders);
+	                } else {
+	                    checkStatus(location, method);
+	                    if (responseHeaders!=null) {
+	                        for (final Header header : method.getResponseHeaders()) responseHeaders.put(header.getName(), header.getValue());
+	                    }
+	                    final InputStream in = method.getResponseBodyAsStream();
+	                    if (status!=HttpStatus.SC_NOT_MODIFIED && in!=null) copy(in, out);
+	                    return status;
+	                }
+	            } finally {
+	                method.releaseConnection();
+	            }
+	        }
+	        throw new IOException("Too many redirects for URL: "+url);
+	        
+	    } else {
+	        
+	        final URLConnection connection = url.openConnection();
+	        if (connectionTimeout!=0) connection.setConnectTimeout(connectionTimeout);
+	        if (readTimeout!=0) connection.setReadTimeout(readTimeout);
+	        connection.setUseCaches(false);
+	        copy(connection.getInputStream(), out);
+	        return HttpStatus.SC_OK;
+	        
+	    }
+	    
+	}
+	
 	/**
 	 * Method to send an XML document as a POST request.
 	 * @param url : the URL to post the request to - without any additional HTTP parameters
@@ -63,8 +178,151 @@ public class HttpClient {
 	 * @throws IOException
 	 */
 	public String doPost(final URL url, final String data, boolean xml) throws IOException {
+	    
+	    if (isPooled(url)) {
+	        
+	        final PostMethod method = new PostMethod();
+	        method.setRequestEntity(new StringRequestEntity(data, (xml ? "text/xml" : "application/x-www-form-urlencoded"), DEFAULT_CHARSET));
+	        
+	        // preemptive authentication
+	        //final String userpassword = "<username>" + ":" + "<password>";   
+	        //final byte[] authEncBytes = Base64.encodeBase64(userpassword.getBytes());
+	        //final String authStringEnc = new String(authEncBytes);
+	        //method.setRequestHeader("Authorization", "Basic "+ authStringEnc );   
+	        
+	        try {
+	            execute(url, method);
+	            return getResponse(url, method);
+	        } finally {
+	            method.releaseConnection();
+	        }
+	        
+	    } else {
+		
+    	    // execute HTTP request
+    	    return getResponse(post(url, data, xml).getInputStream());
+    	    
+	    }
 		
-		// prepare HTTP request
+	}
+	
+	/**
+	 * Method to send a POST request, and copy the HTTP response to an output stream
+	 * through a fixed-size buffer, without holding the whole response in memory.
+	 * The output stream is not closed by this method.
+	 * 
+	 * @param url : the URL to post the request to - without any additional HTTP parameters
+	 * @param data : the data to be posted
+	 * @param xml : true to post an XML document - sets the request content-type accordingly
+	 * @param out : the stream the response body is copied to
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	public long doPost(final URL url, final String data, boolean xml, final OutputStream out) throws IOException {
+	    
+	    if (isPooled(url)) {
+	        
+	        final PostMethod method = new PostMethod();
+	        method.setRequestEntity(new StringRequestEntity(data, (xml ? "text/xml" : "application/x-www-form-urlencoded"), DEFAULT_CHARSET));
+	        try {
+	            execute(url, method);
+	            checkStatus(url, method);
+	            final InputStream in = method.getResponseBodyAsStream();
+	            return (in==null ? 0 : copy(in, out));
+	        } finally {
+	            method.releaseConnection();
+	        }
+	        
+	    } else {
+	        return copy(post(url, data, xml).getInputStream(), out);
+	    }
+	    
+	}
+	
+	/**
+	 * Method to send a POST request whose body is written directly to the connection,
+	 * using chunked transfer encoding, so that the whole request never has to be held in memory.
+	 * 
+	 * @param url : the URL to post the request to - without any additional HTTP parameters
+	 * @param body : the writer of the request body (written again if the request must be re-tried)
+	 * @param xml : true to post an XML document - sets the request content-type accordingly
+	 * @return
+	 * @throws IOException
+	 */
+	public String doPost(final URL url, final RequestBody body, boolean xml) throws IOException {
+	    
+	    return this.doPost(url, body, (xml ? "text/xml" : "application/x-www-form-urlencoded")+"; charset="+DEFAULT_CHARSET);
+	    
+	}
+	
+	/**
+	 * Method to send a POST request whose body is written directly to the connection,
+	 * with an arbitrary content type (for example, a binary document).
+	 * 
+	 * @param url : the URL to post the request to - without any additional HTTP parameters
+	 * @param body : the writer of the request body (written again if the request must be re-tried)
+	 * @param contentType : the content type of the request body
+	 * @return
+	 * @throws IOException
+	 */
+	public String doPost(final URL url, final RequestBody body, final String contentType) throws IOException {
+	    
+	    if (isPooled(url)) {
+	        
+	        final PostMethod method = new PostMethod();
+	        method.setRequestEntity(new RequestEntity() {
+	            public boolean isRepeatable() {
+	                return true;
+	            }
+	            public void writeRequest(final OutputStream out) throws IOException {
+	                body.writeTo(out);
+	            }
+	            public long getContentLength() {
+	                return -1; // chunked
+	            }
+	            public String getContentType() {
+	                return contentType;
+	            }
+	        });
+	        try {
+	            execute(url, method);
+	            return getResponse(url, method);
+	        } finally {
+	            method.releaseConnection();
+	        }
+	        
+	    } else {
+	        
+	        final URLConnection connection = url.openConnection();
+	        connection.setUseCaches(false);
+	        connection.setDoOutput(true); // POST method
+	        if (connectionTimeout!=0) connection.setConnectTimeout(connectionTimeout);
+	        if (readTimeout!=0) connection.setReadTimeout(readTimeout);
+	        connection.setRequestProperty("Content-Type", contentType);
+	        
+	        final OutputStream out = connection.getOutputStream();
+	        try {
+	            body.writeTo(out);
+	        } finally {
+	            out.close();
+	        }
+	        return getResponse(connection.getInputStream());
+	        
+	    }
+	    
+	}
+	
+	/**
+	 * Method to send a POST request through a {@link URLConnection}.
+	 * @param url
+	 * @param data
+	 * @param xml
+	 * @return the connection, ready to read the response from
+	 * @throws IOException
+	 */
+	private URLConnection post(final URL url, final String data, boolean xml) throws IOException {
+	    
+	    // prepare HTTP request
 	    final URLConnection connection = url.openConnection();
 	    connection.setUseCaches(false);
 	    connection.setDoOutput(true); // POST method
@@ -73,41 +331,176 @@ public class HttpClient {
 	    if (xml) connection.setRequestProperty("Content-Type", "text/xml");
 	    connection.setRequestProperty("Charset", "utf-8");
 	    
-	    // preemptive authentication
-	    //final String userpassword = "<username>" + ":" + "<password>";   
-	    //final byte[] authEncBytes = Base64.encodeBase64(userpassword.getBytes());
-		//final String authStringEnc = new String(authEncBytes);
-	    //connection.setRequestProperty("Authorization", "Basic "+ authStringEnc );   
-	    	    
 	    final OutputStreamWriter wr = new OutputStreamWriter(connection.getOutputStream());
 	    wr.write(data);
 	    wr.flush();
 	    wr.close();
-
-	    // execute HTTP request
-	    return getResponse(connection);
-		
+	    
+	    return connection;
+	    
+	}
+	
+	/**
+	 * Method to execute an HTTP method over a pooled connection.
+	 * A connection that was re-used from the pool is discarded, and the request re-tried once,
+	 * if it fails because it was closed by the server.
+	 * 
+	 * @param url
+	 * @param method
+	 * @return the HTTP status code
+	 * @throws IOException
+	 */
+	private int execute(final URL url, final HttpMethodBase method) throws IOException {
+	    
+	    // request target
+	    method.setPath(url.getPath().length()>0 ? url.getPath() : "/");
+	    method.setQueryString(url.getQuery());
+	    final HostConfiguration hostConfiguration = new HostConfiguration();
+	    final int port = (url.getPort()>0 ? url.getPort() : url.getDefaultPort());
+	    if (url.getProtocol().equals("https")) {
+	        hostConfiguration.setHost(url.getHost(), port, HTTPS);
+	    } else {
+	        hostConfiguration.setHost(url.getHost(), port, url.getProtocol());
+	    }
+	    
+	    final HttpConnection connection = HttpConnectionPool.getInstance().getConnection(hostConfiguration, connectionTimeout);
+	    final boolean reused = connection.isOpen();
+	    try {
+	        connection.closeIfStale();
+	        connection.getParams().setSoTimeout(readTimeout);
+	        if (!connection.isOpen()) connection.open();
+	        connection.setSocketTimeout(readTimeout);
+	        return method.execute(new HttpState(), connection);
+	    } catch(IOException e) {
+	        // release the broken connection, do not return it to the pool
+	        connection.close();
+	        connection.releaseConnection();
+	        if (reused && (!method.isRequestSent() || e instanceof NoHttpResponseException)) {
+	            return execute(url, method);
+	        } else {
+	            throw e;
+	        }
+	    }
+	    
+	}
+	
+	/**
+	 * Method to read the response of an HTTP method executed over a pooled connection.
+	 * @param url
+	 * @param method
+	 * @return
+	 * @throws IOException
+	 */
+	private String getResponse(final URL url, final HttpMethodBase method) throws IOException {
+	    
+	    checkStatus(url, method);
+	    
+	    // use the declared response character set, or UTF-8
+	    final Header contentType = method.getResponseHeader("Content-Type");
+	    final String charset = (contentType!=null && contentType.getValue().toLowerCase().contains("charset=")) ?
+	                           method.getResponseCharSet() : DEFAULT_CHARSET;
+	    
+	    final InputStream in = method.getResponseBodyAsStream();
+	    return (in==null ? "" : getResponse(new InputStreamReader(in, charset)));
+	    
+	}
+	
+	/**
+	 * Method to report an HTTP error status code as an exception, consistently with {@link URLConnection}.
+	 * @param url
+	 * @param method
+	 * @throws IOException
+	 */
+	private void checkStatus(final URL url, final HttpMethodBase method) throws IOException {
+	    
+	    final int status = method.getStatusCode();
+	    if (status==HttpStatus.SC_NOT_FOUND || status==HttpStatus.SC_GONE) {
+	        throw new FileNotFoundException(url.toString());
+	    } else if (status>=HttpStatus.SC_BAD_REQUEST) {
+	        throw new IOException("Server returned HTTP response code: "+status+" for URL: "+url.toString());
+	    }
+	    
+	}
+	
+	/**
+	 * Method to copy an HTTP response to an output stream through a fixed-size buffer.
+	 * @param in : the response stream, closed by this method
+	 * @param out
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 */
+	private long copy(final InputStream in, final OutputStream out) throws IOException {
+	    
+	    final byte[] buffer = new byte[BUFFER_SIZE];
+	    long count = 0;
+	    try {
+	        int n = 0;
+	        while ((n = in.read(buffer)) != -1) {
+	            out.write(buffer, 0, n);
+	            count += n;
+	        }
+	    } finally {
+	        in.close();
+	    }
+	    out.flush();
+	    return count;
+	    
 	}
 	
 	/**
-	 * Method to execute an HTTP request (GET/POST) and return the HTTP response.
-	 * @param connection
+	 * Method to read the response of an HTTP request (GET/POST) executed through a {@link URLConnection}.
+	 * @param in
 	 * @return
 	 * @throws IOException
 	 */
-	private String getResponse(final URLConnection connection) throws IOException {
+	private String getResponse(final InputStream in) throws IOException {
+	    return getResponse(new InputStreamReader(in));
+	}
+	
+	/**
+	 * Method to read an HTTP response into a string, as received.
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	private String getResponse(final InputStreamReader reader) throws IOException {
 		
-	    final BufferedReader rd = new BufferedReader(new InputStreamReader(connection.getInputStream()));
 	    final StringBuilder sb = new StringBuilder();
-	    String line = null;
-	    while ((line = rd.readLine()) != null) {
-	    	sb.append(line + "\n");
+	    final char[] buffer = new char[BUFFER_SIZE];
+	    try {
+	        int n = 0;
+	        while ((n = reader.read(buffer)) != -1) {
+	            sb.append(buffer, 0, n);
+	        }
+	    } finally {
+	        reader.close();
 	    }
-	    rd.close();
 	    return sb.toString();
 	    
 	}
 	
+	private static boolean isPooled(final URL url) {
+	    return url.getProtocol().equals("http") || url.getProtocol().equals("https");
+	}
+	
+	private static boolean isRedirect(final int status) {
+	    return status==HttpStatus.SC_MOVED_PERMANENTLY || status==HttpStatus.SC_MOVED_TEMPORARILY 
+	        || status==HttpStatus.SC_SEE_OTHER || status==HttpStatus.SC_TEMPORARY_REDIRECT;
+	}
+	
+    /**
+     * Writer of the body of a POST request.
+     */
+    public interface RequestBody {
+        
+        /**
+         * Method to write the request body to the given stream (which must not be closed).
+         * The same content must be written if the method is invoked again.
+         */
+        void writeTo(OutputStream out) throws IOException;
+        
+    }
+	
     public void setConnectionTimeout(int connectionTimeout) {
         this.connectionTimeout = connectionTimeout;
     }
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.utils;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.StringUtils;
+
+import esg.common.util.ESGFProperties;
+
+/**
+ * Shared pool of persistent (keep-alive) HTTP connections used by all {@link HttpClient} instances
+ * to communicate with the Solr servers, the remote shards and the remote metadata repositories.
+ * 
+ * The pool enforces a maximum number of connections per host and in total, 
+ * and periodically closes connections that have been idle for longer than a configurable time.
+ * Pool parameters are read once from the node ESGF properties, falling back to default values.
+ * HTTPS connections are secured with the JVM default SSL configuration, see {@link DefaultSSLProtocolSocketFactory}.
+ * 
+ * @author Luca Cinquini
+ */
+@ManagedResource(objectName="esg.search:name=HttpConnectionPool", description="Shared pool of HTTP connections")
+public class HttpConnectionPool {
+    
+    /**
+     * Configurable pool parameters (as ESGF properties).
+     */
+    public final static String PROPERTY_MAX_CONNECTIONS_PER_HOST = "index.http.connections.perhost";
+    public final static String PROPERTY_MAX_TOTAL_CONNECTIONS = "index.http.connections.total";
+    public final static String PROPERTY_IDLE_TIMEOUT = "index.http.connections.idle";
+    public final static String PROPERTY_CHECKOUT_TIMEOUT = "index.http.connections.checkout";
+    
+    /**
+     * Default pool parameters.
+     */
+    public final static int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+    public final static int DEFAULT_MAX_TOTAL_CONNECTIONS = 200;
+    public final static int DEFAULT_IDLE_TIMEOUT = 60000; // 1 minute
+    public final static int DEFAULT_CHECKOUT_TIMEOUT = 10000; // 10 seconds
+    
+    /**
+     * Frequency of checks for idle connections.
+     */
+    private final static int IDLE_CHECK_INTERVAL = 5000;
+    
+    private static HttpConnectionPool instance = null;
+    
+    private final MultiThreadedHttpConnectionManager connectionManager;
+    private final IdleConnectionTimeoutThread idleConnectionThread;
+    
+    /**
+     * Maximum time to wait for a connection to become available in the pool.
+     */
+    private final int checkoutTimeout;
+    
+    /**
+     * Pool statistics.
+     */
+    private final AtomicLong numberOfRequests = new AtomicLong(0);
+    private final AtomicLong numberOfReusedConnections = new AtomicLong(0);
+    private final AtomicLong numberOfNewConnections = new AtomicLong(0);
+    
+    private static final Log LOG = LogFactory.getLog(HttpConnectionPool.class);
+    
+    /**
+     * Method to return the shared pool instance, 
+     * configured from the ESGF properties when available.
+     * @return
+     */
+    public synchronized static HttpConnectionPool getInstance() {
+        
+        if (instance==null) {
+            ESGFProperties props = null;
+            try {
+                props = new ESGFProperties();
+            } catch(Exception e) {
+                if (LOG.isInfoEnabled()) LOG.info("ESGF properties not available, using default HTTP pool parameters");
+            }
+            instance = new HttpConnectionPool(props);
+        }
+        return instance;
+        
+    }
+    
+    /**
+     * Constructor reads optional configuration from the ESGF properties.
+     * @param props : may be null
+     */
+    HttpConnectionPool(final ESGFProperties props) {
+        this(getIntProperty(props, PROPERTY_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_PER_HOST),
+             getIntProperty(props, PROPERTY_MAX_TOTAL_CONNECTIONS, DEFAULT_MAX_TOTAL_CONNECTIONS),
+             getIntProperty(props, PROPERTY_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT),
+             getIntProperty(props, PROPERTY_CHECKOUT_TIMEOUT, DEFAULT_CHECKOUT_TIMEOUT));
+    }
+    
+    /**
+     * Constructor with explicit configuration.
+     * @param maxConnectionsPerHost
+     * @param maxTotalConnections
+     * @param idleTimeout : time after which idle connections are closed (milliseconds)
+     * @param checkoutTimeout : maximum time to wait for a connection to become available (milliseconds)
+     */
+    HttpConnectionPool(final int maxConnectionsPerHost, final int maxTotalConnections, final int idleTimeout, final int checkoutTimeout) {
+        
+        this.checkoutTimeout = checkoutTimeout;
+        
+        this.connectionManager = new MultiThreadedHttpConnectionManager();
+        final HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+        params.setMaxTotalConnections(maxTotalConnections);
+        // pooled connections may have been closed by the server while idle
+        params.setStaleCheckingEnabled(true);
+        
+        // close connections that have been idle for too long
+        this.idleConnectionThread = new IdleConnectionTimeoutThread();
+        idleConnectionThread.setName("esg-search-http-idle");
+        idleConnectionThread.setTimeoutInterval(IDLE_CHECK_INTERVAL);
+        idleConnectionThread.setConnectionTimeout(idleTimeout);
+        idleConnectionThread.addConnectionManager(connectionManager);
+        idleConnectionThread.start();
+        
+        if (LOG.isInfoEnabled()) {
+            LOG.info("HTTP pool max connections per host="+maxConnectionsPerHost);
+            LOG.info("HTTP pool max total connections="+maxTotalConnections);
+            LOG.info("HTTP pool idle timeout="+idleTimeout);
+        }
+        
+    }
+    
+    /**
+     * Method to check out a connection to the given host from the pool.
+     * The connection must be returned to the pool by invoking {@link HttpConnection#releaseConnection()}.
+     * 
+     * @param hostConfiguration
+     * @param connectionTimeout : timeout for opening a new connection (0 for no timeout)
+     * @return
+     * @throws IOException if no connection becomes available within the configured time
+     */
+    HttpConnection getConnection(final HostConfiguration hostConfiguration, final int connectionTimeout) throws IOException {
+        
+        numberOfRequests.incrementAndGet();
+        final HttpConnection connection;
+        try {
+            connection = connectionManager.getConnectionWithTimeout(hostConfiguration, checkoutTimeout);
+        } catch(ConnectionPoolTimeoutException e) {
+            throw new IOException("Timeout waiting for HTTP connection to host="+hostConfiguration.getHost());
+        }
+        
+        if (connection.isOpen()) {
+            numberOfReusedConnections.incrementAndGet();
+        } else {
+            numberOfNewConnections.incrementAndGet();
+        }
+        connection.getParams().setConnectionTimeout(connectionTimeout);
+        return connection;
+        
+    }
+    
+    /**
+     * Method to close all connections and stop the idle connections monitor.
+     */
+    public void shutdown() {
+        idleConnectionThread.shutdown();
+        connectionManager.shutdown();
+        synchronized (HttpConnectionPool.class) {
+            if (instance==this) instance = null;
+        }
+    }
+    
+    /**
+     * Method to close all connections currently idle in the pool.
+     */
+    @ManagedOperation(description="Closes all idle connections")
+    public void closeIdleConnections() {
+        connectionManager.closeIdleConnections(0);
+    }
+    
+    @ManagedAttribute(description="Total number of connections currently in the pool")
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+    
+    /**
+     * Method to return the number of connections currently open to a specific host.
+     * @param host
+     * @param port
+     * @return
+     */
+    public int getConnectionsInPool(final String host, final int port) {
+        final HostConfiguration hostConfiguration = new HostConfiguration();
+        hostConfiguration.setHost(host, port);
+        return connectionManager.getConnectionsInPool(hostConfiguration);
+    }
+    
+    @ManagedAttribute(description="Maximum number of connections per host")
+    public int getMaxConnectionsPerHost() {
+        return connectionManager.getParams().getDefaultMaxConnectionsPerHost();
+    }
+    
+    @ManagedAttribute(description="Maximum total number of connections")
+    public int getMaxTotalConnections() {
+        return connectionManager.getParams().getMaxTotalConnections();
+    }
+    
+    @ManagedAttribute(description="Number of HTTP requests executed through the pool")
+    public long getNumberOfRequests() {
+        return numberOfRequests.get();
+    }
+
+    @ManagedAttribute(description="Number of HTTP requests that re-used an open connection")
+    public long getNumberOfReusedConnections() {
+        return numberOfReusedConnections.get();
+    }
+
+    @ManagedAttribute(description="Number of new connections opened by the pool")
+    public long getNumberOfNewConnections() {
+        return numberOfNewConnections.get();
+    }
+    
+    @Override
+    public String toString() {
+        return "HTTP pool: connections="+getConnectionsInPool()
+              +" requests="+getNumberOfRequests()
+              +" reused="+getNumberOfReusedConnections()
+              +" new="+getNumberOfNewConnections();
+    }
+    
+    private static int getIntProperty(final ESGFProperties props, final String key, final int defaultValue) {
+        if (props!=null && StringUtils.hasText(props.getProperty(key))) {
+            return Integer.parseInt(props.getProperty(key).trim());
+        } else {
+            return defaultValue;
+        }
+    }
+
+}
@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+
+import esg.search.query.api.QueryParameters;
+
+/**
+ * Bounded, concurrent dictionary of string values, used to share a single String instance 
+ * among the many records that contain the same field value 
+ * (e.g. the project, model, experiment or variable of all the files of a crawl or of a search result).
+ * 
+ * Values longer than a maximum length, and values of fields that are unique to each record (identifiers, URLs, checksums...),
+ * are not stored. 
+ * 
+ * The values are stored in two generations of (at most) half the maximum size each: new values are added to the current generation,
+ * and the values found in the old generation are copied to the current one. When the current generation is full, it becomes
+ * the old generation, and the previous old generation is discarded: thus only the values not used during a whole generation are evicted,
+ * while the values in use are kept.
+ * 
+ * Two instances exist in each JVM: the one obtained via {@link #getInstance()} is used by the publishing parsers, 
+ * while the smaller one obtained via {@link #getQueryInstance()} is used by the search result parsers, 
+ * so that the values of transient search results never evict the values of the records being published.
+ * Each instance is exported to JMX under its own name.
+ */
+@ManagedResource(description="Shared values of the metadata record fields")
+public class StringDictionary implements SelfNaming {
+    
+    /**
+     * Default fields whose values are (mostly) different for each record.
+     */
+    public final static String[] DEFAULT_EXCLUDED_FIELDS = new String[] {
+        QueryParameters.FIELD_ID, QueryParameters.FIELD_MASTER_ID, QueryParameters.FIELD_INSTANCE_ID,
+        QueryParameters.FIELD_TITLE, QueryParameters.FIELD_URL, QueryParameters.FIELD_SIZE, 
+        QueryParameters.FIELD_CHECKSUM, QueryParameters.FIELD_TIMESTAMP, QueryParameters.FIELD_TRACKING_ID,
+        "_version_", "score"
+    };
+    
+    /**
+     * Default maximum number of values in the dictionary of the search result parsers.
+     */
+    public final static int DEFAULT_QUERY_MAX_SIZE = 10000;
+    
+    private final static StringDictionary INSTANCE = new StringDictionary("StringDictionary", 100000);
+    
+    private final static StringDictionary QUERY_INSTANCE = new StringDictionary("QueryStringDictionary", DEFAULT_QUERY_MAX_SIZE);
+    
+    /**
+     * The JMX name of this instance.
+     */
+    private final String name;
+    
+    /**
+     * The generation that new values are added to, and the previous one.
+     */
+    private volatile Generation current = new Generation();
+    private volatile Generation old = new Generation();
+    
+    /**
+     * Maximum number of values in the dictionary (0 to disable the dictionary).
+     */
+    private volatile int maxSize;
+    
+    /**
+     * Maximum length of the values stored in the dictionary.
+     */
+    private volatile int maxLength = 256;
+    
+    private volatile Set<String> excludedFields = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(DEFAULT_EXCLUDED_FIELDS)));
+    
+    // hits are counted on every lookup by many threads, so they are spread over several counters
+    private final StripedCounter hits = new StripedCounter();
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    
+    private StringDictionary(final String name, final int maxSize) {
+        this.name = name;
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * @return the dictionary of the publishing parsers
+     */
+    public static StringDictionary getInstance() {
+        return INSTANCE;
+    }
+    
+    /**
+     * @return the dictionary of the search result parsers
+     */
+    public static StringDictionary getQueryInstance() {
+        return QUERY_INSTANCE;
+    }
+    
+    /**
+     * Method to return the shared instance of a field value, 
+     * or the value itself if the field is excluded from the dictionary.
+     * @param field
+     * @param value
+     * @return
+     */
+    public String intern(final String field, final String value) {
+        return (excludedFields.contains(field) ? value : this.intern(value));
+    }
+    
+    /**
+     * Method to return the shared instance of a value, storing it in the dictionary if not found.
+     * @param value
+     * @return
+     */
+    public String intern(final String value) {
+        
+        if (value==null || value.length()>maxLength || maxSize<=0) return value;
+        
+        final Generation _current = current;
+        String shared = _current.values.get(value);
+        if (shared!=null) {
+            hits.increment();
+            return shared;
+        }
+        
+        // value still in use: keep it in the current generation
+        shared = old.values.get(value);
+        if (shared!=null) {
+            hits.increment();
+            return this.add(_current, shared);
+        }
+        
+        misses.incrementAndGet();
+        return this.add(_current, value);
+        
+    }
+    
+    /**
+     * Method to add a value to a generation, and replace the generation if it is full.
+     * @return the value stored in the generation
+     */
+    private String add(final Generation generation, final String value) {
+        
+        final String previous = generation.values.putIfAbsent(value, value);
+        if (previous!=null) return previous;
+        
+        if (generation.size.incrementAndGet()>=Math.max((maxSize+1)/2, 1)) {
+            synchronized (this) {
+                // only one of the concurrent callers replaces the full generation
+                if (current==generation) {
+                    old = generation;
+                    current = new Generation();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        return value;
+        
+    }
+    
+    @ManagedOperation(description="Removes all values, and resets the statistics")
+    public synchronized void reset() {
+        current = new Generation();
+        old = new Generation();
+        hits.reset();
+        misses.set(0);
+        evictions.set(0);
+    }
+    
+    @ManagedAttribute(description="Number of values in the dictionary (values in use may be counted in both generations)")
+    public int getSize() {
+        return current.size.get() + old.size.get();
+    }
+    
+    @ManagedAttribute(description="Number of lookups that returned a shared value")
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    @ManagedAttribute(description="Number of lookups that stored a new value")
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    @ManagedAttribute(description="Number of times the values not used during a whole generation were evicted")
+    public long getEvictions() {
+        return evictions.get();
+    }
+    
+    @ManagedAttribute(description="Fraction of lookups that returned a shared value")
+    public double getHitRate() {
+        final long _hits = hits.sum();
+        final long lookups = _hits + misses.get();
+        return (lookups>0 ? (double)_hits/lookups : 0);
+    }
+    
+    @ManagedAttribute(description="Maximum number of values in the dictionary (0 if disabled)")
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        if (maxSize<=0) {
+            synchronized (this) {
+                current = new Generation();
+                old = new Generation();
+            }
+        }
+    }
+    
+    @ManagedAttribute(description="Maximum length of the values stored in the dictionary")
+    public int getMaxLength() {
+        return maxLength;
+    }
+    
+    public void setMaxLength(int maxLength) {
+        this.maxLength = maxLength;
+    }
+    
+    public Set<String> getExcludedFields() {
+        return excludedFields;
+    }
+    
+    public void setExcludedFields(final Set<String> excludedFields) {
+        this.excludedFields = Collections.unmodifiableSet(new HashSet<String>(excludedFields));
+    }
+    
+    public String toString() {
+        return "StringDictionary size="+getSize()+" hits="+getHits()+" misses="+getMisses()
+              +" hit rate="+String.format("%.3f", getHitRate())+" evictions="+getEvictions();
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("esg.search:name="+name);
+    }
+    
+    /**
+     * A generation of values, with its size 
+     * (counted separately, since the size of a concurrent map is expensive to compute).
+     */
+    private static class Generation {
+        
+        final ConcurrentMap<String, String> values = new ConcurrentHashMap<String, String>();
+        final AtomicInteger size = new AtomicInteger(0);
+        
+    }
+    
+    /**
+     * Counter spread over several cells, selected by the identifier of the updating thread,
+     * so that concurrent threads seldom update the same cell.
+     */
+    private static class StripedCounter {
+        
+        private final static int CELLS = 16;
+        
+        // one cell every 8 longs, so that the cells do not share a cache line
+        private final static int PADDING = 8;
+        
+        private final AtomicLongArray cells = new AtomicLongArray(CELLS*PADDING);
+        
+        void increment() {
+            cells.incrementAndGet( (int)(Thread.currentThread().getId() % CELLS) * PADDING );
+        }
+        
+        long sum() {
+            long sum = 0;
+            for (int i=0; i<CELLS; i++) sum += cells.get(i*PADDING);
+            return sum;
+        }
+        
+        void reset() {
+            for (int i=0; i<CELLS; i++) cells.set(i*PADDING, 0);
+        }
+        
+    }
+
+}
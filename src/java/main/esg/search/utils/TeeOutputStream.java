@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that writes to an underlying stream, while keeping a copy of the written bytes in memory
+ * up to a maximum size. Once the maximum size is exceeded, the copy is discarded and only the underlying
+ * stream is written to.
+ * 
+ * Subclasses can override {@link #written(long)} to be notified of the number of bytes written so far.
+ */
+public class TeeOutputStream extends FilterOutputStream {
+    
+    private final int maxSize;
+    
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    
+    private long count = 0;
+    
+    /**
+     * Constructor.
+     * @param out : the underlying stream
+     * @param maxSize : the maximum number of bytes that are copied in memory
+     */
+    public TeeOutputStream(final OutputStream out, final int maxSize) {
+        super(out);
+        this.maxSize = maxSize;
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (copy!=null) {
+            if (copy.size()+1 > maxSize) {
+                copy = null;
+            } else {
+                copy.write(b);
+            }
+        }
+        count++;
+        written(count);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (copy!=null) {
+            if (copy.size()+len > maxSize) {
+                copy = null;
+            } else {
+                copy.write(b, off, len);
+            }
+        }
+        count += len;
+        written(count);
+    }
+    
+    /**
+     * Method invoked after each write.
+     * @param count : the number of bytes written so far
+     */
+    protected void written(long count) {}
+    
+    /**
+     * Method to return the bytes written so far.
+     * @return the bytes, or null if the maximum size was exceeded
+     */
+    public byte[] getBytes() {
+        return (copy==null ? null : copy.toByteArray());
+    }
+    
+    /**
+     * Method to return the bytes written so far, if they do not exceed a limit lower than the maximum size.
+     * @param limit
+     * @return the bytes, or null if the limit was exceeded
+     */
+    public byte[] getBytes(final long limit) {
+        return (copy==null || count>limit ? null : copy.toByteArray());
+    }
+
+}
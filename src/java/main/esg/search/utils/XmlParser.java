@@ -20,6 +20,7 @@ package esg.search.utils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 
 import org.jdom.Document;
@@ -56,6 +57,17 @@ public class XmlParser {
 		return this.getBuilder().build(sr); 
 	}
 
+	/**
+	 * Method to parse an XML stream into a JDOM document.
+	 * @param xml
+	 * @return
+	 * @throws IOException
+	 * @throws JDOMException
+	 */
+	public Document parseStream(final InputStream xml) throws IOException, JDOMException {
+	    return this.getBuilder().build(xml);
+	}
+	
 	/**
 	 * Method to parse an XML file into a JDOM document.
 	 * @param filepath
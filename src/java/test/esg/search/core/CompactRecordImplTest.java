@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link CompactRecordImpl}.
+ */
+public class CompactRecordImplTest {
+    
+    /**
+     * Tests that the same sequence of operations on a {@link CompactRecordImpl} and a {@link RecordImpl}
+     * results in the same fields.
+     */
+    @Test
+    public void testSameAsRecordImpl() throws Exception {
+        
+        final RecordImpl dataset = new RecordImpl("dataset");
+        dataset.addField("project", "CMIP5");
+        dataset.addField("model", "model1");
+        final SharedFields shared = new SharedFields(dataset.getFields());
+        
+        final Record[] records = new Record[] { new RecordImpl("file"), new CompactRecordImpl("file") };
+        for (final Record record : records) {
+            record.setType("File");
+            record.addField("variable", "tas");
+            record.addField("url", "http://example.com/tas.nc|application/netcdf|HTTPServer");
+            record.addField("variable", "pr");
+            record.addField("url", "   "); // ignored
+            record.addEmptyField("variable_units");
+            record.addField("model", "model2");
+            record.setParentFields(shared);
+            record.addField("project", "CMIP6");
+            record.setLatest(true);
+            record.setLatest(false);
+            record.setField("size", Arrays.asList("100", "200"));
+            record.setField("size", "300");
+            record.setVersion(2);
+        }
+        
+        Assert.assertEquals(records[0].getFields(), records[1].getFields());
+        Assert.assertEquals(records[0].toString(), records[1].toString());
+        Assert.assertEquals(Arrays.asList("tas", "pr"), records[1].getFieldValues("variable"));
+        Assert.assertEquals(Arrays.asList(""), records[1].getFieldValues("variable_units"));
+        Assert.assertEquals(Arrays.asList("CMIP5", "CMIP6"), records[1].getFieldValues("project"));
+        Assert.assertEquals("model2", records[1].getFieldValue("model"));
+        Assert.assertEquals("File", records[1].getType());
+        Assert.assertFalse(records[1].isLatest());
+        Assert.assertNull(records[1].getFieldValue("missing"));
+        Assert.assertSame(Collections.emptyList(), records[1].getFieldValues("missing"));
+        Assert.assertEquals(2, records[1].getVersion());
+        
+    }
+    
+    /**
+     * Tests the serialization of a {@link CompactRecordImpl}, which stores field names as identifiers.
+     */
+    @Test
+    public void testSerialization() throws Exception {
+        
+        final CompactRecordImpl record = new CompactRecordImpl("file");
+        record.addField("variable", "tas");
+        record.addField("variable", "pr");
+        record.setLatest(true);
+        
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(record);
+        out.close();
+        final Record _record = (Record)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        
+        Assert.assertEquals("file", _record.getId());
+        Assert.assertEquals(record.getFields(), _record.getFields());
+        
+    }
+
+}
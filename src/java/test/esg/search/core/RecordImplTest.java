@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link RecordImpl} with {@link SharedFields}.
+ */
+public class RecordImplTest {
+    
+    /**
+     * Tests that a record sees the shared fields merged with its own fields,
+     * and that changes to the record never modify the shared fields.
+     */
+    @Test
+    public void testParentFields() {
+        
+        final RecordImpl dataset = new RecordImpl("dataset");
+        dataset.addField("project", "CMIP5");
+        dataset.addField("model", "model1");
+        dataset.addField("xlink", "http://example.com/doc");
+        final SharedFields shared = new SharedFields(dataset.getFields(), "xlink");
+        
+        final RecordImpl file1 = new RecordImpl("file1");
+        file1.addField("model", "model2");
+        file1.setParentFields(shared);
+        final RecordImpl file2 = new RecordImpl("file2");
+        file2.setParentFields(shared);
+        
+        // own fields override shared fields, excluded fields are not shared
+        Assert.assertEquals("model2", file1.getFieldValue("model"));
+        Assert.assertEquals("CMIP5", file1.getFieldValue("project"));
+        Assert.assertNull(file1.getFieldValue("xlink"));
+        Assert.assertEquals("{model=[model2], project=[CMIP5]}", file1.getFields().toString());
+        Assert.assertEquals("{model=[model1], project=[CMIP5]}", file2.getFields().toString());
+        
+        // adding values to a shared field copies it into the record
+        file2.addField("project", "CMIP6");
+        file2.setLatest(true);
+        Assert.assertEquals(Arrays.asList("CMIP5", "CMIP6"), file2.getFieldValues("project"));
+        Assert.assertEquals(Arrays.asList("CMIP5"), file1.getFieldValues("project"));
+        Assert.assertEquals(Arrays.asList("CMIP5"), shared.get("project"));
+        Assert.assertNull(file1.getFieldValue("latest"));
+        
+        // the shared fields are a snapshot of the parent record
+        dataset.addField("size", "100");
+        Assert.assertNull(file2.getFieldValue("size"));
+        
+    }
+    
+    /**
+     * Tests the merged view of the own and shared fields: keys are ordered, own fields override shared fields,
+     * and later changes to the record are visible through the view.
+     */
+    @Test
+    public void testMergedFields() {
+        
+        final RecordImpl dataset = new RecordImpl("dataset");
+        dataset.addField("b", "shared b");
+        dataset.addField("d", "shared d");
+        dataset.addField("f", "shared f");
+        
+        final RecordImpl file = new RecordImpl("file");
+        file.addField("a", "own a");
+        file.addField("d", "own d");
+        file.addField("g", "own g");
+        file.setParentFields(new SharedFields(dataset.getFields()));
+        
+        final Map<String, List<String>> fields = file.getFields();
+        Assert.assertEquals(Arrays.asList("a", "b", "d", "f", "g"), new ArrayList<String>(fields.keySet()));
+        Assert.assertEquals(5, fields.size());
+        Assert.assertEquals(Arrays.asList("own d"), fields.get("d"));
+        Assert.assertEquals(Arrays.asList("shared f"), fields.get("f"));
+        Assert.assertTrue(fields.containsKey("b"));
+        Assert.assertFalse(fields.containsKey("c"));
+        
+        file.addField("c", "own c");
+        Assert.assertEquals(Arrays.asList("a", "b", "c", "d", "f", "g"), new ArrayList<String>(fields.keySet()));
+        
+        try {
+            fields.put("e", Arrays.asList("e"));
+            Assert.fail("The merged fields must be read-only");
+        } catch(UnsupportedOperationException e) {
+            // expected
+        }
+        
+    }
+
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import esg.search.query.api.QueryParameters;
+
+/**
+ * Benchmark that compares the heap footprint of {@link RecordImpl} and {@link CompactRecordImpl}
+ * for records similar to the dataset and file records harvested from THREDDS catalogs.
+ * 
+ * Usage: java esg.search.core.RecordMemoryBenchmark [number of records]
+ */
+public class RecordMemoryBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        
+        final int numberOfRecords = (args.length>0 ? Integer.parseInt(args[0]) : 100000);
+        System.out.println("Records="+numberOfRecords);
+        
+        for (final boolean dataset : new boolean[] { true, false }) {
+            for (final boolean compact : new boolean[] { false, true }) {
+                RecordFactory.getInstance().setCompact(compact);
+                
+                final long startBytes = getUsedHeap();
+                final List<Record> records = new ArrayList<Record>(numberOfRecords);
+                for (int i=0; i<numberOfRecords; i++) {
+                    records.add(dataset ? buildDataset(i) : buildFile(i));
+                }
+                final long bytes = (getUsedHeap() - startBytes - 4L*numberOfRecords)/numberOfRecords; // minus the list slots
+                
+                System.out.println("  "+(dataset ? "Dataset" : "File")+" records, "
+                                  +(compact ? CompactRecordImpl.class : RecordImpl.class).getSimpleName()+": "
+                                  +bytes+" bytes per record");
+                records.clear();
+            }
+        }
+        RecordFactory.getInstance().setCompact(false);
+        
+    }
+    
+    private static long getUsedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i=0; i<5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    /**
+     * Method to build a top-level dataset record with many multi-valued fields.
+     * Values that are the same for all records are literals, hence shared as in a real crawl.
+     */
+    private static Record buildDataset(final int i) {
+        
+        final String id = "cmip5.output1.INM.inmcm4.rcp45.mon.atmos.Amon.r"+i+"i1p1";
+        final Record record = RecordFactory.getInstance().newRecord(id+".v20110323|esgf-node.llnl.gov");
+        record.setVersion(20110323);
+        record.setMasterId(id);
+        record.setInstanceId(id+".v20110323");
+        record.setType(QueryParameters.TYPE_DATASET);
+        record.setReplica(false);
+        record.setLatest(true);
+        record.setField(QueryParameters.FIELD_DATA_NODE, "esgf-node.llnl.gov");
+        record.addField(QueryParameters.FIELD_TITLE, "INM inmcm4 model output prepared for CMIP5 RCP4.5, ensemble member "+i);
+        record.addField(QueryParameters.FIELD_URL, "http://esgf-node.llnl.gov/thredds/catalog/esgcet/1/"+id+".v20110323.xml#"+id+"|application/xml+thredds|THREDDS");
+        record.addField(QueryParameters.FIELD_URL, "http://esgf-node.llnl.gov/las/getUI.do?catid="+id+"|application/las|LAS");
+        record.addField(QueryParameters.FIELD_TIMESTAMP, "2011-03-23T12:45:00Z");
+        for (final String facet : new String[] { "project=CMIP5", "product=output1", "institute=INM", "model=inmcm4",
+                                                 "experiment=rcp45", "time_frequency=mon", "realm=atmos", "cmor_table=Amon",
+                                                 "ensemble=r1i1p1", "format=netCDF, CF-1.4", "metadata_format=THREDDS",
+                                                 "access=HTTPServer", "access=GridFTP", "access=OPENDAP" }) {
+            final int j = facet.indexOf('=');
+            record.addField(facet.substring(0, j), facet.substring(j+1));
+        }
+        for (final String variable : new String[] { "tas", "pr", "psl", "ua", "va", "ta", "hus", "zg", "huss", "uas", "vas", "ts", "clt", "rlut", "rsut" }) {
+            record.addField("variable", variable);
+            record.addField("cf_standard_name", "standard_name_of_"+variable);
+            record.addField("variable_long_name", "Long Name of "+variable);
+            record.addField("variable_units", "K");
+        }
+        record.addField("size", Long.toString(1000000000L+i));
+        record.addField("number_of_files", "45");
+        record.addField("number_of_aggregations", "15");
+        record.addField("datetime_start", "2006-01-16T12:00:00Z");
+        record.addField("datetime_stop", "2100-12-16T12:00:00Z");
+        record.addField("north_degrees", "90.0");
+        record.addField("south_degrees", "-90.0");
+        record.addField("east_degrees", "358.0");
+        record.addField("west_degrees", "0.0");
+        return record;
+        
+    }
+    
+    /**
+     * Method to build a file record, as returned by a search for files.
+     */
+    private static Record buildFile(final int i) {
+        
+        final String id = "cmip5.output1.INM.inmcm4.rcp45.mon.atmos.Amon.r1i1p1.v20110323.tas_Amon_"+i+".nc";
+        final Record record = RecordFactory.getInstance().newRecord(id+"|esgf-node.llnl.gov");
+        record.setVersion(1);
+        record.setMasterId(id);
+        record.setInstanceId(id);
+        record.setType(QueryParameters.TYPE_FILE);
+        record.setReplica(false);
+        record.setLatest(true);
+        record.setField(QueryParameters.FIELD_DATA_NODE, "esgf-node.llnl.gov");
+        record.addField(QueryParameters.FIELD_TITLE, "tas_Amon_inmcm4_rcp45_r1i1p1_"+i+".nc");
+        record.addField(QueryParameters.FIELD_DATASET_ID, "cmip5.output1.INM.inmcm4.rcp45.mon.atmos.Amon.r1i1p1.v20110323|esgf-node.llnl.gov");
+        record.addField("project", "CMIP5");
+        record.addField("model", "inmcm4");
+        record.addField("experiment", "rcp45");
+        record.addField("variable", "tas");
+        record.addField("cf_standard_name", "air_temperature");
+        record.addField("variable_long_name", "Near-Surface Air Temperature");
+        record.addField("variable_units", "K");
+        record.addField("size", Integer.toString(1000000+i));
+        record.addField("checksum", Integer.toHexString(i*31+17)+"8f5c0d3a7e1b2c4d6e8f0a1b2c3d4e5f");
+        record.addField("checksum_type", "MD5");
+        record.addField(QueryParameters.FIELD_URL, "http://esgf-node.llnl.gov/thredds/fileServer/cmip5/tas_"+i+".nc|application/netcdf|HTTPServer");
+        record.addField(QueryParameters.FIELD_URL, "gsiftp://esgf-node.llnl.gov:2811//cmip5/tas_"+i+".nc|application/gridftp|GridFTP");
+        record.addField(QueryParameters.FIELD_TIMESTAMP, "2011-03-23T12:45:00Z");
+        return record;
+        
+    }
+
+}
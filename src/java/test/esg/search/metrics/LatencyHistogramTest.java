@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.metrics;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import esg.search.metrics.SearchMetrics.Phase;
+
+/**
+ * Test class for {@link LatencyHistogram} and {@link SearchMetrics}.
+ */
+public class LatencyHistogramTest {
+    
+    /**
+     * Tests that the estimated percentiles are within 20% of the exact values.
+     */
+    @Test
+    public void testPercentiles() {
+        
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0.0, histogram.getPercentile(50));
+        
+        // 1..1000 milliseconds
+        for (int i=1; i<=1000; i++) histogram.record(i*1000000L);
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(500.5, histogram.getMean(), 0.001);
+        Assert.assertEquals(1000.0, histogram.getMax(), 0.001);
+        
+        checkPercentile(500, histogram.getPercentile(50));
+        checkPercentile(900, histogram.getPercentile(90));
+        checkPercentile(990, histogram.getPercentile(99));
+        Assert.assertEquals(1000.0, histogram.getPercentile(100), 0.001);
+        
+    }
+    
+    /**
+     * Tests that latencies are recorded separately by phase, type and distrib.
+     */
+    @Test
+    public void testMetrics() {
+        
+        final SearchMetrics metrics = SearchMetrics.getInstance();
+        metrics.reset();
+        metrics.record(Phase.BACKEND, "Dataset", true, 5000000L);
+        metrics.record(Phase.BACKEND, "Dataset", true, 7000000L);
+        metrics.record(Phase.BACKEND, "Dataset", false, 1000000L);
+        metrics.record(Phase.BACKEND, "File", true, 1000000L);
+        metrics.record(Phase.VALIDATION, null, false, 10000L);
+        
+        Assert.assertEquals(4, metrics.getHistograms().size());
+        Assert.assertEquals(Phase.VALIDATION, metrics.getHistograms().keySet().iterator().next().getPhase());
+        Assert.assertEquals(4, metrics.getPercentiles().length);
+        Assert.assertTrue(metrics.getPercentiles()[1].startsWith("BACKEND type=Dataset distrib=false count=1"));
+        Assert.assertTrue(metrics.getPercentiles()[2].startsWith("BACKEND type=Dataset distrib=true count=2"));
+        metrics.reset();
+        
+    }
+    
+    private static void checkPercentile(final double expected, final double actual) {
+        Assert.assertTrue("expected="+expected+" actual="+actual, actual>=expected*0.8 && actual<=expected*1.2);
+    }
+
+}
@@ -0,0 +1,168 @@
+package esg.search.publish.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import esg.search.core.Record;
+import esg.search.core.RecordImpl;
+import esg.search.publish.api.PublishingException;
+import esg.search.publish.api.RecordConsumer;
+import esg.search.publish.validation.RecordValidator;
+
+public class PipelinedRecordProducerTest {
+    
+    /**
+     * Tests that all notified records are consumed by the time the producer is closed.
+     */
+    @Test
+    public void testConsume() throws Exception {
+        
+        final SlowConsumer consumer = new SlowConsumer(null);
+        final PublishingPipeline pipeline = new PublishingPipeline(2, 2, 3, new IdValidator());
+        final PipelinedRecordProducer producer = pipeline.open(Arrays.asList(new RecordConsumer[] { consumer }));
+        
+        for (int i=0; i<20; i++) {
+            producer.notify(Arrays.asList(new Record[] { new RecordImpl("a"+i), new RecordImpl("b"+i) }));
+        }
+        producer.notify(new RecordImpl("c"));
+        producer.close();
+        
+        Assert.assertEquals(41, consumer.ids.size());
+        Assert.assertTrue(consumer.ids.contains("c"));
+        Assert.assertEquals(41, pipeline.getValidationStatistics().getRecords());
+        Assert.assertEquals(41, pipeline.getIndexingStatistics().getRecords());
+        Assert.assertEquals(0, pipeline.getIndexingStatistics().getQueued());
+        
+    }
+    
+    /**
+     * Tests that the crawler thread is blocked when the consumers fall behind.
+     */
+    @Test
+    public void testBackpressure() throws Exception {
+        
+        final CountDownLatch release = new CountDownLatch(1);
+        final SlowConsumer consumer = new SlowConsumer(release);
+        final PublishingPipeline pipeline = new PublishingPipeline(1, 0, 1, null);
+        final PipelinedRecordProducer producer = pipeline.open(Arrays.asList(new RecordConsumer[] { consumer }));
+        
+        final CountDownLatch notified = new CountDownLatch(1);
+        final Thread crawler = new Thread() {
+            public void run() {
+                try {
+                    // one batch is being consumed, one is queued, the third one must wait
+                    for (int i=0; i<3; i++) producer.notify(new RecordImpl("a"+i));
+                    notified.countDown();
+                } catch(Exception e) {}
+            }
+        };
+        crawler.start();
+        
+        Assert.assertFalse(notified.await(300, TimeUnit.MILLISECONDS));
+        release.countDown();
+        Assert.assertTrue(notified.await(5, TimeUnit.SECONDS));
+        producer.close();
+        Assert.assertEquals(3, consumer.ids.size());
+        
+    }
+    
+    /**
+     * Tests that invalid records are not consumed, and reported when the producer is closed.
+     */
+    @Test
+    public void testValidationError() throws Exception {
+        
+        final SlowConsumer consumer = new SlowConsumer(null);
+        final PublishingPipeline pipeline = new PublishingPipeline(2, 1, 1, new IdValidator());
+        final PipelinedRecordProducer producer = pipeline.open(Arrays.asList(new RecordConsumer[] { consumer }));
+        
+        producer.notify(new RecordImpl("a"));
+        producer.notify(new RecordImpl("bad"));
+        producer.notify(new RecordImpl("b"));
+        try {
+            producer.close();
+            Assert.fail("Validation error not reported");
+        } catch(PublishingException e) {
+            Assert.assertTrue(e.getMessage().contains("1 batch"));
+        }
+        
+        Assert.assertEquals(Arrays.asList(new String[] { "a", "b" }), consumer.ids);
+        Assert.assertEquals(1, pipeline.getValidationStatistics().getErrors());
+        
+    }
+    
+    /**
+     * Tests that the crawler is not blocked forever when the indexing workers have terminated, 
+     * and that the records they did not consume are reported.
+     */
+    @Test(timeout=10000)
+    public void testWorkerTerminated() throws Exception {
+        
+        final RecordConsumer consumer = new RecordConsumer() {
+            public void consume(final Record record) throws Exception {
+                throw new AssertionError("Worker terminated");
+            }
+            public void consume(final Collection<Record> records) throws Exception {
+                throw new AssertionError("Worker terminated");
+            }
+        };
+        final PublishingPipeline pipeline = new PublishingPipeline(1, 0, 1, null);
+        final PipelinedRecordProducer producer = pipeline.open(Arrays.asList(new RecordConsumer[] { consumer }));
+        
+        try {
+            for (int i=0; i<5; i++) producer.notify(new RecordImpl("a"+i));
+            Assert.fail("Terminated workers not reported");
+        } catch(PublishingException e) {
+            Assert.assertTrue(e.getMessage().contains("terminated"));
+        }
+        try {
+            producer.close();
+            Assert.fail("Unprocessed records not reported");
+        } catch(PublishingException e) {}
+        
+    }
+    
+    /**
+     * Validator that rejects records with identifier "bad".
+     */
+    private static class IdValidator implements RecordValidator {
+        public void validate(final Record record, final List<String> errors) throws Exception {
+            if (record.getId().equals("bad")) errors.add("Invalid identifier: "+record.getId());
+        }
+    }
+    
+    /**
+     * Consumer that takes some time to process each record, 
+     * optionally waiting for a signal before processing the first one.
+     */
+    private static class SlowConsumer implements RecordConsumer {
+        
+        final List<String> ids = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch release;
+        
+        SlowConsumer(final CountDownLatch release) {
+            this.release = release;
+        }
+        
+        public void consume(final Record record) throws Exception {
+            if (release!=null) release.await();
+            Thread.sleep(5);
+            ids.add(record.getId());
+        }
+        
+        public void consume(final Collection<Record> records) throws Exception {
+            for (final Record record : records) consume(record);
+        }
+        
+    }
+
+}
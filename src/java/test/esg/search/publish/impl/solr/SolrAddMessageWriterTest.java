@@ -0,0 +1,79 @@
+package esg.search.publish.impl.solr;
+
+import java.io.StringWriter;
+import java.net.URI;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import esg.search.core.Record;
+import esg.search.core.RecordImpl;
+import esg.search.query.api.QueryParameters;
+
+/**
+ * Test class for {@link SolrAddMessageWriter}.
+ */
+public class SolrAddMessageWriterTest {
+    
+    /**
+     * Tests that the streamed add message is identical to the indented message built as an XML document,
+     * without the indentation.
+     */
+    @Test
+    public void testWriteDoc() throws Exception {
+        
+        final Record record = new RecordImpl("test id <&>");
+        record.setVersion(2);
+        record.setSchema(new URI("http://esgf.org/schema?a=1&b=%22x%22"));
+        record.addField(QueryParameters.FIELD_TITLE, "Title with \"quotes\", 'apostrophes' & <tags>");
+        record.addField(QueryParameters.FIELD_DESCRIPTION, "multi\nline\r\ntext\twith tab");
+        record.addField("property", "value A");
+        record.addField("property", "  leading and  trailing spaces ");
+        record.addField("property", " \n ");
+        record.addField("property", "");
+        record.addField("property", "non ascii: é中 😀");
+        
+        final StringWriter out = new StringWriter();
+        final SolrAddMessageWriter writer = new SolrAddMessageWriter(out);
+        writer.startAdd();
+        writer.writeDoc(record);
+        writer.endAdd();
+        
+        // the indented message uses CRLF line separators, also within the values, which XML parsers read as LF
+        final String expected = SolrMessageBuilder.buildAddMessage(record, true).trim().replace("\r\n", "\n").replaceAll(">\\s*\n\\s*<", "><");
+        Assert.assertEquals(expected, out.toString());
+        Assert.assertEquals(out.toString().length(), writer.getLength());
+        
+    }
+    
+    /**
+     * Tests that only the leading and trailing white space of the field values is removed,
+     * while embedded line breaks and repeated spaces are preserved.
+     */
+    @Test
+    public void testWhitespace() throws Exception {
+        
+        final Record record = new RecordImpl("test id");
+        record.addField(QueryParameters.FIELD_DESCRIPTION, " \n line one\n   line two  \t\n");
+        
+        final StringWriter out = new StringWriter();
+        new SolrAddMessageWriter(out).writeDoc(record);
+        
+        Assert.assertTrue(out.toString(), out.toString().contains("<field name=\"description\">line one\n   line two</field>"));
+        
+    }
+    
+    /**
+     * Tests that characters not allowed in XML are rejected.
+     */
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidCharacter() throws Exception {
+        
+        final Record record = new RecordImpl("test id");
+        record.addField(QueryParameters.FIELD_TITLE, "invalid \u0001 character");
+        new SolrAddMessageWriter(new StringWriter()).writeDoc(record);
+        
+    }
+
+}
@@ -0,0 +1,57 @@
+package esg.search.publish.impl.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.solr.client.solrj.request.JavaBinUpdateRequestCodec;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+
+import esg.search.core.Record;
+import esg.search.core.RecordImpl;
+import esg.search.query.api.QueryParameters;
+
+/**
+ * Test class for {@link SolrBinaryMessageBuilder}.
+ */
+public class SolrBinaryMessageBuilderTest {
+    
+    /**
+     * Tests that a range of records is written as a binary add message, 
+     * with the same (trimmed) field values as the XML add message.
+     */
+    @Test
+    public void testWriteAddMessage() throws Exception {
+        
+        final List<Record> records = new ArrayList<Record>();
+        for (int i=0; i<3; i++) {
+            final Record record = new RecordImpl("test id #"+i);
+            record.setVersion(i);
+            record.addField(QueryParameters.FIELD_TITLE, "Title with \"quotes\" & <tags>");
+            record.addField("property", "  leading and  trailing spaces ");
+            record.addField("property", "multi\nline\ttext");
+            records.add(record);
+        }
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SolrBinaryMessageBuilder.writeAddMessage(records, 1, 2, out);
+        
+        final UpdateRequest request = new JavaBinUpdateRequestCodec().unmarshal(new ByteArrayInputStream(out.toByteArray()), null);
+        final List<SolrInputDocument> docs = request.getDocuments();
+        Assert.assertEquals(2, docs.size());
+        
+        Assert.assertEquals("test id #1", docs.get(0).getFieldValue(QueryParameters.FIELD_ID));
+        Assert.assertEquals("1", docs.get(0).getFieldValue(QueryParameters.FIELD_VERSION));
+        Assert.assertEquals("Title with \"quotes\" & <tags>", docs.get(0).getFieldValue(QueryParameters.FIELD_TITLE));
+        Assert.assertEquals(Arrays.asList("leading and  trailing spaces", "multi\nline\ttext"), new ArrayList<Object>(docs.get(0).getFieldValues("property")));
+        Assert.assertEquals("test id #2", docs.get(1).getFieldValue(QueryParameters.FIELD_ID));
+        
+    }
+
+}
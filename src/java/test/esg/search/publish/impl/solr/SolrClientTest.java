@@ -0,0 +1,109 @@
+package esg.search.publish.impl.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for {@link SolrClient}: commits are sent to all cores of an embedded HTTP server (simulating Solr) in parallel.
+ */
+public class SolrClientTest {
+    
+    // time spent by a core to process a request
+    private final static long DELAY = 500;
+    
+    private HttpServer server;
+    
+    private ExecutorService executor;
+    
+    private SolrClient solrClient;
+    
+    // cores that do not respond in time, or respond with an error
+    private volatile String slowCore = "";
+    private volatile String failingCore = "";
+    
+    @Before
+    public void setup() throws Exception {
+        
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/solr", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                final InputStream in = exchange.getRequestBody();
+                while (in.read()>=0) {}
+                final String path = exchange.getRequestURI().getPath();
+                try {
+                    Thread.sleep(path.contains("/"+slowCore+"/") ? 10*DELAY : DELAY);
+                } catch(InterruptedException e) {}
+                final byte[] response = "<response/>".getBytes("UTF-8");
+                exchange.sendResponseHeaders(path.contains("/"+failingCore+"/") ? 500 : 200, response.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        solrClient = new SolrClient(new URL("http://127.0.0.1:"+server.getAddress().getPort()+"/solr"));
+        
+    }
+    
+    @After
+    public void teardown() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Tests that the commits of all cores are executed concurrently.
+     */
+    @Test
+    public void testParallelCommit() throws Exception {
+        
+        final long startTime = System.currentTimeMillis();
+        solrClient.commit();
+        final long elapsedTime = System.currentTimeMillis() - startTime;
+        Assert.assertTrue("elapsed time="+elapsedTime, elapsedTime < 2*DELAY);
+        
+    }
+    
+    /**
+     * Tests that the errors of all cores are reported, including the cores that did not respond before the deadline.
+     */
+    @Test
+    public void testErrors() throws Exception {
+        
+        slowCore = "files";
+        failingCore = "datasets";
+        solrClient.setCoreTimeout(2*DELAY);
+        
+        final long startTime = System.currentTimeMillis();
+        try {
+            solrClient.commit();
+            Assert.fail("Commit errors not reported");
+        } catch(IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Commit failed on 2 of 3 cores"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("core=datasets"));
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("core=files: no response within"));
+            Assert.assertEquals(1, e.getSuppressed().length);
+        }
+        final long elapsedTime = System.currentTimeMillis() - startTime;
+        Assert.assertTrue("elapsed time="+elapsedTime, elapsedTime < 5*DELAY);
+        
+    }
+
+}
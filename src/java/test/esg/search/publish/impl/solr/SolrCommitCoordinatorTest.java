@@ -0,0 +1,159 @@
+package esg.search.publish.impl.solr;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import esg.search.query.api.QueryParameters;
+
+/**
+ * Test class for {@link SolrCommitCoordinator}: concurrent callers wait for group commits
+ * sent to a stub Solr client, which blocks each commit until the test releases it.
+ */
+public class SolrCommitCoordinatorTest {
+
+    private final static int CALLERS = 20;
+
+    private final static long TIMEOUT = 30;
+
+    /**
+     * Number of commits received by the stub client.
+     */
+    private final AtomicInteger commits = new AtomicInteger(0);
+
+    /**
+     * Released by the stub client when a commit starts.
+     */
+    private final Semaphore started = new Semaphore(0);
+
+    /**
+     * Released by the test to let a commit complete.
+     */
+    private final Semaphore proceed = new Semaphore(0);
+
+    private ExecutorService executor;
+
+    private SolrCommitCoordinator coordinator;
+
+    @Before
+    public void setup() throws Exception {
+        executor = Executors.newFixedThreadPool(CALLERS+1);
+    }
+
+    @After
+    public void teardown() {
+        proceed.release(100);
+        executor.shutdownNow();
+        coordinator.shutdown();
+    }
+
+    /**
+     * Tests that all the callers that register while a commit is executing
+     * are covered by a single following commit.
+     */
+    @Test
+    public void testGroup() throws Exception {
+
+        coordinator = newCoordinator(60000, CALLERS);
+
+        // the first commit is immediate: block it
+        final List<Future<Void>> first = submit(1);
+        Assert.assertTrue(started.tryAcquire(TIMEOUT, TimeUnit.SECONDS));
+
+        // register all the other callers while the first commit is executing
+        final List<Future<Void>> group = submit(CALLERS);
+        while (coordinator.getPendingRecords(QueryParameters.TYPE_DATASET)<CALLERS) {
+            Thread.sleep(10);
+        }
+        for (final Future<Void> future : group) Assert.assertFalse(future.isDone());
+
+        // complete the first commit: only the first caller is released
+        proceed.release();
+        await(first);
+
+        // the pending callers reached the threshold: the second commit starts without waiting for the interval
+        Assert.assertTrue(started.tryAcquire(TIMEOUT, TimeUnit.SECONDS));
+        for (final Future<Void> future : group) Assert.assertFalse(future.isDone());
+        proceed.release();
+        await(group);
+
+        Assert.assertEquals(2, commits.get());
+        Assert.assertEquals(2, coordinator.getNumberOfCommits());
+        Assert.assertEquals(CALLERS+1, coordinator.getNumberOfCommitRequests());
+        Assert.assertEquals(0, coordinator.getPendingRecords(QueryParameters.TYPE_DATASET));
+
+    }
+
+    /**
+     * Tests that a commit is issued as soon as the number of pending records reaches the threshold,
+     * without waiting for the commit interval.
+     */
+    @Test
+    public void testThreshold() throws Exception {
+
+        coordinator = newCoordinator(60000, 5);
+        proceed.release(100);
+
+        // the first commit is immediate, the following one is issued when 5 records are pending
+        // (the interval is longer than the await timeout)
+        await(submit(1));
+        await(submit(5));
+        Assert.assertEquals(2, commits.get());
+
+    }
+
+    private SolrCommitCoordinator newCoordinator(final long interval, final int maxPending) throws Exception {
+
+        final SolrClient client = new SolrClient(new URL("http://localhost/solr")) {
+            @Override
+            public void commit(final String core) throws IOException {
+                commits.incrementAndGet();
+                started.release();
+                try {
+                    proceed.acquire();
+                } catch(InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        return new SolrCommitCoordinator(client, interval, maxPending);
+
+    }
+
+    /**
+     * Submits concurrent commit requests for one record each.
+     */
+    private List<Future<Void>> submit(final int callers) {
+
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i=0; i<callers; i++) {
+            futures.add( executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    coordinator.commit(QueryParameters.TYPE_DATASET, 1);
+                    return null;
+                }
+            }) );
+        }
+        return futures;
+
+    }
+
+    private void await(final List<Future<Void>> futures) throws Exception {
+        for (final Future<Void> future : futures) future.get(TIMEOUT, TimeUnit.SECONDS);
+    }
+
+}
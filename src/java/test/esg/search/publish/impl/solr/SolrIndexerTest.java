@@ -0,0 +1,218 @@
+package esg.search.publish.impl.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import esg.search.core.Record;
+import esg.search.core.RecordImpl;
+import esg.search.query.api.QueryParameters;
+import esg.search.publish.validation.RecordValidator;
+
+/**
+ * Test class for {@link SolrIndexer}: verifies that collections of records are sent to an embedded 
+ * HTTP server (simulating Solr) in batches, followed by a single commit.
+ */
+public class SolrIndexerTest {
+    
+    private HttpServer server;
+    
+    /**
+     * Messages received by the server, as "core: message".
+     */
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+    
+    /**
+     * Number of add messages not sent with chunked transfer encoding.
+     */
+    private final AtomicInteger unchunked = new AtomicInteger(0);
+    
+    private SolrIndexer indexer;
+    
+    @Before
+    public void setup() throws Exception {
+        
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/solr", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                final InputStream in = exchange.getRequestBody();
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int n;
+                while ((n=in.read(buffer))>=0) body.write(buffer, 0, n);
+                final String core = exchange.getRequestURI().getPath().split("/")[2];
+                messages.add(core+": "+body.toString("UTF-8"));
+                if (body.toString("UTF-8").startsWith("<add>") && !"chunked".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Transfer-Encoding"))) {
+                    unchunked.incrementAndGet();
+                }
+                final byte[] response = "<response/>".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+        
+        indexer = new SolrIndexer(new URL("http://127.0.0.1:"+server.getAddress().getPort()+"/solr"), new RecordValidator() {
+            public void validate(Record record, List<String> errors) throws Exception {}
+        });
+        indexer.setBatchSize(3);
+        
+    }
+    
+    @After
+    public void teardown() {
+        server.stop(0);
+    }
+    
+    /**
+     * Tests that 1 dataset and 7 files are indexed with 4 add messages (1 + 3 + 3 + 1),
+     * followed by a single commit to each core.
+     */
+    @Test
+    public void testBatches() throws Exception {
+        
+        final List<Record> records = new ArrayList<Record>();
+        records.add(newRecord("dataset", QueryParameters.TYPE_DATASET));
+        for (int i=0; i<7; i++) records.add(newRecord("file"+i, QueryParameters.TYPE_FILE));
+        
+        indexer.consume(records);
+        
+        int adds = 0, commits = 0, files = 0;
+        for (final String message : messages) {
+            if (message.contains("<add>")) {
+                adds++;
+                if (message.startsWith("files:")) files += message.split("<doc>").length-1;
+            } else if (message.contains("<commit")) {
+                commits++;
+            }
+        }
+        Assert.assertEquals(4, adds);
+        Assert.assertEquals(7, files);
+        Assert.assertEquals(0, unchunked.get());
+        Assert.assertEquals(3, commits); // one per core
+        
+        // commits are sent last
+        Assert.assertTrue(messages.get(messages.size()-3).contains("<commit"));
+        
+    }
+    
+    /**
+     * Tests that the maximum message size limits the number of records in each batch.
+     */
+    @Test
+    public void testBatchBytes() throws Exception {
+        
+        indexer.setBatchSize(100);
+        indexer.setBatchBytes(1); // one record per message
+        
+        final List<Record> records = new ArrayList<Record>();
+        for (int i=0; i<5; i++) records.add(newRecord("file"+i, QueryParameters.TYPE_FILE));
+        indexer.consume(records);
+        
+        int adds = 0;
+        for (final String message : messages) {
+            if (message.contains("<add>")) adds++;
+        }
+        Assert.assertEquals(5, adds);
+        
+    }
+    
+    /**
+     * Tests that multi-line values are indexed with their internal white space preserved,
+     * as when each record was sent as an indented message.
+     */
+    @Test
+    public void testMultiLineValue() throws Exception {
+        
+        final Record record = newRecord("dataset", QueryParameters.TYPE_DATASET);
+        record.addField(QueryParameters.FIELD_DESCRIPTION, "  line one\n   line two\n");
+        indexer.consume(Arrays.asList(new Record[] { record }));
+        
+        boolean found = false;
+        for (final String message : messages) {
+            if (message.contains("<add>")) found = message.contains(">line one\n   line two</field>");
+        }
+        Assert.assertTrue(messages.toString(), found);
+        
+    }
+    
+    /**
+     * Tests that, with a commit coordinator, a collection is committed only to the cores it was sent to,
+     * and the commits of concurrent single records are grouped.
+     */
+    @Test(timeout=30000)
+    public void testCommitCoordinator() throws Exception {
+        
+        final SolrCommitCoordinator coordinator = new SolrCommitCoordinator(new URL("http://127.0.0.1:"+server.getAddress().getPort()+"/solr"), 500, 1000);
+        indexer.setCommitCoordinator(coordinator);
+        try {
+            
+            final List<Record> records = new ArrayList<Record>();
+            records.add(newRecord("dataset", QueryParameters.TYPE_DATASET));
+            records.add(newRecord("file", QueryParameters.TYPE_FILE));
+            indexer.consume(records);
+            Assert.assertEquals(2, countCommits());
+            
+            messages.clear();
+            final ExecutorService executor = Executors.newFixedThreadPool(4);
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i=0; i<4; i++) {
+                final Record record = newRecord("dataset"+i, QueryParameters.TYPE_DATASET);
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        indexer.consume(record);
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) future.get();
+            executor.shutdown();
+            Assert.assertTrue(countCommits()<4);
+            
+        } finally {
+            coordinator.shutdown();
+        }
+        
+    }
+    
+    private int countCommits() {
+        int commits = 0;
+        synchronized (messages) {
+            for (final String message : messages) {
+                if (message.contains("<commit")) commits++;
+            }
+        }
+        return commits;
+    }
+    
+    private static Record newRecord(final String id, final String type) {
+        final Record record = new RecordImpl(id);
+        record.setType(type);
+        return record;
+    }
+
+}
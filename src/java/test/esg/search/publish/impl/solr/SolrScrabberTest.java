@@ -0,0 +1,93 @@
+package esg.search.publish.impl.solr;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import esg.search.publish.impl.MetadataDeletionServiceImpl;
+import esg.search.query.impl.solr.SolrXmlPars;
+
+/**
+ * Test class for {@link SolrScrabber}: records are removed by combined delete messages sent to all cores
+ * of an embedded HTTP server (simulating Solr), followed by a single commit of each core.
+ */
+public class SolrScrabberTest {
+    
+    private HttpServer server;
+    
+    // messages received by the server, in order
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+    
+    @Before
+    public void setup() throws Exception {
+        
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/solr", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                final InputStream in = exchange.getRequestBody();
+                messages.add(exchange.getRequestURI().getPath()+" "+IOUtils.toString(in, "UTF-8"));
+                final byte[] response = "<response/>".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+        
+    }
+    
+    @After
+    public void teardown() {
+        server.stop(0);
+    }
+    
+    /**
+     * Tests that a list of identifiers is removed with delete messages of the configured size, 
+     * and a single commit of each core.
+     */
+    @Test
+    public void testDelete() throws Exception {
+        
+        final SolrScrabber scrabber = new SolrScrabber(new URL("http://127.0.0.1:"+server.getAddress().getPort()+"/solr"));
+        scrabber.setBatchSize(2);
+        
+        final List<String> ids = new ArrayList<String>();
+        for (int i=0; i<5; i++) ids.add("id"+i);
+        new MetadataDeletionServiceImpl(scrabber).delete(ids);
+        
+        final int cores = SolrXmlPars.CORES.size();
+        Assert.assertEquals(4*cores, messages.size());
+        int deletes = 0;
+        for (final String message : messages) {
+            if (message.contains("<delete>")) {
+                deletes++;
+                Assert.assertTrue(message, message.contains("<id>id0</id>") || message.contains("<id>id2</id>") || message.contains("<id>id4</id>"));
+            } else {
+                Assert.assertTrue(message, message.contains("<commit"));
+            }
+        }
+        Assert.assertEquals(3*cores, deletes);
+        
+        // commits follow all deletes
+        for (int i=0; i<3*cores; i++) Assert.assertTrue(messages.get(i).contains("<delete>"));
+        
+    }
+
+}
@@ -0,0 +1,135 @@
+package esg.search.publish.thredds;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import esg.search.core.Record;
+import esg.search.core.RecordImpl;
+import esg.search.publish.impl.InMemoryStore;
+import esg.search.publish.impl.RecordProducerImpl;
+
+/**
+ * Test class for {@link CrawlJournal}: an interrupted crawl is resumed without publishing again the completed catalogs.
+ */
+public class CrawlJournalTest {
+    
+    private final static String FAILING_DATASET = "pcmdi.ipcc4.UKMO.ukmo_hadgem1.amip.mon.land.run2.v1|localhost";
+    
+    private ThreddsCrawler crawler;
+    private File journalFile;
+    private URI uri;
+    
+    @Before
+    public void setup() throws Exception {
+        crawler = new ThreddsCrawler(new ThreddsParserStrategyTopLevelDatasetImpl(), null); // no search service
+        journalFile = File.createTempFile("crawl", ".journal");
+        uri = new ClassPathResource("esg/search/publish/thredds/root_catalog.xml").getFile().toURI();
+    }
+    
+    @After
+    public void teardown() {
+        journalFile.delete();
+    }
+    
+    @Test
+    public void testResume() throws Exception {
+        
+        // first crawl: the records of one catalog cannot be indexed
+        final InMemoryStore consumer = new FailingStore();
+        crawl(consumer, false);
+        Assert.assertEquals(3, count("DONE"));
+        Assert.assertEquals(1, count("ERROR"));
+        Assert.assertFalse(consumer.getRecords().containsKey(FAILING_DATASET));
+        
+        // resumed crawl: only the failed catalog is published
+        final InMemoryStore _consumer = new InMemoryStore();
+        crawl(_consumer, true);
+        Assert.assertTrue(_consumer.getRecords().containsKey(FAILING_DATASET));
+        Assert.assertFalse(_consumer.getRecords().containsKey("pcmdi.ipcc4.UKMO.ukmo_hadgem1.amip.mon.land.run1.v1|localhost"));
+        Assert.assertEquals(4, count("DONE"));
+        
+        // nothing left to crawl
+        final InMemoryStore __consumer = new InMemoryStore();
+        crawl(__consumer, true);
+        Assert.assertTrue(__consumer.getRecords().isEmpty());
+        
+    }
+    
+    /**
+     * Tests that the records of a failed catalog are not attributed to another catalog
+     * that produces records with the same identifiers.
+     */
+    @Test
+    public void testFailed() throws Exception {
+        
+        final URI failed = new URI("http://localhost/thredds/failed.xml");
+        final URI crawled = new URI("http://localhost/thredds/crawled.xml");
+        final Record record = new RecordImpl("dataset.v1|localhost");
+        
+        final CrawlJournal journal = new CrawlJournal(journalFile, false, true);
+        try {
+            journal.produced(failed, Arrays.asList(new Record[] { record }));
+            journal.failed(failed);
+            journal.produced(crawled, Arrays.asList(new Record[] { record }));
+            journal.crawled(crawled);
+            journal.consume(record);
+        } finally {
+            journal.close();
+        }
+        
+        final CrawlJournal _journal = new CrawlJournal(journalFile, true, true);
+        _journal.close();
+        Assert.assertTrue(_journal.isCompleted(crawled));
+        Assert.assertFalse(_journal.isCompleted(failed));
+        
+    }
+    
+    private void crawl(final InMemoryStore consumer, boolean resume) throws Exception {
+        
+        final CrawlJournal journal = new CrawlJournal(journalFile, resume, true);
+        final RecordProducerImpl producer = new RecordProducerImpl();
+        producer.subscribe(consumer);
+        producer.subscribe(journal); // last consumer
+        crawler.setJournal(journal);
+        try {
+            crawler.crawl(uri, null, true, producer, true, null);
+        } finally {
+            journal.close();
+        }
+        
+    }
+    
+    private int count(final String type) throws Exception {
+        int n = 0;
+        for (final String line : FileUtils.readLines(journalFile)) {
+            if (line.startsWith(type)) n++;
+        }
+        return n;
+    }
+    
+    /**
+     * Consumer that fails to store the records of a given dataset.
+     */
+    private static class FailingStore extends InMemoryStore {
+        
+        @Override
+        public void consume(final Collection<Record> records) throws Exception {
+            for (final Record record : records) {
+                if (record.getId().equals(FAILING_DATASET)) throw new Exception("Cannot index record: "+record.getId());
+            }
+            super.consume(records);
+        }
+        
+    }
+
+}
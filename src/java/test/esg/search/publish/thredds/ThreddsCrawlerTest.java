@@ -19,16 +19,35 @@
 package esg.search.publish.thredds;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.Assert;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.core.io.ClassPathResource;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 import esg.search.core.Record;
+import esg.search.publish.api.MetadataRepositoryCrawlerListener;
+import esg.search.publish.api.RecordConsumer;
 import esg.search.publish.impl.InMemoryStore;
 import esg.search.publish.impl.RecordProducerImpl;
 
@@ -77,4 +96,343 @@ public class ThreddsCrawlerTest {
 		Assert.assertEquals(1,records.get("pcmdi.ipcc4.UKMO.ukmo_hadgem1.amip.mon.land.run2.v1|localhost").getVersion());
 	}
 
+	/**
+	 * Tests that each catalog is crawled only once, when catalogs reference each other.
+	 * @throws Exception
+	 */
+	@Test
+	public void crawlCycle() throws Exception {
+		
+		String localPath = new ClassPathResource("esg/search/publish/thredds/cycle_catalog.xml").getFile().getAbsolutePath();
+		if (localPath.charAt(0) != '/') {
+			localPath = "/" + localPath.replace(File.separatorChar, '/');
+		}
+		final URI uri = new URI( "file://" + localPath );
+		final CountingListener listener = new CountingListener();
+		threddsHarvester.setListener(listener);
+		threddsHarvester.setConnectionsPerHost(2);
+		threddsHarvester.setChunkSize(4); // files are published in chunks
+		threddsHarvester.crawl(uri, null, true, producer, true, null);
+		
+		// cycle_catalog.xml, root_catalog.xml and its three nested catalogs
+		Assert.assertEquals(5, listener.successes.size());
+		Assert.assertEquals(5, new HashSet<String>(listener.successes).size());
+		Assert.assertEquals(38, consumer.getRecords().size());
+		
+	}
+	
+	/**
+	 * Tests that unchanged catalogs are skipped by an incremental crawl, while changed catalogs are published again.
+	 * @throws Exception
+	 */
+	@Test
+	public void crawlIncremental() throws Exception {
+		
+		// copy the catalogs to a temporary directory, so that they can be modified
+		final File dir = File.createTempFile("catalogs", "");
+		dir.delete();
+		dir.mkdir();
+		for (final String name : new String[] { "root_catalog.xml", "catalog.xml", "catalog_new_version.xml", "another_catalog.xml" }) {
+			FileUtils.copyFile(new ClassPathResource("esg/search/publish/thredds/"+name).getFile(), new File(dir, name));
+		}
+		final URI uri = new File(dir, "root_catalog.xml").toURI();
+		final File stateFile = new File(dir, "crawl.state");
+		
+		// first crawl: all catalogs are published
+		CrawlState state = CrawlState.load(stateFile);
+		threddsHarvester.setCrawlState(state);
+		threddsHarvester.crawl(uri, null, true, producer, true, null);
+		state.save(stateFile);
+		Assert.assertEquals(4, state.getReprocessed());
+		Assert.assertEquals(38, consumer.getRecords().size());
+		
+		// second crawl: no catalog is published
+		final InMemoryStore _consumer = new InMemoryStore();
+		producer.setConsumers(Arrays.asList(new RecordConsumer[] { _consumer }));
+		state = CrawlState.load(stateFile);
+		threddsHarvester.setCrawlState(state);
+		threddsHarvester.crawl(uri, null, true, producer, true, null);
+		state.save(stateFile);
+		Assert.assertEquals(0, state.getReprocessed());
+		Assert.assertEquals(4, state.getSkipped());
+		Assert.assertTrue(_consumer.getRecords().isEmpty());
+		
+		// modify one catalog
+		final File catalog = new File(dir, "another_catalog.xml");
+		FileUtils.writeStringToFile(catalog, FileUtils.readFileToString(catalog)+"\n");
+		
+		// third crawl: only the modified catalog is published
+		state = CrawlState.load(stateFile);
+		threddsHarvester.setCrawlState(state);
+		threddsHarvester.crawl(uri, null, true, producer, true, null);
+		Assert.assertEquals(1, state.getReprocessed());
+		Assert.assertEquals(3, state.getSkipped());
+		Assert.assertTrue(_consumer.getRecords().containsKey("pcmdi.ipcc4.UKMO.ukmo_hadgem1.amip.mon.land.run2.v1|localhost"));
+		Assert.assertFalse(_consumer.getRecords().containsKey("pcmdi.ipcc4.UKMO.ukmo_hadgem1.amip.mon.land.run1.v1|localhost"));
+		
+		FileUtils.deleteDirectory(dir);
+		
+	}
+	
+	/**
+	 * Tests that the state of the catalogs that are no longer crawled is not saved.
+	 * @throws Exception
+	 */
+	@Test
+	public void crawlPruneState() throws Exception {
+		
+		final File dir = File.createTempFile("catalogs", "");
+		dir.delete();
+		dir.mkdir();
+		for (final String name : new String[] { "root_catalog.xml", "catalog.xml", "catalog_new_version.xml", "another_catalog.xml" }) {
+			FileUtils.copyFile(new ClassPathResource("esg/search/publish/thredds/"+name).getFile(), new File(dir, name));
+		}
+		final URI uri = new File(dir, "root_catalog.xml").toURI();
+		final URI removed = new File(dir, "another_catalog.xml").toURI();
+		final File stateFile = new File(dir, "crawl.state");
+		
+		CrawlState state = CrawlState.load(stateFile);
+		threddsHarvester.setCrawlState(state);
+		threddsHarvester.crawl(uri, null, true, producer, true, null);
+		state.save(stateFile);
+		Assert.assertNotNull(CrawlState.load(stateFile).get(removed));
+		
+		// remove the reference to one catalog
+		final File root = new File(dir, "root_catalog.xml");
+		final List<String> lines = new ArrayList<String>();
+		for (final String line : FileUtils.readLines(root)) {
+			if (!line.contains("another_catalog.xml")) lines.add(line);
+		}
+		FileUtils.writeLines(root, lines);
+		
+		state = CrawlState.load(stateFile);
+		threddsHarvester.setCrawlState(state);
+		threddsHarvester.crawl(uri, null, true, producer, true, null);
+		state.save(stateFile);
+		state = CrawlState.load(stateFile);
+		Assert.assertNotNull(state.get(uri));
+		Assert.assertNull(state.get(removed));
+		
+		FileUtils.deleteDirectory(dir);
+		
+	}
+	
+	/**
+	 * Tests that an incremental crawl sends the validators of the previous crawl,
+	 * and skips a catalog that the server reports as not modified.
+	 * @throws Exception
+	 */
+	@Test(timeout=30000)
+	public void crawlNotModified() throws Exception {
+		
+		final byte[] catalog = FileUtils.readFileToByteArray(new ClassPathResource("esg/search/publish/thredds/catalog.xml").getFile());
+		final AtomicInteger notModified = new AtomicInteger(0);
+		final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/thredds/catalog.xml", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				exchange.getResponseHeaders().add("ETag", "\"v1\"");
+				if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+				} else {
+					exchange.sendResponseHeaders(200, catalog.length);
+					final OutputStream out = exchange.getResponseBody();
+					out.write(catalog);
+					out.close();
+				}
+			}
+		});
+		server.start();
+		
+		try {
+			final URI uri = new URI("http://localhost:"+server.getAddress().getPort()+"/thredds/catalog.xml");
+			final CrawlState state = new CrawlState();
+			threddsHarvester.setCrawlState(state);
+			threddsHarvester.crawl(uri, null, true, producer, true, null);
+			Assert.assertEquals("\"v1\"", state.get(uri).getEtag());
+			Assert.assertEquals(0, notModified.get());
+			Assert.assertFalse(consumer.getRecords().isEmpty());
+			
+			final InMemoryStore _consumer = new InMemoryStore();
+			producer.setConsumers(Arrays.asList(new RecordConsumer[] { _consumer }));
+			threddsHarvester.crawl(uri, null, true, producer, true, null);
+			Assert.assertEquals(1, notModified.get());
+			Assert.assertEquals(1, state.getSkipped());
+			Assert.assertTrue(_consumer.getRecords().isEmpty());
+		} finally {
+			server.stop(0);
+		}
+		
+	}
+	
+	/**
+	 * Tests that a catalog server that does not respond causes the crawl to fail after the read timeout.
+	 * @throws Exception
+	 */
+	@Test(timeout=30000)
+	public void crawlReadTimeout() throws Exception {
+		
+		final CountDownLatch latch = new CountDownLatch(1);
+		final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/thredds/catalog.xml", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				try {
+					latch.await();
+				} catch(InterruptedException e) {
+					throw new IOException(e);
+				}
+			}
+		});
+		server.start();
+		
+		try {
+			threddsHarvester.setReadTimeout(500);
+			threddsHarvester.crawl(new URI("http://localhost:"+server.getAddress().getPort()+"/thredds/catalog.xml"), null, true, producer, true, null);
+			Assert.fail("The crawl should have timed out");
+		} catch(IOException e) {
+			// expected
+		} finally {
+			latch.countDown();
+			server.stop(0);
+		}
+		
+	}
+	
+	/**
+	 * Tests that the nested catalogs are fetched concurrently from the same host:
+	 * each request is held until three requests are in flight at the same time.
+	 * @throws Exception
+	 */
+	@Test
+	public void crawlConcurrently() throws Exception {
+		
+		final CatalogServer server = new CatalogServer(6, new CountDownLatch(3));
+		try {
+			threddsHarvester.setThreads(8);
+			threddsHarvester.setConnectionsPerHost(4);
+			threddsHarvester.crawl(server.getRootURI(), null, true, producer, true, null);
+		} finally {
+			server.stop();
+		}
+		
+		Assert.assertEquals(6, server.requests.get());
+		Assert.assertEquals(0, server.timeouts.get());
+		Assert.assertTrue(server.maxInFlight.get()>=3);
+		
+	}
+	
+	/**
+	 * Tests that no more than the configured number of catalogs are fetched at the same time from the same host,
+	 * even if more threads are available.
+	 * @throws Exception
+	 */
+	@Test
+	public void crawlConnectionsPerHost() throws Exception {
+		
+		// each request is held until two requests are in flight, so that the limit is reached
+		final CatalogServer server = new CatalogServer(6, new CountDownLatch(2));
+		try {
+			threddsHarvester.setThreads(8);
+			threddsHarvester.setConnectionsPerHost(2);
+			threddsHarvester.crawl(server.getRootURI(), null, true, producer, true, null);
+		} finally {
+			server.stop();
+		}
+		
+		Assert.assertEquals(6, server.requests.get());
+		Assert.assertEquals(0, server.timeouts.get());
+		Assert.assertEquals(2, server.maxInFlight.get());
+		Assert.assertFalse(consumer.getRecords().isEmpty());
+		
+	}
+	
+	/**
+	 * Embedded HTTP server that serves a root catalog referencing a number of nested catalogs,
+	 * and records the maximum number of nested catalogs requested at the same time.
+	 */
+	private static class CatalogServer {
+		
+		final HttpServer server;
+		final ExecutorService executor = Executors.newCachedThreadPool();
+		
+		final AtomicInteger requests = new AtomicInteger(0);
+		final AtomicInteger inFlight = new AtomicInteger(0);
+		final AtomicInteger maxInFlight = new AtomicInteger(0);
+		final AtomicInteger timeouts = new AtomicInteger(0);
+		
+		CatalogServer(final int nested, final CountDownLatch latch) throws Exception {
+			
+			final byte[] catalog = FileUtils.readFileToByteArray(new ClassPathResource("esg/search/publish/thredds/catalog.xml").getFile());
+			final StringBuilder root = new StringBuilder();
+			root.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+			    .append("<catalog xmlns=\"http://www.unidata.ucar.edu/namespaces/thredds/InvCatalog/v1.0\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" name=\"root\" version=\"1.0.1\">\n");
+			for (int i=0; i<nested; i++) {
+				root.append("<catalogRef xlink:href=\"./nested/catalog"+i+".xml\" xlink:title=\"catalog"+i+"\" name=\"\" />\n");
+			}
+			root.append("</catalog>\n");
+			final byte[] rootCatalog = root.toString().getBytes("UTF-8");
+			
+			server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+			server.setExecutor(executor);
+			server.createContext("/thredds/catalog.xml", new HttpHandler() {
+				public void handle(final HttpExchange exchange) throws IOException {
+					send(exchange, rootCatalog);
+				}
+			});
+			server.createContext("/thredds/nested/", new HttpHandler() {
+				public void handle(final HttpExchange exchange) throws IOException {
+					requests.incrementAndGet();
+					final int n = inFlight.incrementAndGet();
+					synchronized (maxInFlight) {
+						if (n>maxInFlight.get()) maxInFlight.set(n);
+					}
+					try {
+						latch.countDown();
+						if (!latch.await(10, TimeUnit.SECONDS)) timeouts.incrementAndGet();
+					} catch(InterruptedException e) {
+						throw new IOException(e);
+					} finally {
+						// before the response, so that the crawler cannot start another request first
+						inFlight.decrementAndGet();
+					}
+					send(exchange, catalog);
+				}
+			});
+			server.start();
+			
+		}
+		
+		URI getRootURI() throws Exception {
+			return new URI("http://localhost:"+server.getAddress().getPort()+"/thredds/catalog.xml");
+		}
+		
+		void stop() {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+		
+		private void send(final HttpExchange exchange, final byte[] bytes) throws IOException {
+			exchange.sendResponseHeaders(200, bytes.length);
+			final OutputStream out = exchange.getResponseBody();
+			out.write(bytes);
+			out.close();
+		}
+		
+	}
+	
+	private static class CountingListener implements MetadataRepositoryCrawlerListener {
+		
+		final List<String> successes = new ArrayList<String>();
+		
+		public void beforeCrawling(String uri) {}
+		
+		public void afterCrawlingSuccess(String uri) {
+			successes.add(uri);
+		}
+		
+		public void afterCrawlingError(String uri) {}
+		
+	}
+
 }
@@ -0,0 +1,77 @@
+package esg.search.publish.thredds;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.ArrayList;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.core.io.ClassPathResource;
+
+import thredds.catalog.InvCatalog;
+import thredds.catalog.InvCatalogFactory;
+import thredds.catalog.InvDataset;
+
+/**
+ * Benchmark that compares the time to parse a large THREDDS dataset serially 
+ * and with increasing numbers of fork-join threads (see {@link ThreddsParserStrategyTopLevelDatasetImpl#setThreads(int)}).
+ * The catalog is built by replicating the first file of the test catalog.
+ * Note that a speedup can only be observed on a host with more than one core.
+ * 
+ * Usage: java esg.search.publish.thredds.ThreddsParserBenchmark [number of files] [maximum number of threads]
+ */
+public class ThreddsParserBenchmark {
+    
+    private final static int ITERATIONS = 10;
+    
+    public static void main(String[] args) throws Exception {
+        
+        final int numberOfFiles = (args.length>0 ? Integer.parseInt(args[0]) : 20000);
+        final int maxThreads = (args.length>1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors());
+        System.out.println("Files="+numberOfFiles+" cores="+Runtime.getRuntime().availableProcessors());
+        
+        final InvDataset dataset = buildDataset(numberOfFiles);
+        for (int threads=1; threads<=Math.max(maxThreads, 1); threads*=2) {
+            
+            final ThreddsParserStrategyTopLevelDatasetImpl parser = new ThreddsParserStrategyTopLevelDatasetImpl();
+            parser.setThreads(threads);
+            try {
+                // warm up
+                for (int i=0; i<ITERATIONS; i++) parser.parseDataset(dataset, true, new ArrayList<URI>(), null);
+                long best = Long.MAX_VALUE;
+                for (int i=0; i<ITERATIONS; i++) {
+                    final long startTime = System.currentTimeMillis();
+                    parser.parseDataset(dataset, true, new ArrayList<URI>(), null);
+                    best = Math.min(best, System.currentTimeMillis()-startTime);
+                }
+                System.out.println("  threads="+threads+": best time="+best+" ms");
+            } finally {
+                parser.shutdown();
+            }
+            
+        }
+        
+    }
+    
+    /**
+     * Method to build a top-level dataset containing the given number of files.
+     */
+    private static InvDataset buildDataset(final int numberOfFiles) throws Exception {
+        
+        final String xml = FileUtils.readFileToString(new ClassPathResource("esg/search/publish/thredds/catalog.xml").getFile(), "UTF-8");
+        final int start = xml.indexOf("<dataset name=\"mrfso_A1.nc\"");
+        final int end = xml.indexOf("</dataset>", start) + "</dataset>".length();
+        final String file = xml.substring(start, end);
+        
+        final StringBuilder sb = new StringBuilder(xml.substring(0, start));
+        for (int i=0; i<numberOfFiles; i++) {
+            sb.append(file.replace("mrfso_A1.nc", "mrfso_A"+i+".nc")).append('\n');
+        }
+        sb.append("</dataset>\n</catalog>\n");
+        
+        final InvCatalogFactory factory = new InvCatalogFactory("default", true); // validate=true
+        final InvCatalog catalog = factory.readXML(new ByteArrayInputStream(sb.toString().getBytes("UTF-8")), new URI("http://localhost/thredds/catalog.xml"));
+        return catalog.getDatasets().get(0);
+        
+    }
+
+}
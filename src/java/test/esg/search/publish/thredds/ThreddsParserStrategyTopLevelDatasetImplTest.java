@@ -104,5 +104,78 @@ public class ThreddsParserStrategyTopLevelDatasetImplTest {
 		Assert.assertTrue(fields.get("variable").contains("mrso"));	
 		
 	}
+	
+	/**
+	 * Tests the parsing of a {@link InvDataset} object into chunks of records,
+	 * with the top-level dataset record sent last.
+	 */
+	@Test
+	public void testParseDatasetInChunks() throws Exception {
+	    
+	    final InvCatalogFactory factory = new InvCatalogFactory("default", true); // validate=true
+        final InvCatalog catalog = factory.readXML( XMLFILE.getURI() );
+        final InvDataset dataset = catalog.getDatasets().get(0);
+        ThreddsParserStrategy parser = new ThreddsParserStrategyTopLevelDatasetImpl();
+        final List<Record> expected = parser.parseDataset(dataset, true, new ArrayList<URI>(), null);
+        
+        final List<Record> started = new ArrayList<Record>();
+        final List<Integer> sizes = new ArrayList<Integer>();
+        final List<Record> records = new ArrayList<Record>();
+        parser.parseDataset(dataset, true, new ArrayList<URI>(), null, 4, new ThreddsRecordHandler() {
+            @Override
+            public void startDataset(Record record) {
+                Assert.assertTrue(records.isEmpty());
+                started.add(record);
+            }
+            @Override
+            public void handleRecords(List<Record> chunk, boolean last) {
+                Assert.assertFalse(sizes.size()<3 && last);
+                sizes.add(chunk.size());
+                records.addAll(chunk);
+            }
+        });
+        
+        // 15 files and aggregations in chunks of 4, followed by the top-level dataset
+        Assert.assertEquals("[4, 4, 4, 4]", sizes.toString());
+        Assert.assertEquals(expected.size(), records.size());
+        final Record record = records.get(records.size()-1);
+        Assert.assertSame(started.get(0), record);
+        Assert.assertEquals(expected.get(0).getId(), record.getId());
+        Assert.assertEquals(expected.get(0).getFields(), record.getFields());
+        for (int i=1; i<expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getId(), records.get(i-1).getId());
+            Assert.assertEquals(record.getId(), records.get(i-1).getFieldValue("dataset_id"));
+        }
+	    
+	}
+	
+	/**
+	 * Tests that parsing the sibling datasets in parallel produces the same records, in the same order, as parsing serially.
+	 */
+	@Test
+	public void testParseDatasetInParallel() throws Exception {
+	    
+	    final InvCatalogFactory factory = new InvCatalogFactory("default", true); // validate=true
+        final InvCatalog catalog = factory.readXML( XMLFILE.getURI() );
+        final InvDataset dataset = catalog.getDatasets().get(0);
+        final List<Record> expected = new ThreddsParserStrategyTopLevelDatasetImpl().parseDataset(dataset, true, new ArrayList<URI>(), null);
+        
+        final ThreddsParserStrategyTopLevelDatasetImpl parser = new ThreddsParserStrategyTopLevelDatasetImpl();
+        parser.setThreads(4);
+        parser.setParallelThreshold(1); // one task for each sibling dataset
+        try {
+            for (int i=0; i<10; i++) {
+                final List<Record> records = parser.parseDataset(dataset, true, new ArrayList<URI>(), null);
+                Assert.assertEquals(expected.size(), records.size());
+                for (int j=0; j<expected.size(); j++) {
+                    Assert.assertEquals(expected.get(j).getId(), records.get(j).getId());
+                    Assert.assertEquals(expected.get(j).getFields(), records.get(j).getFields());
+                }
+            }
+        } finally {
+            parser.shutdown();
+        }
+	    
+	}
 
 }
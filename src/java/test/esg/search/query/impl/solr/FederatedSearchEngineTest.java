@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executors;
+
+import junit.framework.Assert;
+
+import org.jdom.Attribute;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.xpath.XPath;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import esg.search.query.api.QueryParameters;
+import esg.search.query.api.SearchInput;
+import esg.search.utils.XmlParser;
+
+/**
+ * Test class for {@link FederatedSearchEngine}: queries two fast shards and one slow shard,
+ * served by an embedded HTTP server.
+ */
+public class FederatedSearchEngineTest {
+    
+    private final static String SHARD1 = "<response><result name=\"response\" numFound=\"2\" start=\"0\">"
+                                       + "<doc><float name=\"score\">0.5</float><str name=\"id\">a</str></doc>"
+                                       + "<doc><float name=\"score\">0.1</float><str name=\"id\">c</str></doc>"
+                                       + "</result><lst name=\"facet_counts\"><lst name=\"facet_fields\"><lst name=\"project\">"
+                                       + "<int name=\"CMIP5\">2</int>"
+                                       + "</lst></lst></lst></response>";
+    
+    private final static String SHARD2 = "<response><result name=\"response\" numFound=\"2\" start=\"0\">"
+                                       + "<doc><float name=\"score\">0.9</float><str name=\"id\">b</str></doc>"
+                                       + "<doc><float name=\"score\">0.4</float><str name=\"id\">a</str></doc>"
+                                       + "</result><lst name=\"facet_counts\"><lst name=\"facet_fields\"><lst name=\"project\">"
+                                       + "<int name=\"CMIP5\">1</int><int name=\"obs4MIPs\">1</int>"
+                                       + "</lst></lst></lst></response>";
+    
+    private HttpServer server;
+    private FederatedSearchEngine engine;
+    private String host;
+    
+    @Before
+    public void setup() throws Exception {
+        
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/shard1/", new ShardHandler(SHARD1, 0));
+        server.createContext("/shard2/", new ShardHandler(SHARD2, 0));
+        server.createContext("/slow/", new ShardHandler(SHARD2, 5000));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        host = "localhost:"+server.getAddress().getPort();
+        engine = new FederatedSearchEngine(10, 10);
+        
+    }
+    
+    @After
+    public void teardown() {
+        server.stop(0);
+        engine.shutdown();
+    }
+    
+    /**
+     * Tests merging of results and facets from all shards.
+     */
+    @Test
+    public void testMerge() throws Exception {
+        
+        final Document doc = query(new String[] { host+"/shard1", host+"/shard2" });
+        
+        // documents sorted by score, duplicate "a" removed
+        Assert.assertEquals("3", select(doc, "/response/result/@numFound"));
+        Assert.assertEquals("b", select(doc, "/response/result/doc[1]/str[@name='id']"));
+        Assert.assertEquals("a", select(doc, "/response/result/doc[2]/str[@name='id']"));
+        Assert.assertEquals("c", select(doc, "/response/result/doc[3]/str[@name='id']"));
+        
+        // score was not requested
+        Assert.assertNull(XPath.selectSingleNode(doc, "/response/result/doc/float[@name='score']"));
+        
+        // facet counts are summed
+        Assert.assertEquals("3", select(doc, "//lst[@name='facet_fields']/lst[@name='project']/int[@name='CMIP5']"));
+        Assert.assertEquals("1", select(doc, "//lst[@name='facet_fields']/lst[@name='project']/int[@name='obs4MIPs']"));
+        
+        // complete results
+        Assert.assertNull(XPath.selectSingleNode(doc, "/response/lst[@name='responseHeader']/bool[@name='partialResults']"));
+        
+    }
+    
+    /**
+     * Tests that the merged facet values are trimmed to the facet limit, keeping the highest counts.
+     */
+    @Test
+    public void testFacetLimit() throws Exception {
+        
+        engine.setFacetLimit(1);
+        final Document doc = query(new String[] { host+"/shard1", host+"/shard2" });
+        Assert.assertEquals(1, XPath.selectNodes(doc, "//lst[@name='facet_fields']/lst[@name='project']/int").size());
+        Assert.assertEquals("3", select(doc, "//lst[@name='facet_fields']/lst[@name='project']/int[@name='CMIP5']"));
+        
+    }
+    
+    /**
+     * Tests that a slow shard is reported and left out of the results, without failing the request.
+     */
+    @Test
+    public void testPartialResults() throws Exception {
+        
+        final long startTime = System.currentTimeMillis();
+        final Document doc = query(new String[] { host+"/shard1", host+"/slow" });
+        Assert.assertTrue(System.currentTimeMillis()-startTime < 5000);
+        
+        Assert.assertEquals("2", select(doc, "/response/result/@numFound"));
+        Assert.assertEquals("true", select(doc, "/response/lst[@name='responseHeader']/bool[@name='partialResults']"));
+        Assert.assertEquals(host+"/slow", select(doc, "/response/lst[@name='responseHeader']/arr[@name='failedShards']/str"));
+        Assert.assertEquals(1, engine.getNumberOfShardTimeouts());
+        
+        // the deadline does not depend on the read timeout of the query type, if configured
+        Assert.assertEquals(3600000, engine.getDeadline(3600000));
+        engine.setDeadline(1000);
+        Assert.assertEquals(1000, engine.getDeadline(3600000));
+        
+    }
+    
+    private Document query(final String[] shards) throws Exception {
+        
+        final SearchInput input = new SearchInputImpl(QueryParameters.TYPE_DATASET);
+        final SolrUrlBuilder builder = new SolrUrlBuilder(new URL("http://localhost:8983/solr"));
+        builder.setSearchInput(input);
+        builder.setDefaultShards(new LinkedHashSet<String>(Arrays.asList(shards)));
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        engine.query(builder, input, 1000, 1000, out);
+        return new XmlParser(false).parseString(out.toString("UTF-8"));
+        
+    }
+    
+    private String select(final Document doc, final String xpath) throws Exception {
+        final Object node = XPath.selectSingleNode(doc, xpath);
+        return (node instanceof Element ? ((Element)node).getTextTrim() : ((Attribute)node).getValue());
+    }
+    
+    /**
+     * Handler that returns a fixed Solr response after a delay.
+     */
+    private static class ShardHandler implements HttpHandler {
+        
+        private final byte[] response;
+        private final long delay;
+        
+        ShardHandler(final String response, final long delay) throws IOException {
+            this.response = response.getBytes("UTF-8");
+            this.delay = delay;
+        }
+        
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                Thread.sleep(delay);
+            } catch(InterruptedException e) {}
+            exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=UTF-8");
+            exchange.sendResponseHeaders(200, response.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(response);
+            out.close();
+        }
+        
+    }
+
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link QueryCache}.
+ */
+public class QueryCacheTest {
+    
+    private final static byte[] RESPONSE = new byte[] { 1, 2, 3, 4 };
+    
+    /**
+     * Tests eviction of the least recently used entries when the maximum number of entries is exceeded.
+     */
+    @Test
+    public void testMaxEntries() {
+        
+        final QueryCache cache = new QueryCache(2, 1000, 60000, 60000);
+        cache.put("a", RESPONSE, false, cache.getGeneration());
+        cache.put("b", RESPONSE, false, cache.getGeneration());
+        Assert.assertNotNull(cache.get("a")); // "b" is now the least recently used
+        cache.put("c", RESPONSE, false, cache.getGeneration());
+        
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(3, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        
+    }
+    
+    /**
+     * Tests eviction of entries when the maximum total size is exceeded.
+     */
+    @Test
+    public void testMaxBytes() {
+        
+        final QueryCache cache = new QueryCache(100, 10, 60000, 60000);
+        cache.put("a", RESPONSE, false, cache.getGeneration());
+        cache.put("b", RESPONSE, false, cache.getGeneration());
+        cache.put("c", RESPONSE, false, cache.getGeneration());
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertEquals(8, cache.getBytes());
+        Assert.assertNull(cache.get("a"));
+        
+        // responses larger than the whole cache are never stored
+        cache.put("d", new byte[11], false, cache.getGeneration());
+        Assert.assertNull(cache.get("d"));
+        
+        // responses larger than the per-entry limit are never stored
+        final QueryCache cache2 = new QueryCache(100, 1000, 60000, 60000, 5);
+        Assert.assertEquals(5, cache2.getMaxEntryBytes());
+        cache2.put("a", RESPONSE, false, cache2.getGeneration());
+        cache2.put("b", new byte[6], false, cache2.getGeneration());
+        Assert.assertNotNull(cache2.get("a"));
+        Assert.assertNull(cache2.get("b"));
+        
+    }
+    
+    /**
+     * Tests separate time-to-live values for distributed and local queries.
+     */
+    @Test
+    public void testTtl() throws Exception {
+        
+        final QueryCache cache = new QueryCache(100, 1000, 1, 60000);
+        Assert.assertTrue(cache.isEnabled(true));
+        cache.put("distrib", RESPONSE, true, cache.getGeneration());
+        cache.put("local", RESPONSE, false, cache.getGeneration());
+        Thread.sleep(10);
+        Assert.assertNull(cache.get("distrib"));
+        Assert.assertNotNull(cache.get("local"));
+        
+        // caching of local queries disabled
+        final QueryCache cache2 = new QueryCache(100, 1000, 60000, 0);
+        Assert.assertFalse(cache2.isEnabled(false));
+        cache2.put("local", RESPONSE, false, cache2.getGeneration());
+        Assert.assertNull(cache2.get("local"));
+        
+    }
+    
+    /**
+     * Tests global invalidation, and that responses obtained before an invalidation are discarded.
+     */
+    @Test
+    public void testInvalidation() {
+        
+        final QueryCache cache = new QueryCache(100, 1000, 60000, 60000);
+        cache.put("a", RESPONSE, false, cache.getGeneration());
+        final long generation = cache.getGeneration();
+        
+        QueryCache.invalidateAll();
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals(0, cache.getBytes());
+        
+        cache.put("b", RESPONSE, false, generation);
+        Assert.assertNull(cache.get("b"));
+        
+    }
+
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link QueryCoalescer}.
+ */
+public class QueryCoalescerTest {
+    
+    private final static String KEY = "http://localhost:8983/solr/datasets/select?q=*#text/xml";
+    
+    /**
+     * Tests that concurrent requests for the same key receive the response of the first one.
+     */
+    @Test
+    public void testCoalescing() throws Exception {
+        
+        final QueryCoalescer coalescer = new QueryCoalescer(1000);
+        
+        // the first request executes the query
+        Assert.assertNull(coalescer.join(KEY));
+        Assert.assertEquals(1, coalescer.getQueriesInProgress());
+        
+        // the following requests wait for it
+        final ExecutorService executor = Executors.newFixedThreadPool(5);
+        final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+        for (int i=0; i<5; i++) {
+            final QueryCoalescer.Flight flight = coalescer.join(KEY);
+            Assert.assertNotNull(flight);
+            futures.add( executor.submit(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return flight.await(10000);
+                }
+            }) );
+        }
+        
+        coalescer.complete(KEY, "<response/>".getBytes("UTF-8"));
+        for (final Future<byte[]> future : futures) {
+            Assert.assertEquals("<response/>", new String(future.get(), "UTF-8"));
+        }
+        executor.shutdown();
+        
+        Assert.assertEquals(1, coalescer.getNumberOfQueries());
+        Assert.assertEquals(5, coalescer.getNumberOfCoalescedRequests());
+        Assert.assertEquals(0, coalescer.getQueriesInProgress());
+        
+        // a completed query is not shared with later requests
+        Assert.assertNull(coalescer.join(KEY));
+        
+    }
+    
+    /**
+     * Tests that waiting requests do not receive a response if the first one failed.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        
+        final QueryCoalescer coalescer = new QueryCoalescer(1000);
+        Assert.assertNull(coalescer.join(KEY));
+        final QueryCoalescer.Flight flight = coalescer.join(KEY);
+        coalescer.complete(KEY, null);
+        Assert.assertNull(flight.await(1000));
+        Assert.assertEquals(1, coalescer.getNumberOfFallbacks());
+        Assert.assertEquals(0, coalescer.getNumberOfCoalescedRequests());
+        
+    }
+
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for {@link ReplicationMonitor}: the index versions are served by an embedded HTTP server
+ * (simulating the replication handler of a Solr slave).
+ */
+public class ReplicationMonitorTest {
+    
+    private HttpServer server;
+    
+    /**
+     * Index version returned for the "datasets" core.
+     */
+    private final AtomicLong version = new AtomicLong(1);
+    
+    private ReplicationMonitor monitor;
+    
+    @Before
+    public void setup() throws Exception {
+        
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/solr", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                final boolean datasets = exchange.getRequestURI().getPath().equals("/solr/datasets/replication");
+                final byte[] response = ("<response><long name=\"indexversion\">"+(datasets ? version.get() : 0)+"</long>"
+                                        +"<long name=\"generation\">1</long></response>").getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.start();
+        monitor = new ReplicationMonitor(new URL("http://127.0.0.1:"+server.getAddress().getPort()+"/solr"), 0);
+        
+    }
+    
+    @After
+    public void teardown() {
+        monitor.shutdown();
+        server.stop(0);
+    }
+    
+    /**
+     * Tests that the query caches are invalidated only when the index version of a core changes.
+     */
+    @Test
+    public void testInvalidation() {
+        
+        final QueryCache cache = new QueryCache(100, 1000, 60000, 60000);
+        final long generation = cache.getGeneration();
+        
+        // first poll: the versions are only recorded
+        monitor.poll();
+        monitor.poll();
+        Assert.assertEquals(generation, cache.getGeneration());
+        Assert.assertEquals(0, monitor.getNumberOfInvalidations());
+        
+        // new version replicated
+        version.incrementAndGet();
+        monitor.poll();
+        Assert.assertTrue(cache.getGeneration() > generation);
+        Assert.assertEquals(1, monitor.getNumberOfInvalidations());
+        
+    }
+    
+    /**
+     * Tests that a server without replication handler is ignored.
+     */
+    @Test
+    public void testUnavailable() throws Exception {
+        
+        Assert.assertEquals("1", monitor.getIndexVersion("datasets"));
+        server.stop(0);
+        Assert.assertNull(monitor.getIndexVersion("datasets"));
+        monitor.poll();
+        Assert.assertEquals(0, monitor.getNumberOfInvalidations());
+        
+    }
+
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import esg.search.query.api.QueryParameters;
+import esg.search.query.api.SearchReturnType;
+
+/**
+ * Test class for the streaming {@link SearchServiceImpl#query(esg.search.query.api.SearchInput, SearchReturnType, OutputStream)} method,
+ * against an embedded HTTP server simulating Solr.
+ */
+public class SearchServiceImplTest {
+    
+    private final static String RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response><result name=\"response\" numFound=\"0\" start=\"0\"/></response>\n";
+    
+    private HttpServer server;
+    
+    private SearchServiceImpl searchService;
+    
+    /**
+     * Number of requests received by the server.
+     */
+    private final AtomicInteger requests = new AtomicInteger(0);
+    
+    /**
+     * Number of initial requests that fail before the response is sent.
+     */
+    private int failures = 0;
+    
+    /**
+     * True to fail all requests after part of the response has been sent.
+     */
+    private boolean partial = false;
+    
+    @Before
+    public void setup() throws Exception {
+        
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/solr/datasets/select/", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                
+                final InputStream in = exchange.getRequestBody();
+                while (in.read()>=0);
+                final int n = requests.incrementAndGet();
+                final byte[] bytes = RESPONSE.getBytes("UTF-8");
+                
+                if (n<=failures) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                } else if (partial) {
+                    // chunked response, interrupted after the first part
+                    exchange.sendResponseHeaders(200, 0);
+                    final OutputStream out = exchange.getResponseBody();
+                    out.write(bytes, 0, 10);
+                    out.flush();
+                    throw new IOException("Connection interrupted");
+                } else {
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    final OutputStream out = exchange.getResponseBody();
+                    out.write(bytes);
+                    out.close();
+                }
+                
+            }
+        });
+        server.start();
+        
+        searchService = new SearchServiceImpl(new URL("http://localhost:"+server.getAddress().getPort()+"/solr"));
+        
+    }
+    
+    @After
+    public void teardown() {
+        server.stop(0);
+    }
+    
+    /**
+     * Tests that the Solr response is copied unchanged to the output stream.
+     */
+    @Test(timeout=10000)
+    public void testStream() throws Exception {
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        searchService.query(new SearchInputImpl(QueryParameters.TYPE_DATASET), SearchReturnType.SOLR_XML, out);
+        Assert.assertEquals(RESPONSE, out.toString("UTF-8"));
+        Assert.assertEquals(1, requests.get());
+        
+    }
+    
+    /**
+     * Tests that a query that failed before any byte was written is re-tried.
+     */
+    @Test(timeout=10000)
+    public void testRetry() throws Exception {
+        
+        failures = 1;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        searchService.query(new SearchInputImpl(QueryParameters.TYPE_DATASET), SearchReturnType.SOLR_XML, out);
+        Assert.assertEquals(RESPONSE, out.toString("UTF-8"));
+        Assert.assertEquals(2, requests.get());
+        
+    }
+    
+    /**
+     * Tests that a query that failed after part of the response was written is not re-tried.
+     */
+    @Test(timeout=10000)
+    public void testPartialResponse() throws Exception {
+        
+        partial = true;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            searchService.query(new SearchInputImpl(QueryParameters.TYPE_DATASET), SearchReturnType.SOLR_XML, out);
+            Assert.fail("The interrupted response should have been reported");
+        } catch(IOException e) {
+            // expected
+        }
+        Assert.assertEquals(RESPONSE.substring(0, 10), out.toString("UTF-8"));
+        Assert.assertEquals(1, requests.get());
+        
+    }
+    
+    /**
+     * Tests that the buffered query re-tries until it succeeds, discarding any partial response.
+     */
+    @Test(timeout=10000)
+    public void testBuffered() throws Exception {
+        
+        failures = 2;
+        Assert.assertEquals(RESPONSE, searchService.query(new SearchInputImpl(QueryParameters.TYPE_DATASET), SearchReturnType.SOLR_XML));
+        Assert.assertEquals(3, requests.get());
+        
+    }
+
+}
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import esg.search.query.impl.solr.ShardHealthMonitor.State;
+
+/**
+ * Test class for {@link ShardHealthMonitor}.
+ */
+public class ShardHealthMonitorTest {
+    
+    private final static String SHARD1 = "localhost:8983/solr";
+    private final static String SHARD2 = "remotehost:8983/solr";
+    
+    private final static long RETRY_INTERVAL = 200;
+    
+    private ShardHealthMonitor monitor;
+    
+    @Before
+    public void setup() {
+        // background probing is never started
+        monitor = new ShardHealthMonitor(null, 0, 2, RETRY_INTERVAL, 1);
+    }
+    
+    @After
+    public void teardown() {
+        monitor.shutdown();
+    }
+    
+    /**
+     * Tests the circuit transitions: CLOSED -> OPEN -> HALF_OPEN -> OPEN -> HALF_OPEN -> CLOSED
+     */
+    @Test
+    public void testCircuit() throws Exception {
+        
+        final Set<String> shards = new LinkedHashSet<String>(Arrays.asList(SHARD1, SHARD2));
+        
+        // unknown shards are available
+        Assert.assertEquals(shards, monitor.getAvailableShards(shards));
+        
+        // one failure does not open the circuit
+        monitor.recordFailure(SHARD2);
+        Assert.assertEquals(State.CLOSED, monitor.getState(SHARD2));
+        Assert.assertEquals(2, monitor.getAvailableShards(shards).size());
+        
+        // a success resets the count of consecutive failures
+        monitor.recordSuccess(SHARD2, 10);
+        monitor.recordFailure(SHARD2);
+        Assert.assertEquals(State.CLOSED, monitor.getState(SHARD2));
+        
+        // two consecutive failures open the circuit
+        monitor.recordFailure(SHARD2);
+        Assert.assertEquals(State.OPEN, monitor.getState(SHARD2));
+        Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList(SHARD1)), monitor.getAvailableShards(shards));
+        Assert.assertEquals(1, monitor.getNumberOfUnavailableShards());
+        
+        // the shard is tried again after the retry interval, a single failure opens the circuit again
+        Thread.sleep(RETRY_INTERVAL+50);
+        Assert.assertEquals(State.HALF_OPEN, monitor.getState(SHARD2));
+        Assert.assertEquals(shards, monitor.getAvailableShards(shards));
+        monitor.recordFailure(SHARD2);
+        Assert.assertEquals(State.OPEN, monitor.getState(SHARD2));
+        
+        // a success closes the circuit
+        Thread.sleep(RETRY_INTERVAL+50);
+        monitor.recordSuccess(SHARD2, 20);
+        Assert.assertEquals(State.CLOSED, monitor.getState(SHARD2));
+        Assert.assertEquals(shards, monitor.getAvailableShards(shards));
+        
+    }
+    
+    /**
+     * Tests the moving averages of latency and error rate.
+     */
+    @Test
+    public void testStatistics() {
+        
+        monitor.recordSuccess(SHARD1, 100);
+        Assert.assertEquals(100.0, monitor.getShardHealth().get(SHARD1).getLatency(), 0.001);
+        Assert.assertEquals(0.0, monitor.getShardHealth().get(SHARD1).getErrorRate(), 0.001);
+        
+        monitor.recordSuccess(SHARD1, 200);
+        final double latency = monitor.getShardHealth().get(SHARD1).getLatency();
+        Assert.assertTrue(latency>100 && latency<200);
+        
+        monitor.recordFailure(SHARD1);
+        Assert.assertTrue(monitor.getShardHealth().get(SHARD1).getErrorRate()>0);
+        Assert.assertEquals(1, monitor.getShardHealth().get(SHARD1).getFailures());
+        Assert.assertEquals(2, monitor.getShardHealth().get(SHARD1).getSuccesses());
+        Assert.assertEquals(1, monitor.getHealthTable().length);
+        
+    }
+
+    /**
+     * Tests that the shards are probed in parallel: each shard only responds 
+     * once all shards have received their probe (or fails after the probe read timeout).
+     */
+    @Test
+    public void testParallelProbes() throws Exception {
+        
+        final CountDownLatch inFlight = new CountDownLatch(2);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                inFlight.countDown();
+                try {
+                    inFlight.await(10, TimeUnit.SECONDS);
+                } catch(InterruptedException e) {
+                    throw new IOException(e);
+                }
+                final byte[] response = ("<response><lst name=\"responseHeader\"><int name=\"QTime\">1</int></lst>"
+                                        +"<result name=\"response\" numFound=\"0\" start=\"0\"/></response>").getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                final OutputStream out = exchange.getResponseBody();
+                out.write(response);
+                out.close();
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        
+        final ShardHealthMonitor monitor2 = new ShardHealthMonitor(null, 0, 2, RETRY_INTERVAL, 2);
+        try {
+            final String host = "127.0.0.1:"+server.getAddress().getPort();
+            monitor2.probe(new LinkedHashSet<String>(Arrays.asList(host+"/shard1", host+"/shard2")));
+            Assert.assertEquals(1, monitor2.getShardHealth().get(host+"/shard1").getSuccesses());
+            Assert.assertEquals(1, monitor2.getShardHealth().get(host+"/shard2").getSuccesses());
+        } finally {
+            monitor2.shutdown();
+            server.stop(0);
+        }
+        
+    }
+
+}
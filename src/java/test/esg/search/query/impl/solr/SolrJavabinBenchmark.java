@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.springframework.core.io.ClassPathResource;
+
+import esg.search.core.Record;
+import esg.search.core.RecordImpl;
+import esg.search.publish.impl.solr.SolrAddMessageWriter;
+import esg.search.publish.impl.solr.SolrBinaryMessageBuilder;
+import esg.search.query.api.QueryParameters;
+import esg.search.query.api.SearchInput;
+
+/**
+ * Benchmark that compares the Solr/XML and javabin formats for the two kinds of traffic between esg-search and Solr:
+ * - updates: serialization of a list of records as an add message (XML with {@link SolrAddMessageWriter}, 
+ *   javabin with {@link SolrBinaryMessageBuilder})
+ * - queries: parsing of a response into a search output (XML with {@link SolrXmlStreamParser}, 
+ *   javabin with {@link SolrJavabinParser}); the javabin response is converted from the response.xml test fixture,
+ *   replicated to the requested number of documents.
+ * For each format, the benchmark reports the CPU time per message and the number of bytes on the wire.
+ * 
+ * Usage: java esg.search.query.impl.solr.SolrJavabinBenchmark [number of documents] [number of iterations]
+ */
+public class SolrJavabinBenchmark {
+    
+    private final static ClassPathResource XMLFILE = new ClassPathResource("esg/search/query/impl/solr/response.xml");
+    
+    public static void main(String[] args) throws Exception {
+        
+        final int numberOfDocs = (args.length>0 ? Integer.parseInt(args[0]) : 10000);
+        final int numberOfIterations = (args.length>1 ? Integer.parseInt(args[1]) : 20);
+        
+        // updates
+        final List<Record> records = buildRecords(numberOfDocs);
+        System.out.println("Update: records="+numberOfDocs);
+        benchmarkUpdate("xml", records, false, numberOfIterations);
+        benchmarkUpdate("javabin", records, true, numberOfIterations);
+        
+        // queries
+        final String xml = SolrXmlParserBenchmark.buildResponse(FileUtils.readFileToString( XMLFILE.getFile() ), numberOfDocs);
+        final byte[] xmlBytes = xml.getBytes("UTF-8");
+        final byte[] javabinBytes = SolrJavabinParserTest.toJavabin(xml);
+        System.out.println("Query: documents="+numberOfDocs);
+        final SearchInput input = new SearchInputImpl(QueryParameters.DEFAULT_TYPE);
+        final SolrXmlParser xmlParser = new SolrXmlStreamParser();
+        final SolrJavabinParser javabinParser = new SolrJavabinParser(xmlParser);
+        for (int n=0; n<2; n++) {
+            
+            // first pass warms up
+            final boolean binary = (n==1);
+            long startTime = 0;
+            for (int i=0; i<2*numberOfIterations; i++) {
+                if (i==numberOfIterations) startTime = System.nanoTime();
+                if (binary) {
+                    javabinParser.parse(new ByteArrayInputStream(javabinBytes), input);
+                } else {
+                    xmlParser.parse(new ByteArrayInputStream(xmlBytes), input);
+                }
+            }
+            print(binary ? "javabin" : "xml", (System.nanoTime()-startTime)/numberOfIterations, binary ? javabinBytes.length : xmlBytes.length);
+            
+        }
+        
+    }
+    
+    private static void benchmarkUpdate(final String format, final List<Record> records, final boolean binary, final int numberOfIterations) throws Exception {
+        
+        long startTime = 0;
+        long bytes = 0;
+        for (int i=0; i<2*numberOfIterations; i++) {
+            if (i==numberOfIterations) startTime = System.nanoTime();
+            final CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+            if (binary) {
+                SolrBinaryMessageBuilder.writeAddMessage(records, 0, records.size(), out);
+            } else {
+                final Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 8192);
+                final SolrAddMessageWriter message = new SolrAddMessageWriter(writer);
+                message.startAdd();
+                for (final Record record : records) message.writeDoc(record);
+                message.endAdd();
+            }
+            bytes = out.getByteCount();
+        }
+        print(format, (System.nanoTime()-startTime)/numberOfIterations, bytes);
+        
+    }
+    
+    private static void print(final String format, final long elapsedTime, final long bytes) {
+        System.out.println("  "+format+": time="+(elapsedTime/1000000.0)+" msecs bytes="+bytes+" per message");
+    }
+    
+    /**
+     * Method to build file records similar to those harvested from THREDDS catalogs.
+     */
+    private static List<Record> buildRecords(final int numberOfRecords) {
+        
+        final List<Record> records = new ArrayList<Record>(numberOfRecords);
+        for (int i=0; i<numberOfRecords; i++) {
+            final Record record = new RecordImpl("cmip5.output1.INM.inmcm4.rcp45.mon.atmos.Amon.r1i1p1.v20110323.tas_Amon_"+i+".nc|esgf-node.llnl.gov");
+            record.setVersion(1);
+            record.addField(QueryParameters.FIELD_TYPE, QueryParameters.TYPE_FILE);
+            record.addField(QueryParameters.FIELD_TITLE, "tas_Amon_inmcm4_rcp45_r1i1p1_"+i+".nc");
+            record.addField(QueryParameters.FIELD_DATASET_ID, "cmip5.output1.INM.inmcm4.rcp45.mon.atmos.Amon.r1i1p1.v20110323|esgf-node.llnl.gov");
+            record.addField("project", "CMIP5");
+            record.addField("variable", "tas");
+            record.addField("size", Integer.toString(1000000+i));
+            record.addField("checksum", Integer.toHexString(i*31+17)+"8f5c0d3a7e1b2c4d6e8f0a1b2c3d4e5f");
+            record.addField(QueryParameters.FIELD_URL, "http://esgf-node.llnl.gov/thredds/fileServer/cmip5/tas_"+i+".nc|application/netcdf|HTTPServer");
+            record.addField(QueryParameters.FIELD_URL, "gsiftp://esgf-node.llnl.gov:2811//cmip5/tas_"+i+".nc|application/gridftp|GridFTP");
+            record.addField(QueryParameters.FIELD_TIMESTAMP, "2011-03-23T12:45:00Z");
+            records.add(record);
+        }
+        return records;
+        
+    }
+
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.DatatypeConverter;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.jdom.Element;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import esg.search.core.Record;
+import esg.search.query.api.Facet;
+import esg.search.query.api.QueryParameters;
+import esg.search.query.api.SearchInput;
+import esg.search.query.api.SearchOutput;
+import esg.search.utils.XmlParser;
+
+/**
+ * Test class for {@link SolrJavabinParser}:
+ * verifies that it produces the same output from a javabin response as {@link SolrXmlParser} from the equivalent XML response.
+ */
+public class SolrJavabinParserTest {
+    
+    private final static ClassPathResource XMLFILE = new ClassPathResource("esg/search/query/impl/solr/response.xml");
+    
+    private final static String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                                     + "<response><lst name=\"responseHeader\"><int name=\"QTime\">1</int></lst>"
+                                     + "<result name=\"response\" numFound=\"1\" start=\"0\"><doc>"
+                                     + "<str name=\"id\">  test\n id </str><long name=\"version\">2</long>"
+                                     + "<date name=\"timestamp\">2011-01-31T12:45:00.5Z</date>"
+                                     + "<arr name=\"datetime_start\"><date>2011-01-31T00:00:00Z</date></arr>"
+                                     + "<float name=\"size\">1.5</float><bool name=\"latest\">true</bool>"
+                                     + "<arr name=\"description\"><str>\tdescription   one </str><str/></arr>"
+                                     + "</doc></result></response>";
+    
+    private final SolrXmlParser xmlParser = new SolrXmlParser();
+    private final SolrJavabinParser javabinParser = new SolrJavabinParser(xmlParser);
+    
+    /**
+     * Tests that both parsers return the same results and facets from the same response.
+     */
+    @Test
+    public void testEquivalence() throws Exception {
+        
+        // Solr writes dates without trailing zeros in the fractional seconds
+        final String xml = FileUtils.readFileToString( XMLFILE.getFile() ).replace(".000Z", "Z");
+        
+        // simulate facet constraint in query
+        final SearchInput input = new SearchInputImpl(QueryParameters.DEFAULT_TYPE);
+        input.addConstraint("project", "project A");
+        
+        final SearchOutput expected = xmlParser.parse(xml, input);
+        final SearchOutput actual = javabinParser.parse(new ByteArrayInputStream(toJavabin(xml)), input);
+        Assert.assertTrue(expected.getResults().size()>0);
+        Assert.assertTrue(expected.getFacets().size()>0);
+        assertEquals(expected, actual);
+        
+    }
+    
+    /**
+     * Tests the conversion of typed field values, and the normalization of white space.
+     */
+    @Test
+    public void testFieldValues() throws Exception {
+        
+        final SearchInput input = new SearchInputImpl(QueryParameters.DEFAULT_TYPE);
+        final SearchOutput expected = xmlParser.parse(XML, input);
+        final SearchOutput actual = javabinParser.parse(new ByteArrayInputStream(toJavabin(XML)), input);
+        assertEquals(expected, actual);
+        
+        final Record record = actual.getResults().get(0);
+        Assert.assertEquals("test id", record.getId());
+        Assert.assertEquals(2, record.getVersion());
+        Assert.assertEquals("2011-01-31T12:45:00.5Z", record.getFieldValue("timestamp"));
+        Assert.assertEquals("2011-01-31T00:00:00Z", record.getFieldValue("datetime_start"));
+        Assert.assertEquals("1.5", record.getFieldValue("size"));
+        Assert.assertEquals("true", record.getFieldValue("latest"));
+        Assert.assertEquals("description one", record.getFieldValues("description").get(0));
+        
+    }
+    
+    /**
+     * Method to convert a Solr XML response into the equivalent javabin response, 
+     * as written by the Solr binary response writer.
+     */
+    static byte[] toJavabin(final String xml) throws Exception {
+        
+        final Element root = new XmlParser(false).parseString(xml).getRootElement();
+        final NamedList<Object> response = new SimpleOrderedMap<Object>();
+        for (final Object child : root.getChildren()) {
+            final Element element = (Element)child;
+            response.add(element.getAttributeValue(SolrXmlPars.ATTRIBUTE_NAME), toValue(element));
+        }
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JavaBinCodec().marshal(response, out);
+        return out.toByteArray();
+        
+    }
+    
+    private static Object toValue(final Element element) {
+        
+        final String name = element.getName();
+        if (name.equals(SolrXmlPars.ELEMENT_LST)) {
+            final NamedList<Object> list = new SimpleOrderedMap<Object>();
+            for (final Object child : element.getChildren()) {
+                list.add(((Element)child).getAttributeValue(SolrXmlPars.ATTRIBUTE_NAME), toValue((Element)child));
+            }
+            return list;
+        } else if (name.equals(SolrXmlPars.ELEMENT_RESULT)) {
+            final SolrDocumentList docs = new SolrDocumentList();
+            docs.setNumFound(Long.parseLong(element.getAttributeValue(SolrXmlPars.ATTRIBUTE_NUM_FOUND)));
+            docs.setStart(Long.parseLong(element.getAttributeValue(SolrXmlPars.ATTRIBUTE_START)));
+            for (final Object child : element.getChildren()) {
+                final SolrDocument doc = new SolrDocument();
+                for (final Object field : ((Element)child).getChildren()) {
+                    doc.setField(((Element)field).getAttributeValue(SolrXmlPars.ATTRIBUTE_NAME), toValue((Element)field));
+                }
+                docs.add(doc);
+            }
+            return docs;
+        } else if (name.equals(SolrXmlPars.ELEMENT_ARR)) {
+            final List<Object> values = new ArrayList<Object>();
+            for (final Object child : element.getChildren()) values.add(toValue((Element)child));
+            return values;
+        } else if (name.equals(SolrXmlPars.ELEMENT_INT)) {
+            return Integer.valueOf(element.getTextTrim());
+        } else if (name.equals("long")) {
+            return Long.valueOf(element.getTextTrim());
+        } else if (name.equals("float")) {
+            return Float.valueOf(element.getTextTrim());
+        } else if (name.equals("bool")) {
+            return Boolean.valueOf(element.getTextTrim());
+        } else if (name.equals("date")) {
+            return DatatypeConverter.parseDateTime(element.getTextTrim()).getTime();
+        } else {
+            return element.getText();
+        }
+        
+    }
+    
+    private void assertEquals(final SearchOutput expected, final SearchOutput actual) {
+        
+        Assert.assertEquals(expected.getCounts(), actual.getCounts());
+        Assert.assertEquals(expected.getOffset(), actual.getOffset());
+        
+        Assert.assertEquals(expected.getResults().size(), actual.getResults().size());
+        for (int i=0; i<expected.getResults().size(); i++) {
+            final Record expectedRecord = expected.getResults().get(i);
+            final Record actualRecord = actual.getResults().get(i);
+            Assert.assertEquals(expectedRecord.getId(), actualRecord.getId());
+            Assert.assertEquals(expectedRecord.getVersion(), actualRecord.getVersion());
+            Assert.assertEquals(expectedRecord.getFields(), actualRecord.getFields());
+        }
+        
+        Assert.assertEquals(expected.getFacets().keySet(), actual.getFacets().keySet());
+        for (final Map.Entry<String, Facet> entry : expected.getFacets().entrySet()) {
+            final Facet actualFacet = actual.getFacets().get(entry.getKey());
+            Assert.assertEquals(entry.getValue().getSubFacets().size(), actualFacet.getSubFacets().size());
+            for (int i=0; i<entry.getValue().getSubFacets().size(); i++) {
+                Assert.assertEquals(entry.getValue().getSubFacets().get(i).getKey(), actualFacet.getSubFacets().get(i).getKey());
+                Assert.assertEquals(entry.getValue().getSubFacets().get(i).getCounts(), actualFacet.getSubFacets().get(i).getCounts());
+            }
+        }
+        
+    }
+
+}
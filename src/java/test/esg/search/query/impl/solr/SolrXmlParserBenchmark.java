@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.core.io.ClassPathResource;
+
+import esg.search.query.api.QueryParameters;
+import esg.search.query.api.SearchInput;
+
+/**
+ * Benchmark that compares the JDOM-based {@link SolrXmlParser} with the StAX-based {@link SolrXmlStreamParser}
+ * on Solr responses of increasing size, built by replicating the documents of the response.xml test fixture.
+ * 
+ * Usage: java esg.search.query.impl.solr.SolrXmlParserBenchmark [number of documents] [number of iterations]
+ */
+public class SolrXmlParserBenchmark {
+    
+    private final static ClassPathResource XMLFILE = new ClassPathResource("esg/search/query/impl/solr/response.xml");
+    
+    public static void main(String[] args) throws Exception {
+        
+        final int numberOfDocs = (args.length>0 ? Integer.parseInt(args[0]) : 10000);
+        final int numberOfIterations = (args.length>1 ? Integer.parseInt(args[1]) : 20);
+        
+        final String xml = buildResponse(FileUtils.readFileToString( XMLFILE.getFile() ), numberOfDocs);
+        final byte[] bytes = xml.getBytes("UTF-8");
+        System.out.println("Response size="+bytes.length+" bytes, documents="+numberOfDocs);
+        
+        final SearchInput input = new SearchInputImpl(QueryParameters.DEFAULT_TYPE);
+        final SolrXmlParser[] parsers = new SolrXmlParser[] { new SolrXmlParser(), new SolrXmlStreamParser() };
+        
+        for (final SolrXmlParser parser : parsers) {
+            
+            // warm up
+            for (int i=0; i<numberOfIterations; i++) parser.parse(new ByteArrayInputStream(bytes), input);
+            
+            final long startBytes = getAllocatedBytes();
+            final long startTime = System.nanoTime();
+            for (int i=0; i<numberOfIterations; i++) {
+                parser.parse(new ByteArrayInputStream(bytes), input);
+            }
+            final long elapsedTime = (System.nanoTime() - startTime)/numberOfIterations;
+            final long allocatedBytes = (getAllocatedBytes() - startBytes)/numberOfIterations;
+            
+            System.out.println(parser.getClass().getSimpleName()+": "
+                              +"time="+(elapsedTime/1000000.0)+" msecs "
+                              +"allocated="+(startBytes<0 ? "n/a" : (allocatedBytes/1024)+" KB")+" per parse");
+            
+        }
+        
+    }
+    
+    /**
+     * Method to build a Solr response with the given number of documents, 
+     * replicating the documents contained in the template response.
+     */
+    static String buildResponse(final String template, final int numberOfDocs) {
+        
+        final int start = template.indexOf("<doc>");
+        final int end = template.lastIndexOf("</doc>") + "</doc>".length();
+        final String[] docs = template.substring(start, end).split("(?<=</doc>)");
+        
+        final StringBuilder sb = new StringBuilder(template.substring(0, start));
+        for (int i=0; i<numberOfDocs; i++) {
+            sb.append( docs[i % docs.length].replace("id #", "id #"+i+"-") );
+        }
+        sb.append(template.substring(end));
+        return sb.toString();
+        
+    }
+    
+    /**
+     * Method to return the number of bytes allocated by the current thread, if supported by the JVM.
+     */
+    private static long getAllocatedBytes() {
+        
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        } else {
+            return -1;
+        }
+        
+    }
+
+}
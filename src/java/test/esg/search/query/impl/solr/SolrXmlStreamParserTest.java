@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.impl.solr;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import esg.search.core.Record;
+import esg.search.query.api.Facet;
+import esg.search.query.api.QueryParameters;
+import esg.search.query.api.SearchInput;
+import esg.search.query.api.SearchOutput;
+
+/**
+ * Test class for {@link SolrXmlStreamParser}:
+ * verifies that it produces the same output as the JDOM-based {@link SolrXmlParser}.
+ */
+public class SolrXmlStreamParserTest {
+    
+    private final static ClassPathResource XMLFILE = new ClassPathResource("esg/search/query/impl/solr/response.xml");
+    
+    private final static String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                                     + "<response><lst name=\"responseHeader\"><int name=\"QTime\">1</int></lst>"
+                                     + "<result name=\"response\" numFound=\"1\" start=\"0\"><doc>"
+                                     + "<str name=\"id\">  test\n id </str><long name=\"version\">2</long>"
+                                     + "<str name=\"title\"><![CDATA[a <b>]]> &amp; c</str>"
+                                     + "<arr name=\"description\"><str>\tdescription   one </str><str/></arr>"
+                                     + "</doc></result></response>";
+    
+    private final SolrXmlParser jdomParser = new SolrXmlParser();
+    private final SolrXmlParser staxParser = new SolrXmlStreamParser();
+    
+    /**
+     * Tests that both parsers return the same results and facets from the same XML document.
+     */
+    @Test
+    public void testEquivalence() throws Exception {
+        
+        final String xml = FileUtils.readFileToString( XMLFILE.getFile() );
+        
+        // simulate facet constraint in query
+        final SearchInput input = new SearchInputImpl(QueryParameters.DEFAULT_TYPE);
+        input.addConstraint("project", "project A");
+        
+        final SearchOutput expected = jdomParser.parse(xml, input);
+        final SearchOutput actual = staxParser.parse(xml, input);
+        assertEquals(expected, actual);
+        
+        // parse from stream
+        final SearchOutput actual2 = staxParser.parse(new ByteArrayInputStream(xml.getBytes("UTF-8")), input);
+        assertEquals(expected, actual2);
+        
+    }
+    
+    /**
+     * Tests normalization of white space, entities and CDATA sections in field values.
+     */
+    @Test
+    public void testFieldValues() throws Exception {
+        
+        final SearchInput input = new SearchInputImpl(QueryParameters.DEFAULT_TYPE);
+        final SearchOutput expected = jdomParser.parse(XML, input);
+        final SearchOutput actual = staxParser.parse(XML, input);
+        assertEquals(expected, actual);
+        
+        final Record record = actual.getResults().get(0);
+        Assert.assertEquals("test id", record.getId());
+        Assert.assertEquals(2, record.getVersion());
+        Assert.assertEquals("a <b> & c", record.getFieldValue("title"));
+        Assert.assertEquals("description one", record.getFieldValues("description").get(0));
+        
+    }
+    
+    private void assertEquals(final SearchOutput expected, final SearchOutput actual) {
+        
+        Assert.assertEquals(expected.getCounts(), actual.getCounts());
+        Assert.assertEquals(expected.getOffset(), actual.getOffset());
+        
+        Assert.assertEquals(expected.getResults().size(), actual.getResults().size());
+        for (int i=0; i<expected.getResults().size(); i++) {
+            final Record expectedRecord = expected.getResults().get(i);
+            final Record actualRecord = actual.getResults().get(i);
+            Assert.assertEquals(expectedRecord.getId(), actualRecord.getId());
+            Assert.assertEquals(expectedRecord.getVersion(), actualRecord.getVersion());
+            Assert.assertEquals(expectedRecord.getFields(), actualRecord.getFields());
+        }
+        
+        Assert.assertEquals(expected.getFacets().keySet(), actual.getFacets().keySet());
+        for (final Map.Entry<String, Facet> entry : expected.getFacets().entrySet()) {
+            final Facet actualFacet = actual.getFacets().get(entry.getKey());
+            Assert.assertEquals(entry.getValue().getSubFacets().size(), actualFacet.getSubFacets().size());
+            for (int i=0; i<entry.getValue().getSubFacets().size(); i++) {
+                Assert.assertEquals(entry.getValue().getSubFacets().get(i).getKey(), actualFacet.getSubFacets().get(i).getKey());
+                Assert.assertEquals(entry.getValue().getSubFacets().get(i).getCounts(), actualFacet.getSubFacets().get(i).getCounts());
+            }
+        }
+        
+    }
+
+}
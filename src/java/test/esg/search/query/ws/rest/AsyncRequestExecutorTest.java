@@ -0,0 +1,211 @@
+package esg.search.query.ws.rest;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test class for {@link AsyncRequestExecutor}.
+ * The servlet objects are simulated with dynamic proxies.
+ */
+public class AsyncRequestExecutorTest {
+    
+    private final CountDownLatch release = new CountDownLatch(1);
+    
+    private AsyncRequestExecutor executor;
+    
+    @After
+    public void teardown() {
+        release.countDown();
+        executor.shutdown();
+    }
+    
+    /**
+     * Tests that a saturated lane rejects its requests, without affecting the other lanes.
+     */
+    @Test
+    public void testLanes() throws Exception {
+        
+        executor = new AsyncRequestExecutor(2, 2, 0, "File:1:1");
+        executor.setRetryAfter(5);
+        final CountDownLatch completed = new CountDownLatch(1);
+        
+        // one File request executing, one waiting
+        executor.execute("File", newRequest(true, null), newResponse(new HashMap<String, Object>()), blockingHandler());
+        executor.execute("File", newRequest(true, null), newResponse(new HashMap<String, Object>()), blockingHandler());
+        
+        // the File lane is full
+        final Map<String, Object> rejected = new HashMap<String, Object>();
+        executor.execute("File", newRequest(true, null), newResponse(rejected), blockingHandler());
+        Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, rejected.get("sendError"));
+        Assert.assertEquals("5", rejected.get("Retry-After"));
+        Assert.assertEquals(1, executor.getNumberOfRejectedRequests());
+        
+        // Dataset requests are still processed
+        final Map<String, Object> accepted = new HashMap<String, Object>();
+        final CountDownLatch handled = new CountDownLatch(1);
+        executor.execute("Dataset", newRequest(true, completed), newResponse(accepted), new AsyncRequestExecutor.Handler() {
+            public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+                handled.countDown();
+            }
+        });
+        Assert.assertTrue(handled.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(accepted.get("sendError"));
+        Assert.assertEquals(3, executor.getNumberOfAsyncRequests());
+        
+    }
+    
+    /**
+     * Tests that the lane limits apply to requests processed on the container thread.
+     */
+    @Test
+    public void testSynchronous() throws Exception {
+        
+        executor = new AsyncRequestExecutor(2, 2, 0, "File:1:0");
+        
+        // asynchronous processing not supported: request is processed on this thread
+        final Thread caller = Thread.currentThread();
+        final boolean[] sameThread = new boolean[1];
+        executor.execute("Dataset", newRequest(false, null), newResponse(new HashMap<String, Object>()), new AsyncRequestExecutor.Handler() {
+            public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+                sameThread[0] = (Thread.currentThread()==caller);
+            }
+        });
+        Assert.assertTrue(sameThread[0]);
+        Assert.assertEquals(1, executor.getNumberOfSyncRequests());
+        
+        // File request blocked on another container thread
+        final Thread blocked = new Thread() {
+            public void run() {
+                try {
+                    executor.execute("File", newRequest(false, null), newResponse(new HashMap<String, Object>()), blockingHandler());
+                } catch(Exception e) {}
+            }
+        };
+        blocked.start();
+        while (executor.getActiveRequests()==0) Thread.sleep(10);
+        
+        // no queue: second File request is rejected
+        final Map<String, Object> rejected = new HashMap<String, Object>();
+        executor.execute("File", newRequest(false, null), newResponse(rejected), blockingHandler());
+        Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, rejected.get("sendError"));
+        
+        release.countDown();
+        blocked.join(5000);
+        Assert.assertEquals(0, executor.getActiveRequests());
+        
+    }
+    
+    /**
+     * Tests that a request that times out while waiting in the lane is completed with an error, 
+     * and releases its slot in the lane.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        
+        executor = new AsyncRequestExecutor(1, 1, 1000);
+        
+        // one request executing, one waiting
+        executor.execute("Dataset", newRequest(true, null), newResponse(new HashMap<String, Object>()), blockingHandler());
+        final CountDownLatch completed = new CountDownLatch(1);
+        final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+        final Map<String, Object> timedOut = new HashMap<String, Object>();
+        final boolean[] handled = new boolean[1];
+        executor.execute("Dataset", newRequest(true, completed, listeners), newResponse(timedOut), new AsyncRequestExecutor.Handler() {
+            public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+                handled[0] = true;
+            }
+        });
+        Assert.assertEquals(1, executor.getQueueDepth());
+        Assert.assertEquals(1, listeners.size());
+        
+        // the container notifies the timeout
+        listeners.get(0).onTimeout(new AsyncEvent(null));
+        Assert.assertTrue(completed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, timedOut.get("sendError"));
+        Assert.assertEquals(0, executor.getQueueDepth());
+        Assert.assertEquals(1, executor.getNumberOfTimedOutRequests());
+        
+        // the lane accepts a new request, the timed out one is never processed
+        final Map<String, Object> accepted = new HashMap<String, Object>();
+        executor.execute("Dataset", newRequest(true, null), newResponse(accepted), blockingHandler());
+        Assert.assertNull(accepted.get("sendError"));
+        release.countDown();
+        Thread.sleep(100);
+        Assert.assertFalse(handled[0]);
+        
+    }
+    
+    private AsyncRequestExecutor.Handler blockingHandler() {
+        return new AsyncRequestExecutor.Handler() {
+            public void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+                release.await();
+            }
+        };
+    }
+    
+    private static HttpServletRequest newRequest(final boolean asyncSupported, final CountDownLatch completed) {
+        return newRequest(asyncSupported, completed, new ArrayList<AsyncListener>());
+    }
+    
+    /**
+     * @param listeners : records the listeners added to the asynchronous context
+     */
+    private static HttpServletRequest newRequest(final boolean asyncSupported, final CountDownLatch completed, final List<AsyncListener> listeners) {
+        
+        final AsyncContext asyncContext = (AsyncContext)Proxy.newProxyInstance(AsyncContext.class.getClassLoader(), 
+                new Class<?>[] { AsyncContext.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("complete") && completed!=null) completed.countDown();
+                if (method.getName().equals("addListener")) listeners.add((AsyncListener)args[0]);
+                return null;
+            }
+        });
+        
+        return (HttpServletRequest)Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), 
+                new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("isAsyncSupported")) return asyncSupported;
+                if (method.getName().equals("startAsync")) return asyncContext;
+                return null;
+            }
+        });
+        
+    }
+    
+    /**
+     * @param state : records the error status and the headers sent in the response
+     */
+    private static HttpServletResponse newResponse(final Map<String, Object> state) {
+        
+        return (HttpServletResponse)Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(), 
+                new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("isCommitted")) return Boolean.FALSE;
+                if (method.getName().equals("sendError")) state.put("sendError", args[0]);
+                if (method.getName().equals("setHeader")) state.put((String)args[0], args[1]);
+                return null;
+            }
+        });
+        
+    }
+
+}
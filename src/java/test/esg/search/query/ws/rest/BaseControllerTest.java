@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.query.ws.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Test;
+
+import esg.search.metrics.LatencyHistogram;
+import esg.search.metrics.SearchMetrics;
+import esg.search.query.api.FacetProfile;
+import esg.search.query.api.QueryParameters;
+import esg.search.query.api.SearchReturnType;
+import esg.search.query.api.SearchService;
+
+/**
+ * Test class for the streaming of search results by {@link BaseController}.
+ */
+public class BaseControllerTest {
+    
+    private final static String RESPONSE = "<response>r\u00e9sultat</response>";
+    
+    @After
+    public void teardown() {
+        SearchMetrics.getInstance().reset();
+    }
+    
+    /**
+     * Tests that the search response is written to the HTTP response as produced by the search service,
+     * with the requested content type, and that the writing time is recorded.
+     */
+    @Test
+    public void testStream() throws Exception {
+        
+        SearchMetrics.getInstance().reset();
+        final Map<String, Object> state = new HashMap<String, Object>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final BaseController controller = new BaseController(newSearchService(), newFacetProfile());
+        
+        controller.stream(newRequest(), new SearchCommand(), newResponse(state, body), "text/xml");
+        
+        Assert.assertEquals(RESPONSE, body.toString("UTF-8"));
+        Assert.assertEquals("text/xml", state.get("setContentType"));
+        Assert.assertEquals("UTF-8", state.get("setCharacterEncoding"));
+        Assert.assertNull(state.get("sendError"));
+        
+        long count = 0;
+        for (final Map.Entry<SearchMetrics.Key, LatencyHistogram> entry : SearchMetrics.getInstance().getHistograms().entrySet()) {
+            if (entry.getKey().getPhase()==SearchMetrics.Phase.WRITING) count += entry.getValue().getCount();
+        }
+        Assert.assertEquals(1, count);
+        
+    }
+    
+    /**
+     * Tests that nothing is streamed if the request is invalid.
+     */
+    @Test
+    public void testInvalidRequest() throws Exception {
+        
+        final Map<String, Object> state = new HashMap<String, Object>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final BaseController controller = new BaseController(newSearchService(), newFacetProfile());
+        final SearchCommand command = new SearchCommand();
+        command.setLimit(QueryParameters.MAX_LIMIT+1);
+        
+        controller.stream(newRequest(), command, newResponse(state, body), "text/xml");
+        
+        Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST, state.get("sendError"));
+        Assert.assertEquals(0, body.size());
+        
+    }
+    
+    /**
+     * @return a search service that writes a fixed response, in two parts
+     */
+    private static SearchService newSearchService() {
+        
+        return (SearchService)Proxy.newProxyInstance(SearchService.class.getClassLoader(), 
+                new Class<?>[] { SearchService.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+                if (method.getName().equals("query") && args.length==3) {
+                    Assert.assertEquals(SearchReturnType.SOLR_XML, args[1]);
+                    final OutputStream out = (OutputStream)args[2];
+                    final byte[] bytes = RESPONSE.getBytes("UTF-8");
+                    out.write(bytes, 0, 10);
+                    out.write(bytes, 10, bytes.length-10);
+                    out.flush();
+                }
+                return null;
+            }
+        });
+        
+    }
+    
+    private static FacetProfile newFacetProfile() {
+        
+        return (FacetProfile)Proxy.newProxyInstance(FacetProfile.class.getClassLoader(), 
+                new Class<?>[] { FacetProfile.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getTopLevelFacets")) return new HashMap<String, Object>();
+                return null;
+            }
+        });
+        
+    }
+    
+    private static HttpServletRequest newRequest() {
+        
+        return (HttpServletRequest)Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), 
+                new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getParameterMap")) return new HashMap<String, String[]>();
+                return null;
+            }
+        });
+        
+    }
+    
+    /**
+     * @param state : records the error status, content type and character encoding of the response
+     * @param body : receives the response body
+     */
+    private static HttpServletResponse newResponse(final Map<String, Object> state, final OutputStream body) {
+        
+        final ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                body.write(b, off, len);
+            }
+        };
+        
+        return (HttpServletResponse)Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(), 
+                new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("isCommitted")) return state.containsKey("sendError");
+                if (method.getName().equals("getOutputStream")) return out;
+                if (method.getName().equals("sendError")) state.put("sendError", args[0]);
+                if (method.getName().equals("setContentType")) state.put("setContentType", args[0]);
+                if (method.getName().equals("setCharacterEncoding")) state.put("setCharacterEncoding", args[0]);
+                return null;
+            }
+        });
+        
+    }
+
+}
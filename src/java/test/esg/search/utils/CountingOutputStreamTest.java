@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.utils;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link CountingOutputStream} and {@link ResponseBuffer}.
+ */
+public class CountingOutputStreamTest {
+    
+    /**
+     * Tests that all bytes written to the underlying stream are counted, whatever the write method.
+     */
+    @Test
+    public void testCount() throws Exception {
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CountingOutputStream counter = new CountingOutputStream(out);
+        counter.write('a');
+        counter.write("bcdef".getBytes("UTF-8"));
+        counter.write("xghx".getBytes("UTF-8"), 1, 2);
+        Assert.assertEquals(8, counter.getCount());
+        Assert.assertEquals("abcdefgh", out.toString("UTF-8"));
+        
+        counter.resetCount();
+        Assert.assertEquals(0, counter.getCount());
+        counter.write('i');
+        Assert.assertEquals(1, counter.getCount());
+        Assert.assertEquals("abcdefghi", out.toString("UTF-8"));
+        
+    }
+    
+    /**
+     * Tests that a response buffer is read back as written, and can be reset.
+     */
+    @Test
+    public void testResponseBuffer() throws Exception {
+        
+        final ResponseBuffer buffer = new ResponseBuffer(4);
+        buffer.write("<response/>".getBytes("UTF-8"));
+        final byte[] bytes = new byte[64];
+        Assert.assertEquals(11, buffer.toInputStream().read(bytes));
+        Assert.assertEquals("<response/>", new String(bytes, 0, 11, "UTF-8"));
+        
+        buffer.reset();
+        Assert.assertEquals(-1, buffer.toInputStream().read());
+        
+    }
+
+}
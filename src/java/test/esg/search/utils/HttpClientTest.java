@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.utils;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import junit.framework.Assert;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Test class for the pooled connections of {@link HttpClient} and {@link HttpConnectionPool}.
+ */
+public class HttpClientTest {
+    
+    private HttpServer server;
+    private String baseUrl;
+    
+    @Before
+    public void setup() throws Exception {
+        
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ok", new Handler(200, "ok"));
+        server.createContext("/missing", new Handler(404, "missing"));
+        server.createContext("/error", new Handler(500, "error"));
+        server.createContext("/redirect", new HttpHandler() {
+            public void handle(final HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location", "/ok");
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        baseUrl = "http://localhost:"+server.getAddress().getPort();
+        
+    }
+    
+    @After
+    public void teardown() {
+        server.stop(0);
+    }
+    
+    /**
+     * Tests that consecutive requests to the same host reuse the same connection.
+     */
+    @Test(timeout=10000)
+    public void testConnectionReuse() throws Exception {
+        
+        final HttpClient client = new HttpClient();
+        final HttpConnectionPool pool = HttpConnectionPool.getInstance();
+        final long reused = pool.getNumberOfReusedConnections();
+        
+        Assert.assertEquals("ok", client.doGet(new URL(baseUrl+"/ok")));
+        Assert.assertEquals("ok", client.doGet(new URL(baseUrl+"/ok")));
+        Assert.assertTrue(pool.getNumberOfReusedConnections()>reused);
+        Assert.assertEquals(1, pool.getConnectionsInPool("localhost", server.getAddress().getPort()));
+        
+    }
+    
+    /**
+     * Tests that a request is retried on a new connection when the server has closed the pooled connection
+     * after it passed the stale check.
+     */
+    @Test(timeout=10000)
+    public void testRetryAfterServerClose() throws Exception {
+        
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final AtomicInteger connections = new AtomicInteger(0);
+        final Thread thread = new Thread() {
+            public void run() {
+                try {
+                    // first connection: answers one request, then closes while the second request is sent
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                    readRequest(reader);
+                    writeResponse(socket.getOutputStream(), "first");
+                    readRequest(reader);
+                    socket.close();
+                    // second connection: answers the retried request
+                    socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                    readRequest(reader);
+                    writeResponse(socket.getOutputStream(), "second");
+                    socket.close();
+                } catch(IOException e) {
+                    // test fails on the client side
+                }
+            }
+        };
+        thread.start();
+        
+        try {
+            final HttpClient client = new HttpClient();
+            final String url = "http://localhost:"+serverSocket.getLocalPort()+"/test";
+            Assert.assertEquals("first", client.doGet(new URL(url)));
+            Assert.assertEquals("second", client.doGet(new URL(url)));
+            Assert.assertEquals(2, connections.get());
+        } finally {
+            serverSocket.close();
+            thread.join();
+        }
+        
+    }
+    
+    /**
+     * Tests that waiting too long for a connection from an exhausted pool is reported as an IOException.
+     */
+    @Test(timeout=10000)
+    public void testCheckoutTimeout() throws Exception {
+        
+        final HttpConnectionPool pool = new HttpConnectionPool(1, 1, 60000, 100);
+        try {
+            final HostConfiguration hostConfiguration = new HostConfiguration();
+            hostConfiguration.setHost("localhost", server.getAddress().getPort(), "http");
+            final HttpConnection connection = pool.getConnection(hostConfiguration, 0);
+            try {
+                pool.getConnection(hostConfiguration, 0);
+                Assert.fail("Pool checkout should have timed out");
+            } catch(IOException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Timeout waiting for HTTP connection"));
+            }
+            // the connection is available again once released
+            connection.releaseConnection();
+            pool.getConnection(hostConfiguration, 0).releaseConnection();
+        } finally {
+            pool.shutdown();
+        }
+        
+    }
+    
+    /**
+     * Tests the handling of redirects and of error status codes.
+     */
+    @Test(timeout=10000)
+    public void testStatus() throws Exception {
+        
+        final HttpClient client = new HttpClient();
+        Assert.assertEquals("ok", client.doGet(new URL(baseUrl+"/redirect")));
+        
+        try {
+            client.doGet(new URL(baseUrl+"/missing"));
+            Assert.fail("404 should be reported as FileNotFoundException");
+        } catch(FileNotFoundException e) {}
+        
+        try {
+            client.doGet(new URL(baseUrl+"/error"));
+            Assert.fail("500 should be reported as IOException");
+        } catch(IOException e) {
+            Assert.assertFalse(e instanceof FileNotFoundException);
+            Assert.assertTrue(e.getMessage().contains("500"));
+        }
+        
+        // error responses do not leak connections
+        Assert.assertEquals(1, HttpConnectionPool.getInstance().getConnectionsInPool("localhost", server.getAddress().getPort()));
+        
+    }
+    
+    /**
+     * Tests that HTTPS connections are created by the JVM default SSL socket factory, as for HttpsURLConnection.
+     */
+    @Test(timeout=10000)
+    public void testDefaultSSLSocketFactory() throws Exception {
+        
+        final SSLSocketFactory defaultFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        final AtomicInteger sockets = new AtomicInteger(0);
+        HttpsURLConnection.setDefaultSSLSocketFactory(new SSLSocketFactory() {
+            public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+                sockets.incrementAndGet();
+                return defaultFactory.createSocket(s, host, port, autoClose);
+            }
+            public Socket createSocket(String host, int port) throws IOException {
+                sockets.incrementAndGet();
+                return defaultFactory.createSocket(host, port);
+            }
+            public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+                sockets.incrementAndGet();
+                return defaultFactory.createSocket(host, port, localHost, localPort);
+            }
+            public Socket createSocket(InetAddress host, int port) throws IOException {
+                sockets.incrementAndGet();
+                return defaultFactory.createSocket(host, port);
+            }
+            public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+                sockets.incrementAndGet();
+                return defaultFactory.createSocket(address, port, localAddress, localPort);
+            }
+            public String[] getDefaultCipherSuites() {
+                return defaultFactory.getDefaultCipherSuites();
+            }
+            public String[] getSupportedCipherSuites() {
+                return defaultFactory.getSupportedCipherSuites();
+            }
+        });
+        
+        try {
+            // the handshake fails against the plain HTTP server, after the socket has been created
+            final HttpClient client = new HttpClient();
+            client.setReadTimeout(1000);
+            client.doGet(new URL("https://localhost:"+server.getAddress().getPort()+"/ok"));
+            Assert.fail("SSL handshake should have failed");
+        } catch(IOException e) {
+            Assert.assertEquals(1, sockets.get());
+        } finally {
+            HttpsURLConnection.setDefaultSSLSocketFactory(defaultFactory);
+        }
+        
+    }
+    
+    private static void readRequest(final BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        while (line!=null && line.length()>0) line = reader.readLine();
+    }
+    
+    private static void writeResponse(final OutputStream out, final String body) throws IOException {
+        final byte[] bytes = body.getBytes("UTF-8");
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: "+bytes.length+"\r\n\r\n").getBytes("UTF-8"));
+        out.write(bytes);
+        out.flush();
+    }
+    
+    /**
+     * Handler returning a fixed status code and body.
+     */
+    private static class Handler implements HttpHandler {
+        
+        private final int status;
+        private final byte[] body;
+        
+        Handler(final int status, final String body) throws IOException {
+            this.status = status;
+            this.body = body.getBytes("UTF-8");
+        }
+        
+        public void handle(final HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(status, body.length);
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+        
+    }
+
+}
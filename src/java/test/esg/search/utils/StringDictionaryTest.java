@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.utils;
+
+import junit.framework.Assert;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test class for {@link StringDictionary}.
+ */
+public class StringDictionaryTest {
+    
+    private final StringDictionary dictionary = StringDictionary.getInstance();
+    
+    @Before
+    public void setUp() {
+        dictionary.reset();
+        dictionary.setMaxSize(4); // two generations of 2 values
+    }
+    
+    @After
+    public void tearDown() {
+        dictionary.setMaxSize(100000);
+        dictionary.reset();
+    }
+    
+    /**
+     * Tests that equal values are shared, except for excluded fields and long values.
+     */
+    @Test
+    public void testIntern() {
+        
+        final String cmip5 = dictionary.intern("project", new String("CMIP5"));
+        Assert.assertSame(cmip5, dictionary.intern("project", new String("CMIP5")));
+        Assert.assertSame(cmip5, dictionary.intern(new String("CMIP5")));
+        Assert.assertEquals(2, dictionary.getHits());
+        Assert.assertEquals(1, dictionary.getMisses());
+        Assert.assertEquals(2.0/3, dictionary.getHitRate(), 1e-9);
+        
+        // excluded fields and long values are not stored
+        final String id = new String("cmip5.output1.INM.inmcm4");
+        Assert.assertSame(id, dictionary.intern("id", id));
+        final StringBuilder sb = new StringBuilder();
+        for (int i=0; i<dictionary.getMaxLength()+1; i++) sb.append('x');
+        final String description = sb.toString();
+        Assert.assertSame(description, dictionary.intern("description", description));
+        Assert.assertEquals(1, dictionary.getSize());
+        
+    }
+    
+    /**
+     * Tests that the dictionary is bounded, and that only the values not used during a whole generation are evicted.
+     */
+    @Test
+    public void testEviction() {
+        
+        final String cmip5 = dictionary.intern("project", new String("CMIP5"));
+        final String inmcm4 = dictionary.intern("model", new String("inmcm4"));
+        Assert.assertEquals(1, dictionary.getEvictions()); // first generation full
+        Assert.assertEquals(2, dictionary.getSize());
+        
+        // the value in use is kept in the new generation
+        Assert.assertSame(cmip5, dictionary.intern("project", new String("CMIP5")));
+        dictionary.intern("experiment", new String("rcp45"));
+        Assert.assertEquals(2, dictionary.getEvictions());
+        Assert.assertSame(cmip5, dictionary.intern("project", new String("CMIP5")));
+        
+        // the value not used during the last generation is evicted
+        Assert.assertNotSame(inmcm4, dictionary.intern("model", new String("inmcm4")));
+        Assert.assertTrue(dictionary.getSize()<=4);
+        
+    }
+    
+    /**
+     * Tests that the two instances are exported to JMX under different names.
+     */
+    @Test
+    public void testObjectNames() throws Exception {
+        Assert.assertFalse(dictionary.getObjectName().equals(StringDictionary.getQueryInstance().getObjectName()));
+    }
+    
+    /**
+     * Tests that the values of the search results are not stored in the dictionary of the publishing parsers.
+     */
+    @Test
+    public void testQueryInstance() {
+        
+        final StringDictionary queryDictionary = StringDictionary.getQueryInstance();
+        Assert.assertNotSame(dictionary, queryDictionary);
+        Assert.assertEquals(StringDictionary.DEFAULT_QUERY_MAX_SIZE, queryDictionary.getMaxSize());
+        
+        final String cmip5 = queryDictionary.intern("project", new String("CMIP5"));
+        Assert.assertSame(cmip5, queryDictionary.intern("project", new String("CMIP5")));
+        Assert.assertEquals(0, dictionary.getSize());
+        Assert.assertEquals(0, dictionary.getHits());
+        queryDictionary.reset();
+        
+    }
+
+}
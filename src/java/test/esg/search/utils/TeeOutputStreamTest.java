@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Earth System Grid Federation
+ * ALL RIGHTS RESERVED. 
+ * U.S. Government sponsorship acknowledged.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * 
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * 
+ * Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. 
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES 
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;  LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package esg.search.utils;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test class for {@link TeeOutputStream}.
+ */
+public class TeeOutputStreamTest {
+    
+    /**
+     * Tests that the copy is kept up to the maximum size, and that a lower limit can be checked separately.
+     */
+    @Test
+    public void testLimits() throws Exception {
+        
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long[] exceeded = new long[] { -1 };
+        final TeeOutputStream tee = new TeeOutputStream(out, 10) {
+            @Override
+            protected void written(long count) {
+                if (count>4 && exceeded[0]<0) exceeded[0] = count;
+            }
+        };
+        
+        tee.write(new byte[] { 1, 2, 3 }, 0, 3);
+        Assert.assertEquals(3, tee.getBytes(4).length);
+        Assert.assertEquals(-1, exceeded[0]);
+        
+        // the lower limit is exceeded, the copy is still available up to the maximum size
+        tee.write(new byte[] { 4, 5, 6 }, 0, 3);
+        Assert.assertEquals(6, exceeded[0]);
+        Assert.assertNull(tee.getBytes(4));
+        Assert.assertEquals(6, tee.getBytes(10).length);
+        Assert.assertEquals(6, tee.getBytes().length);
+        
+        // the maximum size is exceeded: the copy is discarded, the underlying stream still receives all bytes
+        tee.write(new byte[] { 7, 8, 9, 10, 11 }, 0, 5);
+        Assert.assertNull(tee.getBytes());
+        Assert.assertNull(tee.getBytes(100));
+        Assert.assertEquals(11, out.size());
+        
+    }
+
+}